@@ -459,6 +459,14 @@ public interface HippoNodeType {
 
     public static final String HIPPOSYS_BATCHSIZE = "hipposys:batchsize";
 
+    public static final String HIPPOSYS_THREADS = "hipposys:threads";
+
+    public static final String HIPPOSYS_CHECKPOINTS = "hipposys:checkpoints";
+
+    public static final String HIPPOSYS_SAVELATENCY = "hipposys:savelatency";
+
+    public static final String HIPPOSYS_MAXLOAD = "hipposys:maxload";
+
     public static final String HIPPOSYS_DRYRUN = "hipposys:dryrun";
 
     public static final String HIPPOSYS_CANCELLED = "hipposys:cancelled";
@@ -477,6 +485,12 @@ public interface HippoNodeType {
 
     public static final String HIPPOSYS_SKIPPED = "hipposys:skipped";
 
+    public static final String HIPPOSYS_UPDATEDDELTA = "hipposys:updateddelta";
+
+    public static final String HIPPOSYS_FAILEDDELTA = "hipposys:faileddelta";
+
+    public static final String HIPPOSYS_SKIPPEDDELTA = "hipposys:skippeddelta";
+
     public static final String HIPPOSYS_UPDATEDCOUNT = "hipposys:updatedcount";
 
     public static final String HIPPOSYS_FAILEDCOUNT = "hipposys:failedcount";
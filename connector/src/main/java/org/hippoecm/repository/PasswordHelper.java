@@ -1,5 +1,5 @@
 /*
- *  Copyright 2008-2013 Hippo B.V. (http://www.onehippo.com)
+ *  Copyright 2008-2017 Hippo B.V. (http://www.onehippo.com)
  * 
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -22,6 +22,8 @@ import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.StringTokenizer;
 
 import org.apache.jackrabbit.util.Base64;
@@ -48,6 +50,9 @@ import org.apache.jackrabbit.util.Base64;
  *   <li>
  * </ul>
  * </p>
+ * <p>
+ * Hashing is thread safe and does not lock: every thread digests with its own {@link MessageDigest} instances.
+ * </p>
  */
 public class PasswordHelper {
 
@@ -78,6 +83,11 @@ public class PasswordHelper {
      */
     private static String hashingAlgorithm = "SHA-256";
 
+    /**
+     * Message digests are not thread safe and expensive to look up: keep one per algorithm per thread
+     */
+    private static final ThreadLocal<Map<String, MessageDigest>> threadDigests = ThreadLocal.withInitial(HashMap::new);
+
     /**
      * Prevent instances of this class
      */
@@ -141,7 +151,7 @@ public class PasswordHelper {
             return new String(plainText);
         }
 
-        MessageDigest md = MessageDigest.getInstance(algorithm);
+        MessageDigest md = getMessageDigest(algorithm);
         md.reset();
 
         // salting
@@ -159,6 +169,16 @@ public class PasswordHelper {
         return byteToBase64(digest);
     }
 
+    private static MessageDigest getMessageDigest(final String algorithm) throws NoSuchAlgorithmException {
+        final Map<String, MessageDigest> digests = threadDigests.get();
+        MessageDigest md = digests.get(algorithm);
+        if (md == null) {
+            md = MessageDigest.getInstance(algorithm);
+            digests.put(algorithm, md);
+        }
+        return md;
+    }
+
     /**
      * Get the password hash. The hash is either in the form of:
      * <ul>
@@ -202,7 +222,7 @@ public class PasswordHelper {
      * @throws NoSuchAlgorithmException
      * @throws UnsupportedEncodingException
      */
-    synchronized public static boolean checkHash(char[] password, String hash) throws NoSuchAlgorithmException,
+    public static boolean checkHash(char[] password, String hash) throws NoSuchAlgorithmException,
             UnsupportedEncodingException {
 
         // no hash or empty hash doesn't match anything
@@ -234,7 +254,8 @@ public class PasswordHelper {
             String salt = st.nextToken();
             try {
                 String newHash = buildHashString(algorithm, password, base64ToByte(salt));
-                return hash.equals(newHash);
+                // compare in constant time
+                return MessageDigest.isEqual(hash.getBytes(FIXED_ENCODING), newHash.getBytes(FIXED_ENCODING));
             } catch (IOException e) {
                 return false;
             }
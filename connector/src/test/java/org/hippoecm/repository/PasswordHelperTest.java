@@ -20,7 +20,13 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Unit test the org.hippoecm.repository.PasswordHelper main methods
@@ -45,4 +51,35 @@ public class PasswordHelperTest {
         String passwordHash = PasswordHelper.getHash(password.toCharArray());
         Assert.assertTrue("hash is not matched",PasswordHelper.checkHash(password.toCharArray(), passwordHash));
     }
+
+    @Test
+    public void testConcurrentCheckHash() throws Exception {
+        final int threads = 8;
+        final List<String> passwords = new ArrayList<>();
+        final List<String> hashes = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            passwords.add("Password" + i);
+            hashes.add(PasswordHelper.getHash(passwords.get(i).toCharArray()));
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < threads * 10; i++) {
+                final int index = i % threads;
+                final boolean match = i % 2 == 0;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        final String hash = hashes.get(match ? index : (index + 1) % threads);
+                        return PasswordHelper.checkHash(passwords.get(index).toCharArray(), hash) == match;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue("concurrent hash check gave wrong result", result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
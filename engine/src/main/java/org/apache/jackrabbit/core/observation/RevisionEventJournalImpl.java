@@ -17,15 +17,16 @@
 package org.apache.jackrabbit.core.observation;
 
 import java.text.DateFormat;
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedList;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
@@ -55,6 +56,10 @@ import org.slf4j.LoggerFactory;
  * Copied from Jackrabbit {@link org.apache.jackrabbit.core.observation.EventJournalImpl},
  * with the addition of {@link #skipToRevision(long)} method to allow skipping by
  * event revision instead of timestamp.
+ * <p>
+ * The skip map of a journal is shared by all its event journals and can be read and updated concurrently without
+ * locking. Skipping to a revision that is still in the buffer of this event journal does not read the journal again.
+ * </p>
  */
 public class RevisionEventJournalImpl implements RevisionEventJournal {
     /**
@@ -68,18 +73,29 @@ public class RevisionEventJournalImpl implements RevisionEventJournal {
     private static final int MIN_BUFFER_SIZE = 1024;
 
     /**
-     * Map of skip maps. Key=Journal, Value=SortedMap
+     * Map of skip maps. Key=Journal, Value=ConcurrentNavigableMap
      * </p>
      * Each sorted map has the following structure:
      * Key=Long (timestamp), Value=Long (revision)
      */
-    private static final Map<Journal, SortedMap<Long, Long>> REVISION_SKIP_MAPS = new WeakHashMap<Journal, SortedMap<Long, Long>>();
+    private static final Map<Journal, ConcurrentNavigableMap<Long, Long>> REVISION_SKIP_MAPS = new WeakHashMap<Journal, ConcurrentNavigableMap<Long, Long>>();
 
     /**
      * Last revision seen by this event journal.
      */
     private Long lastRevision;
 
+    /**
+     * Revision after which the {@link #eventBundleBuffer} contains all bundles up to {@link #lastRevision}, or
+     * <code>null</code> if it starts at the journal beginning.
+     */
+    private Long consumedRevision;
+
+    /**
+     * The skip map of the journal.
+     */
+    private final ConcurrentNavigableMap<Long, Long> skipMap;
+
     /**
      * The event filter.
      */
@@ -103,7 +119,7 @@ public class RevisionEventJournalImpl implements RevisionEventJournal {
     /**
      * Buffer of {@link EventBundle}s.
      */
-    private final List<EventBundle> eventBundleBuffer = new LinkedList<EventBundle>();
+    private final Deque<EventBundle> eventBundleBuffer = new ArrayDeque<EventBundle>();
 
     /**
      * The current position of this iterator.
@@ -125,6 +141,7 @@ public class RevisionEventJournalImpl implements RevisionEventJournal {
         this.journal = journal;
         this.producerId = producerId;
         this.session = session;
+        this.skipMap = getSkipMap(journal);
     }
 
     //------------------------< EventJournal >---------------------------------
@@ -135,21 +152,17 @@ public class RevisionEventJournalImpl implements RevisionEventJournal {
     public void skipTo(long date) {
         long time = System.currentTimeMillis();
 
-        // get skip map for this journal
-        SortedMap<Long, Long> skipMap = getSkipMap();
-        synchronized (skipMap) {
-            SortedMap<Long, Long> head = skipMap.headMap(date);
-            if (!head.isEmpty()) {
-                eventBundleBuffer.clear();
-                lastRevision = head.get(head.lastKey());
-            }
+        // look up the last revision remembered before the date in the skip map for this journal
+        Map.Entry<Long, Long> entry = skipMap.lowerEntry(date);
+        if (entry != null) {
+            clearBuffer(entry.getValue());
         }
 
         try {
             while (hasNext()) {
                 EventBundle bundle = getCurrentBundle();
                 if (bundle.timestamp <= date) {
-                    eventBundleBuffer.remove(0);
+                    removeCurrentBundle();
                 } else {
                     break;
                 }
@@ -162,12 +175,13 @@ public class RevisionEventJournalImpl implements RevisionEventJournal {
 
     @Override
     public void skipToRevision(long revision) {
-        eventBundleBuffer.clear();
-        this.lastRevision = revision;
+        if (!isBuffered(revision)) {
+            clearBuffer(revision);
+        }
         while (hasNext()) {
             EventBundle bundle = getCurrentBundle();
             if (bundle.revision <= revision) {
-                eventBundleBuffer.remove(0);
+                removeCurrentBundle();
             } else {
                 break;
             }
@@ -190,9 +204,10 @@ public class RevisionEventJournalImpl implements RevisionEventJournal {
         assert bundle != null && bundle.events.hasNext();
 
         RevisionEvent next = (RevisionEvent)bundle.events.next();
+        bundle.started = true;
         if (!bundle.events.hasNext()) {
             // done with this bundle -> remove from buffer
-            eventBundleBuffer.remove(0);
+            removeCurrentBundle();
         }
         position++;
         return next;
@@ -295,7 +310,7 @@ public class RevisionEventJournalImpl implements RevisionEventJournal {
                         events, record.getTimestamp(), record.getUserData(), record.getRevision());
                 if (bundle.events.hasNext()) {
                     // only queue bundle if there is an event
-                    eventBundleBuffer.add(bundle);
+                    eventBundleBuffer.addLast(bundle);
                     numEvents += events.size();
                     lastTimestamp = record.getTimestamp();
                 }
@@ -330,21 +345,54 @@ public class RevisionEventJournalImpl implements RevisionEventJournal {
      */
     private EventBundle getCurrentBundle() {
         while (!eventBundleBuffer.isEmpty()) {
-            EventBundle bundle = eventBundleBuffer.get(0);
+            EventBundle bundle = eventBundleBuffer.peekFirst();
             if (bundle.events.hasNext()) {
                 return bundle;
             } else {
-                eventBundleBuffer.remove(0);
+                removeCurrentBundle();
             }
         }
         return null;
     }
 
+    /**
+     * Removes the current bundle from the {@link #eventBundleBuffer}.
+     */
+    private void removeCurrentBundle() {
+        consumedRevision = eventBundleBuffer.removeFirst().revision;
+    }
+
+    /**
+     * Clears the {@link #eventBundleBuffer}, the next refill starts after <code>revision</code>.
+     */
+    private void clearBuffer(long revision) {
+        eventBundleBuffer.clear();
+        lastRevision = revision;
+        consumedRevision = revision;
+    }
+
+    /**
+     * @return whether the {@link #eventBundleBuffer} contains all bundles after <code>revision</code> up to
+     * {@link #lastRevision}, so that skipping to <code>revision</code> does not need to read the journal again.
+     */
+    private boolean isBuffered(long revision) {
+        if (lastRevision == null || revision > lastRevision) {
+            return false;
+        }
+        if (consumedRevision != null && revision < consumedRevision) {
+            return false;
+        }
+        EventBundle bundle = eventBundleBuffer.peekFirst();
+        // events of a partially consumed bundle cannot be read again
+        return bundle == null || !bundle.started || bundle.revision <= revision;
+    }
+
     /**
      * Refills the {@link #eventBundleBuffer}.
      */
     private void refill() {
         assert eventBundleBuffer.isEmpty();
+        consumedRevision = lastRevision;
         try {
             RecordProcessor processor = new RecordProcessor();
             ClusterRecordDeserializer deserializer = new ClusterRecordDeserializer();
@@ -372,17 +420,14 @@ public class RevisionEventJournalImpl implements RevisionEventJournal {
 
                 if (processor.getNumEvents() >= MIN_BUFFER_SIZE) {
                     // remember in skip map
-                    SortedMap<Long, Long> skipMap = getSkipMap();
                     Long timestamp = processor.getLastTimestamp();
-                    synchronized (skipMap) {
-                        if (log.isDebugEnabled()) {
-                            DateFormat df = DateFormat.getDateTimeInstance();
-                            log.debug("remember record in skip map: {} -> {}",
-                                    df.format(new Date(timestamp)),
-                                    lastRevision);
-                        }
-                        skipMap.put(timestamp, lastRevision);
+                    if (log.isDebugEnabled()) {
+                        DateFormat df = DateFormat.getDateTimeInstance();
+                        log.debug("remember record in skip map: {} -> {}",
+                                df.format(new Date(timestamp)),
+                                lastRevision);
                     }
+                    skipMap.put(timestamp, lastRevision);
                 }
             } finally {
                 records.close();
@@ -393,13 +438,13 @@ public class RevisionEventJournalImpl implements RevisionEventJournal {
     }
 
     /**
-     * @return the revision skip map for this journal.
+     * @return the revision skip map for the journal.
      */
-    private SortedMap<Long, Long> getSkipMap() {
+    private static ConcurrentNavigableMap<Long, Long> getSkipMap(Journal journal) {
         synchronized (REVISION_SKIP_MAPS) {
-            SortedMap<Long, Long> map = REVISION_SKIP_MAPS.get(journal);
+            ConcurrentNavigableMap<Long, Long> map = REVISION_SKIP_MAPS.get(journal);
             if (map == null) {
-                map = new TreeMap<Long, Long>();
+                map = new ConcurrentSkipListMap<Long, Long>();
                 REVISION_SKIP_MAPS.put(journal, map);
             }
             return map;
@@ -426,6 +471,11 @@ public class RevisionEventJournalImpl implements RevisionEventJournal {
          */
         final long revision;
 
+        /**
+         * Whether events of this bundle have been read.
+         */
+        boolean started;
+
         /**
          * Creates a new event bundle.
          *
@@ -19,14 +19,22 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.jcr.NamespaceException;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.nodetype.NodeTypeManager;
@@ -42,25 +50,22 @@ import org.apache.jackrabbit.core.query.QueryHandlerContext;
 import org.apache.jackrabbit.core.query.lucene.FieldNames;
 import org.apache.jackrabbit.core.query.lucene.JackrabbitQueryParser;
 import org.apache.jackrabbit.core.query.lucene.LuceneQueryBuilder;
+import org.apache.jackrabbit.core.query.lucene.MultiIndexReader;
 import org.apache.jackrabbit.core.query.lucene.NamespaceMappings;
 import org.apache.jackrabbit.core.query.lucene.Util;
 import org.apache.jackrabbit.core.query.lucene.hits.AbstractHitCollector;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.commons.conversion.DefaultNamePathResolver;
 import org.apache.jackrabbit.spi.commons.conversion.IllegalNameException;
 import org.apache.jackrabbit.spi.commons.conversion.MalformedPathException;
+import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
 import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
 import org.apache.jackrabbit.spi.commons.name.PathBuilder;
 import org.apache.jackrabbit.spi.commons.query.OrderQueryNode;
 import org.apache.jackrabbit.spi.commons.query.QueryRootNode;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.FieldSelector;
-import org.apache.lucene.document.SetBasedFieldSelector;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.index.TermDocs;
-import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.BooleanClause.Occur;
@@ -88,7 +93,9 @@ import org.hippoecm.repository.query.lucene.ServicingFieldNames;
 import org.hippoecm.repository.query.lucene.ServicingNameFormat;
 import org.hippoecm.repository.query.lucene.ServicingSearchIndex;
 import org.hippoecm.repository.query.lucene.util.CachingMultiReaderQueryFilter;
+import org.hippoecm.repository.query.lucene.util.NodeIdResolver;
 import org.hippoecm.repository.query.lucene.util.SetDocIdSetBuilder;
+import org.hippoecm.repository.query.lucene.util.TermOrdinalColumn;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -186,6 +193,17 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
             return queryAndSort;
         }
 
+        /**
+         * @return the key for caching the doc id set of this query : the normalized statement and language, or the
+         * parsed Lucene query for a free text query
+         */
+        Object getCacheKey() {
+            if (statement == null) {
+                return queryAndSort != null ? queryAndSort.query : null;
+            }
+            return language + ":" + statement.trim().replaceAll("\\s+", " ");
+        }
+
         public String toString() {
             return statement;
         }
@@ -194,6 +212,8 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
     class ResultImpl extends FacetedNavigationEngine.Result {
         int length;
         Iterator<NodeId> iter = null;
+        Map<NodeId, NodeId> parentIds = null;
+        Map<NodeId, Name> names = null;
 
         ResultImpl(int length, Set<NodeId> result) {
             this.length = length;
@@ -202,6 +222,22 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
             }
         }
 
+        ResultImpl(int length, Set<NodeId> result, Map<NodeId, NodeId> parentIds, Map<NodeId, Name> names) {
+            this(length, result);
+            this.parentIds = parentIds;
+            this.names = names;
+        }
+
+        @Override
+        public NodeId getParentId(NodeId nodeId) {
+            return parentIds != null ? parentIds.get(nodeId) : null;
+        }
+
+        @Override
+        public Name getName(NodeId nodeId) {
+            return names != null ? names.get(nodeId) : null;
+        }
+
         public int length() {
             return length;
         }
@@ -262,6 +298,9 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
     private Cache<org.apache.lucene.search.Query, Filter> filterCache =
             CacheBuilder.newBuilder().softValues().maximumSize(1000).expireAfterAccess(30, TimeUnit.MINUTES).build();
 
+    // bounded by docIdSetCacheSize, and through soft values by memory : created in doInit after the setters are invoked
+    private Cache<FVCKey, OpenBitSet> jackrabbitQueryDocIdSetCache;
+
     private Cache<FVCKey, Map<String, Count>> facetValueCountCache  =
             CacheBuilder.newBuilder().softValues().maximumSize(1000).expireAfterAccess(30, TimeUnit.MINUTES).build();
 
@@ -303,6 +342,9 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
     private int docIdSetCacheSize = 1000;
     private int facetValueCountMapCacheSize = 1000;
 
+    /**
+     * The facetedEngineCacheMngr property for the maximum number of cached doc id sets of free text and xpath queries
+     */
     public void setDocIdSetCacheSize(int docIdSetCacheSize) {
         this.docIdSetCacheSize = docIdSetCacheSize;
     }
@@ -325,6 +367,24 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
     }
 
 
+    private int facetCountParallelism = 0;
+
+    private ExecutorService facetCountExecutor;
+
+    /**
+     * The number of threads used for counting facet values in parallel, per facet range and index segment. With
+     * <code>0</code> or <code>1</code>, the default, facet values are counted sequentially on the request thread.
+     */
+    public void setFacetCountParallelism(int facetCountParallelism) {
+        this.facetCountParallelism = facetCountParallelism;
+    }
+
+    // although we do not need the getter ourselves, it is mandatory here because otherwise the setter is not called because
+    // of org.apache.commons.collections.BeanMap#keyIterator
+    public int getFacetCountParallelism() {
+        return facetCountParallelism;
+    }
+
     public Result view(String queryName, QueryImpl initialQuery, ContextImpl contextImpl,
                        List<KeyValue<String, String>> facetsQueryList, List<FacetRange> rangeQuery, QueryImpl openQuery,
                        Map<String, Map<String, Count>> resultset, Map<String, String> inheritedFilter, HitsRequested hitsRequested)
@@ -388,43 +448,33 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
             }
 
             if (resultset != null) {
-               // If there are more than one facet in the 'resultset' we return an empty result as this is not allowed
-               if(resultset.size() > 1) {
-                   log.error("The resultset cannot contain multiple facets");
-                   return new ResultImpl(0, null);
-               }
-
-               int cardinality = 0;
-               for (String namespacedFacet : resultset.keySet()) {
-
-                   // Not a search involving scoring, thus compute bitsets for facetFiltersQuery & freeSearchInjectedSort
-                   if (facetFiltersQuery != null) {
-                       if (facetFiltersQuery.isPlainLuceneQuery()) {
-                           matchingDocsSetBuilder.add(filterDocIdSetPlainLuceneQuery(facetFiltersQuery.getQuery(), indexReader, contextImpl));
-                       } else {
-                           matchingDocsSetBuilder.add(filterDocIdSetJackRabbitQuery(facetFiltersQuery.getQuery(), indexReader));
-                       }
-                   }
-
-                   if (openQuery != null) {
-                       QueryAndSort queryAndSort = openQuery.getLuceneQueryAndSort(contextImpl);
-                       // open query is always a jackrabbit query
-                       matchingDocsSetBuilder.add(filterDocIdSetJackRabbitQuery(queryAndSort.query, indexReader));
-                   }
-
-                   OpenBitSet matchingDocs = matchingDocsSetBuilder.toBitSet();
-                   cardinality = (int) matchingDocs.cardinality();
-                    /*
-                     * Nodes not having this facet, still should be counted if they are a hit
-                     * in the query without this facet. Therefor, first get the count query without
-                     * FacetPropExistsQuery.
-                     */
-                    int numHits = 0;
-                    if (hitsRequested.isFixedDrillPath()) {
-                        // only in the case of the fixed drillpath we use the count where the facet does not need to exist
-                        numHits = (int) matchingDocs.cardinality();
+                // Not a search involving scoring, thus compute bitsets for facetFiltersQuery & freeSearchInjectedSort
+                if (facetFiltersQuery != null) {
+                    if (facetFiltersQuery.isPlainLuceneQuery()) {
+                        matchingDocsSetBuilder.add(filterDocIdSetPlainLuceneQuery(facetFiltersQuery.getQuery(), indexReader, contextImpl));
+                    } else {
+                        matchingDocsSetBuilder.add(filterDocIdSetJackRabbitQuery(facetFiltersQuery.getQuery(), "facetfilters:" + initialQuery.facetFilters, indexReader));
                     }
+                }
 
+                if (openQuery != null) {
+                    QueryAndSort queryAndSort = openQuery.getLuceneQueryAndSort(contextImpl);
+                    // open query is always a jackrabbit query
+                    matchingDocsSetBuilder.add(filterDocIdSetJackRabbitQuery(queryAndSort.query, openQuery.getCacheKey(), indexReader));
+                }
+
+                final OpenBitSet hits = matchingDocsSetBuilder.toBitSet();
+                /*
+                 * Nodes not having this facet, still should be counted if they are a hit
+                 * in the query without this facet. Therefor, first get the count query without
+                 * FacetPropExistsQuery.
+                 */
+                final int numHits = (int) hits.cardinality();
+                int cardinality = numHits;
+
+                // the facets of which the values are not cached yet are counted together
+                final List<FacetValueCountRequest> requests = new ArrayList<FacetValueCountRequest>();
+                for (String namespacedFacet : resultset.keySet()) {
                     ParsedFacet parsedFacet;
                     try {
                         parsedFacet = ParsedFacet.getInstance(namespacedFacet);
@@ -439,12 +489,13 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
                     /*
                      * facetPropExists: the node must have the property as facet
                      */
-
-                    matchingDocsSetBuilder.add(filterDocIdSetPlainLuceneQuery(new FacetPropExistsQuery(propertyName).getQuery(), indexReader, contextImpl));
-
-                    matchingDocs = matchingDocsSetBuilder.toBitSet();
-                    cardinality = (int) matchingDocs.cardinality();
-                    // this method populates the facetValueCountMap for the current facet
+                    final SetDocIdSetBuilder facetDocsSetBuilder = new SetDocIdSetBuilder();
+                    facetDocsSetBuilder.add(hits);
+                    facetDocsSetBuilder.add(filterDocIdSetPlainLuceneQuery(new FacetPropExistsQuery(propertyName).getQuery(), indexReader, contextImpl));
+                    final OpenBitSet matchingDocs = facetDocsSetBuilder.toBitSet();
+                    if (resultset.size() == 1) {
+                        cardinality = (int) matchingDocs.cardinality();
+                    }
 
                    // index reader is instance of JackrabbitIndexReader : we need the wrapped multi-index reader as
                    // cache key : since during deletes only, the backing index reader can stay the same, we
@@ -453,24 +504,29 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
                     FVCKey fvcKey = new FVCKey(keyObjects);
 
                     Map<String, Count> facetValueCountMap = facetValueCountCache.getIfPresent(fvcKey);
-                    if(facetValueCountMap == null) { 
-                        facetValueCountMap =  new HashMap<String, Count>();
-                        populateFacetValueCountMap(propertyName, parsedFacet, facetValueCountMap, matchingDocs, indexReader);
-                        facetValueCountCache.put(fvcKey, facetValueCountMap);
-                        log.debug("Caching new facet value count map");
+                    if (facetValueCountMap == null) {
+                        requests.add(new FacetValueCountRequest(fvcKey, propertyName, parsedFacet, matchingDocs,
+                                resultset.get(namespacedFacet)));
                     } else {
                         log.debug("Reusing previously cached facet value count map");
-                    }
-                    
-                    Map<String, Count> resultFacetValueCountMap = resultset.get(namespacedFacet);
-                    resultFacetValueCountMap.putAll(facetValueCountMap);
-                    
-                    // set the numHits value
-                    if (hitsRequested.isFixedDrillPath()) {
-                        return new ResultImpl(numHits, null);
+                        resultset.get(namespacedFacet).putAll(facetValueCountMap);
                     }
                 }
 
+                // this method populates the facetValueCountMap of every requested facet
+                populateFacetValueCountMaps(requests, indexReader);
+                for (FacetValueCountRequest request : requests) {
+                    facetValueCountCache.put(request.cacheKey, request.facetValueCountMap);
+                    request.resultFacetValueCountMap.putAll(request.facetValueCountMap);
+                    log.debug("Caching new facet value count map");
+                }
+
+                // set the numHits value
+                if (hitsRequested.isFixedDrillPath()) {
+                    // only in the case of the fixed drillpath we use the count where the facet does not need to exist
+                    return new ResultImpl(numHits, null);
+                }
+                // with a single facet, the count of the hits having the facet, otherwise the count of all hits
                 return new ResultImpl(cardinality, null);
 
             } else {
@@ -483,7 +539,7 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
                     
                     if (openQuery != null) {
                         QueryAndSort queryAndSort = openQuery.getLuceneQueryAndSort(contextImpl);
-                        matchingDocsSetBuilder.add(filterDocIdSetJackRabbitQuery(queryAndSort.query, indexReader));
+                        matchingDocsSetBuilder.add(filterDocIdSetJackRabbitQuery(queryAndSort.query, openQuery.getCacheKey(), indexReader));
                     }
 
                     int size = (int) matchingDocsSetBuilder.toBitSet().cardinality();
@@ -505,10 +561,6 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
                         freeSearchInjectedSort = queryAndSort.sort;
                     }
 
-                    Set<String> fieldNames = new HashSet<String>();
-                    fieldNames.add(FieldNames.UUID);
-                    FieldSelector fieldSelector = new SetBasedFieldSelector(fieldNames, new HashSet<String>());
-
                     int fetchTotal = hitsRequested.getOffset() + hitsRequested.getLimit();
                     Sort sort = null;
                     if(freeSearchInjectedSort != null) {
@@ -575,7 +627,7 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
                             }
                             if (openQuery != null) {
                                 QueryAndSort queryAndSort = openQuery.getLuceneQueryAndSort(contextImpl);
-                                matchingDocsSetBuilder.add(filterDocIdSetJackRabbitQuery(queryAndSort.query, indexReader));
+                                matchingDocsSetBuilder.add(filterDocIdSetJackRabbitQuery(queryAndSort.query, openQuery.getCacheKey(), indexReader));
                             }
 
                             Filter filterToApply = new DocIdSetFilter(matchingDocsSetBuilder.toBitSet());
@@ -591,15 +643,30 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
 
                     // LinkedHashSet because ordering should be kept!
                     Set<NodeId> nodeIdHits = new LinkedHashSet<NodeId>();
+                    // parents and names from the index, such that the result set does not need the states of the hits
+                    Map<NodeId, NodeId> parentIds = new HashMap<NodeId, NodeId>();
+                    Map<NodeId, Name> names = new HashMap<NodeId, Name>();
+                    NodeIdResolver nodeIdResolver = new NodeIdResolver(indexReader);
+                    NamePathResolver indexNameResolver = new DefaultNamePathResolver(nsMappings);
                     while (position < hits.length) {
-                        Document d = indexReader.document(hits[position].doc, fieldSelector);
-                        Field uuidField = d.getField(FieldNames.UUID);
-                        if (uuidField != null) {
-                            nodeIdHits.add(NodeId.valueOf(uuidField.stringValue()));
+                        int doc = hits[position].doc;
+                        NodeId nodeId = nodeIdResolver.getNodeId(doc);
+                        if (nodeId != null) {
+                            nodeIdHits.add(nodeId);
+                            NodeId parentId = nodeIdResolver.getParentId(doc);
+                            String label = nodeIdResolver.getLabel(doc);
+                            if (parentId != null && label != null) {
+                                try {
+                                    names.put(nodeId, indexNameResolver.getQName(label));
+                                    parentIds.put(nodeId, parentId);
+                                } catch (NamespaceException | IllegalNameException e) {
+                                    log.debug("Cannot resolve indexed name '{}' : {}", label, e.toString());
+                                }
+                            }
                         }
                         position++;
                     }
-                    return new ResultImpl(nodeIdHits.size(), nodeIdHits);
+                    return new ResultImpl(nodeIdHits.size(), nodeIdHits, parentIds, names);
                 }
             }
 
@@ -647,9 +714,33 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
         QueryHandlerContext context = getContext();
         HippoSharedItemStateManager stateMgr = (HippoSharedItemStateManager) context.getItemStateManager();
         stateMgr.repository.setFacetedNavigationEngine(this);
+        jackrabbitQueryDocIdSetCache = CacheBuilder.newBuilder().softValues().maximumSize(docIdSetCacheSize)
+                .expireAfterAccess(30, TimeUnit.MINUTES).build();
+        if (facetCountParallelism > 1) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            // a bounded queue with caller runs : when the pool is saturated, requests count on their own thread
+            facetCountExecutor = new ThreadPoolExecutor(facetCountParallelism, facetCountParallelism,
+                    60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(facetCountParallelism * 4),
+                    runnable -> {
+                        final Thread thread = new Thread(runnable, "facet-count-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            log.info("Counting facet values with {} threads", facetCountParallelism);
+        }
         super.doInit();
     }
 
+    @Override
+    public void close() throws IOException {
+        if (facetCountExecutor != null) {
+            facetCountExecutor.shutdownNow();
+            facetCountExecutor = null;
+        }
+        super.close();
+    }
+
     public Result query(String statement, ContextImpl context) throws InvalidQueryException, RepositoryException {
         QueryRootNode root = org.apache.jackrabbit.spi.commons.query.QueryParser.parse(statement, "xpath",
                 context.session, getQueryNodeFactory());
@@ -666,16 +757,13 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
             ScoreDoc[] hits = tfDocs.scoreDocs;
             int position = 0;
 
-            Set<String> fieldNames = new HashSet<String>();
-            fieldNames.add(FieldNames.UUID);
-            FieldSelector fieldSelector = new SetBasedFieldSelector(fieldNames, new HashSet<String>());
+            NodeIdResolver nodeIdResolver = new NodeIdResolver(indexReader);
 
             // LinkedHashSet because ordering should be kept!
             while (position < hits.length) {
-                Document d = indexReader.document(hits[position].doc, fieldSelector);
-                Field uuidField = d.getField(FieldNames.UUID);
-                if (uuidField != null) {
-                    nodeIdHits.add(NodeId.valueOf(uuidField.stringValue()));
+                NodeId nodeId = nodeIdResolver.getNodeId(hits[position].doc);
+                if (nodeId != null) {
+                    nodeIdHits.add(nodeId);
                 }
                 position++;
             }
@@ -685,63 +773,59 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
         return new ResultImpl(nodeIdHits.size(), nodeIdHits);
     }
 
-    private void populateFacetValueCountMap(String propertyName, ParsedFacet parsedFacet,
-            Map<String, Count> facetValueCountMap, OpenBitSet matchingDocs, IndexReader indexReader) throws IOException {
+    /**
+     * Populates the facet value count maps of all <code>requests</code>. The counting is split into tasks per facet
+     * property, or facet range, and index segment, which are all submitted together and merged per facet afterwards.
+     */
+    private void populateFacetValueCountMaps(final List<FacetValueCountRequest> requests, IndexReader indexReader) throws IOException {
+        if (requests.isEmpty()) {
+            return;
+        }
 
         long start = 0;
         if(log.isDebugEnabled()) {
             start = System.currentTimeMillis();
         }
-        
-        if (matchingDocs.cardinality() == 0) {
-            return;
+
+        final IndexReader[] segmentReaders = getSegmentReaders(indexReader);
+        final int[] docBases = new int[segmentReaders.length];
+        for (int i = 1; i < segmentReaders.length; i++) {
+            docBases[i] = docBases[i - 1] + segmentReaders[i - 1].maxDoc();
         }
 
-        if (parsedFacet.getFacetRanges() != null) {
-            TermDocs termDocs = indexReader.termDocs();
-            try {
-                for (FacetRange facetRange : parsedFacet.getFacetRanges()) {
-                    long t1 = 0;
-                    if(log.isDebugEnabled()) {
-                        t1 = System.currentTimeMillis();
-                    }
+        final List<FacetCountTask> tasks = new ArrayList<FacetCountTask>();
+        for (FacetValueCountRequest request : requests) {
+            final OpenBitSet matchingDocs = request.matchingDocs;
+            if (matchingDocs.cardinality() == 0) {
+                continue;
+            }
+            if (request.parsedFacet.getFacetRanges() != null) {
+                for (FacetRange facetRange : request.parsedFacet.getFacetRanges()) {
                     try {
                         String internalName = ServicingNameFormat.getInteralPropertyPathName(getNamespaceMappings(),
                                 facetRange.getNamespacedProperty());
 
-                        RangeFields rangeFields = new RangeFields(internalName, facetRange);
+                        final RangeFields rangeFields = new RangeFields(internalName, facetRange);
 
                         Count counter = new Count(0);
-                        facetValueCountMap.put(rangeFields.facetRangeName, counter);
-
-                        // TODO : skip here the logic for long and double range and use the matchingDocs directly and through term vectors fetch the values
+                        request.facetValueCountMap.put(rangeFields.facetRangeName, counter);
 
                         if (rangeFields.begin == null && rangeFields.end == null) {
                             // short cut: begin and end are open, thus all hits apply. Therefor this short cut is possible
                             counter.count = (int) matchingDocs.cardinality();
                         } else {
-                            TermEnum termEnum = indexReader.terms(new Term(rangeFields.internalFacetName,
-                                    rangeFields.begin == null ? "" : rangeFields.begin));
-                            try {
-                                do {
-                                    Term term = termEnum.term();
-                                    if (term != null && term.field() == rangeFields.internalFacetName) { // interned comparison as rangeFields.internalFacetName is interned
-                                        if (rangeFields.end != null && term.text().compareTo(rangeFields.end) >= 0) {
-                                            // term text is higher than upper limit
-                                            break;
-                                        }
-                                        termDocs.seek(term);
-                                        while (termDocs.next()) {
-                                            if (matchingDocs.get(termDocs.doc())) {
-                                                counter.count++;
-                                            }
-                                        }
-                                    } else {
-                                        break;
-                                    }
-                                } while (termEnum.next());
-                            } finally {
-                                termEnum.close();
+                            // the terms of a column are sorted, thus the range is a contiguous range of ordinals
+                            for (int i = 0; i < segmentReaders.length; i++) {
+                                final IndexReader segmentReader = segmentReaders[i];
+                                final int docBase = docBases[i];
+                                tasks.add(new FacetCountTask(request, facetRange.getName(), counter, () -> {
+                                    final long taskStart = System.currentTimeMillis();
+                                    TermOrdinalColumn column = TermOrdinalColumn.getInstance(segmentReader, rangeFields.internalFacetName);
+                                    int fromOrdinal = rangeFields.begin == null ? 0 : column.ceilingOrdinal(rangeFields.begin);
+                                    int toOrdinal = rangeFields.end == null ? column.getTermCount() : column.ceilingOrdinal(rangeFields.end);
+                                    final int count = column.countRange(matchingDocs, docBase, fromOrdinal, toOrdinal);
+                                    return new SegmentCounts(null, new int[]{count}, System.currentTimeMillis() - taskStart);
+                                }));
                             }
                         }
 
@@ -750,59 +834,181 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
                     } catch (IllegalArgumentException e) {
                         log.warn(e.getMessage());
                     }
-                    if(log.isDebugEnabled()) {
-                        log.debug("Populating range '{}' took '{}' ms. ", facetRange.getName(), (System.currentTimeMillis() - t1));
-                    }
                 }
-            } finally {
-                termDocs.close();
+            } else {
+                final String internalFacetName = ServicingNameFormat.getInternalFacetName(request.propertyName).intern(); // important to intern for the == comparison
+                // a single pass over the matching docs per segment, counting the term ordinals of every matching doc
+                for (int i = 0; i < segmentReaders.length; i++) {
+                    final IndexReader segmentReader = segmentReaders[i];
+                    final int docBase = docBases[i];
+                    tasks.add(new FacetCountTask(request, null, null, () -> {
+                        final long taskStart = System.currentTimeMillis();
+                        TermOrdinalColumn column = TermOrdinalColumn.getInstance(segmentReader, internalFacetName);
+                        int[] counts = new int[column.getTermCount()];
+                        column.count(matchingDocs, docBase, counts);
+                        return new SegmentCounts(column, counts, System.currentTimeMillis() - taskStart);
+                    }));
+                }
             }
-        } else {
-            String internalFacetName = ServicingNameFormat.getInternalFacetName(propertyName).intern(); // important to intern for the == comparison
-            TermEnum termEnum = indexReader.terms(new Term(internalFacetName, ""));
-            // iterate through all the values of this facet and see look at number of hits per term
-
-            try {
-                TermDocs termDocs = indexReader.termDocs();
-                // open termDocs only once, and use seek: this is more efficient
-                try {
-                    do {
-                        Term term = termEnum.term();
-                        int count = 0;
-                        if (term != null && term.field() == internalFacetName) { // interned comparison
-
-                            termDocs.seek(term);
-                            while (termDocs.next()) {
-                                if (matchingDocs.get(termDocs.doc())) {
-                                    count++;
-                                }
-                            }
-
-                            // TODO in mode: show 0 valued facets, we need to return the count == 0 as well!
-                            if (count > 0) {
-                                // matchingDocs contains the current term
-                                if (!"".equals(term.text())) {
-                                    facetValueCountMap.put(term.text(), new Count(count));
-                                }
-                            }
+        }
 
+        final List<Callable<SegmentCounts>> callables = new ArrayList<Callable<SegmentCounts>>(tasks.size());
+        for (FacetCountTask task : tasks) {
+            callables.add(task.callable);
+        }
+        final List<SegmentCounts> results = invokeFacetCountTasks(callables);
+
+        // the summed durations of the segment tasks per range, for debug logging only
+        final Map<String, Long> rangeDurations = log.isDebugEnabled() ? new LinkedHashMap<String, Long>() : null;
+        for (int i = 0; i < results.size(); i++) {
+            final FacetCountTask task = tasks.get(i);
+            final SegmentCounts segmentCounts = results.get(i);
+            if (task.rangeCounter != null) {
+                task.rangeCounter.count += segmentCounts.counts[0];
+                if (rangeDurations != null) {
+                    final Long duration = rangeDurations.get(task.rangeName);
+                    rangeDurations.put(task.rangeName, (duration == null ? 0 : duration) + segmentCounts.duration);
+                }
+                continue;
+            }
+            final Map<String, Count> facetValueCountMap = task.request.facetValueCountMap;
+            final TermOrdinalColumn column = segmentCounts.column;
+            final int[] counts = segmentCounts.counts;
+            for (int ordinal = 0; ordinal < counts.length; ordinal++) {
+                // TODO in mode: show 0 valued facets, we need to return the count == 0 as well!
+                if (counts[ordinal] > 0) {
+                    String termText = column.getTerm(ordinal);
+                    if (!"".equals(termText)) {
+                        Count count = facetValueCountMap.get(termText);
+                        if (count == null) {
+                            facetValueCountMap.put(termText, new Count(counts[ordinal]));
                         } else {
-                            break;
+                            count.count += counts[ordinal];
                         }
-                    } while (termEnum.next());
-                } finally {
-                    termDocs.close();
+                    }
                 }
-            } finally {
-                termEnum.close();
             }
         }
-        
+
+        if (rangeDurations != null) {
+            for (Map.Entry<String, Long> rangeDuration : rangeDurations.entrySet()) {
+                log.debug("Populating range '{}' took '{}' ms. ", rangeDuration.getKey(), rangeDuration.getValue());
+            }
+        }
         if(log.isDebugEnabled()) {
-            log.debug("Populating the FacetValueCountMap took '{}' ms for  #'{}' facet values (in case of ranges, this is not the same as all unique facet values, but only the number of ranges) ", (System.currentTimeMillis() - start), facetValueCountMap.size());
+            int facetValues = 0;
+            for (FacetValueCountRequest request : requests) {
+                facetValues += request.facetValueCountMap.size();
+            }
+            log.debug("Populating the FacetValueCountMaps of '{}' facets took '{}' ms for  #'{}' facet values (in case of ranges, this is not the same as all unique facet values, but only the number of ranges) ", requests.size(), (System.currentTimeMillis() - start), facetValues);
         }
     }
 
+    /**
+     * Runs the facet counting <code>tasks</code> on the facet count executor if there is one, and otherwise on the
+     * current thread. When all workers of the executor are busy and its queue is full, tasks run on the current thread
+     * as well, thus under load counting falls back to sequential counting on the request thread.
+     *
+     * @return the results of the tasks, in the order of the tasks
+     */
+    private <T> List<T> invokeFacetCountTasks(final List<Callable<T>> tasks) throws IOException {
+        final List<T> results = new ArrayList<T>(tasks.size());
+        final ExecutorService executor = facetCountExecutor;
+        try {
+            if (executor == null || tasks.size() < 2) {
+                for (Callable<T> task : tasks) {
+                    results.add(task.call());
+                }
+                return results;
+            }
+            final List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+            for (Callable<T> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Facet counting failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while counting facets", e);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Facet counting failed", e);
+        }
+    }
+
+    /**
+     * The counts of the terms of a facet column in a single segment, or of a single facet range when the column is
+     * <code>null</code>
+     */
+    private static class SegmentCounts {
+        private final TermOrdinalColumn column;
+        private final int[] counts;
+        private final long duration;
+
+        private SegmentCounts(final TermOrdinalColumn column, final int[] counts, final long duration) {
+            this.column = column;
+            this.counts = counts;
+            this.duration = duration;
+        }
+    }
+
+    /**
+     * The facet values of a single facet to count, and the map to fill with the counts
+     */
+    private static class FacetValueCountRequest {
+        private final FVCKey cacheKey;
+        private final String propertyName;
+        private final ParsedFacet parsedFacet;
+        private final OpenBitSet matchingDocs;
+        private final Map<String, Count> resultFacetValueCountMap;
+        private final Map<String, Count> facetValueCountMap = new HashMap<String, Count>();
+
+        private FacetValueCountRequest(final FVCKey cacheKey, final String propertyName, final ParsedFacet parsedFacet,
+                                       final OpenBitSet matchingDocs, final Map<String, Count> resultFacetValueCountMap) {
+            this.cacheKey = cacheKey;
+            this.propertyName = propertyName;
+            this.parsedFacet = parsedFacet;
+            this.matchingDocs = matchingDocs;
+            this.resultFacetValueCountMap = resultFacetValueCountMap;
+        }
+    }
+
+    /**
+     * Counts a facet, or a range of a facet when the range counter is not <code>null</code>, in a single segment
+     */
+    private static class FacetCountTask {
+        private final FacetValueCountRequest request;
+        private final String rangeName;
+        private final Count rangeCounter;
+        private final Callable<SegmentCounts> callable;
+
+        private FacetCountTask(final FacetValueCountRequest request, final String rangeName, final Count rangeCounter,
+                               final Callable<SegmentCounts> callable) {
+            this.request = request;
+            this.rangeName = rangeName;
+            this.rangeCounter = rangeCounter;
+            this.callable = callable;
+        }
+    }
+
+    /**
+     * @return the per-index readers of <code>indexReader</code> in doc id order, or <code>indexReader</code> itself when
+     * it is not a {@link MultiIndexReader}
+     */
+    private static IndexReader[] getSegmentReaders(final IndexReader indexReader) {
+        if (indexReader instanceof MultiIndexReader) {
+            return ((MultiIndexReader) indexReader).getIndexReaders();
+        }
+        return new IndexReader[]{indexReader};
+    }
 
     private DocIdSet filterDocIdSetPlainLuceneQuery(final org.apache.lucene.search.Query query,
                                                     final IndexReader indexReader, final ContextImpl contextImpl) throws IOException {
@@ -820,22 +1026,32 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
         return queryFilter.getDocIdSet(indexReader);
     }
 
-    private DocIdSet filterDocIdSetJackRabbitQuery(final org.apache.lucene.search.Query query,
+    /**
+     * @param statementKey the normalized statement of <code>query</code>, see {@link QueryImpl#getCacheKey()}, or
+     *                     <code>null</code> if the doc id set should not be cached
+     */
+    private DocIdSet filterDocIdSetJackRabbitQuery(final org.apache.lucene.search.Query query, final Object statementKey,
                                               final IndexReader indexReader) throws IOException {
         if ((query instanceof BooleanQuery) && ((BooleanQuery)query).clauses().size() == 0) {
             // no constraints. Return null
             return null;
         }
 
-        // TODO CACHE jackrabbit queries still need to be cached. Difficult parts are
-        // 1: Jackrabbit Queries do not have hashCode or equals
-        // 2: Jackrabbit Query implementations keep REFERENCES (!!) to index readers
-        // 3.Jackrabbit creates a *NEW* JackrabbitIndexReader instance for *EVERY* search. Hence
-        // if the reader is a JackrabbitIndexReader, the cache would be pointless.
-        // Since all index readers in JR extend from FilterIndexReader, we can use
-        // reader.getCoreCacheKey() : The FilterIndexReader delegates that call to the
-        // wrapped index reader
-        // TODO CACHE
+        // Jackrabbit Queries do not have hashCode or equals and keep references to index readers, hence they are
+        // cached by statement instead. Jackrabbit creates a *NEW* JackrabbitIndexReader instance for *EVERY* search,
+        // but since all index readers in JR extend from FilterIndexReader, we can use reader.getCoreCacheKey() : The
+        // FilterIndexReader delegates that call to the wrapped index reader. Since during deletes only, the backing
+        // index reader can stay the same, we also need numDocs to be sure we get the right cached bits
+        FVCKey key = null;
+        if (statementKey != null) {
+            key = new FVCKey(new Object[]{statementKey, indexReader.getCoreCacheKey(), indexReader.numDocs()});
+            final OpenBitSet cachedBits = jackrabbitQueryDocIdSetCache.getIfPresent(key);
+            if (cachedBits != null) {
+                log.debug("For statement '{}' getting doc id set from cache", statementKey);
+                return cachedBits;
+            }
+        }
+
         final OpenBitSet bits = new OpenBitSet(indexReader.maxDoc());
         long start = System.currentTimeMillis();
         new IndexSearcher(indexReader).search(query, new AbstractHitCollector() {
@@ -845,6 +1061,9 @@ public class FacetedNavigationEngineImpl extends ServicingSearchIndex
             }
         });
         log.info("Creating doc id set for Jackrabbit Query took {} ms.", String.valueOf(System.currentTimeMillis() - start));
+        if (key != null) {
+            jackrabbitQueryDocIdSetCache.put(key, bits);
+        }
         return new DocIdSetFilter(bits).getDocIdSet(indexReader);
 
     }
@@ -126,6 +126,13 @@ public class HippoLocalItemStateManager extends XAItemStateManager implements Da
         virtualPropertyNames = new HashSet<Name>();
     }
 
+    /**
+     * @return the shared item state manager of the workspace, which sees all persisted changes
+     */
+    public SharedItemStateManager getSharedItemStateManager() {
+        return sharedStateMgr;
+    }
+
     public boolean isEnabled() {
         return virtualLayerEnabled && virtualLayerEnabledCount == 0;
     }
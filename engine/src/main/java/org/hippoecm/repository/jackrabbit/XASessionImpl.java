@@ -88,6 +88,14 @@ public class XASessionImpl extends org.apache.jackrabbit.core.XASessionImpl impl
         helper.init();
     }
 
+    private SharedItemStateManager getSharedItemStateManager() {
+        final LocalItemStateManager localItemStateMgr = context.getWorkspace().getItemStateManager();
+        if (localItemStateMgr instanceof HippoLocalItemStateManager) {
+            return ((HippoLocalItemStateManager) localItemStateMgr).getSharedItemStateManager();
+        }
+        return null;
+    }
+
     @Override
     protected AccessManager createAccessManager(Subject subject) throws AccessDeniedException, RepositoryException {
         AccessManagerConfig amConfig = context.getRepository().getConfig().getAccessManagerConfig();
@@ -96,7 +104,8 @@ public class XASessionImpl extends org.apache.jackrabbit.core.XASessionImpl impl
                     new File((context.getRepository()).getConfig().getHomeDir()),
                     context.getRepositoryContext().getFileSystem(),
                     this, subject, context.getHierarchyManager(), context.getPrivilegeManager(),
-                    this, getWorkspace().getName(), context.getNodeTypeManager(), getItemStateManager());
+                    this, getWorkspace().getName(), context.getNodeTypeManager(), getItemStateManager(),
+                    getSharedItemStateManager());
             AccessManager accessMgr = amConfig.newInstance(AccessManager.class);
             accessMgr.init(ctx);
             if (accessMgr instanceof ItemStateListener) {
@@ -1,5 +1,5 @@
 /*
- *  Copyright 2013 Hippo B.V. (http://www.onehippo.com)
+ *  Copyright 2013-2017 Hippo B.V. (http://www.onehippo.com)
  *
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -27,6 +27,7 @@ public final class HippoSchedJcrConstants {
     public static final String HIPPOSCHED_REPEATINTERVAL = "hipposched:repeatInterval";
     public static final String HIPPOSCHED_CRONEXPRESSION = "hipposched:cronExpression";
     public static final String HIPPOSCHED_TRIGGERS = "hipposched:triggers";
+    public static final String HIPPOSCHED_TRIGGER = "hipposched:trigger";
     public static final String HIPPOSCHED_SIMPLE_TRIGGER = "hipposched:simpletrigger";
     public static final String HIPPOSCHED_CRON_TRIGGER = "hipposched:crontrigger";
     public static final String HIPPOSCHED_REPOSITORY_JOB = "hipposched:repositoryjob";
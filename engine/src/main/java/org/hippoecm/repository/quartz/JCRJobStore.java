@@ -1,5 +1,5 @@
 /*
- *  Copyright 2012-2013 Hippo B.V. (http://www.onehippo.com)
+ *  Copyright 2012-2017 Hippo B.V. (http://www.onehippo.com)
  *
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -39,11 +39,7 @@ import javax.jcr.lock.LockManager;
 import javax.jcr.observation.Event;
 import javax.jcr.observation.EventIterator;
 import javax.jcr.observation.EventListener;
-import javax.jcr.query.Query;
-import javax.jcr.query.QueryManager;
-import javax.jcr.query.QueryResult;
 
-import org.apache.jackrabbit.util.ISO8601;
 import org.hippoecm.repository.api.SynchronousEventListener;
 import org.hippoecm.repository.util.JcrUtils;
 import org.hippoecm.repository.util.NodeIterable;
@@ -105,6 +101,7 @@ public class JCRJobStore implements JobStore {
     private Map<String, Future<?>> keepAlives = Collections.synchronizedMap(new HashMap<String, Future<?>>());
 
     private EventListener listener;
+    private final TriggerIndex triggerIndex;
 
     public JCRJobStore() {
         this(TWO_MINUTES, null);
@@ -122,6 +119,7 @@ public class JCRJobStore implements JobStore {
         this.lockTimeout = lockTimeout;
         this.session = session;
         this.jobStorePath = jobStorePath;
+        this.triggerIndex = new TriggerIndex(jobStorePath);
     }
 
     @Override
@@ -145,6 +143,12 @@ public class JCRJobStore implements JobStore {
         } catch (RepositoryException e) {
             log.error("Failed to register event listener for initializing triggers", e);
         }
+        try {
+            getSession().getWorkspace().getObservationManager()
+                    .addEventListener(triggerIndex, ALL_EVENTS, jobStorePath, true, null, null, false);
+        } catch (RepositoryException e) {
+            log.error("Failed to register event listener for indexing triggers", e);
+        }
     }
 
     /**
@@ -282,6 +286,10 @@ public class JCRJobStore implements JobStore {
             } catch (RepositoryException ignore) {
             }
         }
+        try {
+            getSession().getWorkspace().getObservationManager().removeEventListener(triggerIndex);
+        } catch (RepositoryException ignore) {
+        }
         if (executorService != null) {
             executorService.shutdown();
         }
@@ -580,11 +588,19 @@ public class JCRJobStore implements JobStore {
 
     @Override
     public List<OperableTrigger> acquireNextTriggers(final long noLaterThan, int maxCount, final long timeWindow) throws JobPersistenceException {
+        if (!triggerIndex.hasChanges() && !triggerIndex.hasTriggersFiringNoLaterThan(noLaterThan)) {
+            // nothing to fire: no need to access the session
+            return Collections.emptyList();
+        }
         final Session session = getSession();
         List<OperableTrigger> triggers = null;
         synchronized (session) {
             try {
-                for (Node triggerNode : getPendingTriggers(session, noLaterThan)) {
+                for (String triggerPath : getPendingTriggers(session, noLaterThan)) {
+                    if (!session.nodeExists(triggerPath)) {
+                        continue;
+                    }
+                    final Node triggerNode = session.getNode(triggerPath);
                     if (!JcrUtils.getBooleanProperty(triggerNode, HIPPOSCHED_ENABLED, true)) {
                         continue;
                     }
@@ -605,6 +621,8 @@ public class JCRJobStore implements JobStore {
                                     break;
                                 }
                             } else {
+                                // the indexed fire time is outdated
+                                triggerIndex.invalidate(triggerPath);
                                 unlock(session, triggerNode.getPath());
                             }
                         } catch (RepositoryException e) {
@@ -792,20 +810,17 @@ public class JCRJobStore implements JobStore {
         return trigger;
     }
 
-    private NodeIterable getPendingTriggers(final Session session, long noLaterThan) {
+    /**
+     * @return the paths of the triggers that fire no later than <code>noLaterThan</code>, ordered by fire time
+     */
+    private List<String> getPendingTriggers(final Session session, long noLaterThan) {
         try {
             session.refresh(true);
-            // make sure the index is up to date
-            final java.util.Calendar cal = dateToCalendar(new Date(noLaterThan));
-            final QueryManager qMgr = session.getWorkspace().getQueryManager();
-            final Query query = qMgr.createQuery(
-                    "SELECT * FROM hipposched:trigger WHERE hipposched:nextFireTime <= TIMESTAMP '"
-                            + ISO8601.format(cal) + "' ORDER BY hipposched:nextFireTime", Query.SQL);
-            final QueryResult result = query.execute();
-            return new NodeIterable(result.getNodes());
+            triggerIndex.update(session);
+            return triggerIndex.getTriggersFiringNoLaterThan(noLaterThan);
         } catch (RepositoryException e) {
-            log.error("Failed to query for pending triggers", e);
-            return JcrUtils.emptyNodeIterable();
+            log.error("Failed to look up pending triggers", e);
+            return Collections.emptyList();
         }
     }
 
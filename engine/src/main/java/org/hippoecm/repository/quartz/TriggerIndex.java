@@ -0,0 +1,237 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.quartz;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+
+import org.hippoecm.repository.api.SynchronousEventListener;
+import org.hippoecm.repository.util.JcrUtils;
+import org.hippoecm.repository.util.NodeIterable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.hippoecm.repository.quartz.HippoSchedJcrConstants.HIPPOSCHED_NEXTFIRETIME;
+import static org.hippoecm.repository.quartz.HippoSchedJcrConstants.HIPPOSCHED_TRIGGER;
+
+/**
+ * In-memory index of the next fire times of the triggers below the job store path, ordered by fire time, such that
+ * the triggers to acquire can be determined without querying the repository.
+ * <p>
+ * The index is built on first use by traversing the job store and is kept up to date by listening to all changes below
+ * the job store, including the changes saved by the job store itself. The listener only records the paths of the
+ * changed nodes: the changes are applied by {@link #update(Session)}, which must be invoked while holding the monitor
+ * of the session, such that the session is never accessed by the thread delivering the events.
+ * </p>
+ */
+class TriggerIndex implements SynchronousEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(TriggerIndex.class);
+
+    private final String jobStorePath;
+
+    // the paths of the nodes that changed since the last update
+    private final Queue<String> changedPaths = new ConcurrentLinkedQueue<>();
+    private volatile boolean rebuild = true;
+
+    // guarded by this
+    private final NavigableMap<String, IndexedTrigger> triggersByPath = new TreeMap<>();
+    private final NavigableSet<IndexedTrigger> triggersByFireTime = new TreeSet<>();
+
+    TriggerIndex(final String jobStorePath) {
+        this.jobStorePath = jobStorePath;
+    }
+
+    @Override
+    public void onEvent(final EventIterator events) {
+        while (events.hasNext()) {
+            final Event event = events.nextEvent();
+            try {
+                final String path = event.getPath();
+                if (JcrUtils.isPropertyEvent(event)) {
+                    changedPaths.add(path.substring(0, path.lastIndexOf('/')));
+                } else {
+                    changedPaths.add(path);
+                }
+            } catch (RepositoryException e) {
+                log.warn("Unable to process job store change event, rebuilding trigger index: {}", e.getMessage());
+                rebuild = true;
+            }
+        }
+    }
+
+    /**
+     * @return true if the index must be updated before it reflects the triggers in the repository
+     */
+    boolean hasChanges() {
+        return rebuild || !changedPaths.isEmpty();
+    }
+
+    /**
+     * @return true if some trigger fires no later than <code>noLaterThan</code> according to the index
+     */
+    synchronized boolean hasTriggersFiringNoLaterThan(final long noLaterThan) {
+        return !triggersByFireTime.isEmpty() && triggersByFireTime.first().fireTime <= noLaterThan;
+    }
+
+    /**
+     * @return the paths of the triggers that fire no later than <code>noLaterThan</code> according to the index,
+     * ordered by fire time
+     */
+    synchronized List<String> getTriggersFiringNoLaterThan(final long noLaterThan) {
+        final List<String> paths = new ArrayList<>();
+        for (IndexedTrigger trigger : triggersByFireTime) {
+            if (trigger.fireTime > noLaterThan) {
+                break;
+            }
+            paths.add(trigger.path);
+        }
+        return paths;
+    }
+
+    /**
+     * Applies the changes since the last update. Must be invoked while holding the monitor of the session.
+     */
+    synchronized void update(final Session session) throws RepositoryException {
+        if (rebuild) {
+            rebuild = false;
+            build(session);
+            return;
+        }
+        final Set<String> paths = new HashSet<>();
+        for (String path = changedPaths.poll(); path != null; path = changedPaths.poll()) {
+            paths.add(path);
+        }
+        try {
+            for (String path : paths) {
+                removeTriggers(path);
+                if (session.nodeExists(path)) {
+                    indexTriggers(session.getNode(path));
+                }
+            }
+        } catch (RepositoryException | RuntimeException e) {
+            rebuild = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Marks the trigger at <code>path</code> as changed, for instance because it did not fire at its indexed fire time.
+     */
+    void invalidate(final String path) {
+        changedPaths.add(path);
+    }
+
+    private void build(final Session session) throws RepositoryException {
+        final long start = System.currentTimeMillis();
+        changedPaths.clear();
+        triggersByPath.clear();
+        triggersByFireTime.clear();
+        try {
+            if (session.nodeExists(jobStorePath)) {
+                indexTriggers(session.getNode(jobStorePath));
+            }
+        } catch (RepositoryException | RuntimeException e) {
+            rebuild = true;
+            throw e;
+        }
+        log.info("Built trigger index of {} triggers in {} ms", triggersByPath.size(), System.currentTimeMillis() - start);
+    }
+
+    private void indexTriggers(final Node node) throws RepositoryException {
+        if (node.isNodeType(HIPPOSCHED_TRIGGER)) {
+            final java.util.Calendar nextFireTime = JcrUtils.getDateProperty(node, HIPPOSCHED_NEXTFIRETIME, null);
+            if (nextFireTime != null) {
+                final IndexedTrigger trigger = new IndexedTrigger(node.getPath(), nextFireTime.getTimeInMillis());
+                triggersByPath.put(trigger.path, trigger);
+                triggersByFireTime.add(trigger);
+            }
+            return;
+        }
+        for (Node child : new NodeIterable(node.getNodes())) {
+            indexTriggers(child);
+        }
+    }
+
+    /**
+     * Removes the trigger at <code>path</code> and all triggers below it.
+     */
+    private void removeTriggers(final String path) {
+        removeTrigger(triggersByPath.remove(path));
+        final String prefix = path + "/";
+        final Map<String, IndexedTrigger> descendants = triggersByPath.subMap(prefix, prefix + Character.MAX_VALUE);
+        for (IndexedTrigger trigger : descendants.values()) {
+            removeTrigger(trigger);
+        }
+        descendants.clear();
+    }
+
+    private void removeTrigger(final IndexedTrigger trigger) {
+        if (trigger != null) {
+            triggersByFireTime.remove(trigger);
+        }
+    }
+
+    synchronized int size() {
+        return triggersByPath.size();
+    }
+
+    private static final class IndexedTrigger implements Comparable<IndexedTrigger> {
+
+        private final String path;
+        private final long fireTime;
+
+        private IndexedTrigger(final String path, final long fireTime) {
+            this.path = path;
+            this.fireTime = fireTime;
+        }
+
+        @Override
+        public int compareTo(final IndexedTrigger other) {
+            final int result = Long.compare(fireTime, other.fireTime);
+            return result != 0 ? result : path.compareTo(other.path);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof IndexedTrigger)) {
+                return false;
+            }
+            final IndexedTrigger other = (IndexedTrigger) o;
+            return fireTime == other.fireTime && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * path.hashCode() + Long.hashCode(fireTime);
+        }
+    }
+}
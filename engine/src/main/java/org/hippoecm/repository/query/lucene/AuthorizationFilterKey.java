@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.query.lucene;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+
+/**
+ * Cache key for authorization filters that considers two authorization queries equal when they only differ in the
+ * order of their boolean clauses. The {@link AuthorizationQuery} is built from sets of principals and domain rules,
+ * hence users with the same effective permissions can end up with queries that have the same clauses in a different
+ * order. Leaf queries are compared with their own {@link Query#equals(Object)}, thus queries without a proper equals
+ * implementation are never shared between users.
+ */
+final class AuthorizationFilterKey {
+
+    private final BooleanQuery query;
+    private final int hashCode;
+
+    AuthorizationFilterKey(final BooleanQuery query) {
+        this.query = query;
+        this.hashCode = hash(query);
+    }
+
+    BooleanQuery getQuery() {
+        return query;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AuthorizationFilterKey)) {
+            return false;
+        }
+        final AuthorizationFilterKey other = (AuthorizationFilterKey) o;
+        return hashCode == other.hashCode && equivalent(query, other.query);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    private static int hash(final Query query) {
+        if (!(query instanceof BooleanQuery)) {
+            return query.hashCode();
+        }
+        final BooleanQuery booleanQuery = (BooleanQuery) query;
+        // clause order independent : sum of the clause hashes
+        int hash = 0;
+        for (BooleanClause clause : booleanQuery.clauses()) {
+            hash += 31 * hash(clause.getQuery()) + clause.getOccur().hashCode();
+        }
+        return 31 * (31 * hash + booleanQuery.getMinimumNumberShouldMatch()) + Float.floatToIntBits(booleanQuery.getBoost())
+                + (booleanQuery.isCoordDisabled() ? 17 : 0);
+    }
+
+    private static boolean equivalent(final Query query1, final Query query2) {
+        if (!(query1 instanceof BooleanQuery) || !(query2 instanceof BooleanQuery)) {
+            return query1.equals(query2);
+        }
+        final BooleanQuery booleanQuery1 = (BooleanQuery) query1;
+        final BooleanQuery booleanQuery2 = (BooleanQuery) query2;
+        if (booleanQuery1.isCoordDisabled() != booleanQuery2.isCoordDisabled()
+                || booleanQuery1.getMinimumNumberShouldMatch() != booleanQuery2.getMinimumNumberShouldMatch()
+                || booleanQuery1.getBoost() != booleanQuery2.getBoost()
+                || booleanQuery1.clauses().size() != booleanQuery2.clauses().size()) {
+            return false;
+        }
+        // match every clause with a not yet matched equivalent clause of the other query
+        final List<BooleanClause> unmatched = new ArrayList<>(booleanQuery2.clauses());
+        for (BooleanClause clause : booleanQuery1.clauses()) {
+            boolean matched = false;
+            for (int i = 0; i < unmatched.size(); i++) {
+                final BooleanClause candidate = unmatched.get(i);
+                if (clause.getOccur() == candidate.getOccur() && equivalent(clause.getQuery(), candidate.getQuery())) {
+                    unmatched.remove(i);
+                    matched = true;
+                    break;
+                }
+            }
+            if (!matched) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -18,8 +18,6 @@ package org.hippoecm.repository.query.lucene;
 import java.io.IOException;
 
 import org.apache.jackrabbit.core.id.NodeId;
-import org.apache.jackrabbit.core.query.lucene.FieldNames;
-import org.apache.jackrabbit.core.query.lucene.FieldSelectors;
 import org.apache.jackrabbit.core.query.lucene.QueryHits;
 import org.apache.jackrabbit.core.query.lucene.ScoreNode;
 import org.apache.lucene.index.IndexReader;
@@ -28,6 +26,7 @@ import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Scorer;
+import org.hippoecm.repository.query.lucene.util.NodeIdResolver;
 
 /**
  * Wraps a lucene query result and adds a close method that allows to release resources after a query has been executed
@@ -50,8 +49,14 @@ public class HippoLuceneQueryHits implements QueryHits {
      */
     private final DocIdSetIterator filter;
 
+    /**
+     * Resolves the node ids of the hits without reading stored fields.
+     */
+    private final NodeIdResolver nodeIdResolver;
+
     public HippoLuceneQueryHits(IndexReader reader, Filter filter, IndexSearcher searcher, Query query) throws IOException {
         this.reader = reader;
+        this.nodeIdResolver = new NodeIdResolver(reader);
         if (filter == null) {
             this.filter = null;
         } else {
@@ -93,7 +98,7 @@ public class HippoLuceneQueryHits implements QueryHits {
     }
 
     private ScoreNode getScoreNode(int doc) throws IOException {
-        NodeId id = new NodeId(reader.document(doc, FieldSelectors.UUID).get(FieldNames.UUID));
+        NodeId id = nodeIdResolver.getNodeId(doc);
         return new ScoreNode(id, scorer.score(), doc);
     }
 
@@ -18,20 +18,22 @@ package org.hippoecm.repository.query.lucene;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.query.lucene.AbstractQueryHits;
-import org.apache.jackrabbit.core.query.lucene.FieldNames;
-import org.apache.jackrabbit.core.query.lucene.FieldSelectors;
 import org.apache.jackrabbit.core.query.lucene.JackrabbitIndexSearcher;
 import org.apache.jackrabbit.core.query.lucene.ScoreNode;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.TopFieldCollector;
+import org.hippoecm.repository.query.lucene.util.NodeIdResolver;
+import org.hippoecm.repository.query.lucene.util.PagingFieldCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,6 +59,11 @@ public class HippoSortedLuceneQueryHits extends AbstractQueryHits {
      */
     private final IndexReader reader;
 
+    /**
+     * Resolves the node ids of the hits without reading stored fields.
+     */
+    private final NodeIdResolver nodeIdResolver;
+
     /**
      * The index searcher.
      */
@@ -78,9 +85,14 @@ public class HippoSortedLuceneQueryHits extends AbstractQueryHits {
     private int hitIndex = -1;
 
     /**
-     * The score docs.
+     * The score docs of the current window.
+     */
+    private List<ScoreDoc> scoreDocs = new ArrayList<ScoreDoc>();
+
+    /**
+     * The hit index of the first score doc in the current window.
      */
-    private final List<ScoreDoc> scoreDocs = new ArrayList<ScoreDoc>();
+    private int windowStart = 0;
 
     /**
      * The total number of hits.
@@ -115,6 +127,7 @@ public class HippoSortedLuceneQueryHits extends AbstractQueryHits {
                                       Sort sort,
                                       long resultFetchHint) throws IOException {
         this.reader = reader;
+        this.nodeIdResolver = new NodeIdResolver(reader);
         this.authorizationFilter = authorizationFilter;
         this.searcher = searcher;
         this.query = query;
@@ -139,15 +152,18 @@ public class HippoSortedLuceneQueryHits extends AbstractQueryHits {
         if (++hitIndex >= size) {
             // no more score nodes
             return null;
-        } else if (hitIndex >= scoreDocs.size()) {
-            // refill at least numHits or twice hitIndex
-            this.numHits = Math.max(this.numHits, hitIndex * 2);
-            getHits();
         }
-        ScoreDoc doc = scoreDocs.get(hitIndex);
-        String uuid = reader.document(doc.doc,
-                FieldSelectors.UUID).get(FieldNames.UUID);
-        NodeId id = new NodeId(uuid);
+        while (hitIndex >= windowStart + scoreDocs.size()) {
+            if (windowStart == 0 && numHits <= MAX_FETCH_SIZE) {
+                // refill at least numHits or twice hitIndex, beyond MAX_FETCH_SIZE continue with windows
+                this.numHits = Math.min(Math.max(this.numHits, hitIndex * 2), MAX_FETCH_SIZE);
+                getHits();
+            } else if (!getNextHits()) {
+                return null;
+            }
+        }
+        ScoreDoc doc = scoreDocs.get(hitIndex - windowStart);
+        NodeId id = nodeIdResolver.getNodeId(doc.doc);
         return new ScoreNode(id, doc.score, doc.doc);
     }
 
@@ -164,7 +180,8 @@ public class HippoSortedLuceneQueryHits extends AbstractQueryHits {
     //-------------------------------< internal >-------------------------------
 
     private void getHits() throws IOException {
-        TopFieldCollector collector = TopFieldCollector.create(sort, numHits, false, true, false, false);
+        // fill in the sort values : they are needed to continue after the last hit with getNextHits()
+        TopFieldCollector collector = TopFieldCollector.create(sort, numHits, true, true, false, false);
 
         if (authorizationFilter != null) {
             searcher.search(query, authorizationFilter, collector);
@@ -181,4 +198,29 @@ public class HippoSortedLuceneQueryHits extends AbstractQueryHits {
         numHits *= 2;
     }
 
+    /**
+     * Replaces the current window with the next {@link #MAX_FETCH_SIZE} hits that sort after the last hit of the
+     * current window. Beyond {@link #MAX_FETCH_SIZE} hits, this keeps memory bounded and avoids re-collecting all
+     * preceding hits in an ever growing priority queue for every next window.
+     *
+     * @return <code>false</code> if there are no more hits
+     */
+    private boolean getNextHits() throws IOException {
+        if (scoreDocs.isEmpty()) {
+            return false;
+        }
+        final FieldDoc last = (FieldDoc) scoreDocs.get(scoreDocs.size() - 1);
+        final PagingFieldCollector collector = new PagingFieldCollector(sort, MAX_FETCH_SIZE, last);
+
+        if (authorizationFilter != null) {
+            searcher.search(query, authorizationFilter, collector);
+        } else {
+            searcher.search(query, collector);
+        }
+        windowStart += scoreDocs.size();
+        scoreDocs = Arrays.asList(collector.topDocs().scoreDocs);
+        log.debug("getNextHits() {}-{}", windowStart, windowStart + scoreDocs.size());
+        return !scoreDocs.isEmpty();
+    }
+
 }
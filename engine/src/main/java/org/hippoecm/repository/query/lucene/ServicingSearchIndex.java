@@ -150,7 +150,42 @@ public class ServicingSearchIndex extends SearchIndex implements HippoQueryHandl
         this.slowAlwaysExactSizedQueryResult = slowAlwaysExactSizedQueryResult;
     }
 
-    private final Cache<String, CachingMultiReaderQueryFilter> cache = CacheBuilder.newBuilder().expireAfterAccess(10, TimeUnit.MINUTES).build();
+    private int authorizationFilterCacheSize = 10000;
+
+    /**
+     * The maximum number of users for which the authorization filter is cached. Users with the same effective
+     * authorization query share a single filter, thus the number of filters and authorization bitsets is normally
+     * much smaller than this number.
+     */
+    public void setAuthorizationFilterCacheSize(final int authorizationFilterCacheSize) {
+        this.authorizationFilterCacheSize = authorizationFilterCacheSize;
+    }
+
+    // although we do not need the getter ourselves, it is mandatory here because otherwise the setter is not called because
+    // of org.apache.commons.collections.BeanMap#keyIterator
+    public int getAuthorizationFilterCacheSize() {
+        return authorizationFilterCacheSize;
+    }
+
+    private volatile Cache<String, CachingMultiReaderQueryFilter> userFilters;
+
+    // shared filters are softly referenced : a filter, including the bitsets of all segments it has seen so far, stays
+    // alive as long as a cached user refers to it, and beyond that as long as there is no memory pressure. Hence a user
+    // logging in again after expiry of its cache entry only needs bitsets for segments that were added in the meantime
+    private final Cache<AuthorizationFilterKey, CachingMultiReaderQueryFilter> sharedFilters = CacheBuilder.newBuilder().softValues().build();
+
+    private Cache<String, CachingMultiReaderQueryFilter> getUserFilters() {
+        if (userFilters == null) {
+            synchronized (sharedFilters) {
+                if (userFilters == null) {
+                    userFilters = CacheBuilder.newBuilder()
+                            .maximumSize(authorizationFilterCacheSize)
+                            .expireAfterAccess(10, TimeUnit.MINUTES).build();
+                }
+            }
+        }
+        return userFilters;
+    }
 
     /**
      * @return the authorization bitset and <code>null</code> when every bit is allowed to be read
@@ -165,25 +200,31 @@ public class ServicingSearchIndex extends SearchIndex implements HippoQueryHandl
         }
 
         String userId = session.getUserID();
-        CachingMultiReaderQueryFilter filter = cache.getIfPresent(userId);
+        final Cache<String, CachingMultiReaderQueryFilter> userFilters = getUserFilters();
+        CachingMultiReaderQueryFilter filter = userFilters.getIfPresent(userId);
         InternalHippoSession internalHippoSession = (InternalHippoSession) session;
         BooleanQuery query = internalHippoSession.getAuthorizationQuery().getQuery();
         if (query.getClauses().length == 1 && isMatchAllDocsQuery(query.getClauses()[0].getQuery())) {
             // optimization : return a null filter in case it matches all docs
             return null;
         }
-        if (filter != null && !filter.getQuery().equals(query)) {
-            cache.invalidate(userId);
-            filter = null;
+        if (filter != null && filter.getQuery().equals(query)) {
+            return filter;
         }
+        // the filter of another user with the same effective authorization query can be reused
+        final AuthorizationFilterKey key = new AuthorizationFilterKey(query);
+        filter = sharedFilters.getIfPresent(key);
         if (filter == null) {
-            // since this method can be invoked concurrently for the same userID it might be that we store
-            // the same filter twice or more: This only happens for the first unique userID or after a change in
-            // authorization. Any way, storing it needlessly twice or more only for the same userID under concurrency is
-            // much preferable over introducing synchronization
-            filter = new CachingMultiReaderQueryFilter(query, session.getUserID());
-            cache.put(session.getUserID(), filter);
+            // since this method can be invoked concurrently for the same authorization query it might be that we store
+            // the same filter twice or more: This only happens for the first user with a unique authorization query.
+            // Any way, storing it needlessly twice or more under concurrency is much preferable over introducing
+            // synchronization
+            filter = new CachingMultiReaderQueryFilter(query, userId);
+            sharedFilters.put(key, filter);
+        } else {
+            log.debug("For userId '{}' reuse shared authorization filter", userId);
         }
+        userFilters.put(userId, filter);
         return filter;
     }
 
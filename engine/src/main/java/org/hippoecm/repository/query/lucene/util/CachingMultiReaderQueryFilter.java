@@ -16,6 +16,9 @@
 package org.hippoecm.repository.query.lucene.util;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.jackrabbit.core.query.lucene.MultiIndexReader;
 import org.apache.jackrabbit.core.query.lucene.hits.AbstractHitCollector;
@@ -33,7 +36,10 @@ public class CachingMultiReaderQueryFilter extends Filter {
 
     private static final Logger log = LoggerFactory.getLogger(CachingMultiReaderQueryFilter.class);
 
-    private final WeakIdentityMap<IndexReader, OpenBitSet> cache = WeakIdentityMap.newConcurrentHashMap();
+    private final WeakIdentityMap<IndexReader, Future<OpenBitSet>> cache = WeakIdentityMap.newConcurrentHashMap();
+
+    // the most recent bitset per segment core, which survives the reader instances of a segment
+    private final WeakIdentityMap<Object, OpenBitSet> coreCache = WeakIdentityMap.newConcurrentHashMap();
 
     private final Query query;
     // userId of the jcr session triggering this CachingMultiReaderQueryFilter : Required only for logging purposes
@@ -76,29 +82,64 @@ public class CachingMultiReaderQueryFilter extends Filter {
 
     private DocIdSet getIndexReaderDocIdSet(final IndexReader reader) throws IOException {
 
-        OpenBitSet docIdSet = cache.get(reader);
-        if (docIdSet != null) {
+        Future<OpenBitSet> future = cache.get(reader);
+        if (future == null) {
+            final FutureTask<OpenBitSet> task = new FutureTask<>(() -> createDocIdSet(reader));
+            // only the registration of the future is guarded : the bitset is computed outside the monitor such that
+            // the computation for one reader does not block lookups for other (or already computed) readers
+            synchronized (cache) {
+                future = cache.get(reader);
+                if (future == null) {
+                    cache.put(reader, task);
+                    future = task;
+                }
+            }
+            if (future == task) {
+                log.debug("For userId '{}' could not find a cached bitSet for reader  with max doc '{}' and num docs '{}'",
+                        userId, reader.maxDoc(), reader.numDocs());
+                task.run();
+            }
+        } else {
             log.debug("For userId '{}' return cached bitSet for reader with max doc '{}' and num docs '{}'",
                     userId, reader.maxDoc(), reader.numDocs());
-            return docIdSet;
         }
-        synchronized (this) {
-            // try again after obtaining the lock
-            docIdSet = cache.get(reader);
-            if (docIdSet != null) {
-                log.debug("For userId '{}' return cached bitSet for reader with max doc '{}' and num docs '{}'",
-                        userId, reader.maxDoc(), reader.numDocs());
-                return docIdSet;
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for bitSet of userId '" + userId + "'", e);
+        } catch (ExecutionException e) {
+            cache.remove(reader);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
             }
-            log.debug("For userId '{}' could not find a cached bitSet for reader  with max doc '{}' and num docs '{}'",
-                    userId, reader.maxDoc(), reader.numDocs());
-            docIdSet = createDocIdSet(reader);
-            cache.put(reader, docIdSet);
-            return docIdSet;
+            throw new IOException("Could not create bitSet for userId '" + userId + "'", e.getCause());
         }
     }
 
+    /**
+     * Returns the bitset for <code>reader</code>, derived from the bitset of an earlier reader instance for the same
+     * segment core if there is one. Jackrabbit creates a new reader instance for a segment when documents get deleted
+     * from it, but documents never get added to an existing segment: clearing the deleted documents from the earlier
+     * bitset is then much cheaper than searching the segment again.
+     */
     private OpenBitSet createDocIdSet(IndexReader reader) throws IOException {
+        final Object coreCacheKey = reader.getCoreCacheKey();
+        final OpenBitSet coreBits = coreCache.get(coreCacheKey);
+        if (coreBits != null) {
+            final OpenBitSet bits = (OpenBitSet) coreBits.clone();
+            if (reader.hasDeletions()) {
+                for (int doc = bits.nextSetBit(0); doc != -1; doc = bits.nextSetBit(doc + 1)) {
+                    if (reader.isDeleted(doc)) {
+                        bits.fastClear(doc);
+                    }
+                }
+            }
+            log.debug("For userId '{}', derived bitSet from bitSet of earlier reader for the same segment", userId);
+            coreCache.put(coreCacheKey, bits);
+            return bits;
+        }
+
         final OpenBitSet bits = new OpenBitSet(reader.maxDoc());
 
         long start = System.currentTimeMillis();
@@ -110,6 +151,7 @@ public class CachingMultiReaderQueryFilter extends Filter {
         });
         log.info("For userId '{}', creating CachingMultiReaderQueryFilter doc id set took {} ms.", userId,
                 String.valueOf(System.currentTimeMillis() - start));
+        coreCache.put(coreCacheKey, bits);
         return bits;
     }
 
@@ -0,0 +1,159 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.query.lucene.util;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.query.lucene.FieldNames;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.WeakIdentityMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link NodeId} of every document of a single index segment, read from the indexed {@link FieldNames#UUID} terms
+ * instead of from the stored fields of every single document. Columns for other fields holding node ids, like
+ * {@link FieldNames#PARENT}, are supported as well. The ids are kept as two <code>long</code> arrays with
+ * the most and least significant bits of the ids.
+ * <p>
+ * Like the bitsets of {@link CachingMultiReaderQueryFilter}, the columns are kept in a weak identity map, keyed by the
+ * {@link IndexReader#getCoreCacheKey() core cache key} of the segment, thus they are dropped once the segment has been
+ * merged away and closed.
+ * </p>
+ */
+public class NodeIdColumn {
+
+    private static final Logger log = LoggerFactory.getLogger(NodeIdColumn.class);
+
+    private static final WeakIdentityMap<Object, Map<String, NodeIdColumn>> columns = WeakIdentityMap.newConcurrentHashMap();
+
+    private final long[] msbs;
+    private final long[] lsbs;
+    private final OpenBitSet hasId;
+
+    private NodeIdColumn(final int maxDoc) {
+        this.msbs = new long[maxDoc];
+        this.lsbs = new long[maxDoc];
+        this.hasId = new OpenBitSet(maxDoc);
+    }
+
+    /**
+     * @param reader a single segment reader, not a composite reader spanning multiple segments
+     * @return the (possibly shared) column for segment <code>reader</code>
+     */
+    public static NodeIdColumn getInstance(final IndexReader reader) throws IOException {
+        return getInstance(reader, FieldNames.UUID);
+    }
+
+    /**
+     * @param reader a single segment reader, not a composite reader spanning multiple segments
+     * @param field  the interned name of an indexed field with a single node id per document
+     * @return the (possibly shared) column for the <code>field</code> in segment <code>reader</code>
+     */
+    public static NodeIdColumn getInstance(final IndexReader reader, final String field) throws IOException {
+        final Object coreCacheKey = reader.getCoreCacheKey();
+        Map<String, NodeIdColumn> segmentColumns = columns.get(coreCacheKey);
+        if (segmentColumns == null) {
+            synchronized (columns) {
+                segmentColumns = columns.get(coreCacheKey);
+                if (segmentColumns == null) {
+                    segmentColumns = new ConcurrentHashMap<>();
+                    columns.put(coreCacheKey, segmentColumns);
+                }
+            }
+        }
+        NodeIdColumn column = segmentColumns.get(field);
+        if (column != null) {
+            return column;
+        }
+        // two threads might build the same column concurrently : only happens for a fresh segment and is preferable
+        // over blocking the lookups for all other segments while building
+        long start = System.currentTimeMillis();
+        column = create(reader, field);
+        segmentColumns.put(field, column);
+        log.debug("Creating node id column '{}' for segment with max doc '{}' took {} ms.", field, reader.maxDoc(),
+                System.currentTimeMillis() - start);
+        return column;
+    }
+
+    static NodeIdColumn create(final IndexReader reader, final String field) throws IOException {
+        final NodeIdColumn column = new NodeIdColumn(reader.maxDoc());
+        final TermEnum termEnum = reader.terms(new Term(field, ""));
+        try {
+            final TermDocs termDocs = reader.termDocs();
+            try {
+                do {
+                    final Term term = termEnum.term();
+                    if (term == null || term.field() != field) { // interned comparison
+                        break;
+                    }
+                    final NodeId id = parseNodeId(term);
+                    if (id == null) {
+                        continue;
+                    }
+                    termDocs.seek(termEnum);
+                    while (termDocs.next()) {
+                        final int doc = termDocs.doc();
+                        column.msbs[doc] = id.getMostSignificantBits();
+                        column.lsbs[doc] = id.getLeastSignificantBits();
+                        column.hasId.fastSet(doc);
+                    }
+                } while (termEnum.next());
+            } finally {
+                termDocs.close();
+            }
+        } finally {
+            termEnum.close();
+        }
+        return column;
+    }
+
+    /**
+     * @return the node id of <code>term</code>, or <code>null</code> if the term is empty, like the
+     * {@link FieldNames#PARENT} term of the root node, or not a valid node id
+     */
+    private static NodeId parseNodeId(final Term term) {
+        final String text = term.text();
+        if (text.isEmpty()) {
+            return null;
+        }
+        try {
+            return NodeId.valueOf(text);
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring invalid node id '{}' in field '{}'", text, term.field());
+            return null;
+        }
+    }
+
+    /**
+     * @return the id of document <code>doc</code> of this segment or <code>null</code> if the document does not have a
+     * term for the field of this column
+     */
+    public NodeId getNodeId(final int doc) {
+        if (doc >= msbs.length || !hasId.fastGet(doc)) {
+            return null;
+        }
+        return new NodeId(msbs[doc], lsbs[doc]);
+    }
+
+}
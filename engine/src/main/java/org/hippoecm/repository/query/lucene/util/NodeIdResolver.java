@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.query.lucene.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.query.lucene.FieldNames;
+import org.apache.jackrabbit.core.query.lucene.FieldSelectors;
+import org.apache.jackrabbit.core.query.lucene.MultiIndexReader;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+
+/**
+ * Resolves doc ids of a (composite) index reader to node ids, and optionally to parent ids and names, through the
+ * {@link NodeIdColumn}s and {@link TermOrdinalColumn}s of its segments. Create one resolver per search: the segments
+ * of the reader are looked up once and the columns are created lazily.
+ */
+public class NodeIdResolver {
+
+    private final IndexReader reader;
+    private final IndexReader[] segmentReaders;
+    private final int[] docStarts;
+    private final NodeIdColumn[] columns;
+    private final NodeIdColumn[] parentColumns;
+    private final TermOrdinalColumn[] labelColumns;
+
+    public NodeIdResolver(final IndexReader reader) {
+        this(reader, reader instanceof MultiIndexReader
+                ? ((MultiIndexReader) reader).getIndexReaders()
+                : new IndexReader[]{reader});
+    }
+
+    /**
+     * @param reader         the composite reader
+     * @param segmentReaders the segment readers of <code>reader</code>, in doc id order
+     */
+    NodeIdResolver(final IndexReader reader, final IndexReader[] segmentReaders) {
+        this.reader = reader;
+        this.segmentReaders = segmentReaders;
+        docStarts = new int[segmentReaders.length];
+        int docStart = 0;
+        for (int i = 0; i < segmentReaders.length; i++) {
+            docStarts[i] = docStart;
+            docStart += segmentReaders[i].maxDoc();
+        }
+        columns = new NodeIdColumn[segmentReaders.length];
+        parentColumns = new NodeIdColumn[segmentReaders.length];
+        labelColumns = new TermOrdinalColumn[segmentReaders.length];
+    }
+
+    private int getSegment(final int doc) {
+        int segment = Arrays.binarySearch(docStarts, doc);
+        if (segment < 0) {
+            return -segment - 2;
+        }
+        // empty segments have the same doc start as their successor
+        while (segment + 1 < docStarts.length && docStarts[segment + 1] == doc) {
+            segment++;
+        }
+        return segment;
+    }
+
+    /**
+     * @return the node id of document <code>doc</code> of the reader of this resolver, or <code>null</code> if the
+     * document is not a node document
+     */
+    public NodeId getNodeId(final int doc) throws IOException {
+        final int segment = getSegment(doc);
+        NodeIdColumn column = columns[segment];
+        if (column == null) {
+            column = columns[segment] = NodeIdColumn.getInstance(segmentReaders[segment]);
+        }
+        final NodeId id = column.getNodeId(doc - docStarts[segment]);
+        if (id != null) {
+            return id;
+        }
+        // fall back to the stored field
+        final Document document = reader.document(doc, FieldSelectors.UUID);
+        final String uuid = document.get(FieldNames.UUID);
+        return uuid == null ? null : new NodeId(uuid);
+    }
+
+    /**
+     * @return the id of the parent node of document <code>doc</code>, or <code>null</code> if unknown
+     */
+    public NodeId getParentId(final int doc) throws IOException {
+        final int segment = getSegment(doc);
+        NodeIdColumn column = parentColumns[segment];
+        if (column == null) {
+            column = parentColumns[segment] = NodeIdColumn.getInstance(segmentReaders[segment], FieldNames.PARENT);
+        }
+        return column.getNodeId(doc - docStarts[segment]);
+    }
+
+    /**
+     * @return the indexed {@link FieldNames#LABEL label} of document <code>doc</code>, that is the name of the node
+     * in the index internal namespace format, or <code>null</code> if unknown
+     */
+    public String getLabel(final int doc) throws IOException {
+        final int segment = getSegment(doc);
+        TermOrdinalColumn column = labelColumns[segment];
+        if (column == null) {
+            column = labelColumns[segment] = TermOrdinalColumn.getInstance(segmentReaders[segment], FieldNames.LABEL);
+        }
+        final int ordinal = column.getOrdinal(doc - docStarts[segment]);
+        return ordinal == -1 ? null : column.getTerm(ordinal);
+    }
+}
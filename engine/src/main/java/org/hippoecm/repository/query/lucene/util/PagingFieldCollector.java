@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.query.lucene.util;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
+
+/**
+ * Collects the top <code>numHits</code> hits for a {@link Sort} that sort <em>after</em> a given {@link FieldDoc},
+ * which is typically the last hit of the previous page. This way a sorted result can be iterated page by page with a
+ * priority queue of constant size instead of re-collecting all preceding hits for every next page.
+ * <p>
+ * The <code>after</code> hit must have been collected with the same sort and with its sort values filled in, see
+ * {@link TopFieldCollector#create(Sort, int, boolean, boolean, boolean, boolean)}. Hits with sort values equal to the
+ * <code>after</code> hit are ordered by doc id, as Lucene does itself.
+ * </p>
+ */
+public class PagingFieldCollector extends Collector {
+
+    private final TopFieldCollector delegate;
+    private final FieldDoc after;
+    private final FieldComparator<?>[] comparators;
+    private final int[] reverseMul;
+    private int docBase;
+
+    public PagingFieldCollector(final Sort sort, final int numHits, final FieldDoc after) throws IOException {
+        // track scores like the collector of the first window, such that deep hits have a jcr:score too
+        this.delegate = TopFieldCollector.create(sort, numHits, true, true, false, false);
+        this.after = after;
+        final SortField[] sortFields = sort.getSort();
+        this.comparators = new FieldComparator<?>[sortFields.length];
+        this.reverseMul = new int[sortFields.length];
+        for (int i = 0; i < sortFields.length; i++) {
+            // a single slot to copy the sort value of the current doc into
+            comparators[i] = sortFields[i].getComparator(1, i);
+            reverseMul[i] = sortFields[i].getReverse() ? -1 : 1;
+        }
+    }
+
+    public TopDocs topDocs() {
+        return delegate.topDocs();
+    }
+
+    @Override
+    public void setScorer(final Scorer scorer) throws IOException {
+        delegate.setScorer(scorer);
+        for (FieldComparator<?> comparator : comparators) {
+            comparator.setScorer(scorer);
+        }
+    }
+
+    @Override
+    public void collect(final int doc) throws IOException {
+        if (isAfter(doc)) {
+            delegate.collect(doc);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean isAfter(final int doc) throws IOException {
+        for (int i = 0; i < comparators.length; i++) {
+            final FieldComparator<Object> comparator = (FieldComparator<Object>) comparators[i];
+            comparator.copy(0, doc);
+            final int c = reverseMul[i] * comparator.compareValues(after.fields[i], comparator.value(0));
+            if (c != 0) {
+                return c < 0;
+            }
+        }
+        // equal sort values : tie break on doc id
+        return docBase + doc > after.doc;
+    }
+
+    @Override
+    public void setNextReader(final IndexReader reader, final int docBase) throws IOException {
+        this.docBase = docBase;
+        delegate.setNextReader(reader, docBase);
+        for (FieldComparator<?> comparator : comparators) {
+            comparator.setNextReader(reader, docBase);
+        }
+    }
+
+    @Override
+    public boolean acceptsDocsOutOfOrder() {
+        return false;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.query.lucene.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.WeakIdentityMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Uninverted view of a single (multi-valued) field for a single index segment: for every document the ordinals of the
+ * terms it contains, the ordinals being the positions of the terms in the sorted term dictionary of the field.
+ * <p>
+ * Columns are built once per segment core and field and are held in a weak map keyed by the
+ * {@link IndexReader#getCoreCacheKey() core cache key} of the segment, thus they disappear together with the segment
+ * when it is closed, for example after it has been merged away. Since deletions do not change the core of a segment,
+ * deleted documents can still have ordinals: callers should only count documents that are part of a search result.
+ * </p>
+ */
+public class TermOrdinalColumn {
+
+    private static final Logger log = LoggerFactory.getLogger(TermOrdinalColumn.class);
+
+    private static final WeakIdentityMap<Object, Map<String, TermOrdinalColumn>> columns = WeakIdentityMap.newConcurrentHashMap();
+
+    private final String[] terms;
+    // the ordinals for document 'doc' are found in ordinals[docStarts[doc]] until ordinals[docStarts[doc + 1]]
+    private final int[] docStarts;
+    private final int[] ordinals;
+
+    TermOrdinalColumn(final String[] terms, final int[] docStarts, final int[] ordinals) {
+        this.terms = terms;
+        this.docStarts = docStarts;
+        this.ordinals = ordinals;
+    }
+
+    /**
+     * @param reader a single segment reader, not a composite reader spanning multiple segments
+     * @param field  the interned name of the field to uninvert
+     * @return the (possibly shared) column for the <code>field</code> in segment <code>reader</code>
+     */
+    public static TermOrdinalColumn getInstance(final IndexReader reader, final String field) throws IOException {
+        final Object coreCacheKey = reader.getCoreCacheKey();
+        Map<String, TermOrdinalColumn> segmentColumns = columns.get(coreCacheKey);
+        if (segmentColumns == null) {
+            synchronized (columns) {
+                segmentColumns = columns.get(coreCacheKey);
+                if (segmentColumns == null) {
+                    segmentColumns = new ConcurrentHashMap<>();
+                    columns.put(coreCacheKey, segmentColumns);
+                }
+            }
+        }
+        TermOrdinalColumn column = segmentColumns.get(field);
+        if (column == null) {
+            synchronized (segmentColumns) {
+                column = segmentColumns.get(field);
+                if (column == null) {
+                    long start = System.currentTimeMillis();
+                    column = uninvert(reader, field);
+                    segmentColumns.put(field, column);
+                    log.debug("Uninverting field '{}' with {} terms for segment with max doc '{}' took {} ms.",
+                            field, column.terms.length, reader.maxDoc(), System.currentTimeMillis() - start);
+                }
+            }
+        }
+        return column;
+    }
+
+    static TermOrdinalColumn uninvert(final IndexReader reader, final String field) throws IOException {
+        final int maxDoc = reader.maxDoc();
+        final List<String> termList = new ArrayList<>();
+        // first pass: the postings as (doc, ordinal) pairs, in term order
+        IntList postingDocs = new IntList();
+        IntList postingOrdinals = new IntList();
+        final int[] docCounts = new int[maxDoc + 1];
+
+        final TermEnum termEnum = reader.terms(new Term(field, ""));
+        try {
+            final TermDocs termDocs = reader.termDocs();
+            try {
+                do {
+                    final Term term = termEnum.term();
+                    if (term == null || term.field() != field) { // interned comparison
+                        break;
+                    }
+                    final int ordinal = termList.size();
+                    termList.add(term.text());
+                    termDocs.seek(termEnum);
+                    while (termDocs.next()) {
+                        final int doc = termDocs.doc();
+                        postingDocs.add(doc);
+                        postingOrdinals.add(ordinal);
+                        docCounts[doc + 1]++;
+                    }
+                } while (termEnum.next());
+            } finally {
+                termDocs.close();
+            }
+        } finally {
+            termEnum.close();
+        }
+
+        // second pass: a counting sort of the postings by document
+        final int[] docStarts = new int[maxDoc + 1];
+        for (int doc = 0; doc < maxDoc; doc++) {
+            docStarts[doc + 1] = docStarts[doc] + docCounts[doc + 1];
+        }
+        final int[] fill = Arrays.copyOf(docStarts, maxDoc);
+        final int[] ordinals = new int[postingDocs.size];
+        for (int i = 0; i < postingDocs.size; i++) {
+            ordinals[fill[postingDocs.values[i]]++] = postingOrdinals.values[i];
+        }
+        return new TermOrdinalColumn(termList.toArray(new String[termList.size()]), docStarts, ordinals);
+    }
+
+    public int getTermCount() {
+        return terms.length;
+    }
+
+    public String getTerm(final int ordinal) {
+        return terms[ordinal];
+    }
+
+    /**
+     * @return the ordinal of the first term that is equal to or larger than <code>text</code>, which is
+     * {@link #getTermCount()} when all terms are smaller than <code>text</code>
+     */
+    public int ceilingOrdinal(final String text) {
+        final int index = Arrays.binarySearch(terms, text);
+        return index < 0 ? -(index + 1) : index;
+    }
+
+    /**
+     * @return the ordinal of the first term of document <code>doc</code> of this segment, or <code>-1</code> if the
+     * document does not have any term for the field of this column
+     */
+    public int getOrdinal(final int doc) {
+        if (doc + 1 >= docStarts.length || docStarts[doc] == docStarts[doc + 1]) {
+            return -1;
+        }
+        return ordinals[docStarts[doc]];
+    }
+
+    /**
+     * Counts for every term the number of documents in <code>docs</code> having that term.
+     *
+     * @param docs     the documents to count, in the doc id space of a composite reader
+     * @param docBase  the doc id in the composite reader of the first document of this segment
+     * @param counts   the per-ordinal counts to add to, at least {@link #getTermCount()} long
+     */
+    public void count(final OpenBitSet docs, final int docBase, final int[] counts) {
+        final int maxDoc = docStarts.length - 1;
+        final long end = Math.min(docs.size(), (long) docBase + maxDoc);
+        for (int doc = docs.nextSetBit(docBase); doc != -1 && doc < end; doc = docs.nextSetBit(doc + 1)) {
+            final int segmentDoc = doc - docBase;
+            for (int i = docStarts[segmentDoc]; i < docStarts[segmentDoc + 1]; i++) {
+                counts[ordinals[i]]++;
+            }
+        }
+    }
+
+    /**
+     * @return the number of (document, term) pairs with a document in <code>docs</code> and a term ordinal in
+     * <code>[fromOrdinal, toOrdinal)</code>
+     */
+    public int countRange(final OpenBitSet docs, final int docBase, final int fromOrdinal, final int toOrdinal) {
+        if (fromOrdinal >= toOrdinal) {
+            return 0;
+        }
+        int count = 0;
+        final int maxDoc = docStarts.length - 1;
+        final long end = Math.min(docs.size(), (long) docBase + maxDoc);
+        for (int doc = docs.nextSetBit(docBase); doc != -1 && doc < end; doc = docs.nextSetBit(doc + 1)) {
+            final int segmentDoc = doc - docBase;
+            for (int i = docStarts[segmentDoc]; i < docStarts[segmentDoc + 1]; i++) {
+                if (ordinals[i] >= fromOrdinal && ordinals[i] < toOrdinal) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static final class IntList {
+
+        private int[] values = new int[64];
+        private int size;
+
+        private void add(final int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size << 1);
+            }
+            values[size++] = value;
+        }
+    }
+
+}
@@ -0,0 +1,270 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.security;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.query.Query;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import org.hippoecm.repository.api.HippoNodeType;
+import org.hippoecm.repository.security.domain.AuthRole;
+import org.hippoecm.repository.security.domain.Domain;
+import org.hippoecm.repository.security.principals.FacetAuthPrincipal;
+import org.hippoecm.repository.util.NodeIterable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable snapshot of the domain and role configuration, compiled once such that the facet auth principals of a
+ * user can be determined with lookups only, without querying the repository.
+ * <p>
+ * The facet auth principals computed for a combination of user and groups are kept in a bounded cache of the model,
+ * which is dropped together with the model when the domain or role configuration changes. Facet rules of type
+ * Reference are compiled to the identifier of the referenced node, hence the model is also dropped when a referenced
+ * node is added, removed or moved.
+ * </p>
+ */
+class FacetAuthModel {
+
+    private static final Logger log = LoggerFactory.getLogger(FacetAuthModel.class);
+
+    private static final int MAX_CACHED_PRINCIPAL_SETS = 10000;
+
+    private final Map<String, Set<Domain>> domainsByUser = new HashMap<>();
+    private final Map<String, Set<Domain>> domainsByGroup = new HashMap<>();
+    private final Map<String, Set<String>> includedRolesByRole = new HashMap<>();
+    private final Map<String, Set<String>> privilegesByRole = new HashMap<>();
+    private final Map<String, String> references = new HashMap<>();
+    private final Cache<List<Object>, Set<FacetAuthPrincipal>> principals =
+            CacheBuilder.newBuilder().maximumSize(MAX_CACHED_PRINCIPAL_SETS).build();
+    private final long creationTime = System.currentTimeMillis();
+    private boolean unresolvedReferences;
+
+    private FacetAuthModel() {
+    }
+
+    /**
+     * Compiles the model from the domains below <code>domainsPath</code> and the roles below <code>rolesPath</code>.
+     */
+    static FacetAuthModel build(final Session session, final String domainsPath, final String rolesPath)
+            throws RepositoryException {
+        final long start = System.currentTimeMillis();
+        final FacetAuthModel model = new FacetAuthModel();
+
+        final String statement = "SELECT * FROM " + HippoNodeType.NT_AUTHROLE
+                + " WHERE jcr:path LIKE '/" + domainsPath + "/%'";
+        final Query query = session.getWorkspace().getQueryManager().createQuery(statement, Query.SQL);
+        final Set<String> domainPaths = new HashSet<>();
+        final NodeIterator authRoles = query.execute().getNodes();
+        while (authRoles.hasNext()) {
+            // the parent of the auth role node is the domain node
+            final Node domainNode = authRoles.nextNode().getParent();
+            if (!domainPaths.add(domainNode.getPath())) {
+                continue;
+            }
+            final Domain domain = new Domain(domainNode);
+            model.unresolvedReferences |= domain.hasUnresolvedReferences();
+            model.references.putAll(domain.getReferences());
+            for (AuthRole authRole : domain.getAuthRoles()) {
+                for (String userId : authRole.getUsers()) {
+                    add(model.domainsByUser, userId, domain);
+                }
+                for (String groupId : authRole.getGroups()) {
+                    add(model.domainsByGroup, groupId, domain);
+                }
+            }
+        }
+
+        if (session.nodeExists("/" + rolesPath)) {
+            for (Node roleNode : new NodeIterable(session.getNode("/" + rolesPath).getNodes())) {
+                final Set<String> includedRoles = new HashSet<>();
+                if (roleNode.hasProperty(HippoNodeType.HIPPO_ROLES)) {
+                    for (Value value : roleNode.getProperty(HippoNodeType.HIPPO_ROLES).getValues()) {
+                        includedRoles.add(value.getString());
+                    }
+                }
+                final Set<String> privileges = new HashSet<>();
+                if (roleNode.hasProperty(HippoNodeType.HIPPO_PRIVILEGES)) {
+                    for (Value value : roleNode.getProperty(HippoNodeType.HIPPO_PRIVILEGES).getValues()) {
+                        addPrivilege(privileges, value.getString());
+                    }
+                }
+                model.includedRolesByRole.put(roleNode.getName(), includedRoles);
+                model.privilegesByRole.put(roleNode.getName(), privileges);
+            }
+        }
+
+        log.info("Compiled domains for {} users and {} groups and {} roles in {} ms", model.domainsByUser.size(),
+                model.domainsByGroup.size(), model.privilegesByRole.size(), System.currentTimeMillis() - start);
+        return model;
+    }
+
+    private static void add(final Map<String, Set<Domain>> domainsById, final String id, final Domain domain) {
+        Set<Domain> domains = domainsById.get(id);
+        if (domains == null) {
+            domains = new HashSet<>();
+            domainsById.put(id, domains);
+        }
+        domains.add(domain);
+    }
+
+    private static void addPrivilege(final Set<String> privileges, final String privilege) {
+        // FIXME: temp hack for aggregate privileges as defined in jsr-283, 6.11.1.2
+        if ("jcr:write".equals(privilege)) {
+            privileges.add("jcr:write");
+            privileges.add("jcr:setProperties");
+            privileges.add("jcr:addChildNodes");
+            privileges.add("jcr:removeChildNodes");
+        } else if ("jcr:all".equals(privilege)) {
+            privileges.add("jcr:read");
+            // jcr:acp
+            privileges.add("jcr:getAccessControlPolicy");
+            privileges.add("jcr:setAccessControlPolicy");
+            // jcr:write
+            privileges.add("jcr:setProperties");
+            privileges.add("jcr:addChildNodes");
+            privileges.add("jcr:removeChildNodes");
+        } else {
+            privileges.add(privilege);
+        }
+    }
+
+    /**
+     * @return true if some domain rule or facet rule was skipped because it refers to a node that did not exist when
+     * the model was compiled, in which case the model should not be kept for long as such a node can be created without the
+     * domain configuration changing
+     */
+    boolean hasUnresolvedReferences() {
+        return unresolvedReferences;
+    }
+
+    boolean hasReferences() {
+        return !references.isEmpty();
+    }
+
+    /**
+     * @return true if a node added, removed or moved at <code>path</code> affects a path referred to by a facet rule
+     * of type Reference, i.e. the referenced path is <code>path</code> or a descendant of it
+     */
+    boolean refersTo(final String path) {
+        final String prefix = path.endsWith("/") ? path : path + "/";
+        for (String referencePath : references.keySet()) {
+            if (referencePath.equals(path) || referencePath.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a path referred to by a facet rule of type Reference no longer resolves to the identifier it
+     * resolved to when the model was compiled
+     */
+    boolean hasChangedReferences(final Session session) {
+        for (Map.Entry<String, String> reference : references.entrySet()) {
+            try {
+                final String path = reference.getKey();
+                final String identifier = session.nodeExists(path) ? session.getNode(path).getIdentifier() : null;
+                if (identifier == null ? reference.getValue() != null : !identifier.equals(reference.getValue())) {
+                    log.debug("Reference '{}' changed while compiling the domains", path);
+                    return true;
+                }
+            } catch (RepositoryException e) {
+                log.debug("Unable to check reference '{}': {}", reference.getKey(), e.getMessage());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    long getAge() {
+        return System.currentTimeMillis() - creationTime;
+    }
+
+    /**
+     * @return the domains in which the user (with normalized, decoded <code>userId</code>) has a role
+     */
+    Set<Domain> getDomainsForUser(final String userId) {
+        final Set<Domain> domains = domainsByUser.get(userId);
+        return domains != null ? Collections.unmodifiableSet(domains) : Collections.<Domain>emptySet();
+    }
+
+    /**
+     * @return the domains in which the group (with normalized, decoded <code>groupId</code>) has a role
+     */
+    Set<Domain> getDomainsForGroup(final String groupId) {
+        final Set<Domain> domains = domainsByGroup.get(groupId);
+        return domains != null ? Collections.unmodifiableSet(domains) : Collections.<Domain>emptySet();
+    }
+
+    /**
+     * @return all roles that are directly or indirectly included by the role <code>roleId</code>
+     */
+    Set<String> getRolesForRole(final String roleId) {
+        final Set<String> roles = new HashSet<>();
+        addIncludedRoles(roleId, roles);
+        return roles;
+    }
+
+    private void addIncludedRoles(final String roleId, final Set<String> roles) {
+        final Set<String> includedRoles = includedRolesByRole.get(roleId);
+        if (includedRoles == null) {
+            log.debug("Role not found: {}", roleId);
+            return;
+        }
+        for (String includedRole : includedRoles) {
+            if (roles.add(includedRole)) {
+                addIncludedRoles(includedRole, roles);
+            }
+        }
+    }
+
+    Set<String> getPrivilegesForRole(final String roleId) {
+        final Set<String> privileges = privilegesByRole.get(roleId);
+        return privileges != null ? Collections.unmodifiableSet(privileges) : Collections.<String>emptySet();
+    }
+
+    /**
+     * @return the facet auth principals for <code>key</code>, computed by <code>loader</code> if not yet cached
+     */
+    Set<FacetAuthPrincipal> getFacetAuthPrincipals(final List<Object> key,
+                                                   final Callable<Set<FacetAuthPrincipal>> loader)
+            throws RepositoryException {
+        try {
+            return principals.get(key, loader);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RepositoryException) {
+                throw (RepositoryException) e.getCause();
+            }
+            throw new RepositoryException(e.getCause());
+        }
+    }
+}
@@ -27,6 +27,7 @@ import org.apache.jackrabbit.core.fs.FileSystem;
 import org.apache.jackrabbit.core.security.AMContext;
 import org.apache.jackrabbit.core.security.AccessManager;
 import org.apache.jackrabbit.core.state.SessionItemStateManager;
+import org.apache.jackrabbit.core.state.SharedItemStateManager;
 import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
 
 /**
@@ -48,6 +49,11 @@ public class HippoAMContext extends AMContext {
      */
     private final SessionItemStateManager itemMgr;
 
+    /**
+     * SharedItemStateManager of the workspace for listening to all persisted changes
+     */
+    private final SharedItemStateManager sharedItemMgr;
+
     /**
      * Creates a new <code>AMContext</code>.
      *
@@ -68,9 +74,32 @@ public class HippoAMContext extends AMContext {
                      String workspaceName,
                      NodeTypeManager ntMgr,
                      SessionItemStateManager itemMgr) {
+        this(physicalHomeDir, fs, session, subject, hierMgr, privilegeMgr, npResolver, workspaceName, ntMgr, itemMgr,
+                null);
+    }
+
+    /**
+     * Creates a new <code>AMContext</code>.
+     *
+     * @param sharedItemMgr the shared item state manager of the workspace, or <code>null</code> if not available
+     * @see #HippoAMContext(File, FileSystem, Session, Subject, HierarchyManager, PrivilegeManager, NamePathResolver,
+     * String, NodeTypeManager, SessionItemStateManager)
+     */
+    public HippoAMContext(File physicalHomeDir,
+                     FileSystem fs,
+                     Session session,
+                     Subject subject,
+                     HierarchyManager hierMgr,
+                     PrivilegeManager privilegeMgr,
+                     NamePathResolver npResolver,
+                     String workspaceName,
+                     NodeTypeManager ntMgr,
+                     SessionItemStateManager itemMgr,
+                     SharedItemStateManager sharedItemMgr) {
         super(physicalHomeDir, fs, session, subject, hierMgr, privilegeMgr, npResolver, workspaceName);
         this.ntMgr = ntMgr;
         this.itemMgr = itemMgr;
+        this.sharedItemMgr = sharedItemMgr;
     }
 
     /**
@@ -89,4 +118,12 @@ public class HippoAMContext extends AMContext {
     public SessionItemStateManager getSessionItemStateManager() {
         return itemMgr;
     }
+
+    /**
+     * Returns the SharedItemStateManager of the workspace
+     * @return the SharedItemStateManager or <code>null</code> if not available
+     */
+    public SharedItemStateManager getSharedItemStateManager() {
+        return sharedItemMgr;
+    }
 }
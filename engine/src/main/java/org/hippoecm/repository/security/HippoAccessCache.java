@@ -1,5 +1,5 @@
 /*
- *  Copyright 2008-2015 Hippo B.V. (http://www.onehippo.com)
+ *  Copyright 2008-2017 Hippo B.V. (http://www.onehippo.com)
  * 
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -17,13 +17,17 @@ package org.hippoecm.repository.security;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.jackrabbit.core.id.ItemId;
 
 /**
- * Cache access permissions for the HippoAccessManager
- * User <code>HippoAccessCache.getInstance(userId)<code> to
- * get a cache for the given userId. The cache is thread safe.
+ * Cache access permissions for the HippoAccessManager. The cache is thread safe.
+ * <p>
+ * Optionally the cache is backed by the {@link SharedAccessCache.Profile} of all sessions with the same authorization
+ * profile: a miss in this cache is looked up in the shared profile, and permissions that are not specific to the
+ * session are stored in both.
+ * </p>
  */
 public class HippoAccessCache {
 
@@ -37,14 +41,25 @@ public class HippoAccessCache {
      */
     private final int maxCacheSize;
 
+    /**
+     * The shared permissions of the authorization profile, can be null
+     */
+    private final SharedAccessCache.Profile sharedProfile;
+
     /**
      * Counters
      */
-    private long accesses = 0L;
-    private long hits = 0L;
-    private long misses = 0L;
+    private final AtomicLong accesses = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong sharedHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
 
     HippoAccessCache(final int cacheSize) {
+        this(cacheSize, null);
+    }
+
+    HippoAccessCache(final int cacheSize, final SharedAccessCache.Profile sharedProfile) {
+        this.sharedProfile = cacheSize < 1 ? null : sharedProfile;
         // set the current size;
         maxCacheSize = cacheSize;
         if (maxCacheSize < 1) {
@@ -64,14 +79,27 @@ public class HippoAccessCache {
         if (maxCacheSize < 1) {
             return null;
         }
-        accesses++;
-        Boolean obj = readAccessCache.get(id);
-        if (obj == null) {
-            misses++;
-        } else {
-            hits++;
+        accesses.incrementAndGet();
+        Boolean obj;
+        synchronized (readAccessCache) {
+            obj = readAccessCache.get(id);
         }
-        return obj;
+        if (obj != null) {
+            hits.incrementAndGet();
+            return obj;
+        }
+        if (sharedProfile != null) {
+            obj = sharedProfile.get(id);
+            if (obj != null) {
+                sharedHits.incrementAndGet();
+                synchronized (readAccessCache) {
+                    readAccessCache.put(id, obj);
+                }
+                return obj;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
     }
 
     /**
@@ -83,7 +111,31 @@ public class HippoAccessCache {
         if (maxCacheSize < 1) {
             return;
         }
-        readAccessCache.put(id, isGranted);
+        synchronized (readAccessCache) {
+            readAccessCache.put(id, isGranted);
+        }
+    }
+
+    /**
+     * @return the generation to pass to {@link #put(ItemId, ItemId, boolean, long)} for a permission that is going
+     * to be evaluated
+     */
+    public long getGeneration() {
+        return sharedProfile != null ? sharedProfile.getGeneration() : 0L;
+    }
+
+    /**
+     * Store key-value in cache and share it with the other sessions of the same authorization profile
+     * @param id ItemId the key
+     * @param parentId the id of the parent node, null for the root node
+     * @param isGranted the value
+     * @param generation the {@link #getGeneration() generation} obtained before evaluating the permission
+     */
+    public void put(ItemId id, ItemId parentId, boolean isGranted, long generation) {
+        put(id, isGranted);
+        if (sharedProfile != null) {
+            sharedProfile.put(id, parentId, isGranted, generation);
+        }
     }
 
     /**
@@ -94,17 +146,24 @@ public class HippoAccessCache {
         if (maxCacheSize < 1) {
             return;
         }
-        readAccessCache.remove(id);
+        synchronized (readAccessCache) {
+            readAccessCache.remove(id);
+        }
+        if (sharedProfile != null) {
+            sharedProfile.remove(id);
+        }
     }
 
     /**
-     * Clear the cache
+     * Clear the cache, the shared permissions are left alone
      */
     public void clear() {
         if (maxCacheSize < 1) {
             return;
         }
-        readAccessCache.clear();
+        synchronized (readAccessCache) {
+            readAccessCache.clear();
+        }
     }
 
     /**
@@ -112,9 +171,19 @@ public class HippoAccessCache {
      * @return int
      */
     public int getSize() {
-        int size;
-        size = readAccessCache.size();
-        return size;
+        if (maxCacheSize < 1) {
+            return 0;
+        }
+        synchronized (readAccessCache) {
+            return readAccessCache.size();
+        }
+    }
+
+    /**
+     * @return the shared permissions backing this cache, or <code>null</code> if permissions are not shared
+     */
+    public SharedAccessCache.Profile getSharedProfile() {
+        return sharedProfile;
     }
 
     /**
@@ -122,7 +191,7 @@ public class HippoAccessCache {
      * @return long
      */
     public long getAccesses() {
-        return accesses;
+        return accesses.get();
     }
 
     /**
@@ -130,7 +199,15 @@ public class HippoAccessCache {
      * @return long
      */
     public long getHits() {
-        return hits;
+        return hits.get();
+    }
+
+    /**
+     * Total number of cache misses that were found in the shared permissions
+     * @return long
+     */
+    public long getSharedHits() {
+        return sharedHits.get();
     }
 
     /**
@@ -138,7 +215,7 @@ public class HippoAccessCache {
      * @return long
      */
     public long getMisses() {
-        return misses;
+        return misses.get();
     }
 
     /**
@@ -16,6 +16,7 @@
 package org.hippoecm.repository.security;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -63,6 +64,7 @@ import org.apache.jackrabbit.core.state.ItemStateListener;
 import org.apache.jackrabbit.core.state.NoSuchItemStateException;
 import org.apache.jackrabbit.core.state.NodeState;
 import org.apache.jackrabbit.core.state.PropertyState;
+import org.apache.jackrabbit.core.state.SharedItemStateManager;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.Path;
@@ -163,6 +165,7 @@ public class HippoAccessManager implements AccessManager, AccessControlManager,
      * The HippoAccessCache instance
      */
     private HippoAccessCache readAccessCache;
+    private SharedAccessCache sharedAccessCache;
     private WeakHashMap<HippoNodeId, Boolean> readVirtualAccessCache;
 
     private static final int DEFAULT_PERM_CACHE_SIZE = 20000;
@@ -223,9 +226,11 @@ public class HippoAccessManager implements AccessManager, AccessControlManager,
         subject = context.getSubject();
         npRes = context.getNamePathResolver();
 
+        SharedItemStateManager sharedItemMgr = null;
         if (context instanceof HippoAMContext) {
             ntMgr = ((HippoAMContext) context).getNodeTypeManager();
             itemMgr = (HippoSessionItemStateManager) ((HippoAMContext) context).getSessionItemStateManager();
+            sharedItemMgr = ((HippoAMContext) context).getSharedItemStateManager();
         }
 
         hierMgr = itemMgr.getHierarchyMgr();
@@ -275,7 +280,14 @@ public class HippoAccessManager implements AccessManager, AccessControlManager,
         if (!filterPrincipals.isEmpty() || userIds.size() != 1) {
             initializeExtendedFacetRules(filterPrincipals);
         }
-        readAccessCache = new HippoAccessCache(cacheSize);
+        if (isUser && !isSystem && extendedFacetRules == null && sharedItemMgr != null && cacheSize > 0) {
+            // share the permissions with all other sessions that evaluate read access in exactly the same way
+            sharedAccessCache = SharedAccessCache.getInstance(sharedItemMgr);
+            readAccessCache = new HippoAccessCache(cacheSize,
+                    sharedAccessCache.acquire(getAuthorizationProfileKey(), cacheSize));
+        } else {
+            readAccessCache = new HippoAccessCache(cacheSize);
+        }
         readVirtualAccessCache = new WeakHashMap<>();
 
         // we're done
@@ -284,6 +296,25 @@ public class HippoAccessManager implements AccessManager, AccessControlManager,
         log.info("Initialized HippoAccessManager for user {} with cache size {}", getUserIdAsString(), cacheSize);
     }
 
+    /**
+     * @return a key that is equal for all sessions for which {@link #canRead(NodeId)} gives the same outcome: the
+     * same domains with the same rules, roles and privileges and the same group memberships. The user id only matters
+     * when a facet rule expands to the user id.
+     */
+    private Object getAuthorizationProfileKey() {
+        final Set<Object> domains = new HashSet<>();
+        boolean expandsUser = false;
+        for (FacetAuthPrincipal fap : subject.getPrincipals(FacetAuthPrincipal.class)) {
+            domains.add(Arrays.asList(fap.getName(), fap.getRules(), fap.getRoles(), fap.getPrivileges()));
+            for (DomainRule domainRule : fap.getRules()) {
+                for (QFacetRule facetRule : domainRule.getFacetRules()) {
+                    expandsUser |= FacetAuthConstants.EXPANDER_USER.equals(facetRule.getValue());
+                }
+            }
+        }
+        return Arrays.asList(domains, new HashSet<>(groupIds), expandsUser ? new ArrayList<>(userIds) : null);
+    }
+
     private void initializeExtendedFacetRules(final Set<AuthorizationFilterPrincipal> filterPrincipals) throws RepositoryException {
         extendedFacetRules = new HashMap<String, Collection<QFacetRule>>();
         final Set<FacetAuthPrincipal> facetAuthPrincipals = subject.getPrincipals(FacetAuthPrincipal.class);
@@ -308,6 +339,10 @@ public class HippoAccessManager implements AccessManager, AccessControlManager,
 
         // clear out all caches
         readAccessCache.clear();
+        if (sharedAccessCache != null) {
+            sharedAccessCache.release(readAccessCache.getSharedProfile());
+            sharedAccessCache = null;
+        }
         readVirtualAccessCache.clear();
         //requestItemStateCache.clear();
         groupIds.clear();
@@ -510,6 +545,10 @@ public class HippoAccessManager implements AccessManager, AccessControlManager,
                 log.debug("Checking canRead for node: {}", npRes.getJCRPath(hierMgr.getPath(id)));
             }
 
+            // obtained before reading any state such that a permission evaluated against state that changed
+            // concurrently is not shared with other sessions
+            final long generation = readAccessCache.getGeneration();
+
             NodeState nodeState;
             try {
                 nodeState = (NodeState) getItemState(id);
@@ -540,13 +579,13 @@ public class HippoAccessManager implements AccessManager, AccessControlManager,
                 Set<String> privs = fap.getPrivileges();
                 if (privs.contains("jcr:read")) {
                     if (isNodeInDomain(nodeState, fap, true)) {
-                        addAccessToCache(id, true);
+                        addAccessToCache(nodeState, true, generation);
                         return true;
                     }
                 }
             }
 
-            addAccessToCache(id, false);
+            addAccessToCache(nodeState, false, generation);
             if (log.isInfoEnabled()) {
                 log.info("DENIED read : {}", npRes.getJCRPath(hierMgr.getPath(id)));
             }
@@ -576,6 +615,21 @@ public class HippoAccessManager implements AccessManager, AccessControlManager,
         }
     }
 
+    /**
+     * Caches a permission evaluated against <code>nodeState</code>, sharing it with the other sessions of the
+     * same authorization profile when it does not depend on unsaved changes of this session
+     */
+    private void addAccessToCache(NodeState nodeState, boolean value, long generation) {
+        final NodeId id = nodeState.getNodeId();
+        if (id instanceof HippoNodeId) {
+            readVirtualAccessCache.put((HippoNodeId) id, value);
+        } else if (nodeState.getStatus() == ItemState.STATUS_EXISTING && !itemMgr.hasAnyTransientItemStates()) {
+            readAccessCache.put(id, nodeState.getParentId(), value, generation);
+        } else {
+            readAccessCache.put(id, value);
+        }
+    }
+
     private void removeAccessFromCache(NodeId id) {
         if (id instanceof HippoNodeId) {
             readVirtualAccessCache.remove(id);
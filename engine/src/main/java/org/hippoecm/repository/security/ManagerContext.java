@@ -50,6 +50,11 @@ public class ManagerContext {
 
     private boolean maintenanceMode;
 
+    /**
+     * Whether the manager may keep an in-memory index of the information below the path.
+     */
+    private final boolean indexed;
+
     /**
      * Initialize the context for the repository based authentication and authorization.
      * @param session Session The system/root session
@@ -58,7 +63,18 @@ public class ManagerContext {
      * @param session the providers own session
      */
     public ManagerContext(Session session, String providerPath, String path, boolean maintenanceMode) throws RepositoryException {
+        this(session, providerPath, path, maintenanceMode, false);
+    }
+
+    /**
+     * Initialize the context for the repository based authentication and authorization.
+     * @param indexed whether the manager may keep an in-memory index of the information below the path, which only
+     *                makes sense for long-lived managers
+     * @see #ManagerContext(Session, String, String, boolean)
+     */
+    public ManagerContext(Session session, String providerPath, String path, boolean maintenanceMode, boolean indexed) throws RepositoryException {
         this.session = session;
+        this.indexed = indexed;
         this.providerPath = providerPath;
         this.providerId = providerPath.substring(providerPath.lastIndexOf('/') + 1);
         this.path = path;
@@ -102,4 +118,11 @@ public class ManagerContext {
     public boolean isMaintenanceMode() {
         return maintenanceMode;
     }
+
+    /**
+     * Whether the manager may keep an in-memory index of the information below the path.
+     */
+    public boolean isIndexed() {
+        return indexed;
+    }
 }
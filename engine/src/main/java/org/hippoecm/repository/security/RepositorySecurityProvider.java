@@ -37,11 +37,18 @@ public class RepositorySecurityProvider extends AbstractSecurityProvider {
         userManager = new RepositoryUserManager();
         ((AbstractUserManager)userManager).init(mgrContext);
 
-        mgrContext = new ManagerContext(context.getSession(), context.getProviderPath(), context.getGroupsPath(), context.isMaintenanceMode());
+        mgrContext = new ManagerContext(context.getSession(), context.getProviderPath(), context.getGroupsPath(), context.isMaintenanceMode(), true);
         groupManager = new RepositoryGroupManager();
         groupManager.init(mgrContext);
     }
 
+    @Override
+    public void remove() {
+        if (groupManager instanceof RepositoryGroupManager) {
+            ((RepositoryGroupManager) groupManager).dispose();
+        }
+    }
+
     @Override
     public UserManager getUserManager(final Session session) throws RepositoryException {
         final ManagerContext mgrContext = new ManagerContext(session, context.getProviderPath(),
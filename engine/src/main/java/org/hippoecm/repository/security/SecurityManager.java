@@ -1,5 +1,5 @@
 /*
- *  Copyright 2008-2013 Hippo B.V. (http://www.onehippo.com)
+ *  Copyright 2008-2017 Hippo B.V. (http://www.onehippo.com)
  * 
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -17,6 +17,8 @@ package org.hippoecm.repository.security;
 
 import java.io.IOException;
 import java.security.Principal;
+import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -27,17 +29,21 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.AccessDeniedException;
 import javax.jcr.Credentials;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
-import javax.jcr.PathNotFoundException;
 import javax.jcr.Repository;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
-import javax.jcr.Value;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryResult;
 import javax.security.auth.Subject;
@@ -73,6 +79,7 @@ import org.apache.jackrabbit.core.security.principal.ProviderRegistryImpl;
 import org.apache.jackrabbit.core.security.simple.SimpleAccessManager;
 import org.hippoecm.repository.api.HippoNodeType;
 import org.hippoecm.repository.api.NodeNameCodec;
+import org.hippoecm.repository.api.SynchronousEventListener;
 import org.hippoecm.repository.security.domain.Domain;
 import org.hippoecm.repository.security.group.DummyGroupManager;
 import org.hippoecm.repository.security.group.GroupManager;
@@ -93,6 +100,38 @@ public class SecurityManager implements HippoSecurityManager {
 
     private static final Logger log = LoggerFactory.getLogger(SecurityManager.class);
 
+    /**
+     * Login module option for the maximum number of recently verified credentials to keep, disabled by default
+     */
+    public static final String VERIFIED_CREDENTIALS_CACHE_SIZE = "verifiedCredentialsCacheSize";
+
+    /**
+     * Login module option for the number of seconds to keep a verified credential
+     */
+    public static final String VERIFIED_CREDENTIALS_CACHE_TTL = "verifiedCredentialsCacheTimeToLive";
+
+    private static final long DEFAULT_VERIFIED_CREDENTIALS_CACHE_TTL = 60L;
+
+    /**
+     * Login module option for the number of milliseconds between two batches of last login and external user info
+     * synchronization writes; 0 or less to write them synchronously while logging in. The memberships of external
+     * users are always synchronized while logging in.
+     */
+    public static final String USER_SYNC_INTERVAL = "userSyncInterval";
+
+    private static final long DEFAULT_USER_SYNC_INTERVAL = 1000L;
+
+    private static final int ALL_EVENTS = Event.NODE_ADDED | Event.NODE_REMOVED | Event.NODE_MOVED
+            | Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED;
+
+    private static final int NODE_EVENTS = Event.NODE_ADDED | Event.NODE_REMOVED | Event.NODE_MOVED;
+
+    /**
+     * Time after which a compiled domain configuration in which some facet rule refers to a non-existing node is
+     * compiled again
+     */
+    private static final long UNRESOLVED_FACET_AUTH_MODEL_TTL = 60 * 1000L;
+
     private String usersPath;
     private String groupsPath;
     private String rolesPath;
@@ -105,6 +144,13 @@ public class SecurityManager implements HippoSecurityManager {
     private SecurityConfig config;
     private boolean maintenanceMode;
     private PrincipalProviderRegistry principalProviderRegistry;
+    private VerifiedCredentialsCache verifiedCredentialsCache;
+    private UserSyncWriter userSyncWriter;
+
+    private volatile FacetAuthModel facetAuthModel;
+    private final AtomicLong facetAuthModelGeneration = new AtomicLong();
+    private final Object facetAuthModelLock = new Object();
+    private final List<EventListener> facetAuthModelListeners = new CopyOnWriteArrayList<>();
 
     private AuthContextProvider authCtxProvider;
 
@@ -151,6 +197,7 @@ public class SecurityManager implements HippoSecurityManager {
         if (providers.size() == 0) {
             log.error("No security providers found: login will not be possible!");
         }
+        registerFacetAuthModelListeners();
     }
 
     class HippoJAASAuthContext extends JAASAuthContext {
@@ -217,6 +264,7 @@ public class SecurityManager implements HippoSecurityManager {
         }
 
         Properties[] moduleConfig = authCtxProvider.getModuleConfig();
+        long userSyncInterval = DEFAULT_USER_SYNC_INTERVAL;
 
         // retrieve default-ids (admin and anomymous) from login-module-configuration.
         for (final Properties aModuleConfig : moduleConfig) {
@@ -229,6 +277,21 @@ public class SecurityManager implements HippoSecurityManager {
             if (aModuleConfig.containsKey("maintenanceMode")) {
                 maintenanceMode = Boolean.parseBoolean(aModuleConfig.getProperty("maintenanceMode"));
             }
+            if (aModuleConfig.containsKey(VERIFIED_CREDENTIALS_CACHE_SIZE)) {
+                final int cacheSize = Integer.parseInt(aModuleConfig.getProperty(VERIFIED_CREDENTIALS_CACHE_SIZE));
+                final long timeToLive = Long.parseLong(aModuleConfig.getProperty(VERIFIED_CREDENTIALS_CACHE_TTL,
+                        String.valueOf(DEFAULT_VERIFIED_CREDENTIALS_CACHE_TTL)));
+                if (cacheSize > 0 && timeToLive > 0) {
+                    verifiedCredentialsCache = new VerifiedCredentialsCache(cacheSize, timeToLive);
+                    log.info("Caching at most {} verified credentials for {} seconds", cacheSize, timeToLive);
+                }
+            }
+            if (aModuleConfig.containsKey(USER_SYNC_INTERVAL)) {
+                userSyncInterval = Long.parseLong(aModuleConfig.getProperty(USER_SYNC_INTERVAL));
+            }
+        }
+        if (userSyncInterval > 0) {
+            userSyncWriter = new UserSyncWriter(providers, userSyncInterval);
         }
         // fallback:
         if (adminID == null) {
@@ -288,9 +351,15 @@ public class SecurityManager implements HippoSecurityManager {
                 }
 
                 // check the password
-                if (!((HippoUserManager)providers.get(providerId).getUserManager()).authenticate(creds)) {
+                final String passwordHash = getCacheablePasswordHash(user, providerId, creds);
+                if (passwordHash != null
+                        && verifiedCredentialsCache.isVerified(userId, providerId, passwordHash, creds.getPassword())) {
+                    log.debug("Credentials of user {} recently verified, provider: {}", userId, providerId);
+                } else if (!((HippoUserManager)providers.get(providerId).getUserManager()).authenticate(creds)) {
                     log.debug("Invalid username and password: {}, provider: {}", userId, providerId);
                     return AuthenticationStatus.FAILED;
+                } else if (passwordHash != null) {
+                    verifiedCredentialsCache.setVerified(userId, providerId, passwordHash, creds.getPassword());
                 }
             } else {
                 // loop over providers and try to authenticate.
@@ -329,22 +398,22 @@ public class SecurityManager implements HippoSecurityManager {
                 return AuthenticationStatus.SUCCEEDED;
             }
 
-            // The sync blocks are synchronized because the underlying
-            // methods can share the same jcr session and the jcr session is
-            // not thread safe. This is a "best effort" solution as the usrMgr
-            // and the groupMgr could also share the same session but generally
-            // do not operate on the same nodes.
-
-            synchronized(userMgr) {
-                userMgr.syncUserInfo(userId);
-                userMgr.updateLastLogin(userId);
-                userMgr.saveUsers();
+            // The user info and last login of a user that already existed are written in the background.
+            // A new user is synchronized right away as it must exist before its memberships can be.
+            if (userSyncWriter != null && user != null) {
+                userSyncWriter.loginSucceeded(providerId, userId, Calendar.getInstance());
+            } else {
+                // The sync blocks are synchronized because the underlying
+                // methods can share the same jcr session and the jcr session is
+                // not thread safe. This is a "best effort" solution as the usrMgr
+                // and the groupMgr could also share the same session but generally
+                // do not operate on the same nodes.
+                UserSyncWriter.syncUsers(userMgr, Collections.singletonMap(userId, Calendar.getInstance()));
             }
 
-            synchronized(groupMgr) {
-                groupMgr.syncMemberships(userMgr.getUser(userId));
-                groupMgr.saveGroups();
-            }
+            // The memberships are needed for the principals of this login, thus they are always
+            // synchronized right away
+            UserSyncWriter.syncMemberships(groupMgr, userMgr.getUser(userId));
 
             return AuthenticationStatus.SUCCEEDED;
         } catch (RepositoryException e) {
@@ -353,6 +422,25 @@ public class SecurityManager implements HippoSecurityManager {
         }
     }
 
+    /**
+     * @return the password hash stored for <code>user</code> when verifications of its credentials can be cached,
+     * otherwise <code>null</code>. External providers are not cached as their passwords can change elsewhere.
+     */
+    private String getCacheablePasswordHash(final Node user, final String providerId, final SimpleCredentials creds)
+            throws RepositoryException {
+        if (verifiedCredentialsCache == null || maintenanceMode || !INTERNAL_PROVIDER.equals(providerId)) {
+            return null;
+        }
+        if (creds.getPassword() == null || creds.getPassword().length == 0) {
+            return null;
+        }
+        // a passkey is checked instead of or before the password hash
+        if (user.hasProperty(HippoNodeType.HIPPO_PASSKEY) || !user.hasProperty(HippoNodeType.HIPPO_PASSWORD)) {
+            return null;
+        }
+        return user.getProperty(HippoNodeType.HIPPO_PASSWORD).getString();
+    }
+
     /**
      * Get the memberships for a user. See the {@link GroupManager#getMembershipIds(String)} for details.
      *
@@ -377,134 +465,105 @@ public class SecurityManager implements HippoSecurityManager {
      * Get the domains in which the user has a role.
      * @param rawUserId the unparsed userId
      */
-    private Set<Domain> getDomainsForUser(String rawUserId, String providerId) throws RepositoryException {
+    private Set<Domain> getDomainsForUser(FacetAuthModel model, String rawUserId, String providerId) throws RepositoryException {
         if (rawUserId == null) {
             return Collections.emptySet();
         }
         String userId = NodeNameCodec.decode(sanitizeUserId(rawUserId, providerId));
-        Set<Domain> domains = new HashSet<>();
-        StringBuilder statement = new StringBuilder();
-        statement.append("SELECT * FROM ").append(HippoNodeType.NT_AUTHROLE);
-        statement.append(" WHERE");
-        statement.append(" jcr:path LIKE '/").append(domainsPath).append("/%").append("'");
-        statement.append(" AND ");
-        statement.append(HippoNodeType.HIPPO_USERS).append(" = '").append(userId.replace("'", "''")).append("'");
-        try {
-            Query q = systemSession.getWorkspace().getQueryManager().createQuery(statement.toString(), Query.SQL);
-            QueryResult result = q.execute();
-            NodeIterator nodeIter = result.getNodes();
-            while (nodeIter.hasNext()) {
-                // the parent of the auth role node is the domain node
-                Domain domain = new Domain(nodeIter.nextNode().getParent());
-                log.trace("Domain '{}' found for user: {}", domain.getName(), userId);
-                domains.add(domain);
-            }
-        } catch (RepositoryException e) {
-            log.error("Error while searching for domains for user: " + userId, e);
-        }
-        return domains;
+        return model.getDomainsForUser(userId);
     }
 
     /**
      * Get the domains in which the group has a role.
      */
-    private Set<Domain> getDomainsForGroup(String rawGroupId, String providerId) throws RepositoryException {
+    private Set<Domain> getDomainsForGroup(FacetAuthModel model, String rawGroupId, String providerId) throws RepositoryException {
         String groupId = NodeNameCodec.decode(sanitizeGroupId(rawGroupId, providerId));
+        return model.getDomainsForGroup(groupId);
+    }
 
-        Set<Domain> domains = new HashSet<Domain>();
-        StringBuilder statement = new StringBuilder();
-        statement.append("SELECT * FROM ").append(HippoNodeType.NT_AUTHROLE);
-        statement.append(" WHERE");
-        statement.append(" jcr:path LIKE '/").append(domainsPath).append("/%").append("'");
-        statement.append(" AND ");
-        statement.append(HippoNodeType.HIPPO_GROUPS).append(" = '").append(groupId.replaceAll("'", "''")).append("'");
-        try {
-            Query q = systemSession.getWorkspace().getQueryManager().createQuery(statement.toString(), Query.SQL);
-            QueryResult result = q.execute();
-            NodeIterator nodeIter = result.getNodes();
-            while (nodeIter.hasNext()) {
-                // the parent of the auth role node is the domain node
-                Domain domain = new Domain(nodeIter.nextNode().getParent());
-                log.trace("Domain '{}' found for group: {}", domain.getName(), groupId);
-                domains.add(domain);
+    /**
+     * Get the compiled domain and role configuration, compiling it if it changed since it was last compiled.
+     */
+    private FacetAuthModel getFacetAuthModel() throws RepositoryException {
+        FacetAuthModel model = facetAuthModel;
+        if (model != null && !isExpired(model)) {
+            return model;
+        }
+        synchronized (facetAuthModelLock) {
+            model = facetAuthModel;
+            if (model != null && !isExpired(model)) {
+                return model;
             }
-        } catch (RepositoryException e) {
-            log.error("Error while searching for domains for group: " + groupId, e);
+            final long generation = facetAuthModelGeneration.get();
+            model = FacetAuthModel.build(systemSession, domainsPath, rolesPath);
+            if (facetAuthModelListeners.isEmpty()) {
+                // not configured yet, changes would go unnoticed
+                return model;
+            }
+            if (facetAuthModelGeneration.get() == generation) {
+                facetAuthModel = model;
+                // from now on the reference listener sees changes of the referenced nodes, check whether any of
+                // them changed while compiling
+                if (model.hasChangedReferences(systemSession)) {
+                    facetAuthModelGeneration.incrementAndGet();
+                    facetAuthModel = null;
+                }
+            } else {
+                // the configuration changed while compiling: use the model only once
+                facetAuthModel = null;
+            }
+            return model;
         }
-        return domains;
     }
 
-    private Set<String> getRolesForRole(String roleId) {
-        return getRolesForRole(roleId, new HashSet<String>());
+    private static boolean isExpired(final FacetAuthModel model) {
+        return model.hasUnresolvedReferences() && model.getAge() > UNRESOLVED_FACET_AUTH_MODEL_TTL;
     }
 
-    private Set<String> getRolesForRole(String roleId, Set<String> currentRoles) {
-        Node roleNode;
-        log.trace("Looking for role: {} in path: {}", roleId, rolesPath);
-        String path = rolesPath + "/" + roleId;
-        try {
-            roleNode = systemSession.getRootNode().getNode(path);
-            log.trace("Found role node: {}", roleNode.getName());
-            if (roleNode.hasProperty(HippoNodeType.HIPPO_ROLES)) {
-                Value[] values = roleNode.getProperty(HippoNodeType.HIPPO_ROLES).getValues();
-                for (Value value : values) {
-                    if (!currentRoles.contains(value.getString())) {
-                        currentRoles.add(value.getString());
-                        currentRoles.addAll(getRolesForRole( value.getString(), currentRoles));
-                    }
+    private void registerFacetAuthModelListeners() throws RepositoryException {
+        final ObservationManager observationManager = systemSession.getWorkspace().getObservationManager();
+        for (String path : new String[]{domainsPath, rolesPath}) {
+            final EventListener listener = new SynchronousEventListener() {
+                @Override
+                public void onEvent(final EventIterator events) {
+                    // recompile on next use
+                    facetAuthModelGeneration.incrementAndGet();
+                    facetAuthModel = null;
                 }
-            }
-        } catch (PathNotFoundException e) {
-            // log at info level instead of warn, this occurs a lot during unit tests
-            log.info("Role not found: {}", roleId);
-        } catch (RepositoryException e) {
-            log.error("Error while looking up role: " + roleId, e);
+            };
+            observationManager.addEventListener(listener, ALL_EVENTS, "/" + path, true, null, null, false);
+            facetAuthModelListeners.add(listener);
         }
-        return currentRoles;
-    }
-    
-    private Set<String> getPrivilegesForRole(String roleId) {
-        Set<String> privileges = new HashSet<String>();
-        Node roleNode;
-        log.trace("Looking for role: {} in path: {}", roleId, rolesPath);
-        String path = rolesPath + "/" + roleId;
-        try {
-            roleNode = systemSession.getRootNode().getNode(path);
-            log.trace("Found role node: {}", roleNode.getName());
-            if (roleNode.hasProperty(HippoNodeType.HIPPO_PRIVILEGES)) {
-                Value[] values = roleNode.getProperty(HippoNodeType.HIPPO_PRIVILEGES).getValues();
-                for (Value value : values) {
-                    // FIXME: temp hack for aggregate privileges as defined in jsr-283, 6.11.1.2
-                    String privilege = value.getString();
-                    if ("jcr:write".equals(privilege)) {
-                        privileges.add("jcr:write");
-                        privileges.add("jcr:setProperties");
-                        privileges.add("jcr:addChildNodes");
-                        privileges.add("jcr:removeChildNodes");
-                    } else if ("jcr:all".equals(privilege)) {
-                        privileges.add("jcr:read");
-                        // jcr:acp
-                        privileges.add("jcr:getAccessControlPolicy");
-                        privileges.add("jcr:setAccessControlPolicy");
-                        // jcr:wrte
-                        privileges.add("jcr:setProperties");
-                        privileges.add("jcr:addChildNodes");
-                        privileges.add("jcr:removeChildNodes");
-                        
-                    } else {
-                        privileges.add(privilege);
+
+        // facet rules of type Reference are compiled to the identifier of the referenced node: recompile when a
+        // referenced node is added, removed or moved
+        final EventListener referenceListener = new SynchronousEventListener() {
+            @Override
+            public void onEvent(final EventIterator events) {
+                final FacetAuthModel model = facetAuthModel;
+                if (model == null || !model.hasReferences()) {
+                    return;
+                }
+                while (events.hasNext()) {
+                    try {
+                        if (model.refersTo(events.nextEvent().getPath())) {
+                            facetAuthModelGeneration.incrementAndGet();
+                            facetAuthModel = null;
+                            return;
+                        }
+                    } catch (RepositoryException e) {
+                        log.warn("Unable to process event, recompiling domains: {}", e.getMessage());
+                        facetAuthModelGeneration.incrementAndGet();
+                        facetAuthModel = null;
+                        return;
                     }
                 }
             }
-        } catch (PathNotFoundException e) {
-            // log at info level instead of warn, this occurs a lot during unit tests
-            log.info("Role not found: {}", roleId);
-        } catch (RepositoryException e) {
-            log.error("Error while looking up role: " + roleId, e);
-        }
-        return privileges;
+        };
+        observationManager.addEventListener(referenceListener, NODE_EVENTS, "/", true, null, null, false);
+        facetAuthModelListeners.add(referenceListener);
     }
-    
+
     /**
      * Sanitize the raw userId input according to the case sensitivity of the 
      * security provider.
@@ -595,32 +654,43 @@ public class SecurityManager implements HippoSecurityManager {
     }
 
     private void assignFacetAuthPrincipals(Set<Principal> principals, String userId, String providerId) throws RepositoryException {
-        // Find domains that the user is associated with
-        Set<Domain> userDomains = new HashSet<Domain>();
-        userDomains.addAll(getDomainsForUser(userId, providerId));
+        final FacetAuthModel model = getFacetAuthModel();
+        final Set<String> groupIds = new HashSet<>();
         for (Principal principal : principals) {
             if (principal instanceof GroupPrincipal) {
-                userDomains.addAll(getDomainsForGroup(principal.getName(), providerId));
+                groupIds.add(principal.getName());
             }
         }
+        principals.addAll(model.getFacetAuthPrincipals(Arrays.asList(userId, providerId, groupIds),
+                () -> createFacetAuthPrincipals(model, userId, providerId, groupIds)));
+    }
 
-        // Add facet auth principals
+    private Set<FacetAuthPrincipal> createFacetAuthPrincipals(final FacetAuthModel model, final String userId,
+                                                              final String providerId, final Set<String> groupIds)
+            throws RepositoryException {
+        // Find domains that the user is associated with
+        Set<Domain> userDomains = new HashSet<Domain>();
+        userDomains.addAll(getDomainsForUser(model, userId, providerId));
+        for (String groupId : groupIds) {
+            userDomains.addAll(getDomainsForGroup(model, groupId, providerId));
+        }
+
+        // Create facet auth principals
+        final Set<FacetAuthPrincipal> facetAuthPrincipals = new HashSet<>();
         for (Domain domain : userDomains) {
 
             // get roles for a user for a domain
             log.debug("User {} has domain {}", userId, domain.getName());
             Set<String> roles = new HashSet<String>();
             roles.addAll(domain.getRolesForUser(userId));
-            for (Principal principal : principals) {
-                if (principal instanceof GroupPrincipal) {
-                    roles.addAll(domain.getRolesForGroup(principal.getName()));
-                }
+            for (String groupId : groupIds) {
+                roles.addAll(domain.getRolesForGroup(groupId));
             }
 
             // check for indirectly included roles
             Set<String> includedRoles = new HashSet<String>();
             for (String roleId : roles) {
-                includedRoles.addAll(getRolesForRole(roleId));
+                includedRoles.addAll(model.getRolesForRole(roleId));
             }
             roles.addAll(includedRoles);
 
@@ -629,16 +699,16 @@ public class SecurityManager implements HippoSecurityManager {
             // get all privileges associated with the roles
             Set<String> privileges = new HashSet<String>();
             for (String roleId : roles) {
-                privileges.addAll(getPrivilegesForRole(roleId));
+                privileges.addAll(model.getPrivilegesForRole(roleId));
             }
             log.info("User {} has privileges {} for domain {} ", new Object[] { userId, privileges, domain.getName() });
 
             if (privileges.size() > 0 && domain.getDomainRules().size() > 0) {
-                // create and add facet auth principal
-                FacetAuthPrincipal fap = new FacetAuthPrincipal(domain.getName(), domain.getDomainRules(), roles, privileges);
-                principals.add(fap);
+                // create facet auth principal
+                facetAuthPrincipals.add(new FacetAuthPrincipal(domain.getName(), domain.getDomainRules(), roles, privileges));
             }
         }
+        return Collections.unmodifiableSet(facetAuthPrincipals);
     }
 
     public String getUserID(Subject subject, String workspace) {
@@ -682,6 +752,24 @@ public class SecurityManager implements HippoSecurityManager {
     }
 
     public void close() {
+        if (userSyncWriter != null) {
+            userSyncWriter.close();
+            userSyncWriter = null;
+        }
+        if (systemSession == null || !systemSession.isLive()) {
+            facetAuthModelListeners.clear();
+            return;
+        }
+        try {
+            final ObservationManager observationManager = systemSession.getWorkspace().getObservationManager();
+            for (EventListener listener : facetAuthModelListeners) {
+                observationManager.removeEventListener(listener);
+            }
+        } catch (RepositoryException e) {
+            log.warn("Unable to unregister domain listeners: {}", e.getMessage());
+        }
+        facetAuthModelListeners.clear();
+        facetAuthModel = null;
     }
 
    public AuthContext getAuthContext(Credentials credentials, Subject subject, String workspaceName) throws RepositoryException {
@@ -0,0 +1,240 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.security;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.core.state.ItemState;
+import org.apache.jackrabbit.core.state.ItemStateListener;
+import org.apache.jackrabbit.core.state.SharedItemStateManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read access permissions shared by all sessions with the same authorization profile, that is the same
+ * facet auth principals and everything else the read access evaluation of the {@link HippoAccessManager} depends on.
+ * It sits behind the per session {@link HippoAccessCache}: a fresh session thus starts with the permissions already
+ * evaluated by other sessions with the same profile.
+ * <p>
+ * Only permissions evaluated against persisted state are shared. The shared cache registers itself as listener on the
+ * {@link SharedItemStateManager} of the workspace, hence it sees every persisted change, also the changes of items
+ * the sessions themselves never loaded, and invalidates the changed items for all profiles. A profile is dropped as
+ * soon as the last session with that profile has been closed.
+ * </p>
+ * <p>
+ * The read access of a node depends on the state of its ancestors as well: its parent must be readable, it can be
+ * granted through the document it is part of, and jcr:path rules match on its ancestors. Therefore a change
+ * invalidates the whole cached subtree of the changed node. To be able to do so, a permission is only shared when
+ * the permission of its parent is shared too.
+ * </p>
+ */
+public class SharedAccessCache implements ItemStateListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedAccessCache.class);
+
+    private static final Map<SharedItemStateManager, SharedAccessCache> instances = new WeakHashMap<>();
+
+    private final Map<Object, Profile> profiles = new HashMap<>();
+
+    // incremented on every invalidation, before removing the invalidated items
+    private final AtomicLong generation = new AtomicLong();
+
+    private SharedAccessCache() {
+    }
+
+    /**
+     * @return the shared access cache for the workspace of <code>sharedItemStateMgr</code>
+     */
+    public static SharedAccessCache getInstance(final SharedItemStateManager sharedItemStateMgr) {
+        synchronized (instances) {
+            SharedAccessCache cache = instances.get(sharedItemStateMgr);
+            if (cache == null) {
+                cache = new SharedAccessCache();
+                sharedItemStateMgr.addListener(cache);
+                instances.put(sharedItemStateMgr, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Acquires the permissions of an authorization profile. Every acquired profile must be
+     * {@link #release(Profile) released} when the session is closed.
+     *
+     * @param profileKey   a key that is equal for sessions that evaluate read access in exactly the same way
+     * @param maxCacheSize the maximum number of permissions to keep for the profile
+     */
+    public Profile acquire(final Object profileKey, final int maxCacheSize) {
+        synchronized (profiles) {
+            Profile profile = profiles.get(profileKey);
+            if (profile == null) {
+                profile = new Profile(generation, profileKey, maxCacheSize);
+                profiles.put(profileKey, profile);
+                log.debug("Created shared access cache profile, now {} profiles", profiles.size());
+            }
+            profile.references++;
+            return profile;
+        }
+    }
+
+    public void release(final Profile profile) {
+        synchronized (profiles) {
+            if (--profile.references == 0) {
+                profiles.remove(profile.key);
+                log.debug("Removed shared access cache profile, now {} profiles", profiles.size());
+            }
+        }
+    }
+
+    private void invalidate(final ItemId id) {
+        generation.incrementAndGet();
+        final Profile[] current;
+        synchronized (profiles) {
+            current = profiles.values().toArray(new Profile[profiles.size()]);
+        }
+        for (Profile profile : current) {
+            profile.removeSubtree(id);
+        }
+    }
+
+    @Override
+    public void stateCreated(final ItemState created) {
+        // a new item cannot have a cached permission yet, a new property of an existing node changes the node though
+        if (!created.isNode()) {
+            invalidate(created.getParentId());
+        }
+    }
+
+    @Override
+    public void stateModified(final ItemState modified) {
+        if (modified.isNode()) {
+            invalidate(modified.getId());
+        } else {
+            invalidate(modified.getParentId());
+        }
+    }
+
+    @Override
+    public void stateDestroyed(final ItemState destroyed) {
+        if (destroyed.isNode()) {
+            invalidate(destroyed.getId());
+        } else {
+            invalidate(destroyed.getParentId());
+        }
+    }
+
+    @Override
+    public void stateDiscarded(final ItemState discarded) {
+        // discarding a state does not change persisted state
+    }
+
+    /**
+     * The shared permissions of a single authorization profile. Lookups and updates do not lock.
+     */
+    public static final class Profile {
+
+        private final AtomicLong generation;
+        private final Object key;
+        private final int maxCacheSize;
+        private final ConcurrentHashMap<ItemId, Boolean> permissions;
+        // the ids of the nodes with a shared permission per parent id
+        private final ConcurrentHashMap<ItemId, Set<ItemId>> children;
+        // guarded by the profiles map of the SharedAccessCache
+        private int references;
+
+        private Profile(final AtomicLong generation, final Object key, final int maxCacheSize) {
+            this.generation = generation;
+            this.key = key;
+            this.maxCacheSize = maxCacheSize;
+            this.permissions = new ConcurrentHashMap<>(Math.max(16, maxCacheSize / 20));
+            this.children = new ConcurrentHashMap<>(Math.max(16, maxCacheSize / 100));
+        }
+
+        public Boolean get(final ItemId id) {
+            return permissions.get(id);
+        }
+
+        /**
+         * @return the current generation, to be passed to {@link #put(ItemId, ItemId, boolean, long)} for a
+         * permission evaluated after this call
+         */
+        public long getGeneration() {
+            return generation.get();
+        }
+
+        /**
+         * Stores a permission, unless some item changed after <code>startGeneration</code> was obtained, in which case
+         * the permission might have been evaluated against state that is no longer current, or unless the permission
+         * of the parent is not shared, in which case a change of an ancestor could not invalidate it.
+         *
+         * @param parentId the id of the parent node, <code>null</code> for the root node
+         */
+        public void put(final ItemId id, final ItemId parentId, final boolean isGranted, final long startGeneration) {
+            if (generation.get() != startGeneration) {
+                return;
+            }
+            if (parentId != null && !permissions.containsKey(parentId)) {
+                return;
+            }
+            if (permissions.size() >= maxCacheSize) {
+                // no LRU bookkeeping to keep lookups lock free : start over when full
+                permissions.clear();
+                children.clear();
+                return;
+            }
+            if (parentId != null) {
+                children.computeIfAbsent(parentId, key -> ConcurrentHashMap.newKeySet()).add(id);
+            }
+            permissions.put(id, isGranted);
+            if (generation.get() != startGeneration) {
+                // an invalidation raced with this put
+                removeSubtree(id);
+            }
+        }
+
+        public void remove(final ItemId id) {
+            permissions.remove(id);
+        }
+
+        /**
+         * Removes the permission of <code>id</code> and the permissions of all its descendants
+         */
+        public void removeSubtree(final ItemId id) {
+            final Deque<ItemId> pending = new ArrayDeque<>();
+            pending.push(id);
+            while (!pending.isEmpty()) {
+                final ItemId current = pending.pop();
+                permissions.remove(current);
+                final Set<ItemId> currentChildren = children.remove(current);
+                if (currentChildren != null) {
+                    currentChildren.forEach(pending::push);
+                }
+            }
+        }
+
+        public int getSize() {
+            return permissions.size();
+        }
+    }
+}
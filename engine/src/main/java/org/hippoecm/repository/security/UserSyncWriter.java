@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.security;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+import org.hippoecm.repository.security.group.AbstractGroupManager;
+import org.hippoecm.repository.security.group.GroupManager;
+import org.hippoecm.repository.security.user.HippoUserManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the last login timestamps and the user info of external users outside of the login path.
+ * <p>
+ * Logins are recorded in memory, coalesced per user, and written in batches every interval: each batch synchronizes
+ * the user info of the recorded users and saves the users of a provider only once, instead of once per login. A user
+ * that logged in multiple times during an interval is synchronized only once, with the time of the last login.
+ * </p>
+ * <p>
+ * The memberships of a user are not written by this writer: they determine the principals of the login, hence they
+ * are synchronized while logging in, see {@link #syncMemberships(GroupManager, Node)}.
+ * </p>
+ */
+class UserSyncWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(UserSyncWriter.class);
+
+    private final Map<String, SecurityProvider> providers;
+    private final ScheduledExecutorService executor;
+    // keyed on provider id and user id
+    private final ConcurrentHashMap<List<String>, Calendar> pendingLogins = new ConcurrentHashMap<>();
+
+    /**
+     * @param providers the security providers by id
+     * @param interval  the number of milliseconds between two batches
+     */
+    UserSyncWriter(final Map<String, SecurityProvider> providers, final long interval) {
+        this.providers = providers;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "user-sync-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records a successful login of the user <code>userId</code> of provider <code>providerId</code>, to be
+     * synchronized with the next batch.
+     */
+    void loginSucceeded(final String providerId, final String userId, final Calendar loginTime) {
+        pendingLogins.merge(Arrays.asList(providerId, userId), loginTime,
+                (pending, login) -> login.after(pending) ? login : pending);
+    }
+
+    /**
+     * Writes the pending logins and stops writing.
+     */
+    void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Timeout waiting for user synchronization to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    synchronized void flush() {
+        if (pendingLogins.isEmpty()) {
+            return;
+        }
+        // drain the logins per provider
+        final Map<String, Map<String, Calendar>> loginsByProvider = new LinkedHashMap<>();
+        for (Iterator<Map.Entry<List<String>, Calendar>> iterator = pendingLogins.entrySet().iterator(); iterator.hasNext(); ) {
+            final Map.Entry<List<String>, Calendar> entry = iterator.next();
+            iterator.remove();
+            loginsByProvider.computeIfAbsent(entry.getKey().get(0), providerId -> new LinkedHashMap<>())
+                    .put(entry.getKey().get(1), entry.getValue());
+        }
+        for (Map.Entry<String, Map<String, Calendar>> entry : loginsByProvider.entrySet()) {
+            final SecurityProvider provider = providers.get(entry.getKey());
+            if (provider == null) {
+                continue;
+            }
+            try {
+                syncUsers((HippoUserManager) provider.getUserManager(), entry.getValue());
+            } catch (RepositoryException | RuntimeException e) {
+                log.warn("Unable to synchronize " + entry.getValue().size() + " users of provider " + entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * Synchronizes the user info and last logins of users and saves them once. The block is synchronized on the
+     * manager for the same reason as in {@link SecurityManager#authenticate(javax.jcr.SimpleCredentials)}: the
+     * managers can share the same session, which is not thread safe.
+     */
+    static void syncUsers(final HippoUserManager userMgr, final Map<String, Calendar> logins)
+            throws RepositoryException {
+        synchronized (userMgr) {
+            for (Map.Entry<String, Calendar> login : logins.entrySet()) {
+                userMgr.syncUserInfo(login.getKey());
+                userMgr.updateLastLogin(login.getKey(), login.getValue());
+            }
+            userMgr.saveUsers();
+        }
+    }
+
+    /**
+     * Synchronizes the memberships of a user and saves them. The group managers provided by the repository only lock
+     * when the memberships changed, other group managers are locked for the same reason as in {@link
+     * #syncUsers(HippoUserManager, Map)}.
+     */
+    static void syncMemberships(final GroupManager groupMgr, final Node user) throws RepositoryException {
+        if (user == null) {
+            return;
+        }
+        if (groupMgr instanceof AbstractGroupManager) {
+            ((AbstractGroupManager) groupMgr).syncAndSaveMemberships(user);
+        } else {
+            synchronized (groupMgr) {
+                groupMgr.syncMemberships(user);
+                groupMgr.saveGroups();
+            }
+        }
+    }
+}
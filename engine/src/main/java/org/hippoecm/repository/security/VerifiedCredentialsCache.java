@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.security;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Short-lived, bounded cache of successful password verifications, such that repeated logins with the same
+ * credentials, typically by service accounts, do not have to pay for the deliberately slow password hashing every
+ * time.
+ * <p>
+ * The passwords themselves are never kept: the cache only holds a salted digest of each verified password, the salt
+ * being random per cache instance. A verification is keyed on the user id, the security provider and the password hash
+ * stored for the user, thus changing the password of a user immediately invalidates its cached verification.
+ * </p>
+ */
+class VerifiedCredentialsCache {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private final Cache<List<String>, byte[]> verified;
+    private final byte[] salt = new byte[16];
+
+    VerifiedCredentialsCache(final int maxSize, final long timeToLiveSeconds) {
+        verified = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(timeToLiveSeconds, TimeUnit.SECONDS)
+                .build();
+        new SecureRandom().nextBytes(salt);
+    }
+
+    /**
+     * @return whether <code>password</code> has recently been verified for the user with the given
+     * <code>passwordHash</code>
+     */
+    boolean isVerified(final String userId, final String providerId, final String passwordHash, final char[] password) {
+        final byte[] digest = verified.getIfPresent(Arrays.asList(userId, providerId, passwordHash));
+        return digest != null && MessageDigest.isEqual(digest, digest(password));
+    }
+
+    void setVerified(final String userId, final String providerId, final String passwordHash, final char[] password) {
+        verified.put(Arrays.asList(userId, providerId, passwordHash), digest(password));
+    }
+
+    private byte[] digest(final char[] password) {
+        try {
+            final MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            md.update(salt);
+            final ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+            md.update(bytes);
+            if (bytes.hasArray()) {
+                Arrays.fill(bytes.array(), (byte) 0);
+            }
+            return md.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is not supported", e);
+        }
+    }
+}
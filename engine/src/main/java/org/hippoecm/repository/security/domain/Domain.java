@@ -1,5 +1,5 @@
 /*
- *  Copyright 2008-2013 Hippo B.V. (http://www.onehippo.com)
+ *  Copyright 2008-2017 Hippo B.V. (http://www.onehippo.com)
  * 
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -16,7 +16,9 @@
 package org.hippoecm.repository.security.domain;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import javax.jcr.Node;
@@ -72,6 +74,14 @@ public class Domain {
      */
     private transient int hash;
 
+    private boolean unresolvedReferences;
+
+    /**
+     * The identifiers the paths referred to by the facet rules of type Reference resolved to, null for paths that
+     * did not exist
+     */
+    private final Map<String, String> references = new HashMap<String, String>();
+
     /**
      * Logger
      */
@@ -97,9 +107,16 @@ public class Domain {
             try {
                 if (child.getPrimaryNodeType().isNodeType(HippoNodeType.NT_DOMAINRULE)) {
                     try {
-                        domainRules.add(new DomainRule(child));
+                        final DomainRule domainRule = new DomainRule(child);
+                        unresolvedReferences |= domainRule.hasUnresolvedReferences();
+                        references.putAll(domainRule.getReferences());
+                        domainRules.add(domainRule);
                     } catch (FacetRuleReferenceNotFoundException e){
                         log.info("Skipping domain rule '{}' because {}", child.getPath(), e.getMessage());
+                        unresolvedReferences = true;
+                        if (e.getReferencePath() != null) {
+                            references.put(e.getReferencePath(), null);
+                        }
                     }
                 } else if (child.getPrimaryNodeType().isNodeType(HippoNodeType.NT_AUTHROLE)) {
                     authRoles.add(new AuthRole(child));
@@ -172,6 +189,22 @@ public class Domain {
         return name;
     }
 
+    /**
+     * @return true if a domain rule or a facet rule with hipposys:equals = false of this domain was skipped because
+     * a facet rule refers to a node that does not exist (yet)
+     */
+    public boolean hasUnresolvedReferences() {
+        return unresolvedReferences;
+    }
+
+    /**
+     * @return the identifiers the paths referred to by the facet rules of type Reference of this domain resolved to,
+     * with a null identifier for a path that did not exist
+     */
+    public Map<String, String> getReferences() {
+        return Collections.unmodifiableMap(references);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1,5 +1,5 @@
 /*
- *  Copyright 2008-2013 Hippo B.V. (http://www.onehippo.com)
+ *  Copyright 2008-2017 Hippo B.V. (http://www.onehippo.com)
  * 
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -17,7 +17,9 @@ package org.hippoecm.repository.security.domain;
 
 import java.io.Serializable;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import javax.jcr.Node;
@@ -50,6 +52,12 @@ public class DomainRule implements Serializable {
     private String domainName;
     private transient int hash;
 
+    /**
+     * The identifiers the paths of the facet rules of type Reference resolved to, null for paths that did not exist
+     */
+    private final Map<String, String> references = new HashMap<String, String>();
+    private boolean unresolvedReferences;
+
     public DomainRule(String name, String domainName, Set<QFacetRule> facetRules) {
         this.name = name;
         this.domainName = domainName;
@@ -70,12 +78,20 @@ public class DomainRule implements Serializable {
             Node child = iter.nextNode();
             if (child.getPrimaryNodeType().isNodeType(HippoNodeType.NT_FACETRULE)) {
                 try {
-                    facetRules.add(new QFacetRule(child));
+                    final QFacetRule facetRule = new QFacetRule(child);
+                    if (facetRule.getReferencePath() != null) {
+                        references.put(facetRule.getReferencePath(), facetRule.getValue());
+                    }
+                    facetRules.add(facetRule);
                 } catch (FacetRuleReferenceNotFoundException e) {
                     if (!e.isEquals()) {
                         // the facet rule has hipposys:equals = false, and thus can be skipped from the
-                        // domain rule.
+                        // domain rule, until the referenced node is created.
                         log.info("Skipping facet rule '{}' : {}", child.getPath(), e.getMessage());
+                        unresolvedReferences = true;
+                        if (e.getReferencePath() != null) {
+                            references.put(e.getReferencePath(), null);
+                        }
                     } else {
                         // bubble up because hipposys:equals = true implying the domain rule can never result in a match
                         throw e;
@@ -108,6 +124,22 @@ public class DomainRule implements Serializable {
         return Collections.unmodifiableSet(facetRules);
     }
 
+    /**
+     * @return true if a facet rule with hipposys:equals = false was skipped because it refers to a node that does
+     * not exist (yet)
+     */
+    public boolean hasUnresolvedReferences() {
+        return unresolvedReferences;
+    }
+
+    /**
+     * @return the identifiers the referenced paths of the facet rules of type Reference resolved to, with a null
+     * identifier for a path that did not exist
+     */
+    public Map<String, String> getReferences() {
+        return Collections.unmodifiableMap(references);
+    }
+
     /**
      * {@inheritDoc}
      */
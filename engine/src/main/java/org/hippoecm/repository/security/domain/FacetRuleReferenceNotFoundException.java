@@ -1,5 +1,5 @@
 /*
- *  Copyright 2014 Hippo B.V. (http://www.onehippo.com)
+ *  Copyright 2014-2017 Hippo B.V. (http://www.onehippo.com)
  *
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -23,11 +23,18 @@ public class FacetRuleReferenceNotFoundException extends RuntimeException {
 
     private final Name facetName;
     private final boolean equals;
+    private final String referencePath;
 
     public FacetRuleReferenceNotFoundException(final Name facetName, final boolean equals, final String message, final PathNotFoundException cause) {
+        this(facetName, equals, null, message, cause);
+    }
+
+    public FacetRuleReferenceNotFoundException(final Name facetName, final boolean equals, final String referencePath,
+                                               final String message, final PathNotFoundException cause) {
         super(message, cause);
         this.facetName = facetName;
         this.equals = equals;
+        this.referencePath = referencePath;
     }
 
     /**
@@ -44,4 +51,11 @@ public class FacetRuleReferenceNotFoundException extends RuntimeException {
     public boolean isEquals() {
         return equals;
     }
+
+    /**
+     * @return the absolute path that could not be found, or null if unknown
+     */
+    public String getReferencePath() {
+        return referencePath;
+    }
 }
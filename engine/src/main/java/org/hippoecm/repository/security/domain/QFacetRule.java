@@ -1,5 +1,5 @@
 /*
- *  Copyright 2008-2015 Hippo B.V. (http://www.onehippo.com)
+ *  Copyright 2008-2017 Hippo B.V. (http://www.onehippo.com)
  * 
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -84,6 +84,11 @@ public class QFacetRule implements Serializable {
      */
     private final boolean optional;
 
+    /**
+     * The absolute path of the referenced node of a facet rule of type Reference, null otherwise
+     */
+    private final String referencePath;
+
     /**
      * The hash code
      */
@@ -98,6 +103,7 @@ public class QFacetRule implements Serializable {
         this.valueName = nameResolver.getQName(value);
         this.equals = facetRule.isEqual();
         this.optional = facetRule.isOptional();
+        this.referencePath = null;
     }
 
     /**
@@ -119,11 +125,13 @@ public class QFacetRule implements Serializable {
         //NameResolver nRes = new ParsingNameResolver(NameFactoryImpl.getInstance(), new SessionNamespaceResolver(node.getSession()));
         // if it's a name property set valueName
         Name tmpName = null;
+        String tmpReferencePath = null;
         if (tmpType == PropertyType.NAME && !tmpValue.equals(FacetAuthConstants.WILDCARD)) {
             tmpName = NameParser.parse(tmpValue, new SessionNamespaceResolver(node.getSession()), NameFactoryImpl.getInstance());
         } else if (tmpType == PropertyType.REFERENCE) {
             // convert to a String matcher on UUID
             tmpType = PropertyType.STRING;
+            tmpReferencePath = tmpValue.startsWith("/") ? tmpValue : "/" + tmpValue;
             tmpValue = parseReferenceTypeValue(node);
         }
 
@@ -131,6 +139,7 @@ public class QFacetRule implements Serializable {
         type = tmpType;
         value = tmpValue;
         valueName = tmpName;
+        referencePath = tmpReferencePath;
     }
 
     /**
@@ -163,7 +172,7 @@ public class QFacetRule implements Serializable {
                     msg.append(" != ");
                 }
                 msg.append(pathValue).append("]");
-                throw new FacetRuleReferenceNotFoundException(facetName, equals,  msg.toString(), e);
+                throw new FacetRuleReferenceNotFoundException(facetName, equals, "/" + path, msg.toString(), e);
             }
         }
         return uuid;
@@ -195,6 +204,15 @@ public class QFacetRule implements Serializable {
         return value;
     }
 
+    /**
+     * The absolute path of the node referred to by a facet rule of type Reference. The value of such a rule is the
+     * identifier the path resolved to when the rule was created.
+     * @return the referenced path or null if the facet rule is not of type Reference
+     */
+    public String getReferencePath() {
+        return referencePath;
+    }
+
     /**
      * The Name of the value of the facet rule to match
      * @return the value name if the type is Name else null
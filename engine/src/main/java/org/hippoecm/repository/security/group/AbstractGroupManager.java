@@ -17,6 +17,7 @@ package org.hippoecm.repository.security.group;
 
 import java.util.Calendar;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 import javax.jcr.InvalidItemStateException;
@@ -83,6 +84,11 @@ public abstract class AbstractGroupManager implements GroupManager {
      */
     private int dirLevels = 0;
 
+    /**
+     * Index of the memberships, null if the memberships are looked up by scanning the groups
+     */
+    private GroupMembershipIndex membershipIndex;
+
     /**
      * Logger
      */
@@ -94,9 +100,23 @@ public abstract class AbstractGroupManager implements GroupManager {
         this.providerId = context.getProviderId();
         this.providerPath = context.getProviderPath();
         setDirLevels();
+        if (context.isIndexed()) {
+            membershipIndex = new GroupMembershipIndex(session, "/" + groupsPath, dirLevels);
+            membershipIndex.register();
+        }
         initManager(context);
     }
 
+    /**
+     * Releases the resources held by this manager.
+     */
+    public void dispose() {
+        if (membershipIndex != null) {
+            membershipIndex.unregister();
+            membershipIndex = null;
+        }
+    }
+
     public boolean isInitialized() {
         return initialized;
     }
@@ -287,6 +307,18 @@ public abstract class AbstractGroupManager implements GroupManager {
 
     public final NodeIterator getMemberships(String rawUserId, String providerId) throws RepositoryException {
         final String userId = rawUserId != null ? NodeNameCodec.decode(sanitizeId(rawUserId)) : null;
+        final GroupMembershipIndex index = membershipIndex;
+        if (index != null) {
+            final Set<Node> groups = new LinkedHashSet<>();
+            for (GroupMembershipIndex.IndexedGroup group : index.getGroups(userId)) {
+                if (providerId == null || providerId.equals(group.getProviderId())) {
+                    if (session.nodeExists(group.getPath())) {
+                        groups.add(session.getNode(group.getPath()));
+                    }
+                }
+            }
+            return new NodeIteratorAdapter(groups);
+        }
         final Node groupsFolder = session.getRootNode().getNode(groupsPath);
         return new NodeIteratorAdapter(getMembershipsByPath(userId, providerId, groupsFolder, 0));
     }
@@ -298,6 +330,15 @@ public abstract class AbstractGroupManager implements GroupManager {
     public final Set<String> getMembershipIds(String userId, String providerId) {
         final Set<String> groupIds = new HashSet<>();
         try {
+            final GroupMembershipIndex index = membershipIndex;
+            if (index != null) {
+                for (GroupMembershipIndex.IndexedGroup group : index.getGroups(userId)) {
+                    if (providerId == null || providerId.equals(group.getProviderId())) {
+                        groupIds.add(NodeNameCodec.decode(group.getName()));
+                    }
+                }
+                return groupIds;
+            }
             Node groupsFolder = session.getRootNode().getNode(groupsPath);
             for (Node groupNode : getMembershipsByPath(userId, providerId, groupsFolder, 0)) {
                 groupIds.add(NodeNameCodec.decode(groupNode.getName()));
@@ -342,6 +383,37 @@ public abstract class AbstractGroupManager implements GroupManager {
         for (String groupId : backendGetMemberships(user)) {
             backendMemberships.add(sanitizeId(groupId));
         }
+        applyMembershipChanges(userId, repositoryMemberships, backendMemberships);
+    }
+
+    /**
+     * Synchronizes the memberships of the user from the backend with the repository and saves them. Unlike
+     * {@link #syncMemberships(Node)} followed by {@link #saveGroups()}, the memberships are compared without holding
+     * the lock of this manager: only when they differ they are changed and saved while holding the lock. Hence
+     * concurrent logins of users whose memberships are in sync do not wait for each other.
+     */
+    public final void syncAndSaveMemberships(Node user) throws RepositoryException {
+        if (!isExternal()) {
+            return;
+        }
+        String userId = user.getName();
+        Set<String> repositoryMemberships = getMembershipIds(userId, providerId);
+        Set<String> backendMemberships = new HashSet<>();
+        for (String groupId : backendGetMemberships(user)) {
+            backendMemberships.add(sanitizeId(groupId));
+        }
+        if (repositoryMemberships.equals(backendMemberships)) {
+            return;
+        }
+        synchronized (this) {
+            // compare again, the memberships may have been synchronized by a concurrent login of the same user
+            applyMembershipChanges(userId, getMembershipIds(userId, providerId), backendMemberships);
+            saveGroups();
+        }
+    }
+
+    private void applyMembershipChanges(final String userId, final Set<String> repositoryMemberships,
+                                        final Set<String> backendMemberships) throws RepositoryException {
         Set<String> inSync = new HashSet<>();
         for (String groupId : repositoryMemberships) {
             if (backendMemberships.contains(groupId)) {
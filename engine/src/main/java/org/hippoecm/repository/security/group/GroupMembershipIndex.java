@@ -0,0 +1,305 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.security.group;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.ObservationManager;
+
+import org.hippoecm.repository.api.HippoNodeType;
+import org.hippoecm.repository.api.SynchronousEventListener;
+import org.hippoecm.repository.util.JcrUtils;
+import org.hippoecm.repository.util.NodeIterable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.hippoecm.repository.api.HippoNodeType.HIPPO_SECURITYPROVIDER;
+import static org.hippoecm.repository.api.HippoNodeType.NT_GROUP;
+import static org.hippoecm.repository.api.HippoNodeType.NT_GROUPFOLDER;
+
+/**
+ * In-memory inverted index from member id to the groups the member belongs to, such that the memberships of a user
+ * can be looked up without scanning all groups.
+ * <p>
+ * The index is built on first use by scanning the groups folder, the same way as
+ * {@link AbstractGroupManager#getMembershipIds(String)} used to do for every lookup, and is kept up to date by
+ * listening to changes below the groups folder. Changes are only recorded by the listener: they are applied on the
+ * next lookup by the thread doing the lookup, so the session of the group manager is not accessed concurrently by the
+ * observation thread. The listener is synchronous, so a change is recorded before its save returns and is visible to
+ * every lookup that follows the save.
+ * </p>
+ */
+class GroupMembershipIndex implements SynchronousEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(GroupMembershipIndex.class);
+
+    private static final int EVENT_TYPES = Event.NODE_ADDED | Event.NODE_REMOVED | Event.PROPERTY_ADDED
+            | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED;
+
+    private final Session session;
+    private final String groupsPath;
+    private final int dirLevels;
+
+    // the paths of the groups and group folders that changed since the last lookup
+    private final Queue<String> changedPaths = new ConcurrentLinkedQueue<>();
+
+    // guarded by this
+    private final Map<String, IndexedGroup> groupsByPath = new HashMap<>();
+    private final Map<String, Set<IndexedGroup>> groupsByMember = new HashMap<>();
+    private boolean built;
+
+    /**
+     * @param session    the session to read the groups with
+     * @param groupsPath the absolute path of the groups folder
+     * @param dirLevels  the number of group folder levels below the groups folder
+     */
+    GroupMembershipIndex(final Session session, final String groupsPath, final int dirLevels) {
+        this.session = session;
+        this.groupsPath = groupsPath;
+        this.dirLevels = dirLevels;
+    }
+
+    void register() throws RepositoryException {
+        final ObservationManager observationManager = session.getWorkspace().getObservationManager();
+        observationManager.addEventListener(this, EVENT_TYPES, groupsPath, true, null, null, false);
+    }
+
+    void unregister() {
+        try {
+            session.getWorkspace().getObservationManager().removeEventListener(this);
+        } catch (RepositoryException e) {
+            log.warn("Unable to unregister group membership index listener: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void onEvent(final EventIterator events) {
+        while (events.hasNext()) {
+            final Event event = events.nextEvent();
+            try {
+                final String path = event.getPath();
+                if (event.getType() == Event.NODE_ADDED || event.getType() == Event.NODE_REMOVED) {
+                    changedPaths.add(path);
+                } else {
+                    changedPaths.add(path.substring(0, path.lastIndexOf('/')));
+                }
+            } catch (RepositoryException e) {
+                log.warn("Unable to process group change event, rebuilding group membership index: {}", e.getMessage());
+                synchronized (this) {
+                    built = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the groups that <code>memberId</code> is a member of, including the groups with a <code>*</code>
+     * member
+     */
+    synchronized List<IndexedGroup> getGroups(final String memberId) throws RepositoryException {
+        if (!built) {
+            build();
+        } else {
+            applyChanges();
+        }
+        final List<IndexedGroup> groups = new ArrayList<>();
+        final Set<IndexedGroup> memberGroups = groupsByMember.get(memberId);
+        if (memberGroups != null) {
+            groups.addAll(memberGroups);
+        }
+        final Set<IndexedGroup> everyoneGroups = groupsByMember.get("*");
+        if (everyoneGroups != null) {
+            for (IndexedGroup group : everyoneGroups) {
+                if (memberGroups == null || !memberGroups.contains(group)) {
+                    groups.add(group);
+                }
+            }
+        }
+        return groups;
+    }
+
+    private void build() throws RepositoryException {
+        final long start = System.currentTimeMillis();
+        changedPaths.clear();
+        groupsByPath.clear();
+        groupsByMember.clear();
+        indexFolder(session.getNode(groupsPath), 0);
+        built = true;
+        log.info("Built group membership index of {} groups with {} members in {} ms", groupsByPath.size(),
+                groupsByMember.size(), System.currentTimeMillis() - start);
+    }
+
+    private void indexFolder(final Node folder, final int level) throws RepositoryException {
+        for (Node child : new NodeIterable(folder.getNodes())) {
+            if (child.isNodeType(NT_GROUP)) {
+                addGroup(child);
+            } else if (child.isNodeType(NT_GROUPFOLDER) && level < dirLevels) {
+                indexFolder(child, level + 1);
+            }
+        }
+    }
+
+    private void applyChanges() throws RepositoryException {
+        final Set<String> paths = new HashSet<>();
+        for (String path = changedPaths.poll(); path != null; path = changedPaths.poll()) {
+            paths.add(path);
+        }
+        for (String path : paths) {
+            removeGroups(path);
+            final int level = getFolderLevel(path);
+            if (level < 0 || !session.nodeExists(path)) {
+                continue;
+            }
+            final Node node = session.getNode(path);
+            if (node.isNodeType(NT_GROUP)) {
+                if (level <= dirLevels && hasGroupFolderAncestors(node, level)) {
+                    addGroup(node);
+                }
+            } else if (node.isNodeType(NT_GROUPFOLDER) && level < dirLevels && hasGroupFolderAncestors(node, level)) {
+                indexFolder(node, level + 1);
+            }
+        }
+    }
+
+    /**
+     * @return the number of group folders between the groups folder and the node at <code>path</code>, or -1 if the
+     * path is not below the groups folder
+     */
+    private int getFolderLevel(final String path) {
+        if (!path.startsWith(groupsPath + "/")) {
+            return -1;
+        }
+        int level = 0;
+        for (int i = groupsPath.length() + 1; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                level++;
+            }
+        }
+        return level;
+    }
+
+    private boolean hasGroupFolderAncestors(final Node node, final int level) throws RepositoryException {
+        Node ancestor = node;
+        for (int i = 0; i < level; i++) {
+            ancestor = ancestor.getParent();
+            if (!ancestor.isNodeType(NT_GROUPFOLDER)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addGroup(final Node groupNode) throws RepositoryException {
+        final Set<String> members = new HashSet<>();
+        if (groupNode.hasProperty(HippoNodeType.HIPPO_MEMBERS)) {
+            for (Value value : groupNode.getProperty(HippoNodeType.HIPPO_MEMBERS).getValues()) {
+                members.add(value.getString());
+            }
+        }
+        final IndexedGroup group = new IndexedGroup(groupNode.getPath(), groupNode.getName(),
+                JcrUtils.getStringProperty(groupNode, HIPPO_SECURITYPROVIDER, null), members);
+        groupsByPath.put(group.path, group);
+        for (String member : members) {
+            Set<IndexedGroup> memberGroups = groupsByMember.get(member);
+            if (memberGroups == null) {
+                memberGroups = new HashSet<>();
+                groupsByMember.put(member, memberGroups);
+            }
+            memberGroups.add(group);
+        }
+    }
+
+    /**
+     * Removes the group at <code>path</code> and all groups below it.
+     */
+    private void removeGroups(final String path) {
+        removeGroup(groupsByPath.remove(path));
+        final String prefix = path + "/";
+        for (Iterator<Map.Entry<String, IndexedGroup>> iterator = groupsByPath.entrySet().iterator(); iterator.hasNext(); ) {
+            final Map.Entry<String, IndexedGroup> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                iterator.remove();
+                removeGroup(entry.getValue());
+            }
+        }
+    }
+
+    private void removeGroup(final IndexedGroup group) {
+        if (group == null) {
+            return;
+        }
+        for (String member : group.members) {
+            final Set<IndexedGroup> memberGroups = groupsByMember.get(member);
+            if (memberGroups != null) {
+                memberGroups.remove(group);
+                if (memberGroups.isEmpty()) {
+                    groupsByMember.remove(member);
+                }
+            }
+        }
+    }
+
+    /**
+     * A group as indexed, identified by its path.
+     */
+    static final class IndexedGroup {
+
+        private final String path;
+        private final String name;
+        private final String providerId;
+        private final Set<String> members;
+
+        private IndexedGroup(final String path, final String name, final String providerId, final Set<String> members) {
+            this.path = path;
+            this.name = name;
+            this.providerId = providerId;
+            this.members = Collections.unmodifiableSet(members);
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the (encoded) node name of the group
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return the value of the security provider property of the group, or <code>null</code> if it has none
+         */
+        String getProviderId() {
+            return providerId;
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*
- *  Copyright 2008-2013 Hippo B.V. (http://www.onehippo.com)
+ *  Copyright 2008-2017 Hippo B.V. (http://www.onehippo.com)
  * 
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -335,6 +335,14 @@ public abstract class AbstractUserManager implements HippoUserManager {
      */
     @Override
     public void updateLastLogin(String rawUserId) {
+        updateLastLogin(rawUserId, Calendar.getInstance());
+    }
+
+    /**
+     * Only last login date for external users.
+     */
+    @Override
+    public void updateLastLogin(String rawUserId, Calendar lastLogin) {
         if (!isInitialized()) {
             throw new IllegalStateException("Not initialized.");
         }
@@ -342,7 +350,7 @@ public abstract class AbstractUserManager implements HippoUserManager {
             Node user = getUser(rawUserId);
             if (user != null) {
                 if (user.isNodeType(HippoNodeType.NT_EXTERNALUSER)) {
-                    user.setProperty(HippoNodeType.HIPPO_LASTLOGIN, Calendar.getInstance());
+                    user.setProperty(HippoNodeType.HIPPO_LASTLOGIN, lastLogin);
                 }
             } else {
                 log.debug("Unable to set lastlogin for user, user not found: " + sanitizeId(rawUserId));
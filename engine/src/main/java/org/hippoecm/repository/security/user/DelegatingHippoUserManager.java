@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2014 Hippo B.V. (http://www.onehippo.com)
+ * Copyright 2014-2017 Hippo B.V. (http://www.onehippo.com)
  * 
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,6 +15,8 @@
  */
 package org.hippoecm.repository.security.user;
 
+import java.util.Calendar;
+
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
@@ -88,6 +90,11 @@ public class DelegatingHippoUserManager extends DelegatingUserManager implements
         delegatee.updateLastLogin(userId);
     }
 
+    @Override
+    public void updateLastLogin(String userId, Calendar lastLogin) {
+        delegatee.updateLastLogin(userId, lastLogin);
+    }
+
     @Override
     public void saveUsers() throws RepositoryException {
         delegatee.saveUsers();
@@ -1,5 +1,5 @@
 /*
- *  Copyright 2013 Hippo B.V. (http://www.onehippo.com)
+ *  Copyright 2013-2017 Hippo B.V. (http://www.onehippo.com)
  *
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -15,6 +15,8 @@
  */
 package org.hippoecm.repository.security.user;
 
+import java.util.Calendar;
+
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
@@ -106,6 +108,15 @@ public interface HippoUserManager extends UserManager {
      */
     void updateLastLogin(String userId);
 
+    /**
+     * Updates the last login datetime to the given time, for when the update is not done at login time itself.
+     * @param userId
+     * @param lastLogin the time of the login
+     */
+    default void updateLastLogin(String userId, Calendar lastLogin) {
+        updateLastLogin(userId);
+    }
+
     /**
      * Saves the user node data. This method is supposed to be called after authentication
      * especially when the user node is sychronized from external security data store.
@@ -16,6 +16,7 @@
 package org.onehippo.cm.engine;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -31,6 +32,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jcr.Binary;
 import javax.jcr.Node;
@@ -44,6 +50,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.hippoecm.repository.api.NodeNameCodec;
 import org.hippoecm.repository.util.MavenComparableVersion;
+import org.hippoecm.repository.util.NodeIterable;
 import org.onehippo.cm.model.definition.Definition;
 import org.onehippo.cm.model.impl.ConfigurationModelImpl;
 import org.onehippo.cm.model.impl.GroupImpl;
@@ -60,6 +67,8 @@ import org.onehippo.cm.model.parser.ConfigSourceParser;
 import org.onehippo.cm.model.parser.ModuleDescriptorParser;
 import org.onehippo.cm.model.parser.ParserException;
 import org.onehippo.cm.model.source.ResourceInputProvider;
+import org.onehippo.cm.model.source.Source;
+import org.onehippo.cm.model.util.DigestUtils;
 import org.onehippo.repository.util.JcrConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -94,6 +103,7 @@ import static org.onehippo.cm.engine.Constants.NT_HCM_CONTENT_FOLDER;
 import static org.onehippo.cm.engine.Constants.NT_HCM_CONTENT_SOURCE;
 import static org.onehippo.cm.engine.Constants.NT_HCM_DEFINITIONS;
 import static org.onehippo.cm.engine.Constants.NT_HCM_DESCRIPTOR;
+import static org.onehippo.cm.engine.Constants.NT_HCM_DIGESTED;
 import static org.onehippo.cm.engine.Constants.NT_HCM_GROUP;
 import static org.onehippo.cm.engine.Constants.NT_HCM_MODULE;
 import static org.onehippo.cm.engine.Constants.NT_HCM_PROJECT;
@@ -109,8 +119,20 @@ public class ConfigurationBaselineService {
 
     private static final Logger log = LoggerFactory.getLogger(ConfigurationBaselineService.class);
 
+    /**
+     * The maximum number of threads used to parse the config sources of the baseline, one module per thread.
+     */
+    private static final int PARSER_THREADS = Integer.getInteger("hcm.baseline.parser.threads",
+            Runtime.getRuntime().availableProcessors());
+
     private final ConfigurationLockManager configurationLockManager;
 
+    /**
+     * The paths of the source and resource nodes stored while storing a complete baseline, used to remove the nodes
+     * of sources and resources that no longer exist. Only accessed while holding the configuration lock.
+     */
+    private Set<String> storedItemPaths;
+
     public ConfigurationBaselineService(final ConfigurationLockManager configurationLockManager) {
         this.configurationLockManager = configurationLockManager;
     }
@@ -131,13 +153,6 @@ public class ConfigurationBaselineService {
             createNodeIfNecessary(hcmRootNode, NT_HCM_BUNDLES, NT_HCM_BUNDLES, false);
             Node baseline = createNodeIfNecessary(hcmRootNode, HCM_BASELINE, NT_HCM_BASELINE, false);
 
-            // TODO: implement a smarter partial-update process instead of brute-force removal
-            // clear existing group nodes before creating new ones
-            for (NodeIterator nodes = baseline.getNodes(); nodes.hasNext();) {
-                Node groupNode = nodes.nextNode();
-                groupNode.remove();
-            }
-
             // set lastupdated date to now
             baseline.setProperty(HCM_LAST_UPDATED, Calendar.getInstance());
 
@@ -147,7 +162,9 @@ public class ConfigurationBaselineService {
             String modelDigestString = model.getDigest();
             baseline.setProperty(HCM_DIGEST, modelDigestString);
 
-            // create group, project, and module nodes, if necessary
+            // create group, project, and module nodes, if necessary, and only store the modules that changed
+            final Set<String> modulePaths = new HashSet<>();
+            int unchangedModules = 0;
             // foreach group
             for (GroupImpl group : model.getSortedGroups()) {
                 Node groupNode = createNodeIfNecessary(baseline, group.getName(), NT_HCM_GROUP, true);
@@ -159,16 +176,58 @@ public class ConfigurationBaselineService {
                     // foreach module
                     for (ModuleImpl module : project.getModules()) {
                         Node moduleNode = createNodeIfNecessary(projectNode, module.getName(), NT_HCM_MODULE, true);
+                        modulePaths.add(moduleNode.getPath());
+
+                        final String moduleDigest = computeModuleDigest(module);
+                        if (moduleNode.hasProperty(HCM_DIGEST)
+                                && moduleDigest.equals(moduleNode.getProperty(HCM_DIGEST).getString())) {
+                            log.debug("Module {} unchanged in baseline configuration", module.getFullName());
+                            unchangedModules++;
+                            continue;
+                        }
 
-                        // process each module in detail
-                        storeBaselineModule(module, moduleNode, session, false);
+                        // process each module in detail, and remove what is no longer part of it
+                        storedItemPaths = new HashSet<>();
+                        try {
+                            storeBaselineModule(module, moduleNode, session, false);
+                            for (String folder : new String[]{HCM_CONFIG_FOLDER, HCM_CONTENT_FOLDER}) {
+                                if (moduleNode.hasNode(folder)) {
+                                    removeUnstoredItems(moduleNode.getNode(folder));
+                                }
+                            }
+                        } finally {
+                            storedItemPaths = null;
+                        }
+                        if (!moduleNode.isNodeType(NT_HCM_DIGESTED)) {
+                            moduleNode.addMixin(NT_HCM_DIGESTED);
+                        }
+                        moduleNode.setProperty(HCM_DIGEST, moduleDigest);
                     }
                 }
             }
 
+            // remove the modules that are no longer part of the model, and their projects and groups if empty
+            for (Node groupNode : new NodeIterable(baseline.getNodes())) {
+                for (Node projectNode : new NodeIterable(groupNode.getNodes())) {
+                    for (Node moduleNode : new NodeIterable(projectNode.getNodes())) {
+                        if (!modulePaths.contains(moduleNode.getPath())) {
+                            log.debug("Removing module {} from baseline configuration", moduleNode.getPath());
+                            moduleNode.remove();
+                        }
+                    }
+                    if (!projectNode.hasNodes()) {
+                        projectNode.remove();
+                    }
+                }
+                if (!groupNode.hasNodes()) {
+                    groupNode.remove();
+                }
+            }
+
             session.save();
             stopWatch.stop();
-            log.info("ConfigurationModel stored as baseline configuration in {}", stopWatch.toString());
+            log.info("ConfigurationModel stored as baseline configuration in {}, {} of {} modules unchanged",
+                    stopWatch.toString(), unchangedModules, modulePaths.size());
         }
         catch (RepositoryException|IOException e) {
             log.error("Failed to store baseline configuration", e);
@@ -179,6 +238,90 @@ public class ConfigurationBaselineService {
         }
     }
 
+    /**
+     * Computes a digest of everything that {@link #storeBaselineModule(ModuleImpl, Node, Session, boolean)} stores
+     * for a module, so that storing a module can be skipped if its digest did not change since it was last stored.
+     * @param module the module to compute the digest for
+     * @return the digest of the module
+     */
+    protected String computeModuleDigest(final ModuleImpl module) throws RepositoryException, IOException {
+        final ResourceInputProvider rip = module.getConfigResourceInputProvider();
+        final StringBuilder manifest = new StringBuilder();
+        manifest.append(HCM_LAST_EXECUTED_ACTION).append(':').append(module.getLastExecutedAction()).append('\n');
+
+        // TODO the "/../" is an ugly hack because RIP actually treats absolute paths as relative to config base, not module base
+        if (rip.hasResource(null, "/../" + HCM_MODULE_YAML)) {
+            appendDigest(manifest, HCM_MODULE_YAML, rip.getResourceInputStream(null, "/../" + HCM_MODULE_YAML));
+        }
+        else {
+            appendDigest(manifest, HCM_MODULE_YAML,
+                    IOUtils.toInputStream(module.compileDummyDescriptor(), StandardCharsets.UTF_8));
+        }
+        if (rip.hasResource(null, "/../" + ACTIONS_YAML)) {
+            appendDigest(manifest, ACTIONS_YAML, rip.getResourceInputStream(null, "/../" + ACTIONS_YAML));
+        }
+
+        for (ContentSourceImpl source : module.getContentSources()) {
+            final ContentDefinitionImpl firstDef = (ContentDefinitionImpl) source.getDefinitions().get(0);
+            manifest.append(HCM_CONTENT_FOLDER).append('/').append(source.getPath()).append(':')
+                    .append(firstDef.getNode().getPath()).append(':')
+                    .append(firstDef.getNode().getOrderBefore()).append('\n');
+        }
+
+        for (ConfigSourceImpl source : module.getConfigSources()) {
+            final String sourcePath = source.getPath();
+            appendDigest(manifest, HCM_CONFIG_FOLDER + "/" + sourcePath, rip.getResourceInputStream(null, "/" + sourcePath));
+            for (Definition def : source.getDefinitions()) {
+                if (def instanceof NamespaceDefinitionImpl && ((NamespaceDefinitionImpl) def).getCndPath() != null) {
+                    final String cndPath = ((NamespaceDefinitionImpl) def).getCndPath().getString();
+                    appendDigest(manifest, sourcePath + ":" + cndPath, rip.getResourceInputStream(source, cndPath));
+                }
+                else if (def instanceof ConfigDefinitionImpl) {
+                    ((ConfigDefinitionImpl) def).getNode().visitResources(value -> {
+                        if (value.isResource()) {
+                            appendDigest(manifest, sourcePath + ":" + value.getString(), value.getResourceInputStream());
+                        }
+                    });
+                }
+            }
+        }
+        return DigestUtils.computeManifestDigest(manifest.toString());
+    }
+
+    private static void appendDigest(final StringBuilder manifest, final String path, final InputStream is) throws IOException {
+        try (InputStream in = is) {
+            manifest.append(path).append(':').append(DigestUtils.digestFromStream(in)).append('\n');
+        }
+    }
+
+    /**
+     * Removes the source and resource nodes below a config or content folder that were not stored while storing the
+     * module, and the folders that become empty.
+     */
+    private void removeUnstoredItems(final Node folderNode) throws RepositoryException {
+        for (Node child : new NodeIterable(folderNode.getNodes())) {
+            if (child.isNodeType(NT_HCM_CONFIG_FOLDER) || child.isNodeType(NT_HCM_CONTENT_FOLDER)) {
+                removeUnstoredItems(child);
+                if (!child.hasNodes()) {
+                    child.remove();
+                }
+            }
+            else if (!storedItemPaths.contains(child.getPath())) {
+                log.debug("Removing {} from baseline configuration", child.getPath());
+                child.remove();
+            }
+        }
+    }
+
+    /**
+     * @param session the session to read the baseline with
+     * @return the digest of the model that was stored as baseline, or null if no baseline has been stored yet
+     */
+    public String getBaselineDigest(final Session session) throws RepositoryException {
+        final String digestPath = HCM_BASELINE_PATH + "/" + HCM_DIGEST;
+        return session.propertyExists(digestPath) ? session.getProperty(digestPath).getString() : null;
+    }
+
     /**
      * Update and session saves the stored baseline for a set of modules as an atomic operation.
      * This is primarily used by auto-export, which frequently updates existing modules.
@@ -262,6 +405,16 @@ public class ConfigurationBaselineService {
         if (StringUtils.isNotBlank(lastExecutedAction)) {
             moduleNode.setProperty(HCM_LAST_EXECUTED_ACTION, lastExecutedAction);
         }
+        else if (!incremental && moduleNode.hasProperty(HCM_LAST_EXECUTED_ACTION)) {
+            moduleNode.getProperty(HCM_LAST_EXECUTED_ACTION).remove();
+        }
+        if (!incremental && moduleNode.hasProperty(HCM_MODULE_SEQUENCE)) {
+            moduleNode.getProperty(HCM_MODULE_SEQUENCE).remove();
+        }
+        // an incremental update invalidates the digest of the module as stored by storeBaseline()
+        if (incremental && moduleNode.hasProperty(HCM_DIGEST)) {
+            moduleNode.getProperty(HCM_DIGEST).remove();
+        }
 
         // create descriptor node, if necessary
         Node descriptorNode = createNodeIfNecessary(moduleNode, HCM_MODULE_DESCRIPTOR, NT_HCM_DESCRIPTOR, false);
@@ -296,6 +449,9 @@ public class ConfigurationBaselineService {
             // store yaml and digest (this call will close the input stream)
             storeString(is, actionsNode, HCM_YAML);
         }
+        else if (!incremental && moduleNode.hasNode(HCM_ACTIONS)) {
+            moduleNode.getNode(HCM_ACTIONS).remove();
+        }
 
         // always create the config root node, since we need it to setup the RIP, and that's needed later
         // TODO this is an ugly hack because source.getPath() is actually relative to config root, not module root
@@ -507,7 +663,11 @@ public class ConfigurationBaselineService {
         }
 
         // create the item node, if necessary
-        return createNodeIfNecessary(parentNode, sourceSegments[sourceSegments.length-1], sourceType, true);
+        final Node itemNode = createNodeIfNecessary(parentNode, sourceSegments[sourceSegments.length-1], sourceType, true);
+        if (storedItemPaths != null) {
+            storedItemPaths.add(itemNode.getPath());
+        }
+        return itemNode;
     }
 
     /**
@@ -517,10 +677,28 @@ public class ConfigurationBaselineService {
      * @param resourceNode the JCR Node where the content will be stored
      */
     protected void storeBinary(InputStream is, Node resourceNode) throws IOException, RepositoryException {
-        // store content as Binary
-        BufferedInputStream bis = new BufferedInputStream(is);
-        Binary bin = resourceNode.getSession().getValueFactory().createBinary(bis);
+        // stream the content into a Binary, which spools large content to disk instead of keeping it in memory
+        final Binary bin;
+        try (InputStream bis = new BufferedInputStream(is)) {
+            bin = resourceNode.getSession().getValueFactory().createBinary(bis);
+        }
+        final String digest;
+        try (InputStream in = bin.getStream()) {
+            digest = DigestUtils.digestFromStream(in);
+        }
+
+        // skip writing the content if the stored content has the same digest
+        if (resourceNode.hasProperty(JcrConstants.JCR_DATA) && resourceNode.hasProperty(HCM_DIGEST)
+                && digest.equals(resourceNode.getProperty(HCM_DIGEST).getString())) {
+            bin.dispose();
+            return;
+        }
+
         resourceNode.setProperty(JcrConstants.JCR_DATA, bin);
+        if (!resourceNode.isNodeType(NT_HCM_DIGESTED)) {
+            resourceNode.addMixin(NT_HCM_DIGESTED);
+        }
+        resourceNode.setProperty(HCM_DIGEST, digest);
     }
 
     /**
@@ -534,9 +712,11 @@ public class ConfigurationBaselineService {
             throws IOException, RepositoryException {
         // use try-with-resource to close the reader and therefore the input stream
         try (Reader isr = new InputStreamReader(is, StandardCharsets.UTF_8)) {
-            // store content as String
+            // store content as String, unless it did not change
             String txt = IOUtils.toString(isr);
-            resourceNode.setProperty(propName, txt);
+            if (!resourceNode.hasProperty(propName) || !txt.equals(resourceNode.getProperty(propName).getString())) {
+                resourceNode.setProperty(propName, txt);
+            }
         }
     }
 
@@ -666,20 +846,26 @@ public class ConfigurationBaselineService {
 
     /**
      * Second phase of loading a baseline: loading and parsing config Sources and reconstructing minimal content
-     * Source mockups (containing only the root definition path).
+     * Source mockups (containing only the root definition path). The config Sources are read from the JCR first, and
+     * then parsed concurrently, one module per thread, since parsing does not depend on other modules. The Sources
+     * of a module are parsed in the same order as they are read.
      * @param groups accumulator object from first phase
      * @throws RepositoryException
      * @throws IOException
      * @throws ParserException
      */
     protected void parseSources(final List<GroupImpl> groups) throws RepositoryException, IOException, ParserException {
+        final List<ModuleConfigSources> configSources = new ArrayList<>();
+        // guards the JCR access of parsers on other threads
+        final Object sessionLock = new Object();
+
         // for each group
         for (GroupImpl group : groups) {
             // for each project
             for (ProjectImpl project : group.getProjects()) {
                 // for each module
                 for (ModuleImpl module : project.getModules()) {
-                    log.debug("Parsing sources from baseline for {}/{}/{}",
+                    log.debug("Reading sources from baseline for {}/{}/{}",
                             group.getName(), project.getName(), module.getName());
 
                     BaselineResourceInputProvider rip = (BaselineResourceInputProvider) module.getConfigResourceInputProvider();
@@ -688,7 +874,8 @@ public class ConfigurationBaselineService {
                                 group.getName(), project.getName(), module.getName());
                     }
                     else {
-                        ConfigSourceParser parser = new ConfigSourceParser(rip);
+                        final ModuleConfigSources moduleConfigSources =
+                                new ModuleConfigSources(module, new SynchronizedResourceInputProvider(rip, sessionLock));
                         Node configFolderNode = rip.getBaseNode();
 
                         // for each config source
@@ -708,11 +895,11 @@ public class ConfigurationBaselineService {
 
                             // get InputStream
                             // TODO adding the slash here is a silly hack to load a source path without needing the source first
-                            InputStream is = rip.getResourceInputStream(null, "/" + sourcePath);
-
-                            // parse config source
-                            parser.parse(is, sourcePath, configNode.getPath(), module);
+                            try (InputStream is = rip.getResourceInputStream(null, "/" + sourcePath)) {
+                                moduleConfigSources.add(sourcePath, configNode.getPath(), IOUtils.toByteArray(is));
+                            }
                         }
+                        configSources.add(moduleConfigSources);
                     }
 
                     // for each content source
@@ -750,6 +937,61 @@ public class ConfigurationBaselineService {
                 }
             }
         }
+
+        parseConfigSources(configSources);
+    }
+
+    /**
+     * Parses the config sources of each module, concurrently if more than one parser thread is configured.
+     */
+    private void parseConfigSources(final List<ModuleConfigSources> configSources) throws IOException, ParserException {
+        final int threads = Math.min(PARSER_THREADS, configSources.size());
+        if (threads <= 1) {
+            for (ModuleConfigSources moduleConfigSources : configSources) {
+                moduleConfigSources.parse();
+            }
+            return;
+        }
+
+        log.debug("Parsing config sources of {} modules with {} threads", configSources.size(), threads);
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "hcm-baseline-parser-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final List<Future<Void>> futures = new ArrayList<>(configSources.size());
+            for (ModuleConfigSources moduleConfigSources : configSources) {
+                futures.add(executor.submit(() -> {
+                    moduleConfigSources.parse();
+                    return null;
+                }));
+            }
+            // wait for the modules in order, such that the first failure is reported as in sequential parsing
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof ParserException) {
+                        throw (ParserException) cause;
+                    }
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new ConfigurationRuntimeException("Failed to parse baseline config sources", cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ConfigurationRuntimeException("Interrupted while parsing baseline config sources", e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
     private String getOrderBefore(final Node node) throws RepositoryException {
@@ -917,4 +1159,65 @@ public class ConfigurationBaselineService {
         }
         session.save();
     }
+
+    /**
+     * The config sources of a module as read from the baseline, to be parsed into the module.
+     */
+    private static class ModuleConfigSources {
+
+        private final ModuleImpl module;
+        private final ResourceInputProvider resourceInputProvider;
+        private final List<String> sourcePaths = new ArrayList<>();
+        private final List<String> locations = new ArrayList<>();
+        private final List<byte[]> contents = new ArrayList<>();
+
+        ModuleConfigSources(final ModuleImpl module, final ResourceInputProvider resourceInputProvider) {
+            this.module = module;
+            this.resourceInputProvider = resourceInputProvider;
+        }
+
+        void add(final String sourcePath, final String location, final byte[] content) {
+            sourcePaths.add(sourcePath);
+            locations.add(location);
+            contents.add(content);
+        }
+
+        void parse() throws ParserException {
+            final ConfigSourceParser parser = new ConfigSourceParser(resourceInputProvider);
+            for (int i = 0; i < sourcePaths.size(); i++) {
+                // parse config source
+                parser.parse(new ByteArrayInputStream(contents.get(i)), sourcePaths.get(i), locations.get(i), module);
+            }
+        }
+    }
+
+    /**
+     * Serializes the access to the JCR session backing a {@link BaselineResourceInputProvider} from parser threads.
+     */
+    private static class SynchronizedResourceInputProvider implements ResourceInputProvider {
+
+        private final ResourceInputProvider delegate;
+        private final Object lock;
+
+        SynchronizedResourceInputProvider(final ResourceInputProvider delegate, final Object lock) {
+            this.delegate = delegate;
+            this.lock = lock;
+        }
+
+        @Override
+        public boolean hasResource(final Source source, final String resourcePath) {
+            synchronized (lock) {
+                return delegate.hasResource(source, resourcePath);
+            }
+        }
+
+        @Override
+        public InputStream getResourceInputStream(final Source source, final String resourcePath) throws IOException {
+            synchronized (lock) {
+                try (InputStream is = delegate.getResourceInputStream(source, resourcePath)) {
+                    return new ByteArrayInputStream(IOUtils.toByteArray(is));
+                }
+            }
+        }
+    }
 }
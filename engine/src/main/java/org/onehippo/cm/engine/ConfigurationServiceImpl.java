@@ -153,6 +153,8 @@ public class ConfigurationServiceImpl implements InternalConfigurationService {
             final boolean configure = fullConfigure || Boolean.getBoolean(SYSTEM_PARAMETER_REPO_BOOTSTRAP);
             final boolean mustConfigure = first || configure;
             final boolean verify = Boolean.getBoolean("repo.bootstrap.verify");
+            // the digest of the model stored as baseline, to detect that the bootstrap model did not change
+            final String baselineDigest = first ? null : baselineService.getBaselineDigest(session);
 
             // also, check params for auto-export state
             final boolean isProjectBaseDirSet = StringUtils.isNotBlank(System.getProperty(PROJECT_BASEDIR_PROPERTY));
@@ -200,12 +202,18 @@ public class ConfigurationServiceImpl implements InternalConfigurationService {
                     log.info("ConfigurationService: apply bootstrap config");
                     success = applyConfig(baselineModel, bootstrapModel, false, verify, fullConfigure, !first);
 
+                    boolean baselineUnchanged = false;
                     if (success) {
                         // set runtimeConfigurationModel from bootstrapModel -- this is a reasonable default in case of exception
                         runtimeConfigurationModel = bootstrapModel;
 
-                        log.info("ConfigurationService: store bootstrap config");
-                        success = storeBaselineModel(bootstrapModel);
+                        baselineUnchanged = baselineDigest != null && baselineDigest.equals(bootstrapModel.getDigest());
+                        if (baselineUnchanged) {
+                            log.info("ConfigurationService: bootstrap config unchanged since it was stored as baseline");
+                        } else {
+                            log.info("ConfigurationService: store bootstrap config");
+                            success = storeBaselineModel(bootstrapModel);
+                        }
                     }
                     if (success) {
                         log.info("ConfigurationService: apply bootstrap content");
@@ -215,7 +223,11 @@ public class ConfigurationServiceImpl implements InternalConfigurationService {
                     if (success) {
                         // reload the baseline after storing, so we have a JCR-backed view of our modules
                         // we want to avoid using bootstrap modules directly, because of awkward ZipFileSystems
-                        baselineModel = loadBaselineModel();
+                        // if the baseline did not change, the baseline loaded before is still such a view, except for
+                        // the last executed actions updated by applying content, which only auto-export relies on
+                        if (!baselineUnchanged || startAutoExportService) {
+                            baselineModel = loadBaselineModel();
+                        }
 
                         // if we're in a mode that allows auto-export, keep a copy of the baseline for future use
                         if (startAutoExportService) {
@@ -41,6 +41,7 @@ public final class Constants {
     public static final String NT_HCM_DEFINITIONS = "hcm:definitions";
     public static final String NT_HCM_CND = "hcm:cnd";
     public static final String NT_HCM_BINARY = "hcm:binary";
+    public static final String NT_HCM_DIGESTED = "hcm:digested";
 
     public static final String HCM_ROOT = NT_HCM_ROOT;
     public static final String HCM_BASELINE = "hcm:baseline";
@@ -18,11 +18,12 @@ package org.onehippo.repository.lock;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.onehippo.cms7.services.lock.Lock;
 import org.onehippo.cms7.services.lock.LockException;
@@ -38,7 +39,16 @@ public abstract class AbstractLockManager implements InternalLockManager {
     /**
      * This locks object contains only the locks held by the *current* JVM
      */
-    private final Map<String, MutableLock> localLocks = new HashMap<>();
+    private final Map<String, MutableLock> localLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Number of stripes guarding the keys: all state changes for a key, including the persisted lock changes, are done
+     * while holding the stripe of the key, such that a slow (database) call for one key does not block the calls for
+     * keys of other stripes
+     */
+    private static final int STRIPES = 64;
+
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
 
     private final ScheduledExecutorService scheduledExecutorService;
 
@@ -65,6 +75,27 @@ public abstract class AbstractLockManager implements InternalLockManager {
 
     public AbstractLockManager() {
         scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @return the index of the stripe that guards {@code key}, between 0 (inclusive) and {@link #getStripeCount()}
+     * (exclusive)
+     */
+    protected int getStripeIndex(final String key) {
+        return (key.hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    protected int getStripeCount() {
+        return STRIPES;
+    }
+
+    private ReentrantLock lockStripe(final String key) {
+        final ReentrantLock stripe = stripes[getStripeIndex(key)];
+        stripe.lock();
+        return stripe;
     }
 
     protected void addJob(final Runnable runnable) {
@@ -72,9 +103,18 @@ public abstract class AbstractLockManager implements InternalLockManager {
     }
 
     @Override
-    public synchronized LockResource lock(final String key) throws LockException {
+    public LockResource lock(final String key) throws LockException {
         checkLive();
         validateKey(key);
+        final ReentrantLock stripe = lockStripe(key);
+        try {
+            return doLock(key);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    private LockResource doLock(final String key) throws LockException {
         final MutableLock lock = localLocks.get(key);
         if (lock == null) {
             getLogger().debug("Create lock '{}' for thread '{}'", key, Thread.currentThread().getName());
@@ -124,9 +164,18 @@ public abstract class AbstractLockManager implements InternalLockManager {
     }
 
     @Override
-    public synchronized void unlock(final String key) {
+    public void unlock(final String key) {
         checkLive();
         validateKey(key);
+        final ReentrantLock stripe = lockStripe(key);
+        try {
+            doUnlock(key);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    private void doUnlock(final String key) {
         final MutableLock lock = localLocks.get(key);
         if (lock == null) {
             getLogger().error("Lock '{}' does not exist or this cluster node does not contain the lock hence a thread from " +
@@ -166,9 +215,18 @@ public abstract class AbstractLockManager implements InternalLockManager {
     }
 
     @Override
-    public synchronized void abort(final String key) throws LockManagerException {
+    public void abort(final String key) throws LockManagerException {
         checkLive();
         validateKey(key);
+        final ReentrantLock stripe = lockStripe(key);
+        try {
+            doAbort(key);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    private void doAbort(final String key) throws LockManagerException {
         final MutableLock localLock = localLocks.get(key);
         if (localLock != null) {
             // The cluster node that invoked #abort(key) happens to also contain the Thread that holds the lock, hence
@@ -195,7 +253,7 @@ public abstract class AbstractLockManager implements InternalLockManager {
     }
 
     @Override
-    public synchronized boolean isLocked(final String key) throws LockManagerException {
+    public boolean isLocked(final String key) throws LockManagerException {
         checkLive();
         validateKey(key);
         expungeNeverUnlockedLocksFromStoppedThreads();
@@ -203,7 +261,7 @@ public abstract class AbstractLockManager implements InternalLockManager {
     }
 
     @Override
-    public synchronized List<Lock> getLocks() throws LockManagerException {
+    public List<Lock> getLocks() throws LockManagerException {
         checkLive();
         expungeNeverUnlockedLocksFromStoppedThreads();
         return retrieveLocks();
@@ -259,37 +317,56 @@ public abstract class AbstractLockManager implements InternalLockManager {
     }
 
     @Override
-    public synchronized void clear() {
-        final Iterator<Map.Entry<String, MutableLock>> iterator = localLocks.entrySet().iterator();
-        while (iterator.hasNext()) {
-            final Map.Entry<String, MutableLock> next = iterator.next();
-            getLogger().warn("Lock '{}' owned by cluster '{}' and thread '{}' was never unlocked. Removing the lock now.",
-                    next.getKey(), next.getValue().getLockOwner(), next.getValue().getLockThread());
-            releasePersistedLock(next.getKey(), next.getValue().getLockThread());
-            iterator.remove();
+    public void clear() {
+        for (String key : localLocks.keySet()) {
+            final ReentrantLock stripe = lockStripe(key);
+            try {
+                final MutableLock lock = localLocks.get(key);
+                if (lock != null) {
+                    getLogger().warn("Lock '{}' owned by cluster '{}' and thread '{}' was never unlocked. Removing the lock now.",
+                            key, lock.getLockOwner(), lock.getLockThread());
+                    releasePersistedLock(key, lock.getLockThread());
+                    localLocks.remove(key);
+                }
+            } finally {
+                stripe.unlock();
+            }
         }
     }
 
-    public synchronized void checkLive() {
+    public void checkLive() {
         if (destroyed) {
             throw new IllegalStateException("This LockManager has been destroyed.");
         }
     }
 
-    public synchronized void expungeNeverUnlockedLocksFromStoppedThreads() {
-        final Iterator<Map.Entry<String, MutableLock>> iterator = localLocks.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, MutableLock> next = iterator.next();
-            MutableLock lock = next.getValue();
-            if (lock.getThread().get() == null || !lock.getThread().get().isAlive()) {
-                getLogger().error("Lock '{}' with lockOwner '{}' was present but the Thread that created the lock already stopped. " +
-                        "Removing the lock now", next.getKey(), lock.getLockOwner());
-                releasePersistedLock(next.getKey(), next.getValue().getLockThread());
-                iterator.remove();
+    public void expungeNeverUnlockedLocksFromStoppedThreads() {
+        for (Map.Entry<String, MutableLock> next : localLocks.entrySet()) {
+            if (isThreadAlive(next.getValue())) {
+                continue;
+            }
+            final String key = next.getKey();
+            final ReentrantLock stripe = lockStripe(key);
+            try {
+                // check again now the stripe is held: the lock might have been replaced in the meantime
+                final MutableLock lock = localLocks.get(key);
+                if (lock != null && !isThreadAlive(lock)) {
+                    getLogger().error("Lock '{}' with lockOwner '{}' was present but the Thread that created the lock already stopped. " +
+                            "Removing the lock now", key, lock.getLockOwner());
+                    releasePersistedLock(key, lock.getLockThread());
+                    localLocks.remove(key);
+                }
+            } finally {
+                stripe.unlock();
             }
         }
     }
 
+    private static boolean isThreadAlive(final MutableLock lock) {
+        final Thread thread = lock.getThread().get();
+        return thread != null && thread.isAlive();
+    }
+
     private void validateKey(final String key) {
         if (key == null || key.length() > 256) {
             throw new IllegalArgumentException("Key is not allowed to be null or longer than 256 chars");
@@ -297,8 +374,6 @@ public abstract class AbstractLockManager implements InternalLockManager {
     }
 
     public void addJob(final Runnable runnable, final long initialDelaySeconds, final long periodSeconds) {
-        // make the runnable synchronized to avoid concurrency from background jobs with methods in the LockManager
-        // modifying 'locks'
         final Runnable exceptionCatchingRunnable = () -> {
             final long start = System.currentTimeMillis();
             getLogger().info("Running '{}' at {}", runnable.getClass().getName(), Calendar.getInstance().getTime());
@@ -318,7 +393,7 @@ public abstract class AbstractLockManager implements InternalLockManager {
     /**
      * @return a copy of {@code localLocks}
      */
-    public synchronized Map<String, MutableLock> getLocalLocks() {
+    public Map<String, MutableLock> getLocalLocks() {
         return new HashMap<>(localLocks);
     }
 
@@ -15,14 +15,20 @@
  */
 package org.onehippo.repository.lock.db;
 
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 
 import org.apache.jackrabbit.core.util.db.ConnectionHelper;
@@ -39,6 +45,21 @@ public class DbLockManager extends AbstractLockManager {
 
     private static final Logger log = LoggerFactory.getLogger(DbLockManager.class);
 
+    /**
+     * System property that, when set to {@code true}, makes the statements that lock, unlock and abort a key reuse a
+     * connection pinned to the stripe of the key instead of obtaining a connection from the data source for every
+     * statement
+     */
+    public static final String SYSTEM_PROPERTY_CONNECTION_AFFINITY = "hippo.lock.connection.affinity";
+
+    /**
+     * System property with the maximum number of connections pinned when connection affinity is enabled, default
+     * {@link #DEFAULT_MAX_PINNED_CONNECTIONS}. The stripes are spread over the pinned connections, the stripes sharing
+     * a pinned connection use it one at a time.
+     */
+    public static final String SYSTEM_PROPERTY_MAX_PINNED_CONNECTIONS = "hippo.lock.connection.affinity.max";
+
+    public static final int DEFAULT_MAX_PINNED_CONNECTIONS = 8;
 
     private final static String TABLE_NAME_LOCK = "HIPPO_LOCK";
 
@@ -77,6 +98,9 @@ public class DbLockManager extends AbstractLockManager {
             "lastModified=? " +
             "WHERE expirationTime<? AND (status='RUNNING' OR status='ABORT')";
 
+    private static final String NEXT_EXPIRATION_STATEMENT = "SELECT COUNT(*), MIN(expirationTime) FROM %s " +
+            "WHERE status='RUNNING' OR status='ABORT'";
+
     private static final String REMOVE_OUTDATED_LOCKS = "DELETE FROM %s WHERE lastModified<?";
 
     private static final String ABORT_STATEMENT = "UPDATE %s SET status='ABORT', lastModified=? WHERE lockKey=? AND status='RUNNING'";
@@ -85,6 +109,10 @@ public class DbLockManager extends AbstractLockManager {
     private static final String REFRESH_LOCK_STATEMENT = "UPDATE %s SET lastModified=?, expirationTime=expirationTime+"+ REFRESH_RATE_SECONDS * 1000 +
             " WHERE lockOwner=? AND expirationTime<? AND (status='RUNNING' OR status='ABORT')";
 
+    // only refreshes the given locks of its own cluster node
+    private static final String REFRESH_LOCKS_STATEMENT = "UPDATE %s SET lastModified=?, expirationTime=expirationTime+"+ REFRESH_RATE_SECONDS * 1000 +
+            " WHERE lockOwner=? AND expirationTime<? AND (status='RUNNING' OR status='ABORT') AND lockKey IN (%s)";
+
     private static final String SELECT_ABORT_STATEMENT = "SELECT * FROM %s WHERE status='ABORT' AND lockOwner=?";
 
     private final DataSource dataSource;
@@ -96,11 +124,25 @@ public class DbLockManager extends AbstractLockManager {
     private final String allLockedStatement;
     private final String resetLockStatement;
     private final String resetExpiredStatement;
+    private final String nextExpirationStatement;
     private final String removeOutdatedStatement;
     private final String abortStatement;
     private final String refreshLockStatement;
+    private final String refreshLocksStatement;
     private final String selectAbortStatement;
 
+    /**
+     * When connection affinity is enabled, the pinned connections, each one guarded by the lock with the same index in
+     * {@link #pinnedConnectionLocks}; the connection of a key is the one with its stripe index modulo the number of
+     * pinned connections
+     */
+    private final Connection[] pinnedConnections;
+    private final ReentrantLock[] pinnedConnectionLocks;
+    private volatile boolean pinnedConnectionsClosed;
+
+    private final DbLockManagerStats stats = new DbLockManagerStats(this);
+    private ObjectName statsName;
+
     protected DbLockManager(final ConnectionHelper connectionHelper, final DataSource dataSource,
                          final String schemaObjectPrefix, final boolean schemaCheckEnabled, final String clusterNodeId) {
         this.dataSource = dataSource;
@@ -112,10 +154,25 @@ public class DbLockManager extends AbstractLockManager {
         this.allLockedStatement = String.format(ALL_LOCKED_STATEMENT, tableName);
         this.resetLockStatement = String.format(RESET_LOCK_STATEMENT, tableName);
         this.resetExpiredStatement = String.format(RESET_EXPIRED_STATEMENT, tableName);
+        this.nextExpirationStatement = String.format(NEXT_EXPIRATION_STATEMENT, tableName);
         this.removeOutdatedStatement = String.format(REMOVE_OUTDATED_LOCKS, tableName);
         this.abortStatement = String.format(ABORT_STATEMENT, tableName);
         this.refreshLockStatement = String.format(REFRESH_LOCK_STATEMENT, tableName);
+        this.refreshLocksStatement = String.format(REFRESH_LOCKS_STATEMENT, tableName,
+                String.join(",", Collections.nCopies(DbLockRefresher.REFRESH_BATCH_SIZE, "?")));
         this.selectAbortStatement = String.format(SELECT_ABORT_STATEMENT, tableName);
+        if (Boolean.getBoolean(SYSTEM_PROPERTY_CONNECTION_AFFINITY)) {
+            final int maxPinned = Integer.getInteger(SYSTEM_PROPERTY_MAX_PINNED_CONNECTIONS, DEFAULT_MAX_PINNED_CONNECTIONS);
+            final int pinned = Math.max(1, Math.min(getStripeCount(), maxPinned));
+            this.pinnedConnections = new Connection[pinned];
+            this.pinnedConnectionLocks = new ReentrantLock[pinned];
+            for (int i = 0; i < pinned; i++) {
+                pinnedConnectionLocks[i] = new ReentrantLock();
+            }
+        } else {
+            this.pinnedConnections = null;
+            this.pinnedConnectionLocks = null;
+        }
 
         createTableIfNeeded(dataSource, connectionHelper, getCreateLockTableStatement(), tableName, schemaCheckEnabled, "lockKey");
 
@@ -125,6 +182,31 @@ public class DbLockManager extends AbstractLockManager {
         addJob(new DbLockCleanupJanitor(this), 60, oneDaySeconds);
         addJob(new DbLockRefresher(this));
         addJob(new LockThreadInterrupter(this));
+        registerStats();
+    }
+
+    private void registerStats() {
+        try {
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = ObjectName.getInstance("org.onehippo.repository.lock:type=DbLockManager,clusterNodeId="
+                    + ObjectName.quote(clusterNodeId));
+            mBeanServer.registerMBean(stats, name);
+            statsName = name;
+        } catch (JMException e) {
+            log.warn("Unable to register lock manager statistics: {}", e.toString());
+        }
+    }
+
+    private void unregisterStats() {
+        if (statsName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(statsName);
+        } catch (JMException e) {
+            log.warn("Unable to unregister lock manager statistics: {}", e.toString());
+        }
+        statsName = null;
     }
 
     /**
@@ -210,6 +292,13 @@ public class DbLockManager extends AbstractLockManager {
         return resetExpiredStatement;
     }
 
+    /**
+     * @return the statement selecting the number of locks that are not free and the earliest expiration time among them
+     */
+    public String getNextExpirationStatement() {
+        return nextExpirationStatement;
+    }
+
     public String getRemoveOutdatedStatement() {
         return removeOutdatedStatement;
     }
@@ -222,6 +311,19 @@ public class DbLockManager extends AbstractLockManager {
         return refreshLockStatement;
     }
 
+    /**
+     * @return the statement refreshing the locks of this cluster node with one of
+     * {@link DbLockRefresher#REFRESH_BATCH_SIZE} keys: the current time, the cluster node id and the expiration time
+     * below which locks are refreshed are followed by the keys
+     */
+    public String getRefreshLocksStatement() {
+        return refreshLocksStatement;
+    }
+
+    public DbLockManagerStats getStats() {
+        return stats;
+    }
+
     public String getSelectAbortStatement() {
         return selectAbortStatement;
     }
@@ -249,17 +351,97 @@ public class DbLockManager extends AbstractLockManager {
         }
     }
 
+    /**
+     * @return a connection with auto commit enabled for a statement on {@code key}, which must be returned with
+     * {@link #releaseKeyConnection(String, Connection, boolean, boolean)}. Must be invoked while holding the stripe of
+     * {@code key}. A pinned connection is held exclusively until it is released.
+     */
+    private Connection getKeyConnection(final String key) throws SQLException {
+        if (pinnedConnections != null && !pinnedConnectionsClosed) {
+            final int index = getPinnedConnectionIndex(key);
+            final ReentrantLock pinnedConnectionLock = pinnedConnectionLocks[index];
+            pinnedConnectionLock.lock();
+            try {
+                // check again now the pinned connection is held: the connections might have been closed in the meantime
+                if (!pinnedConnectionsClosed) {
+                    if (pinnedConnections[index] == null) {
+                        final Connection connection = dataSource.getConnection();
+                        connection.setAutoCommit(true);
+                        pinnedConnections[index] = connection;
+                    }
+                    return pinnedConnections[index];
+                }
+            } catch (SQLException | RuntimeException e) {
+                pinnedConnectionLock.unlock();
+                throw e;
+            }
+            pinnedConnectionLock.unlock();
+        }
+        return dataSource.getConnection();
+    }
+
+    /**
+     * Closes a connection obtained with {@link #getKeyConnection(String)}, unless it is pinned and did not fail
+     */
+    private void releaseKeyConnection(final String key, final Connection connection, final boolean originalAutoCommit,
+                                      final boolean failed) {
+        if (pinnedConnections == null) {
+            close(connection, originalAutoCommit);
+            return;
+        }
+        final int index = getPinnedConnectionIndex(key);
+        final ReentrantLock pinnedConnectionLock = pinnedConnectionLocks[index];
+        if (!pinnedConnectionLock.isHeldByCurrentThread()) {
+            // not pinned: obtained after the pinned connections were closed, or failed to obtain
+            close(connection, originalAutoCommit);
+            return;
+        }
+        try {
+            if (failed) {
+                // the connection might be broken: obtain a new one for the next statement
+                pinnedConnections[index] = null;
+                close(connection);
+            }
+        } finally {
+            pinnedConnectionLock.unlock();
+        }
+    }
+
+    private int getPinnedConnectionIndex(final String key) {
+        return getStripeIndex(key) % pinnedConnections.length;
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        unregisterStats();
+        if (pinnedConnections != null) {
+            pinnedConnectionsClosed = true;
+            for (int i = 0; i < pinnedConnections.length; i++) {
+                // wait for a statement in progress on the pinned connection to finish before closing it
+                pinnedConnectionLocks[i].lock();
+                try {
+                    close(pinnedConnections[i]);
+                    pinnedConnections[i] = null;
+                } finally {
+                    pinnedConnectionLocks[i].unlock();
+                }
+            }
+        }
+    }
+
     @Override
     protected Logger getLogger() {
         return log;
     }
 
     @Override
-    protected synchronized MutableLock createLock(final String key, final String threadName) throws LockException {
+    protected MutableLock createLock(final String key, final String threadName) throws LockException {
         Connection connection = null;
         boolean originalAutoCommit = false;
+        boolean failed = false;
         try {
-            connection = dataSource.getConnection();
+            connection = getKeyConnection(key);
             originalAutoCommit = connection.getAutoCommit();
             connection.setAutoCommit(true);
 
@@ -296,6 +478,7 @@ public class DbLockManager extends AbstractLockManager {
             return new MutableLock(key, clusterNodeId, threadName, lockTime, "RUNNING");
 
         } catch (SQLException e) {
+            failed = true;
             if (log.isDebugEnabled()) {
                 log.info("Cannot lock '{}'.", e);
             } else {
@@ -303,16 +486,17 @@ public class DbLockManager extends AbstractLockManager {
             }
             throw new LockManagerException(e);
         } finally {
-            close(connection, originalAutoCommit);
+            releaseKeyConnection(key, connection, originalAutoCommit, failed);
         }
     }
 
     @Override
-    protected synchronized void releasePersistedLock(final String key, final String threadName) {
+    protected void releasePersistedLock(final String key, final String threadName) {
         Connection connection = null;
         boolean originalAutoCommit = false;
+        boolean failed = false;
         try {
-            connection = dataSource.getConnection();
+            connection = getKeyConnection(key);
             originalAutoCommit = connection.getAutoCommit();
             connection.setAutoCommit(true);
             final PreparedStatement resetLockStatement = connection.prepareStatement(getResetLockStatement());
@@ -340,22 +524,24 @@ public class DbLockManager extends AbstractLockManager {
             }
             log.info("Successfully released '{}'", key);
         } catch (SQLException e) {
+            failed = true;
             final String msg = String.format("Unlocking Database Lock '%s' for thread '%s' and cluster '%s' failed.", key, threadName, clusterNodeId, e);
             log.error(msg);
             // we do not want to throw a checked exception for #unlock because that would mean code flow that in the finally block
             // wants to unlock would always have to catch an exception....with which a developer can't do much
             throw new RuntimeException(msg, e);
         } finally {
-            close(connection, originalAutoCommit);
+            releaseKeyConnection(key, connection, originalAutoCommit, failed);
         }
     }
 
     @Override
-    protected synchronized void abortPersistedLock(final String key) throws LockManagerException {
+    protected void abortPersistedLock(final String key) throws LockManagerException {
         Connection connection = null;
         boolean originalAutoCommit = false;
+        boolean failed = false;
         try {
-            connection = dataSource.getConnection();
+            connection = getKeyConnection(key);
             originalAutoCommit = connection.getAutoCommit();
             connection.setAutoCommit(true);
             final PreparedStatement abortStatement = connection.prepareStatement(getAbortStatement());
@@ -372,16 +558,17 @@ public class DbLockManager extends AbstractLockManager {
             }
             log.info("Successfully changed status to abort for '{}'", key);
         } catch (SQLException e) {
+            failed = true;
             final String msg = String.format("Aborting Database Lock '%s' failed.", key);
             log.error(msg, e);
             throw new LockManagerException(msg, e);
         } finally {
-            close(connection, originalAutoCommit);
+            releaseKeyConnection(key, connection, originalAutoCommit, failed);
         }
     }
 
     @Override
-    protected synchronized boolean containsLock(final String key) throws LockManagerException {
+    protected boolean containsLock(final String key) throws LockManagerException {
         try (Connection connection = dataSource.getConnection()) {
             final PreparedStatement selectStatement = connection.prepareStatement(getSelectStatement());
             selectStatement.setString(1, key);
@@ -405,7 +592,7 @@ public class DbLockManager extends AbstractLockManager {
     }
 
     @Override
-    protected synchronized List<Lock> retrieveLocks() throws LockManagerException {
+    protected List<Lock> retrieveLocks() throws LockManagerException {
         try (Connection connection = dataSource.getConnection()) {
             final PreparedStatement selectStatement = connection.prepareStatement(getAllLockedStatement());
             ResultSet resultSet = selectStatement.executeQuery();
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.repository.lock.db;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DbLockManagerStats implements DbLockManagerStatsMBean {
+
+    private final DbLockManager dbLockManager;
+
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong skippedRefreshCount = new AtomicLong();
+    private final AtomicLong refreshStatementCount = new AtomicLong();
+    private final AtomicLong refreshedLockCount = new AtomicLong();
+    private final AtomicLong refreshFailureCount = new AtomicLong();
+    private final AtomicLong totalRefreshTimeMillis = new AtomicLong();
+    private final AtomicLong lastRefreshTimeMillis = new AtomicLong();
+    private final AtomicLong maxRefreshTimeMillis = new AtomicLong();
+    private final AtomicLong resetExpiredCount = new AtomicLong();
+    private final AtomicLong skippedResetExpiredCount = new AtomicLong();
+    private final AtomicLong expiredLockCount = new AtomicLong();
+
+    public DbLockManagerStats(final DbLockManager dbLockManager) {
+        this.dbLockManager = dbLockManager;
+    }
+
+    void refreshed(final int statements, final int locks, final long timeMillis) {
+        refreshCount.incrementAndGet();
+        refreshStatementCount.addAndGet(statements);
+        refreshedLockCount.addAndGet(locks);
+        totalRefreshTimeMillis.addAndGet(timeMillis);
+        lastRefreshTimeMillis.set(timeMillis);
+        maxRefreshTimeMillis.accumulateAndGet(timeMillis, Math::max);
+    }
+
+    void refreshSkipped() {
+        skippedRefreshCount.incrementAndGet();
+    }
+
+    void refreshFailed() {
+        refreshFailureCount.incrementAndGet();
+    }
+
+    void expiredReset(final int locks) {
+        resetExpiredCount.incrementAndGet();
+        expiredLockCount.addAndGet(locks);
+    }
+
+    void resetExpiredSkipped() {
+        skippedResetExpiredCount.incrementAndGet();
+    }
+
+    @Override
+    public int getHeldLocks() {
+        return dbLockManager.getLocalLocks().size();
+    }
+
+    @Override
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    @Override
+    public long getSkippedRefreshCount() {
+        return skippedRefreshCount.get();
+    }
+
+    @Override
+    public long getRefreshStatementCount() {
+        return refreshStatementCount.get();
+    }
+
+    @Override
+    public long getRefreshedLockCount() {
+        return refreshedLockCount.get();
+    }
+
+    @Override
+    public long getRefreshFailureCount() {
+        return refreshFailureCount.get();
+    }
+
+    @Override
+    public long getLastRefreshTimeMillis() {
+        return lastRefreshTimeMillis.get();
+    }
+
+    @Override
+    public long getMaxRefreshTimeMillis() {
+        return maxRefreshTimeMillis.get();
+    }
+
+    @Override
+    public double getAverageRefreshTimeMillis() {
+        final long count = refreshCount.get();
+        return count == 0 ? 0 : (double) totalRefreshTimeMillis.get() / count;
+    }
+
+    @Override
+    public long getResetExpiredCount() {
+        return resetExpiredCount.get();
+    }
+
+    @Override
+    public long getSkippedResetExpiredCount() {
+        return skippedResetExpiredCount.get();
+    }
+
+    @Override
+    public long getExpiredLockCount() {
+        return expiredLockCount.get();
+    }
+
+    @Override
+    public void resetStatistics() {
+        refreshCount.set(0);
+        skippedRefreshCount.set(0);
+        refreshStatementCount.set(0);
+        refreshedLockCount.set(0);
+        refreshFailureCount.set(0);
+        totalRefreshTimeMillis.set(0);
+        lastRefreshTimeMillis.set(0);
+        maxRefreshTimeMillis.set(0);
+        resetExpiredCount.set(0);
+        skippedResetExpiredCount.set(0);
+        expiredLockCount.set(0);
+    }
+}
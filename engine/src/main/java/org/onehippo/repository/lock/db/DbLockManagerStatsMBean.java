@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onehippo.repository.lock.db;
+
+/**
+ * JMX view on the background jobs of the {@link DbLockManager}
+ */
+public interface DbLockManagerStatsMBean {
+
+    /**
+     * @return the number of locks currently held by threads of this cluster node
+     */
+    int getHeldLocks();
+
+    /**
+     * @return the number of times the held locks have been refreshed
+     */
+    long getRefreshCount();
+
+    /**
+     * @return the number of times refreshing was skipped because no locks were held
+     */
+    long getSkippedRefreshCount();
+
+    /**
+     * @return the number of refresh statements executed
+     */
+    long getRefreshStatementCount();
+
+    /**
+     * @return the number of lock rows updated by the refresh statements
+     */
+    long getRefreshedLockCount();
+
+    /**
+     * @return the number of times refreshing the held locks failed
+     */
+    long getRefreshFailureCount();
+
+    long getLastRefreshTimeMillis();
+
+    long getMaxRefreshTimeMillis();
+
+    double getAverageRefreshTimeMillis();
+
+    /**
+     * @return the number of times expired locks have been reset
+     */
+    long getResetExpiredCount();
+
+    /**
+     * @return the number of times checking for expired locks was skipped because no lock could have expired yet
+     */
+    long getSkippedResetExpiredCount();
+
+    /**
+     * @return the number of expired locks that have been reset
+     */
+    long getExpiredLockCount();
+
+    void resetStatistics();
+}
@@ -18,19 +18,31 @@ package org.onehippo.repository.lock.db;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Refreshes all locks that are in possession by <strong>this</strong> cluster node and have less than 20 seconds to live. Note the 20
- * seconds is a heuristic number: The {@link DbLockRefresher} runs about every 5 seconds. If some hiccup or other Threads
- * causes some delay, 20 seconds should still be more than enough.
+ * Refreshes all locks that are held by threads of <strong>this</strong> cluster node and have less than 20 seconds to
+ * live. Note the 20 seconds is a heuristic number: The {@link DbLockRefresher} runs about every 5 seconds. If some
+ * hiccup or other Threads causes some delay, 20 seconds should still be more than enough.
+ * <p>
+ * The locks are refreshed by key, in batches of {@link #REFRESH_BATCH_SIZE} keys per statement, such that the
+ * statements use the unique index on the key. When no locks are held, the database is not accessed at all.
+ * </p>
  */
 public class DbLockRefresher implements Runnable {
 
     private static final Logger log = LoggerFactory.getLogger(DbLockRefresher.class);
 
+    /**
+     * The number of keys per refresh statement; a last, partial batch repeats its last key such that all batches use
+     * the same statement
+     */
+    public static final int REFRESH_BATCH_SIZE = 100;
+
     private final DbLockManager dbLockManager;
 
     public DbLockRefresher(final DbLockManager dbLockManager) {
@@ -39,22 +51,39 @@ public class DbLockRefresher implements Runnable {
 
     @Override
     public void run() {
+        final List<String> keys = new ArrayList<>(dbLockManager.getLocalLocks().keySet());
+        if (keys.isEmpty()) {
+            log.debug("No locks to refresh");
+            dbLockManager.getStats().refreshSkipped();
+            return;
+        }
         Connection connection = null;
         boolean originalAutoCommit = false;
         try {
+            final long start = System.currentTimeMillis();
             connection = dbLockManager.getConnection();
             originalAutoCommit = connection.getAutoCommit();
             connection.setAutoCommit(true);
-            final PreparedStatement refreshStatement = connection.prepareStatement(dbLockManager.getRefreshLockStatement());
-            long currentTime = System.currentTimeMillis();
-            refreshStatement.setLong(1, currentTime);
-            refreshStatement.setString(2, dbLockManager.getClusterNodeId());
-            // select all rows that have less than 20 seconds to live
-            refreshStatement.setLong(3, currentTime + 20000);
-            int updated = refreshStatement.executeUpdate();
-            log.info("Refreshed {} locks", updated);
+            final PreparedStatement refreshStatement = connection.prepareStatement(dbLockManager.getRefreshLocksStatement());
+            int statements = 0;
+            int updated = 0;
+            for (int batchStart = 0; batchStart < keys.size(); batchStart += REFRESH_BATCH_SIZE) {
+                long currentTime = System.currentTimeMillis();
+                refreshStatement.setLong(1, currentTime);
+                refreshStatement.setString(2, dbLockManager.getClusterNodeId());
+                // select all rows that have less than 20 seconds to live
+                refreshStatement.setLong(3, currentTime + 20000);
+                for (int i = 0; i < REFRESH_BATCH_SIZE; i++) {
+                    refreshStatement.setString(4 + i, keys.get(Math.min(batchStart + i, keys.size() - 1)));
+                }
+                updated += refreshStatement.executeUpdate();
+                statements++;
+            }
             refreshStatement.close();
+            dbLockManager.getStats().refreshed(statements, updated, System.currentTimeMillis() - start);
+            log.info("Refreshed {} of {} held locks", updated, keys.size());
         } catch (SQLException e) {
+            dbLockManager.getStats().refreshFailed();
             log.error("Error while trying to refresh locks", e);
         } finally {
             dbLockManager.close(connection, originalAutoCommit);
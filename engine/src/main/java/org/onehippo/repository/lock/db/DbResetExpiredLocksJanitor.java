@@ -17,6 +17,7 @@ package org.onehippo.repository.lock.db;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import org.slf4j.Logger;
@@ -24,32 +25,84 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Resets expired locks to 'FREE' if they are in state 'RUNNING' or 'ABORT'
+ * <p>
+ * The janitor adapts to the locks that can expire: every run it selects the number of locks that are not free and
+ * the earliest expiration time among them, and only resets locks when one of them has expired. It then skips its runs
+ * until that earliest expiration time, or for at most {@link #MAX_SKIP_MILLIS} ms when no lock is held in the cluster:
+ * locks are created with an expiration time {@link DbLockManager#REFRESH_RATE_SECONDS} seconds ahead and refreshing a
+ * lock only moves its expiration time ahead, so no lock expires before that. The selecting statement is a read, the
+ * resetting update only runs when there is an expired lock.
+ * </p>
  */
 public class DbResetExpiredLocksJanitor implements Runnable {
 
     private static final Logger log = LoggerFactory.getLogger(DbResetExpiredLocksJanitor.class);
 
+    /**
+     * The maximum time between two checks for expired locks, which also bounds the delay for locks that are written
+     * directly to the database with a shorter expiration time
+     */
+    static final long MAX_SKIP_MILLIS = 10000;
+
     private final DbLockManager dbLockManager;
 
+    // only accessed by the (single) scheduler thread
+    private long nextRunTime;
+
     public DbResetExpiredLocksJanitor(final DbLockManager dbLockManager) {
         this.dbLockManager = dbLockManager;
     }
 
     @Override
     public void run() {
+        final long startTime = System.currentTimeMillis();
+        if (startTime < nextRunTime) {
+            dbLockManager.getStats().resetExpiredSkipped();
+            return;
+        }
         Connection connection = null;
         boolean originalAutoCommit = false;
         try {
             connection = dbLockManager.getConnection();
             originalAutoCommit = connection.getAutoCommit();
             connection.setAutoCommit(true);
+
+            final PreparedStatement nextExpirationStatement = connection.prepareStatement(dbLockManager.getNextExpirationStatement());
+            final ResultSet resultSet = nextExpirationStatement.executeQuery();
+            final long lockCount;
+            final long nextExpirationTime;
+            if (resultSet.next()) {
+                lockCount = resultSet.getLong(1);
+                nextExpirationTime = resultSet.getLong(2);
+            } else {
+                lockCount = 0;
+                nextExpirationTime = 0;
+            }
+            resultSet.close();
+            nextExpirationStatement.close();
+
+            final long currentTime = System.currentTimeMillis();
+            if (lockCount == 0) {
+                log.debug("No locks held, next check for expired locks in {} ms", MAX_SKIP_MILLIS);
+                nextRunTime = currentTime + MAX_SKIP_MILLIS;
+                return;
+            }
+            if (nextExpirationTime >= currentTime) {
+                log.debug("None of {} held locks expired, next check for expired locks in {} ms", lockCount,
+                        Math.min(nextExpirationTime - currentTime, MAX_SKIP_MILLIS));
+                nextRunTime = Math.min(nextExpirationTime, currentTime + MAX_SKIP_MILLIS);
+                return;
+            }
+
             final PreparedStatement resetStatement = connection.prepareStatement(dbLockManager.getResetExpiredStatement());
-            long currentTime = System.currentTimeMillis();
             resetStatement.setLong(1, currentTime);
             resetStatement.setLong(2, currentTime);
             int updated = resetStatement.executeUpdate();
             log.info("Expired {} locks", updated);
+            dbLockManager.getStats().expiredReset(updated);
             resetStatement.close();
+            // check the remaining locks at the next invocation
+            nextRunTime = 0;
         } catch (SQLException e) {
             log.error("Error while trying to reset locks", e);
         } finally {
@@ -55,12 +55,12 @@ public class MemoryLockManager extends AbstractLockManager {
     }
 
     @Override
-    protected synchronized boolean containsLock(final String key) throws LockManagerException {
+    protected boolean containsLock(final String key) throws LockManagerException {
         return getLocalLocks().containsKey(key);
     }
 
     @Override
-    protected synchronized List<Lock> retrieveLocks() throws LockManagerException {
+    protected List<Lock> retrieveLocks() throws LockManagerException {
         return new ArrayList<>(getLocalLocks().values());
     }
 }
@@ -0,0 +1,164 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.onehippo.repository.update;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.hippoecm.repository.jackrabbit.RepositoryImpl;
+import org.hippoecm.repository.jmx.RepositoryStatMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Controls the batch size and throttle of an updater partition. Without a target save latency the configured batch
+ * size and throttle are used as is. Otherwise, after each saved batch:
+ * <ul>
+ * <li>the batch size is halved and the throttle doubled when the repository is loaded, i.e. when its login or query
+ * rate of the last minute exceeds the maximum load times its average rate of the last hour, or when the save took
+ * longer than the target latency;</li>
+ * <li>the batch size is doubled and the throttle halved when the save took less than half the target latency.</li>
+ * </ul>
+ */
+class UpdaterBatchController {
+
+    private static final Logger log = LoggerFactory.getLogger(UpdaterBatchController.class);
+
+    static final long MAX_BATCH_SIZE = 1000;
+    static final long MIN_THROTTLE = 100;
+    static final long MAX_THROTTLE = 10000;
+
+    private final long targetSaveLatency;
+    private final double maxLoad;
+    private final RepositoryStatMXBean repositoryStat;
+    private final long maxBatchSize;
+    private long batchSize;
+    private long throttle;
+
+    /**
+     * @param batchSize         the initial number of updates per batch
+     * @param throttle          the initial number of milliseconds to sleep after a batch
+     * @param targetSaveLatency the number of milliseconds a save should take, 0 or less to disable adapting
+     * @param maxLoad           the factor by which the login or query rate of the last minute may exceed its hourly
+     *                          average before backing off
+     * @param repositoryStat    the repository statistics, or null if not available
+     */
+    UpdaterBatchController(final long batchSize, final long throttle, final long targetSaveLatency,
+                           final double maxLoad, final RepositoryStatMXBean repositoryStat) {
+        this.batchSize = Math.max(1, batchSize);
+        this.throttle = Math.max(0, throttle);
+        this.targetSaveLatency = targetSaveLatency;
+        this.maxLoad = maxLoad;
+        this.repositoryStat = repositoryStat;
+        this.maxBatchSize = Math.max(MAX_BATCH_SIZE, this.batchSize);
+    }
+
+    boolean isAdaptive() {
+        return targetSaveLatency > 0;
+    }
+
+    long getBatchSize() {
+        return batchSize;
+    }
+
+    long getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * Adapts the batch size and throttle to a batch that took the given number of milliseconds to save.
+     * @return a description of the decision taken, or null if the batch size and throttle did not change
+     */
+    String saved(final long saveDuration) {
+        if (!isAdaptive()) {
+            return null;
+        }
+        final long previousBatchSize = batchSize;
+        final long previousThrottle = throttle;
+        final double load = getLoad();
+        final String reason;
+        if (load > maxLoad) {
+            slowDown();
+            reason = String.format("repository load is %.1f times its hourly average", load);
+        } else if (saveDuration > targetSaveLatency) {
+            slowDown();
+            reason = "save took " + saveDuration + " ms";
+        } else if (saveDuration < targetSaveLatency / 2) {
+            speedUp();
+            reason = "save took " + saveDuration + " ms";
+        } else {
+            return null;
+        }
+        if (batchSize == previousBatchSize && throttle == previousThrottle) {
+            return null;
+        }
+        return reason + " (target " + targetSaveLatency + " ms): batch size " + previousBatchSize + " -> " + batchSize
+                + ", throttle " + previousThrottle + " -> " + throttle + " ms";
+    }
+
+    private void slowDown() {
+        batchSize = Math.max(1, batchSize / 2);
+        throttle = Math.min(MAX_THROTTLE, Math.max(MIN_THROTTLE, throttle * 2));
+    }
+
+    private void speedUp() {
+        batchSize = Math.min(maxBatchSize, batchSize * 2);
+        throttle = throttle / 2 < MIN_THROTTLE ? 0 : throttle / 2;
+    }
+
+    /**
+     * @return the highest ratio of the login and query rates of the last minute to their averages of the last hour,
+     * or 0 if unknown
+     */
+    double getLoad() {
+        if (repositoryStat == null) {
+            return 0;
+        }
+        try {
+            return Math.max(
+                    ratio(repositoryStat.getRepositoryLoginsLastMinutePerSecond(), repositoryStat.getRepositoryLoginsLastHourPerSecond()),
+                    ratio(repositoryStat.getQueriesLastMinutePerSecond(), repositoryStat.getQueriesLastHourPerSecond()));
+        } catch (RuntimeException e) {
+            // the statistics MBean is unregistered during shutdown
+            log.debug("Failed to read repository statistics", e);
+            return 0;
+        }
+    }
+
+    private static double ratio(final double current, final double usual) {
+        return usual > 0 ? current / usual : 0;
+    }
+
+    /**
+     * @return a proxy to the repository statistics MBean registered by the repository, or null if it is not registered
+     */
+    static RepositoryStatMXBean lookupRepositoryStat() {
+        try {
+            final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = ObjectName.getInstance(RepositoryImpl.REPOSITORY_STATS_JMX_NAME);
+            if (mBeanServer.isRegistered(name)) {
+                return JMX.newMXBeanProxy(mBeanServer, name, RepositoryStatMXBean.class);
+            }
+        } catch (JMException e) {
+            log.warn("Unable to look up RepositoryStat", e);
+        }
+        return null;
+    }
+}
@@ -158,7 +158,8 @@ public class UpdaterExecutionModule implements DaemonModule, EventListener {
             cancelled = true;
             synchronized (monitor) {
                 if (updaterExecutor != null) {
-                    updaterExecutor.cancel();
+                    // keep the updater in the queue, it resumes from its checkpoints after a restart
+                    updaterExecutor.suspend();
                 }
             }
         }
@@ -166,17 +167,23 @@ public class UpdaterExecutionModule implements DaemonModule, EventListener {
         private void executeUpdatersInQueue() {
             Node updaterNode;
             while (!cancelled && (updaterNode = getNextUpdaterNodeFromQueue()) != null) {
-                executeUpdater(updaterNode);
-                moveToHistory(updaterNode);
+                if (executeUpdater(updaterNode)) {
+                    moveToHistory(updaterNode);
+                }
             }
         }
 
-        private void executeUpdater(final Node updaterNode) {
+        /**
+         * @return false if the execution of the updater was suspended and should be resumed later on
+         */
+        private boolean executeUpdater(final Node updaterNode) {
             Session session = null;
+            boolean completed = true;
             try {
                 session = UpdaterExecutionModule.this.session.impersonate(new SimpleCredentials("system", new char[]{}));
                 updaterExecutor = new UpdaterExecutor(updaterNode, session);
                 updaterExecutor.execute();
+                completed = !updaterExecutor.isSuspended();
             } catch (IOException e) {
                 log.error("Could not execute updater: log initialization failed", e);
             } catch (Exception e) {
@@ -192,6 +199,7 @@ public class UpdaterExecutionModule implements DaemonModule, EventListener {
                     session.logout();
                 }
             }
+            return completed;
         }
 
         private void moveToHistory(final Node node) {
@@ -1,5 +1,5 @@
 /*
- *  Copyright 2012-2015 Hippo B.V. (http://www.onehippo.com)
+ *  Copyright 2012-2017 Hippo B.V. (http://www.onehippo.com)
  *
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -17,13 +17,12 @@ package org.onehippo.repository.update;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.List;
 
 import org.apache.commons.io.IOUtils;
 import org.onehippo.cms7.utilities.io.CircularBufferOutputStream;
@@ -41,8 +40,6 @@ class UpdaterExecutionReport {
     private int failedCount = 0;
     private int skippedCount = 0;
 
-    private final List<String> updated;
-
     private final File logFile;
     private final File updatedFile;
     private final File failedFile;
@@ -79,7 +76,32 @@ class UpdaterExecutionReport {
         failedStream = new PrintStream(failedFile);
         skippedFile = File.createTempFile("updater-skipped", "txt.tmp", null);
         skippedStream = new PrintStream(skippedFile);
-        updated = new ArrayList<>();
+    }
+
+    /**
+     * Continues the report of a previous, interrupted execution of the same updater.
+     * The streams of paths may be null if they were not stored.
+     */
+    synchronized void restore(final Calendar startTime, final int updatedCount, final int failedCount, final int skippedCount,
+                              final InputStream updatedPaths, final InputStream failedPaths, final InputStream skippedPaths) throws IOException {
+        this.started = true;
+        this.startTime = startTime.getTimeInMillis();
+        this.updatedCount = updatedCount;
+        this.failedCount = failedCount;
+        this.skippedCount = skippedCount;
+        copy(updatedPaths, updatedStream);
+        copy(failedPaths, failedStream);
+        copy(skippedPaths, skippedStream);
+    }
+
+    private static void copy(final InputStream in, final PrintStream out) throws IOException {
+        if (in != null) {
+            try {
+                IOUtils.copy(in, out);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
     }
 
     void start() {
@@ -112,17 +134,7 @@ class UpdaterExecutionReport {
         return finished;
     }
 
-    void startBatch() {
-        updated.clear();
-    }
-
-    void batchFailed() {
-        for (String path : updated) {
-            failed(path);
-        }
-    }
-
-    int getUpdateCount() {
+    synchronized int getUpdateCount() {
         return updatedCount;
     }
 
@@ -130,13 +142,12 @@ class UpdaterExecutionReport {
         return updatedFile;
     }
 
-    void updated(String path) {
-        updated.add(path);
+    synchronized void updated(String path) {
         updatedStream.println(path);
         updatedCount++;
     }
 
-    int getFailedCount() {
+    synchronized int getFailedCount() {
         return failedCount;
     }
 
@@ -144,12 +155,12 @@ class UpdaterExecutionReport {
         return failedFile;
     }
 
-    void failed(String path) {
+    synchronized void failed(String path) {
         failedStream.println(path);
         failedCount++;
     }
 
-    int getSkippedCount() {
+    synchronized int getSkippedCount() {
         return skippedCount;
     }
 
@@ -157,12 +168,20 @@ class UpdaterExecutionReport {
         return skippedFile;
     }
 
-    void skipped(String path) {
+    synchronized void skipped(String path) {
         skippedStream.println(path);
         skippedCount++;
     }
 
-    int getVisitedCount() {
+    /**
+     * @return the length of the given file of paths, which ends with a complete path as paths are only written
+     * while holding the lock of this report
+     */
+    synchronized long getPathsLength(final File pathsFile) {
+        return pathsFile.length();
+    }
+
+    synchronized int getVisitedCount() {
         return getUpdateCount() + getFailedCount() + getSkippedCount();
     }
 
@@ -1,5 +1,5 @@
 /*
- *  Copyright 2012-2013 Hippo B.V. (http://www.onehippo.com)
+ *  Copyright 2012-2017 Hippo B.V. (http://www.onehippo.com)
  *
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -18,12 +18,20 @@ package org.onehippo.repository.update;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jcr.Binary;
 import javax.jcr.ItemNotFoundException;
@@ -43,10 +51,12 @@ import javax.jcr.query.Query;
 import javax.jcr.query.QueryManager;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.hippoecm.repository.api.HippoNode;
 import org.hippoecm.repository.api.HippoNodeType;
+import org.hippoecm.repository.jmx.RepositoryStatMXBean;
 import org.hippoecm.repository.util.JcrUtils;
 import org.hippoecm.repository.util.NodeIterable;
 import org.onehippo.cms7.event.HippoEvent;
@@ -55,30 +65,65 @@ import org.onehippo.cms7.services.eventbus.HippoEventBus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
+
 import net.sf.json.JSONObject;
 
 /**
  * Executes an {@link NodeUpdateVisitor}
+ * <p>
+ * The nodes to visit are sorted by their identifiers and divided into {@link UpdaterInfo#getThreads()} partitions,
+ * each of which covers a fixed range of identifiers and is visited by its own worker session and visitor instance.
+ * After each saved batch a partition records a checkpoint on the updater node, such that an execution that is
+ * suspended or interrupted resumes after the last saved node of each partition instead of starting all over again.
+ * As the order of the nodes and the range of each partition do not depend on the other nodes to visit, a partition
+ * resumes at the right node even when the nodes to visit changed in the meantime. The paths reported up to the checkpoints are saved along with them,
+ * such that they are restored after a crash as well.
+ * </p>
+ * <p>
+ * The batch size and throttle of each partition are controlled by an {@link UpdaterBatchController}, which adapts them
+ * to the duration of the saves and the repository load if the updater has a target save latency.
+ * </p>
  */
 public class UpdaterExecutor implements EventListener {
 
     private static final Logger log = LoggerFactory.getLogger(UpdaterExecutor.class);
     private static final int PROPERTY_EVENTS = Event.PROPERTY_ADDED | Event.PROPERTY_REMOVED | Event.PROPERTY_CHANGED;
     private static final long PROGRESS_REPORT_INTERVAL = 500;
+    private static final int CHECKPOINT_INTERVAL = 1000;
+    private static final long MAX_PATHS_DELTA_LENGTH = 256 * 1024;
+    private static final String PATH_PHASE = "path";
+    private static final String QUERY_PHASE = "query";
+    // the phases of an update in the order in which they run
+    private static final List<String> PHASES = Arrays.asList(PATH_PHASE, QUERY_PHASE);
 
     private final Session session;
     private final Session background;
     private final UpdaterInfo updaterInfo;
     private final UpdaterExecutionReport report;
+    private final SavedPaths updatedPaths;
+    private final SavedPaths failedPaths;
+    private final SavedPaths skippedPaths;
+    private final List<SavedPaths> savedPaths;
     private volatile boolean cancelled;
-    private int lastUpdateCount = 0;
+    private volatile boolean suspended;
+    private volatile boolean aborted;
+    private volatile List<Partition> partitions = Collections.emptyList();
+    private RepositoryStatMXBean repositoryStat;
 
     public UpdaterExecutor(Node updaterNode, final Session session) throws Exception {
         this.session = session;
         this.background = session.impersonate(new SimpleCredentials("system", new char[] {}));
         report = new UpdaterExecutionReport();
+        updatedPaths = new SavedPaths(HippoNodeType.HIPPOSYS_UPDATED, HippoNodeType.HIPPOSYS_UPDATEDDELTA, report.getUpdatedFile());
+        failedPaths = new SavedPaths(HippoNodeType.HIPPOSYS_FAILED, HippoNodeType.HIPPOSYS_FAILEDDELTA, report.getFailedFile());
+        skippedPaths = new SavedPaths(HippoNodeType.HIPPOSYS_SKIPPED, HippoNodeType.HIPPOSYS_SKIPPEDDELTA, report.getSkippedFile());
+        savedPaths = Arrays.asList(updatedPaths, failedPaths, skippedPaths);
         try {
             updaterInfo = new UpdaterInfo(updaterNode);
+            if (updaterInfo.getCheckpoints().length > 0) {
+                restoreReport(updaterNode);
+            }
         } catch (Exception e) {
             // log to report only: client needs to know about this but caller needs to do exception handling
             report.getLogger().error("Cannot run updater: " + e.getClass().getName() + ": " + e.getMessage());
@@ -96,37 +141,57 @@ public class UpdaterExecutor implements EventListener {
         info(message);
         logEvent(updaterInfo.getMethod(), updaterInfo.getStartedBy(), message);
         final NodeUpdateVisitor updater = updaterInfo.getUpdater();
+        // worker partitions create and initialize their own visitor instances
+        final boolean partitioned = !updaterInfo.isRevert() && updaterInfo.getThreads() > 1;
         try {
-            if (updater instanceof BaseNodeUpdateVisitor) {
-                ((BaseNodeUpdateVisitor) updater).setLogger(getLogger());
-                ((BaseNodeUpdateVisitor) updater).setParametersMap(jsonToParamsMap(updaterInfo.getParameters()));
-                ((BaseNodeUpdateVisitor) updater).setVisitorContext(new BaseNodeUpdateVisitorContext());
+            if (updaterInfo.getSaveLatency() > 0) {
+                repositoryStat = UpdaterBatchController.lookupRepositoryStat();
+                info("Adapting batch size and throttle to a save latency of " + updaterInfo.getSaveLatency()
+                        + " ms" + (repositoryStat != null ? " and a maximum load of " + updaterInfo.getMaxLoad()
+                        : ", repository statistics are not available"));
+            }
+            final Partition partition = new Partition(0, session, background, updater, false);
+            if (!partitioned) {
+                initializeUpdater(updater, session);
+            }
+            if (report.isStarted()) {
+                info("Resuming from the checkpoints of a previous execution");
+            } else {
+                report.start();
             }
-            updater.initialize(session);
-            report.start();
             if (updaterInfo.isRevert()) {
-                runRevertVisitor();
+                runRevertVisitor(partition);
             } else {
-                runPathVisitor();
-                runQueryVisitor();
+                runPathVisitor(partition);
+                runQueryVisitor(partition);
             }
         } catch (RepositoryException e) {
             error("Unexpected exception while executing updater", e);
         } finally {
-            updaterInfo.getUpdater().destroy();
-            // log before saving report for last time
-            message = "Finished executing updater " + updaterInfo.getName();
-            info(message);
-            logEvent(updaterInfo.getMethod(), null, message);
-            info("Visited " + report.getVisitedCount() + " nodes in total");
-            if (report.getVisitedCount() > 0) {
-                info("Updated: " + report.getUpdateCount());
-                info("Skipped: " + report.getSkippedCount());
-                info("Failed: " + report.getFailedCount());
-            }
-            report.finish();
+            if (!partitioned) {
+                updater.destroy();
+            }
+            if (isSuspended()) {
+                // log before saving report for last time
+                message = "Suspended executing updater " + updaterInfo.getName();
+                info(message);
+                logEvent("suspend", null, message);
+                info("Visited " + report.getVisitedCount() + " nodes so far");
+            } else {
+                // log before saving report for last time
+                message = "Finished executing updater " + updaterInfo.getName();
+                info(message);
+                logEvent(updaterInfo.getMethod(), null, message);
+                info("Visited " + report.getVisitedCount() + " nodes in total");
+                if (report.getVisitedCount() > 0) {
+                    info("Updated: " + report.getUpdateCount());
+                    info("Skipped: " + report.getSkippedCount());
+                    info("Failed: " + report.getFailedCount());
+                }
+                report.finish();
+            }
             try {
-                commitBatchIfNeeded();
+                saveReport();
             } catch (RepositoryException e) {
                 // log.error() instead of error() on purpose: report already saved
                 log.error(e.getClass().getName() + ": " + e.getMessage(), e);
@@ -147,6 +212,27 @@ public class UpdaterExecutor implements EventListener {
         }
         report.finish();
         cancelled = true;
+        suspended = false;
+    }
+
+    /**
+     * Stops the execution after the current batch of each partition has been saved, without finishing the report.
+     * The checkpoints of the partitions are kept on the updater node, such that a new executor for the same
+     * updater node resumes where this one left off.
+     */
+    public synchronized void suspend() {
+        if (!cancelled) {
+            info("Suspending execution of updater " + updaterInfo.getName());
+            suspended = true;
+        }
+    }
+
+    /**
+     * @return whether the execution was suspended instead of finished or cancelled, in which case the updater
+     * should be executed again later on
+     */
+    public boolean isSuspended() {
+        return suspended && !cancelled;
     }
 
     public void destroy() {
@@ -160,6 +246,10 @@ public class UpdaterExecutor implements EventListener {
         }
     }
 
+    private boolean isStopped() {
+        return cancelled || suspended || aborted;
+    }
+
     private void logEvent(String action, String user, String message) {
         final HippoEventBus eventBus = HippoServiceRegistry.getService(HippoEventBus.class);
         if (eventBus != null) {
@@ -171,7 +261,30 @@ public class UpdaterExecutor implements EventListener {
         }
     }
 
-    private void runPathVisitor() throws RepositoryException {
+    private void initializeUpdater(final NodeUpdateVisitor updater, final Session session) throws RepositoryException {
+        if (updater instanceof BaseNodeUpdateVisitor) {
+            ((BaseNodeUpdateVisitor) updater).setLogger(getLogger());
+            ((BaseNodeUpdateVisitor) updater).setParametersMap(jsonToParamsMap(updaterInfo.getParameters()));
+        }
+        updater.initialize(session);
+    }
+
+    private void restoreReport(final Node node) throws RepositoryException {
+        final Calendar startTime = JcrUtils.getDateProperty(node, HippoNodeType.HIPPOSYS_STARTTIME, Calendar.getInstance());
+        try {
+            report.restore(startTime,
+                    JcrUtils.getLongProperty(node, HippoNodeType.HIPPOSYS_UPDATEDCOUNT, 0L).intValue(),
+                    JcrUtils.getLongProperty(node, HippoNodeType.HIPPOSYS_FAILEDCOUNT, 0L).intValue(),
+                    JcrUtils.getLongProperty(node, HippoNodeType.HIPPOSYS_SKIPPEDCOUNT, 0L).intValue(),
+                    updatedPaths.restore(node),
+                    failedPaths.restore(node),
+                    skippedPaths.restore(node));
+        } catch (IOException e) {
+            warn("Failed to restore the paths reported by the previous execution", e);
+        }
+    }
+
+    private void runPathVisitor(final Partition partition) throws RepositoryException {
         final Node startNode = getStartNode();
         if (startNode != null) {
             final UpdaterPathVisitor visitor = new UpdaterPathVisitor();
@@ -179,21 +292,7 @@ public class UpdaterExecutor implements EventListener {
                 info("Loading nodes to update");
                 startNode.accept(visitor);
                 info("Finished loading " + visitor.count() + " nodes to update");
-                for (String identifier : visitor.identifiers()) {
-                    if (cancelled) {
-                        info("Update cancelled");
-                        return;
-                    }
-                    try {
-                        Node node = session.getNodeByIdentifier(identifier);
-                        executeUpdater(node);
-                        commitBatchIfNeeded();
-                    } catch (ItemNotFoundException e) {
-                        debug("Node no longer exists: " + identifier);
-                    }
-                }
-            } catch (UnsupportedOperationException e) {
-                warn("Cannot run updater: not implemented");
+                runPartitions(partition, PATH_PHASE, visitor.identifiers());
             } catch (RepositoryException e) {
                 error("Unexpected exception while running updater path visitor", e);
             }
@@ -213,26 +312,14 @@ public class UpdaterExecutor implements EventListener {
         return session.getNode(startPath);
     }
 
-    private void runQueryVisitor() throws RepositoryException {
-        for (String identifier : getQueryResult()) {
-            if (cancelled) {
-                info("Update cancelled");
-                return;
-            }
-            try {
-                final Node node = session.getNodeByIdentifier(identifier);
-                executeUpdater(node);
-                commitBatchIfNeeded();
-            } catch (ItemNotFoundException e) {
-                debug("Node no longer exists: " + identifier);
-            } catch (UnsupportedOperationException e) {
-                warn("Cannot run updater: not implemented");
-                break;
-            }
+    private void runQueryVisitor(final Partition partition) throws RepositoryException {
+        final List<String> identifiers = getQueryResult();
+        if (!identifiers.isEmpty()) {
+            runPartitions(partition, QUERY_PHASE, identifiers);
         }
     }
 
-    private Collection<String> getQueryResult() throws RepositoryException {
+    private List<String> getQueryResult() throws RepositoryException {
         final String query = updaterInfo.getQuery();
         if (query == null) {
             info("No query set. Skipping query visitor.");
@@ -241,7 +328,7 @@ public class UpdaterExecutor implements EventListener {
         try {
             final QueryManager queryManager = session.getWorkspace().getQueryManager();
             final Query jcrQuery = queryManager.createQuery(query, updaterInfo.getLanguage());
-            final Collection<String> results = new ArrayList<String>();
+            final List<String> results = new ArrayList<String>();
             info("Loading nodes to update");
             int count = 0;
             for (Node node : new NodeIterable(jcrQuery.execute().getNodes())) {
@@ -258,62 +345,170 @@ public class UpdaterExecutor implements EventListener {
         }
     }
 
-    private void executeUpdater(final Node node) throws RepositoryException {
-        final String path = node.getPath();
-        boolean updated = false, failed = false;
-        if (updaterInfo.isRevert()) {
-            try {
-                ensureIsCheckedOut(node);
-                updated = updaterInfo.getUpdater().undoUpdate(node);
-            } catch (UnsupportedOperationException e) {
-                throw e;
-            } catch (Exception e) {
-                error("Reverting " + path + " failed", e);
-                failed = true;
-                report.failed(path);
+    /**
+     * Visits the nodes with the given identifiers in the order of their identifiers. The query that selects the nodes
+     * does not have a stable order, and neither does the index after saving updated nodes, thus the checkpoints only
+     * match the nodes of a resumed execution in this order. With a single thread the nodes are visited by the given
+     * partition, which uses the session of this executor. Otherwise the nodes are divided by ranges of identifiers,
+     * each visited by a worker partition with its own sessions and visitor instance.
+     */
+    private void runPartitions(final Partition partition, final String phase, final List<String> identifiers)
+            throws RepositoryException {
+        final List<String> sorted = new ArrayList<>(identifiers);
+        Collections.sort(sorted);
+        final int threads = updaterInfo.getThreads();
+        final String[] checkpoints = getStoredCheckpoints(threads);
+        if (threads == 1) {
+            partitions = Collections.singletonList(partition);
+            partition.run(phase, sorted, checkpoints[0]);
+            return;
+        }
+
+        final List<List<String>> ranges = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            ranges.add(new ArrayList<>());
+        }
+        for (String identifier : sorted) {
+            ranges.get(getPartitionIndex(identifier, threads)).add(identifier);
+        }
+
+        info("Updating " + identifiers.size() + " nodes in " + threads + " partitions");
+        final List<Partition> workers = new ArrayList<>(threads);
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "updater-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (int i = 0; i < threads; i++) {
+                workers.add(createWorkerPartition(i));
             }
-        } else {
-            try {
-                ensureIsCheckedOut(node);
-                updated = updaterInfo.getUpdater().doUpdate(node);
-            } catch (UnsupportedOperationException e) {
-                throw e;
-            } catch (Exception e) {
-                error("Updating " + path + " failed", e);
-                failed = true;
-                report.failed(path);
+            partitions = workers;
+            final List<Future<?>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                final Partition worker = workers.get(i);
+                final List<String> range = ranges.get(i);
+                final String checkpoint = checkpoints[i];
+                futures.add(executor.submit(() -> worker.run(phase, range, checkpoint)));
+            }
+            awaitPartitions(futures);
+        } finally {
+            executor.shutdown();
+            for (Partition worker : workers) {
+                worker.close();
             }
         }
-        if (updated) {
-            report.updated(path);
-        } else if (!failed) {
-            report.skipped(path);
+    }
+
+    /**
+     * @return the index of the partition that visits the node with the given identifier. The identifiers are random
+     * UUIDs, thus dividing the range of their first 32 bits in equal parts divides the nodes evenly, while the
+     * partition of a node does not depend on the other nodes to visit.
+     */
+    static int getPartitionIndex(final String identifier, final int threads) {
+        long prefix;
+        try {
+            prefix = Long.parseLong(identifier.substring(0, 8), 16);
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            prefix = 0L;
         }
+        return (int) ((prefix * threads) >>> 32);
     }
 
-    private void runRevertVisitor() throws RepositoryException {
-        Iterator<String> updatedNodes = updaterInfo.getUpdatedNodes();
-        while (updatedNodes.hasNext()) {
-            if (cancelled) {
-                info("UndoUpdate cancelled");
-                return;
-            }
-            String path = updatedNodes.next();
-            Node node = null;
-            try {
-                node = session.getNode(path);
-            } catch (PathNotFoundException e) {
-                debug("Node no longer exists: " + path);
+    private Partition createWorkerPartition(final int index) throws RepositoryException {
+        final NodeUpdateVisitor updater;
+        try {
+            updater = updaterInfo.getUpdaterClass().newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new RepositoryException("Cannot create updater for partition " + index, e);
+        }
+        final Session workerSession = session.impersonate(new SimpleCredentials("system", new char[] {}));
+        final Session workerBackground = session.impersonate(new SimpleCredentials("system", new char[] {}));
+        final Partition partition = new Partition(index, workerSession, workerBackground, updater, true);
+        try {
+            initializeUpdater(updater, workerSession);
+        } catch (RepositoryException | RuntimeException e) {
+            partition.close();
+            throw e;
+        }
+        return partition;
+    }
+
+    private void awaitPartitions(final List<Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            boolean done = false;
+            while (!done) {
+                try {
+                    future.get();
+                    done = true;
+                } catch (ExecutionException e) {
+                    error("Unexpected exception while running updater partition", e.getCause());
+                    done = true;
+                } catch (InterruptedException e) {
+                    if (!interrupted) {
+                        interrupted = true;
+                        // the LockManager most likely has picked up an 'abort' set for the lock of the current thread.
+                        // #cancel will gracefully stop the partitions, which we still have to wait for
+                        cancel();
+                    }
+                }
             }
-            if (node != null) {
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private String[] getStoredCheckpoints(final int threads) {
+        final String[] checkpoints = updaterInfo.getCheckpoints();
+        if (checkpoints.length == threads) {
+            return checkpoints.clone();
+        }
+        if (checkpoints.length > 0) {
+            warn("Ignoring the checkpoints of " + checkpoints.length + " partitions: the updater now runs with "
+                    + threads + " threads");
+        }
+        return new String[threads];
+    }
+
+    private String[] getCheckpoints() {
+        final List<Partition> partitions = this.partitions;
+        final String[] checkpoints = new String[partitions.size()];
+        for (int i = 0; i < checkpoints.length; i++) {
+            checkpoints[i] = partitions.get(i).checkpoint;
+        }
+        return checkpoints;
+    }
+
+    private void runRevertVisitor(final Partition partition) throws RepositoryException {
+        Iterator<String> updatedNodes = updaterInfo.getUpdatedNodes();
+        try {
+            while (updatedNodes.hasNext()) {
+                if (isStopped()) {
+                    info("UndoUpdate cancelled");
+                    return;
+                }
+                String path = updatedNodes.next();
+                Node node = null;
                 try {
-                    executeUpdater(node);
-                } catch (UnsupportedOperationException e) {
-                    warn("Cannot run updater: undoUpdate is not implemented");
-                    break;
+                    node = session.getNode(path);
+                } catch (PathNotFoundException e) {
+                    debug("Node no longer exists: " + path);
+                }
+                if (node != null) {
+                    try {
+                        partition.executeUpdater(node);
+                    } catch (UnsupportedOperationException e) {
+                        warn("Cannot run updater: undoUpdate is not implemented");
+                        break;
+                    }
+                    partition.commitBatchIfNeeded();
                 }
-                commitBatchIfNeeded();
             }
+        } finally {
+            partition.commit();
         }
     }
 
@@ -354,7 +549,7 @@ public class UpdaterExecutor implements EventListener {
 
         @Override
         public void visit(Node node) throws RepositoryException {
-            if (cancelled) {
+            if (isStopped()) {
                 info("Update cancelled");
                 return;
             }
@@ -390,44 +585,219 @@ public class UpdaterExecutor implements EventListener {
             return count;
         }
 
-        private Iterable<String> identifiers() {
-            return new Iterable<String>() {
-                @Override
-                public Iterator<String> iterator() {
-                    final Iterator<NodeId> iterator = identifiers.iterator();
-                    return new Iterator<String>() {
-                        @Override
-                        public boolean hasNext() {
-                            return iterator.hasNext();
-                        }
-
-                        @Override
-                        public String next() {
-                            return iterator.next().toString();
-                        }
-
-                        @Override
-                        public void remove() {
-                            throw new UnsupportedOperationException();
-                        }
-                    };
-                }
-            };
+        private List<String> identifiers() {
+            return Lists.transform(identifiers, NodeId::toString);
         }
 
     }
 
-    private void commitBatchIfNeeded() throws RepositoryException {
-        final boolean batchCompleted = report.getUpdateCount() != lastUpdateCount && report.getUpdateCount() % updaterInfo.getBatchSize() == 0;
+    /**
+     * Visits a range of nodes, sorted by their identifiers, with its own session and visitor instance, saving its
+     * changes in batches and recording a checkpoint after each of them. The checkpoint has the form
+     * <code>&lt;phase&gt;:&lt;number of visited nodes&gt;:&lt;identifier of the last visited node&gt;</code>, where
+     * the phase is <code>path</code> or <code>query</code> and the identifier is empty if the partition has not
+     * visited any nodes of the phase yet.
+     */
+    private class Partition {
+
+        private final int index;
+        private final Session session;
+        private final Session background;
+        private final NodeUpdateVisitor updater;
+        private final List<String> batch = new ArrayList<>();
+        private final UpdaterBatchController controller;
+        private final boolean closeable;
+        private String phase;
+        private List<String> identifiers = Collections.emptyList();
+        private int position;
+        private int checkpointPosition;
+        private volatile String checkpoint = "";
+        private int updateCount;
+        private int lastUpdateCount;
+
+        private Partition(final int index, final Session session, final Session background,
+                          final NodeUpdateVisitor updater, final boolean closeable) {
+            this.index = index;
+            this.session = session;
+            this.background = background;
+            this.updater = updater;
+            this.closeable = closeable;
+            this.controller = new UpdaterBatchController(updaterInfo.getBatchSize(), updaterInfo.getThrottle(),
+                    updaterInfo.getSaveLatency(), updaterInfo.getMaxLoad(), repositoryStat);
+            if (updater instanceof BaseNodeUpdateVisitor) {
+                ((BaseNodeUpdateVisitor) updater).setVisitorContext(new BaseNodeUpdateVisitorContext(this));
+            }
+        }
+
+        private void run(final String phase, final List<String> identifiers, final String checkpoint) {
+            this.phase = phase;
+            this.identifiers = identifiers;
+            position = checkpointPosition = getResumePosition(checkpoint != null ? checkpoint : "");
+            if (getPhaseOrder(checkpoint) > 0) {
+                // keep the checkpoint of the later phase, this phase has been completed
+                this.checkpoint = checkpoint;
+                info("Partition " + index + " already visited its " + phase + " nodes");
+            } else {
+                this.checkpoint = createCheckpoint();
+            }
+            if (position > 0 && position < identifiers.size()) {
+                info("Partition " + index + " resumes after " + position + " of " + identifiers.size() + " nodes");
+            }
+            try {
+                while (position < identifiers.size()) {
+                    if (isStopped()) {
+                        info("Update cancelled");
+                        return;
+                    }
+                    final String identifier = identifiers.get(position);
+                    try {
+                        executeUpdater(session.getNodeByIdentifier(identifier));
+                    } catch (ItemNotFoundException e) {
+                        debug("Node no longer exists: " + identifier);
+                    }
+                    position++;
+                    commitBatchIfNeeded();
+                    if (position - checkpointPosition >= CHECKPOINT_INTERVAL && !session.hasPendingChanges()) {
+                        // long runs of skipped nodes do not complete a batch, checkpoint them anyway
+                        checkpoint();
+                    }
+                }
+            } catch (UnsupportedOperationException e) {
+                warn("Cannot run updater: not implemented");
+                aborted = true;
+            } catch (RepositoryException e) {
+                error("Unexpected exception while running updater partition " + index, e);
+            } finally {
+                try {
+                    commit();
+                } catch (RepositoryException e) {
+                    log.error(e.getClass().getName() + ": " + e.getMessage(), e);
+                }
+                if (controller.isAdaptive()) {
+                    info("Partition " + index + " ended with batch size " + controller.getBatchSize()
+                            + " and throttle " + controller.getThrottle() + " ms");
+                }
+            }
+        }
+
+        private int getResumePosition(final String checkpoint) {
+            if (checkpoint.isEmpty()) {
+                return 0;
+            }
+            final String[] parts = checkpoint.split(":", 3);
+            if (parts.length != 3 || !PHASES.contains(parts[0])) {
+                warn("Invalid checkpoint '" + checkpoint + "' of partition " + index + ", visiting the partition "
+                        + "from the start");
+                return 0;
+            }
+            final int phaseOrder = getPhaseOrder(checkpoint);
+            if (phaseOrder != 0) {
+                // the checkpoint of an earlier phase, or of a later one in which case this phase has been completed
+                return phaseOrder < 0 ? 0 : identifiers.size();
+            }
+            final String identifier = parts[2];
+            if (identifier.isEmpty()) {
+                return 0;
+            }
+            try {
+                final int position = Integer.parseInt(parts[1]);
+                if (position > 0 && position <= identifiers.size() && identifier.equals(identifiers.get(position - 1))) {
+                    return position;
+                }
+            } catch (NumberFormatException e) {
+                warn("Invalid checkpoint '" + checkpoint + "' of partition " + index + ", visiting the partition "
+                        + "from the start");
+                return 0;
+            }
+            // the nodes to visit changed since the checkpoint was recorded : all nodes sorting up to and including
+            // the checkpoint node have been visited
+            final int found = Collections.binarySearch(identifiers, identifier);
+            return found >= 0 ? found + 1 : -found - 1;
+        }
+
+        /**
+         * @return the order of the phase of <code>checkpoint</code> relative to the current phase of this partition:
+         * negative if it is an earlier phase, or if the checkpoint has no phase, 0 if it is the current phase and
+         * positive if it is a later phase
+         */
+        private int getPhaseOrder(final String checkpoint) {
+            final int separator = checkpoint != null ? checkpoint.indexOf(':') : -1;
+            if (separator == -1) {
+                return -1;
+            }
+            final int checkpointPhase = PHASES.indexOf(checkpoint.substring(0, separator));
+            return checkpointPhase == -1 ? -1 : checkpointPhase - PHASES.indexOf(phase);
+        }
+
+        private String createCheckpoint() {
+            if (phase == null) {
+                return "";
+            }
+            return phase + ":" + position + ":" + (position > 0 ? identifiers.get(position - 1) : "");
+        }
+
+        private void executeUpdater(final Node node) throws RepositoryException {
+            final String path = node.getPath();
+            boolean updated = false, failed = false;
+            if (updaterInfo.isRevert()) {
+                try {
+                    ensureIsCheckedOut(node);
+                    updated = updater.undoUpdate(node);
+                } catch (UnsupportedOperationException e) {
+                    throw e;
+                } catch (Exception e) {
+                    error("Reverting " + path + " failed", e);
+                    failed = true;
+                    report.failed(path);
+                }
+            } else {
+                try {
+                    ensureIsCheckedOut(node);
+                    updated = updater.doUpdate(node);
+                } catch (UnsupportedOperationException e) {
+                    throw e;
+                } catch (Exception e) {
+                    error("Updating " + path + " failed", e);
+                    failed = true;
+                    report.failed(path);
+                }
+            }
+            if (updated) {
+                updated(path);
+            } else if (!failed) {
+                report.skipped(path);
+            }
+        }
+
+        private void updated(final String path) {
+            report.updated(path);
+            batch.add(path);
+            updateCount++;
+        }
 
-        if (batchCompleted) {
-            if (getLogger().isDebugEnabled()) {
-                getLogger().debug("batch unit completion indicated. updateCount: {}, batchSize: {}",
-                        report.getUpdateCount(), updaterInfo.getBatchSize());
+        private void commitBatchIfNeeded() throws RepositoryException {
+            final long batchSize = controller.getBatchSize();
+            final boolean batchCompleted = updateCount - lastUpdateCount >= batchSize;
+            if (batchCompleted) {
+                if (getLogger().isDebugEnabled()) {
+                    getLogger().debug("batch unit completion indicated. partition: {}, updateCount: {}, batchSize: {}",
+                            index, updateCount, batchSize);
+                }
+                final long saveDuration = commit();
+                lastUpdateCount = updateCount;
+                final String decision = controller.saved(saveDuration);
+                if (decision != null) {
+                    info("Partition " + index + ": " + decision);
+                }
+                throttle(controller.getThrottle());
             }
         }
 
-        if (batchCompleted || report.isFinished()) {
+        /**
+         * @return the number of milliseconds it took to save or discard the pending changes
+         */
+        private long commit() throws RepositoryException {
+            final long start = System.currentTimeMillis();
             if (updaterInfo.isDryRun()) {
                 debug("discarding all pending changes currently recorded in this batch unit.");
                 session.refresh(false);
@@ -437,25 +807,52 @@ public class UpdaterExecutor implements EventListener {
                     session.save();
                 } catch (RepositoryException e) {
                     error("Failed to save session", e);
-                    report.batchFailed();
+                    for (String path : batch) {
+                        report.failed(path);
+                    }
                     session.refresh(false);
                 }
             }
-            report.startBatch();
+            final long duration = System.currentTimeMillis() - start;
+            batch.clear();
+            checkpoint();
+            return duration;
+        }
+
+        private void checkpoint() throws RepositoryException {
+            if (getPhaseOrder(checkpoint) <= 0) {
+                checkpoint = createCheckpoint();
+            }
+            checkpointPosition = position;
             saveReport();
         }
 
-        if (batchCompleted) {
-            lastUpdateCount = report.getUpdateCount();
-            throttle(updaterInfo.getThrottle());
+        /**
+         * Checking out of <code>node</code> must be done by a background jcr session as the session doing the upgrade of nodes
+         * might already have local changes on the <code>node</code> in which case checking out the node with that session
+         * would fail
+         */
+        private void ensureIsCheckedOut(Node node) throws RepositoryException {
+            if (!node.isCheckedOut()) {
+                log.debug("Checking out node {}" + node.getPath());
+                JcrUtils.ensureIsCheckedOut(background.getNodeByIdentifier(node.getIdentifier()));
+            }
+        }
+
+        private void close() {
+            if (closeable) {
+                updater.destroy();
+                session.logout();
+                background.logout();
+            }
         }
     }
 
-    private void saveReport() throws RepositoryException {
+    private synchronized void saveReport() throws RepositoryException {
         saveReport(session.getNodeByIdentifier(updaterInfo.getIdentifier()));
     }
 
-    private void saveReport(final Node node) throws RepositoryException {
+    private synchronized void saveReport(final Node node) throws RepositoryException {
         try {
             node.setProperty(HippoNodeType.HIPPOSYS_LOGTAIL, report.getLogTail());
             if (report.isStarted()) {
@@ -466,15 +863,34 @@ public class UpdaterExecutor implements EventListener {
             }
             if (report.isFinished()) {
                 node.setProperty(HippoNodeType.HIPPOSYS_FINISHTIME, report.getFinishTime());
-                setBinaryProperty(node, HippoNodeType.HIPPOSYS_UPDATED, report.getUpdatedFile());
-                setBinaryProperty(node, HippoNodeType.HIPPOSYS_FAILED, report.getFailedFile());
-                setBinaryProperty(node, HippoNodeType.HIPPOSYS_SKIPPED, report.getSkippedFile());
+                if (node.hasProperty(HippoNodeType.HIPPOSYS_CHECKPOINTS)) {
+                    node.getProperty(HippoNodeType.HIPPOSYS_CHECKPOINTS).remove();
+                }
+            } else if (!partitions.isEmpty()) {
+                node.setProperty(HippoNodeType.HIPPOSYS_CHECKPOINTS, getCheckpoints());
+                if (!isSuspended()) {
+                    for (SavedPaths paths : savedPaths) {
+                        paths.checkpoint(node);
+                    }
+                }
+            }
+            if (report.isFinished() || isSuspended()) {
+                // a suspended execution stores the reported paths too, so they can be restored when resuming
+                for (SavedPaths paths : savedPaths) {
+                    paths.save(node);
+                }
                 setBinaryProperty(node, HippoNodeType.HIPPOSYS_LOG, report.getLogFile());
             }
             session.save();
+            for (SavedPaths paths : savedPaths) {
+                paths.saved();
+            }
         } catch (RepositoryException e) {
             log.error("Failed to save report", e);
             session.refresh(false);
+            for (SavedPaths paths : savedPaths) {
+                paths.discarded();
+            }
         }
     }
 
@@ -493,14 +909,93 @@ public class UpdaterExecutor implements EventListener {
     }
 
     /**
-     * Checking out of <code>node</code> must be done by a background jcr session as the session doing the upgrade of nodes
-     * might already have local changes on the <code>node</code> in which case checking out the node with that session
-     * would fail
+     * A file of paths of the report that is saved along with each checkpoint. Saving all paths with each checkpoint
+     * would take time quadratic in their number, so the paths reported since the property with all paths was saved
+     * are kept in a delta property instead, until the delta exceeds {@link #MAX_PATHS_DELTA_LENGTH} bytes and is
+     * merged into the property with all paths.
      */
-    private void ensureIsCheckedOut(Node node) throws RepositoryException {
-        if (!node.isCheckedOut()) {
-            log.debug("Checking out node {}" + node.getPath());
-            JcrUtils.ensureIsCheckedOut(background.getNodeByIdentifier(node.getIdentifier()));
+    private class SavedPaths {
+
+        private final String propertyName;
+        private final String deltaPropertyName;
+        private final File file;
+        // the number of bytes of the file in the property, or -1 if the property may hold paths of another execution
+        private long length = -1;
+        // the number of bytes of the file in the property and the delta property together
+        private long deltaLength;
+        private long pendingLength = -1;
+        private long pendingDeltaLength;
+
+        private SavedPaths(final String propertyName, final String deltaPropertyName, final File file) {
+            this.propertyName = propertyName;
+            this.deltaPropertyName = deltaPropertyName;
+            this.file = file;
+        }
+
+        /**
+         * @return the paths saved by a previous execution of this updater, or null if there are none
+         */
+        private InputStream restore(final Node node) throws RepositoryException {
+            final Binary binary = JcrUtils.getBinaryProperty(node, propertyName, null);
+            final Binary delta = JcrUtils.getBinaryProperty(node, deltaPropertyName, null);
+            length = pendingLength = binary != null ? binary.getSize() : 0;
+            deltaLength = pendingDeltaLength = length + (delta != null ? delta.getSize() : 0);
+            if (delta == null) {
+                return binary != null ? binary.getStream() : null;
+            }
+            if (binary == null) {
+                return delta.getStream();
+            }
+            return new SequenceInputStream(binary.getStream(), delta.getStream());
+        }
+
+        private void checkpoint(final Node node) throws RepositoryException {
+            final long fileLength = report.getPathsLength(file);
+            if (length < 0 || fileLength - length > MAX_PATHS_DELTA_LENGTH) {
+                save(node, fileLength);
+            } else if (fileLength > deltaLength) {
+                setBinaryProperty(node, deltaPropertyName, file, length, fileLength);
+                pendingLength = length;
+                pendingDeltaLength = fileLength;
+            }
+        }
+
+        private void save(final Node node) throws RepositoryException {
+            save(node, report.getPathsLength(file));
+        }
+
+        private void save(final Node node, final long fileLength) throws RepositoryException {
+            setBinaryProperty(node, propertyName, file, 0, fileLength);
+            if (node.hasProperty(deltaPropertyName)) {
+                node.getProperty(deltaPropertyName).remove();
+            }
+            pendingLength = pendingDeltaLength = fileLength;
+        }
+
+        /**
+         * Marks the pending changes to the properties as saved.
+         */
+        private void saved() {
+            length = pendingLength;
+            deltaLength = pendingDeltaLength;
+        }
+
+        /**
+         * Forgets the pending changes to the properties, which were discarded.
+         */
+        private void discarded() {
+            pendingLength = length;
+            pendingDeltaLength = deltaLength;
+        }
+    }
+
+    private void setBinaryProperty(final Node node, final String propertyName, final File file,
+                                   final long from, final long to) throws RepositoryException {
+        try (InputStream is = new FileInputStream(file)) {
+            IOUtils.skipFully(is, from);
+            node.setProperty(propertyName, session.getValueFactory().createBinary(new BoundedInputStream(is, to - from)));
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to save " + propertyName, e);
         }
     }
 
@@ -603,7 +1098,10 @@ public class UpdaterExecutor implements EventListener {
 
     class BaseNodeUpdateVisitorContext implements NodeUpdateVisitorContext {
 
-        BaseNodeUpdateVisitorContext() {
+        private final Partition partition;
+
+        BaseNodeUpdateVisitorContext(final Partition partition) {
+            this.partition = partition;
         }
 
         @Override
@@ -613,10 +1111,10 @@ public class UpdaterExecutor implements EventListener {
 
         @Override
         public void reportUpdated(String path) {
-            report.updated(path);
+            partition.updated(path);
 
             try {
-                commitBatchIfNeeded();
+                partition.commitBatchIfNeeded();
             } catch (RepositoryException e) {
                 // log.error() instead of error() on purpose: report already saved
                 log.error(e.getClass().getName() + ": " + e.getMessage(), e);
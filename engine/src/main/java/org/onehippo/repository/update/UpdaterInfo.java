@@ -1,5 +1,5 @@
 /*
- *  Copyright 2012-2013 Hippo B.V. (http://www.onehippo.com)
+ *  Copyright 2012-2017 Hippo B.V. (http://www.onehippo.com)
  *
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -47,6 +47,9 @@ class UpdaterInfo {
 
     private static final long DEFAULT_THROTTLE = 1000;
     private static final long DEFAULT_BATCH_SIZE = 10;
+    private static final long DEFAULT_THREADS = 1;
+    private static final long DEFAULT_SAVE_LATENCY = 0;
+    private static final double DEFAULT_MAX_LOAD = 2.0;
     private static final String DEFAULT_QUERY_LANGUAGE = "xpath";
 
     private final String identifier;
@@ -64,6 +67,10 @@ class UpdaterInfo {
     private final boolean revert;
     private final long throttle;
     private final long batchSize;
+    private final int threads;
+    private final String[] checkpoints;
+    private final long saveLatency;
+    private final double maxLoad;
     private final boolean dryRun;
     private final String startedBy;
     private final NodeUpdateVisitor updater;
@@ -108,6 +115,10 @@ class UpdaterInfo {
         revert = JcrUtils.getBooleanProperty(node, HippoNodeType.HIPPOSYS_REVERT, false);
         throttle = JcrUtils.getLongProperty(node, HippoNodeType.HIPPOSYS_THROTTLE, DEFAULT_THROTTLE);
         batchSize = JcrUtils.getLongProperty(node, HippoNodeType.HIPPOSYS_BATCHSIZE, DEFAULT_BATCH_SIZE);
+        threads = (int) Math.max(1, JcrUtils.getLongProperty(node, HippoNodeType.HIPPOSYS_THREADS, DEFAULT_THREADS));
+        checkpoints = JcrUtils.getMultipleStringProperty(node, HippoNodeType.HIPPOSYS_CHECKPOINTS, new String[0]);
+        saveLatency = JcrUtils.getLongProperty(node, HippoNodeType.HIPPOSYS_SAVELATENCY, DEFAULT_SAVE_LATENCY);
+        maxLoad = JcrUtils.getDoubleProperty(node, HippoNodeType.HIPPOSYS_MAXLOAD, DEFAULT_MAX_LOAD);
         dryRun = JcrUtils.getBooleanProperty(node, HippoNodeType.HIPPOSYS_DRYRUN, false);
         startedBy = JcrUtils.getStringProperty(node, HippoNodeType.HIPPOSYS_STARTEDBY, null);
         final String script = JcrUtils.getStringProperty(node, HippoNodeType.HIPPOSYS_SCRIPT, null);
@@ -210,6 +221,40 @@ class UpdaterInfo {
         return batchSize;
     }
 
+    /**
+     * Number of partitions, each visited by its own worker session, to divide the nodes to update over.
+     * Defaults to 1, i.e. all nodes are visited sequentially by a single session. With more than one thread each
+     * partition of the path and of the query visitor creates, initializes and destroys its own visitor instance,
+     * so one-off setup in {@link NodeUpdateVisitor#initialize(javax.jcr.Session)} runs once per partition.
+     */
+    int getThreads() {
+        return threads;
+    }
+
+    /**
+     * The checkpoints persisted per partition by a previous, interrupted execution of this updater,
+     * or an empty array if there is nothing to resume
+     */
+    String[] getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * Number of milliseconds a batch save should take. If positive, the batch size and throttle are only initial
+     * values that are adapted to the measured save durations and the repository load. Defaults to 0, i.e. not adaptive.
+     */
+    long getSaveLatency() {
+        return saveLatency;
+    }
+
+    /**
+     * The factor by which the repository login or query rate of the last minute may exceed its hourly average before
+     * an adaptive updater backs off. Defaults to 2.
+     */
+    double getMaxLoad() {
+        return maxLoad;
+    }
+
     /**
      * Whether to save changes made during this updater run or to discard them
      */
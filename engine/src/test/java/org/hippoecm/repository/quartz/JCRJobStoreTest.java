@@ -1,5 +1,5 @@
 /*
- *  Copyright 2012-2013 Hippo B.V. (http://www.onehippo.com)
+ *  Copyright 2012-2017 Hippo B.V. (http://www.onehippo.com)
  *
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -98,6 +98,28 @@ public class JCRJobStoreTest extends RepositoryTestCase {
         assertFalse(listener.hasTriggerUpdateEvents);
     }
 
+    @Test
+    public void testAcquireNextTriggerFollowsFireTimeChanges() throws Exception {
+        final Node jobNode = createAndStoreJobAndSimpleTrigger(store);
+        final Node triggerNode = jobNode.getNode("hipposched:triggers/trigger");
+        final Calendar later = Calendar.getInstance();
+        later.add(Calendar.HOUR, 1);
+        triggerNode.setProperty(HIPPOSCHED_NEXTFIRETIME, later);
+        session.save();
+        assertTrue(store.acquireNextTriggers(System.currentTimeMillis(), 1, -1l).isEmpty());
+
+        triggerNode.setProperty(HIPPOSCHED_NEXTFIRETIME, Calendar.getInstance());
+        session.save();
+        List<OperableTrigger> triggers = store.acquireNextTriggers(System.currentTimeMillis(), 1, -1l);
+        for (int i = 0; i < 50 && triggers.isEmpty(); i++) {
+            // give the change event time to arrive
+            Thread.sleep(100l);
+            triggers = store.acquireNextTriggers(System.currentTimeMillis(), 1, -1l);
+        }
+        assertEquals(1, triggers.size());
+        store.releaseAcquiredTrigger(triggers.get(0));
+    }
+
     @Test
     public void testAcquireNextTriggerAndRelease() throws Exception {
         final Node jobNode = createAndStoreJobAndSimpleTrigger(store);
@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.query.lucene;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.TermQuery;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class AuthorizationFilterKeyTest {
+
+    private static BooleanQuery facetQuery(final String field, final String value, final Occur occur) {
+        final BooleanQuery query = new BooleanQuery(true);
+        query.add(new TermQuery(new Term(field, value)), occur);
+        return query;
+    }
+
+    @Test
+    public void clause_order_is_ignored() {
+        final BooleanQuery query1 = new BooleanQuery(true);
+        query1.add(facetQuery("a", "1", Occur.MUST), Occur.SHOULD);
+        query1.add(facetQuery("b", "2", Occur.MUST), Occur.SHOULD);
+
+        final BooleanQuery query2 = new BooleanQuery(true);
+        query2.add(facetQuery("b", "2", Occur.MUST), Occur.SHOULD);
+        query2.add(facetQuery("a", "1", Occur.MUST), Occur.SHOULD);
+
+        final AuthorizationFilterKey key1 = new AuthorizationFilterKey(query1);
+        final AuthorizationFilterKey key2 = new AuthorizationFilterKey(query2);
+        assertEquals(key1, key2);
+        assertEquals(key1.hashCode(), key2.hashCode());
+    }
+
+    @Test
+    public void occur_and_terms_are_not_ignored() {
+        final BooleanQuery query1 = new BooleanQuery(true);
+        query1.add(facetQuery("a", "1", Occur.MUST), Occur.SHOULD);
+
+        final BooleanQuery query2 = new BooleanQuery(true);
+        query2.add(facetQuery("a", "1", Occur.MUST_NOT), Occur.SHOULD);
+
+        final BooleanQuery query3 = new BooleanQuery(true);
+        query3.add(facetQuery("a", "2", Occur.MUST), Occur.SHOULD);
+
+        assertFalse(new AuthorizationFilterKey(query1).equals(new AuthorizationFilterKey(query2)));
+        assertFalse(new AuthorizationFilterKey(query1).equals(new AuthorizationFilterKey(query3)));
+    }
+
+    @Test
+    public void duplicate_clauses_are_counted() {
+        final BooleanQuery query1 = new BooleanQuery(true);
+        query1.add(facetQuery("a", "1", Occur.MUST), Occur.SHOULD);
+        query1.add(facetQuery("a", "1", Occur.MUST), Occur.SHOULD);
+
+        final BooleanQuery query2 = new BooleanQuery(true);
+        query2.add(facetQuery("a", "1", Occur.MUST), Occur.SHOULD);
+        query2.add(facetQuery("b", "1", Occur.MUST), Occur.SHOULD);
+
+        assertFalse(new AuthorizationFilterKey(query1).equals(new AuthorizationFilterKey(query2)));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.query.lucene.util;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.query.lucene.FieldNames;
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NodeIdResolverTest {
+
+    private static final int NUM_DOCS = 30;
+    private static final int DOCS_PER_SEGMENT = 10;
+    // document of which the uuid is only stored, not indexed
+    private static final int STORED_ONLY_DOC = 15;
+
+    private RAMDirectory directory;
+    private IndexWriter writer;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new RAMDirectory();
+        final IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_36, new KeywordAnalyzer());
+        // keep the segments apart
+        config.setMergePolicy(NoMergePolicy.NO_COMPOUND_FILES);
+        writer = new IndexWriter(directory, config);
+        for (int i = 0; i < NUM_DOCS; i++) {
+            final Document document = new Document();
+            final Field.Index index = i == STORED_ONLY_DOC ? Field.Index.NO : Field.Index.NOT_ANALYZED_NO_NORMS;
+            document.add(new Field(FieldNames.UUID, getId(i).toString(), Field.Store.YES, index));
+            document.add(new Field(FieldNames.PARENT, getParentId(i).toString(), Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+            writer.addDocument(document);
+            if ((i + 1) % DOCS_PER_SEGMENT == 0) {
+                writer.commit();
+            }
+        }
+        // a document that is not a node document
+        final Document document = new Document();
+        document.add(new Field("other", "value", Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        writer.addDocument(document);
+        writer.commit();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        writer.close();
+        directory.close();
+    }
+
+    private static NodeId getId(final int i) {
+        return new NodeId(0x1000L + i, 0x2000L + i);
+    }
+
+    private static NodeId getParentId(final int i) {
+        return new NodeId(0x3000L, i % 3);
+    }
+
+    @Test
+    public void resolves_ids_across_segments() throws IOException {
+        final IndexReader reader = IndexReader.open(directory);
+        try {
+            assertTrue(reader.getSequentialSubReaders().length > 1);
+            assertResolved(reader, NUM_DOCS);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void resolves_ids_after_deletions() throws IOException {
+        IndexReader reader = IndexReader.open(directory);
+        try {
+            // create the columns before the deletions, they are shared with the reopened reader
+            assertResolved(reader, NUM_DOCS);
+
+            writer.deleteDocuments(new Term(FieldNames.UUID, getId(5).toString()));
+            writer.deleteDocuments(new Term(FieldNames.UUID, getId(22).toString()));
+            writer.commit();
+            final IndexReader reopened = IndexReader.openIfChanged(reader);
+            reader.close();
+            reader = reopened;
+
+            assertTrue(reader.hasDeletions());
+            final Set<NodeId> resolved = assertResolved(reader, NUM_DOCS - 2);
+            assertFalse(resolved.contains(getId(5)));
+            assertFalse(resolved.contains(getId(22)));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void resolves_ids_of_fresh_columns_with_deletions() throws IOException {
+        writer.deleteDocuments(new Term(FieldNames.UUID, getId(0).toString()));
+        writer.deleteDocuments(new Term(FieldNames.UUID, getId(29).toString()));
+        writer.commit();
+        final IndexReader reader = IndexReader.open(directory);
+        try {
+            final Set<NodeId> resolved = assertResolved(reader, NUM_DOCS - 2);
+            assertTrue(resolved.contains(getId(STORED_ONLY_DOC)));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void resolves_root_node_without_parent() throws IOException {
+        // the root node is indexed with an empty parent term
+        final NodeId rootId = new NodeId(0x4000L, 0x4000L);
+        final Document document = new Document();
+        document.add(new Field(FieldNames.UUID, rootId.toString(), Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        document.add(new Field(FieldNames.PARENT, "", Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS));
+        writer.addDocument(document);
+        writer.commit();
+        final IndexReader reader = IndexReader.open(directory);
+        try {
+            final Set<NodeId> resolved = assertResolved(reader, NUM_DOCS + 1);
+            assertTrue(resolved.contains(rootId));
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Asserts that every live document resolves to the ids it stores and returns the resolved node ids.
+     */
+    private static Set<NodeId> assertResolved(final IndexReader reader, final int expectedNodes) throws IOException {
+        final NodeIdResolver resolver = new NodeIdResolver(reader, reader.getSequentialSubReaders());
+        final Set<NodeId> resolved = new HashSet<>();
+        for (int doc = 0; doc < reader.maxDoc(); doc++) {
+            if (reader.isDeleted(doc)) {
+                continue;
+            }
+            final Document document = reader.document(doc);
+            final String uuid = document.get(FieldNames.UUID);
+            if (uuid == null) {
+                assertNull(resolver.getNodeId(doc));
+                assertNull(resolver.getParentId(doc));
+                continue;
+            }
+            final NodeId id = resolver.getNodeId(doc);
+            assertEquals(new NodeId(uuid), id);
+            final String parent = document.get(FieldNames.PARENT);
+            if (parent.isEmpty()) {
+                assertNull(resolver.getParentId(doc));
+            } else {
+                assertEquals(new NodeId(parent), resolver.getParentId(doc));
+            }
+            resolved.add(id);
+        }
+        assertEquals(expectedNodes, resolved.size());
+        return resolved;
+    }
+}
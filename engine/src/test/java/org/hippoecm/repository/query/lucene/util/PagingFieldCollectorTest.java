@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.query.lucene.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PagingFieldCollectorTest {
+
+    private static final int NUM_DOCS = 500;
+    private static final int PAGE_SIZE = 7;
+
+    @Test
+    public void pages_are_equal_to_single_sorted_search() throws IOException {
+        final RAMDirectory directory = new RAMDirectory();
+        final IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_36, new KeywordAnalyzer()));
+        final Random random = new Random(13);
+        for (int i = 0; i < NUM_DOCS; i++) {
+            final Document document = new Document();
+            // few distinct values such that the tie break on doc id is exercised
+            document.add(new Field("sort", "value" + random.nextInt(20), Field.Store.NO, Field.Index.NOT_ANALYZED));
+            writer.addDocument(document);
+            if (i % 100 == 0) {
+                writer.commit();
+            }
+        }
+        writer.close();
+
+        final IndexReader reader = IndexReader.open(directory);
+        try {
+            final IndexSearcher searcher = new IndexSearcher(reader);
+            for (boolean reverse : new boolean[]{false, true}) {
+                final Sort sort = new Sort(new SortField("sort", SortField.STRING, reverse));
+
+                final TopFieldCollector all = TopFieldCollector.create(sort, NUM_DOCS, true, true, false, false);
+                searcher.search(new MatchAllDocsQuery(), all);
+                final ScoreDoc[] expected = all.topDocs().scoreDocs;
+
+                final List<ScoreDoc> paged = new ArrayList<>();
+                final TopFieldCollector first = TopFieldCollector.create(sort, PAGE_SIZE, true, true, false, false);
+                searcher.search(new MatchAllDocsQuery(), first);
+                ScoreDoc[] page = first.topDocs().scoreDocs;
+                while (page.length > 0) {
+                    for (ScoreDoc scoreDoc : page) {
+                        paged.add(scoreDoc);
+                    }
+                    final PagingFieldCollector next = new PagingFieldCollector(sort, PAGE_SIZE, (FieldDoc) page[page.length - 1]);
+                    searcher.search(new MatchAllDocsQuery(), next);
+                    page = next.topDocs().scoreDocs;
+                }
+
+                assertEquals(expected.length, paged.size());
+                for (int i = 0; i < expected.length; i++) {
+                    assertEquals(expected[i].doc, paged.get(i).doc);
+                    // hits beyond the first page must be scored as well
+                    assertFalse(Float.isNaN(paged.get(i).score));
+                    assertEquals(expected[i].score, paged.get(i).score, 0.0001f);
+                }
+            }
+        } finally {
+            reader.close();
+            directory.close();
+        }
+    }
+}
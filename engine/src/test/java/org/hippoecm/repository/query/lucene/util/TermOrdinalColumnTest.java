@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.query.lucene.util;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TermOrdinalColumnTest {
+
+    private static final String FIELD = "facet".intern();
+
+    private RAMDirectory directory;
+    private IndexReader reader;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = new RAMDirectory();
+        final IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_36, new KeywordAnalyzer()));
+        addDocument(writer, "red", "blue");
+        addDocument(writer);
+        addDocument(writer, "blue");
+        addDocument(writer, "green", "red");
+        writer.close();
+        reader = IndexReader.open(directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    private static void addDocument(final IndexWriter writer, final String... values) throws IOException {
+        final Document document = new Document();
+        document.add(new Field("other", "value", Field.Store.NO, Field.Index.NOT_ANALYZED));
+        for (String value : values) {
+            document.add(new Field(FIELD, value, Field.Store.NO, Field.Index.NOT_ANALYZED));
+        }
+        writer.addDocument(document);
+    }
+
+    @Test
+    public void terms_are_sorted() throws IOException {
+        final TermOrdinalColumn column = TermOrdinalColumn.uninvert(reader, FIELD);
+        assertEquals(3, column.getTermCount());
+        assertEquals("blue", column.getTerm(0));
+        assertEquals("green", column.getTerm(1));
+        assertEquals("red", column.getTerm(2));
+        assertEquals(1, column.ceilingOrdinal("c"));
+        assertEquals(2, column.ceilingOrdinal("red"));
+        assertEquals(3, column.ceilingOrdinal("z"));
+    }
+
+    @Test
+    public void count_only_matching_docs() throws IOException {
+        final TermOrdinalColumn column = TermOrdinalColumn.uninvert(reader, FIELD);
+        final OpenBitSet docs = new OpenBitSet(4);
+        docs.set(0);
+        docs.set(1);
+        docs.set(2);
+
+        final int[] counts = new int[column.getTermCount()];
+        column.count(docs, 0, counts);
+        assertEquals(2, counts[0]);
+        assertEquals(0, counts[1]);
+        assertEquals(1, counts[2]);
+
+        assertEquals(2, column.countRange(docs, 0, 0, 2));
+        assertEquals(0, column.countRange(docs, 0, 2, 2));
+    }
+
+    @Test
+    public void count_with_doc_base() throws IOException {
+        final TermOrdinalColumn column = TermOrdinalColumn.uninvert(reader, FIELD);
+        // a composite doc id space where this segment starts at doc 10 and only its last doc matches
+        final OpenBitSet docs = new OpenBitSet(20);
+        docs.set(3);
+        docs.set(13);
+        docs.set(14);
+
+        final int[] counts = new int[column.getTermCount()];
+        column.count(docs, 10, counts);
+        assertEquals(0, counts[0]);
+        assertEquals(1, counts[1]);
+        assertEquals(1, counts[2]);
+    }
+
+    @Test
+    public void columns_are_shared_per_segment_core() throws IOException {
+        assertSame(TermOrdinalColumn.getInstance(reader, FIELD), TermOrdinalColumn.getInstance(reader, FIELD));
+    }
+
+}
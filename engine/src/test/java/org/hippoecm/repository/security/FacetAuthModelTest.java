@@ -0,0 +1,45 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.security;
+
+import java.util.Set;
+
+import org.hippoecm.repository.security.domain.Domain;
+import org.junit.Test;
+import org.onehippo.repository.testutils.RepositoryTestCase;
+
+import static org.junit.Assert.assertTrue;
+
+public class FacetAuthModelTest extends RepositoryTestCase {
+
+    @Test
+    public void model_contains_domains_and_roles() throws Exception {
+        final FacetAuthModel model = FacetAuthModel.build(session, "hippo:configuration/hippo:domains",
+                "hippo:configuration/hippo:roles");
+
+        boolean everywhere = false;
+        final Set<Domain> domains = model.getDomainsForGroup("admin");
+        for (Domain domain : domains) {
+            everywhere |= "everywhere".equals(domain.getName());
+        }
+        assertTrue("admin group has a role in domain everywhere", everywhere);
+        assertTrue(model.getDomainsForUser("no-such-user").isEmpty());
+
+        assertTrue("admin role includes editor role", model.getRolesForRole("admin").contains("editor"));
+        assertTrue("jcr:all is expanded", model.getPrivilegesForRole("admin").contains("jcr:read"));
+        assertTrue(model.getPrivilegesForRole("no-such-role").isEmpty());
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.security;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.state.ItemState;
+import org.apache.jackrabbit.core.state.SharedItemStateManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HippoAccessCacheTest {
+
+    private SharedAccessCache sharedAccessCache;
+
+    @Before
+    public void setUp() {
+        sharedAccessCache = SharedAccessCache.getInstance(createNiceMock(SharedItemStateManager.class));
+    }
+
+    private static ItemState modifiedNode(final NodeId id) {
+        final ItemState state = createNiceMock(ItemState.class);
+        expect(state.isNode()).andReturn(true).anyTimes();
+        expect(state.getId()).andReturn(id).anyTimes();
+        replay(state);
+        return state;
+    }
+
+    @Test
+    public void shared_permissions_are_visible_to_sessions_with_same_profile() {
+        final HippoAccessCache cache1 = new HippoAccessCache(100, sharedAccessCache.acquire("profile", 100));
+        final HippoAccessCache cache2 = new HippoAccessCache(100, sharedAccessCache.acquire("profile", 100));
+        final HippoAccessCache other = new HippoAccessCache(100, sharedAccessCache.acquire("other", 100));
+        assertSame(cache1.getSharedProfile(), cache2.getSharedProfile());
+
+        final NodeId shared = NodeId.randomId();
+        final NodeId local = NodeId.randomId();
+        cache1.put(shared, null, true, cache1.getGeneration());
+        cache1.put(local, false);
+
+        assertEquals(Boolean.TRUE, cache2.get(shared));
+        assertEquals(1L, cache2.getSharedHits());
+        assertNull(cache2.get(local));
+        assertNull(other.get(shared));
+    }
+
+    @Test
+    public void persisted_changes_invalidate_shared_permissions() {
+        final HippoAccessCache cache1 = new HippoAccessCache(100, sharedAccessCache.acquire("profile", 100));
+        final HippoAccessCache cache2 = new HippoAccessCache(100, sharedAccessCache.acquire("profile", 100));
+
+        final NodeId id = NodeId.randomId();
+        final long generation = cache1.getGeneration();
+        sharedAccessCache.stateModified(modifiedNode(id));
+        // evaluated before the change, thus not shared
+        cache1.put(id, null, true, generation);
+        assertNull(cache2.get(id));
+
+        cache1.put(id, null, true, cache1.getGeneration());
+        assertEquals(Boolean.TRUE, cache2.get(id));
+        sharedAccessCache.stateModified(modifiedNode(id));
+        assertNull(cache1.getSharedProfile().get(id));
+    }
+
+    @Test
+    public void persisted_changes_invalidate_shared_permissions_of_descendants() {
+        final HippoAccessCache cache = new HippoAccessCache(100, sharedAccessCache.acquire("profile", 100));
+        final SharedAccessCache.Profile profile = cache.getSharedProfile();
+
+        final NodeId root = NodeId.randomId();
+        final NodeId document = NodeId.randomId();
+        final NodeId compound = NodeId.randomId();
+        final NodeId sibling = NodeId.randomId();
+        cache.put(root, null, true, cache.getGeneration());
+        cache.put(document, root, true, cache.getGeneration());
+        cache.put(compound, document, true, cache.getGeneration());
+        cache.put(sibling, root, true, cache.getGeneration());
+
+        sharedAccessCache.stateModified(modifiedNode(document));
+        assertEquals(Boolean.TRUE, profile.get(root));
+        assertEquals(Boolean.TRUE, profile.get(sibling));
+        assertNull(profile.get(document));
+        assertNull(profile.get(compound));
+    }
+
+    @Test
+    public void permissions_are_not_shared_when_parent_permission_is_not_shared() {
+        final HippoAccessCache cache = new HippoAccessCache(100, sharedAccessCache.acquire("profile", 100));
+
+        final NodeId parent = NodeId.randomId();
+        final NodeId child = NodeId.randomId();
+        cache.put(parent, true);
+        cache.put(child, parent, true, cache.getGeneration());
+        assertEquals(Boolean.TRUE, cache.get(child));
+        assertNull(cache.getSharedProfile().get(child));
+    }
+
+    @Test
+    public void profile_is_dropped_when_released_by_all_sessions() {
+        final SharedAccessCache.Profile profile1 = sharedAccessCache.acquire("profile", 100);
+        final SharedAccessCache.Profile profile2 = sharedAccessCache.acquire("profile", 100);
+        profile1.put(NodeId.randomId(), null, true, profile1.getGeneration());
+
+        sharedAccessCache.release(profile1);
+        assertSame(profile2, sharedAccessCache.acquire("profile", 100));
+        sharedAccessCache.release(profile2);
+        sharedAccessCache.release(profile2);
+
+        final SharedAccessCache.Profile profile3 = sharedAccessCache.acquire("profile", 100);
+        assertTrue(profile3 != profile1);
+        assertEquals(0, profile3.getSize());
+    }
+}
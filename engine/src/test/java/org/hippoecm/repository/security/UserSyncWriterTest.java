@@ -0,0 +1,86 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.security;
+
+import java.util.Calendar;
+import java.util.Collections;
+
+import javax.jcr.Node;
+
+import org.hippoecm.repository.security.group.GroupManager;
+import org.hippoecm.repository.security.user.HippoUserManager;
+import org.junit.Test;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+
+public class UserSyncWriterTest {
+
+    @Test
+    public void logins_of_a_user_are_coalesced_into_a_single_sync() throws Exception {
+        final Calendar firstLogin = Calendar.getInstance();
+        final Calendar lastLogin = (Calendar) firstLogin.clone();
+        lastLogin.add(Calendar.SECOND, 1);
+
+        final HippoUserManager userMgr = createMock(HippoUserManager.class);
+        userMgr.syncUserInfo("user");
+        expectLastCall().once();
+        userMgr.updateLastLogin("user", lastLogin);
+        expectLastCall().once();
+        userMgr.saveUsers();
+        expectLastCall().once();
+
+        // memberships are synchronized while logging in, not by the writer
+        final GroupManager groupMgr = createMock(GroupManager.class);
+
+        final SecurityProvider provider = createNiceMock(SecurityProvider.class);
+        expect(provider.getUserManager()).andReturn(userMgr).anyTimes();
+        expect(provider.getGroupManager()).andReturn(groupMgr).anyTimes();
+        replay(userMgr, groupMgr, provider);
+
+        final UserSyncWriter writer = new UserSyncWriter(Collections.singletonMap("external", provider), 3600 * 1000L);
+        try {
+            writer.loginSucceeded("external", "user", lastLogin);
+            writer.loginSucceeded("external", "user", firstLogin);
+            writer.flush();
+            // nothing pending anymore
+            writer.flush();
+        } finally {
+            writer.close();
+        }
+        verify(userMgr, groupMgr);
+    }
+
+    @Test
+    public void memberships_are_synchronized_and_saved() throws Exception {
+        final Node user = createNiceMock(Node.class);
+        final GroupManager groupMgr = createMock(GroupManager.class);
+        groupMgr.syncMemberships(user);
+        expectLastCall().once();
+        groupMgr.saveGroups();
+        expectLastCall().once();
+        replay(user, groupMgr);
+
+        UserSyncWriter.syncMemberships(groupMgr, user);
+        // a user that does not exist has no memberships to synchronize
+        UserSyncWriter.syncMemberships(groupMgr, null);
+        verify(groupMgr);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.hippoecm.repository.security;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VerifiedCredentialsCacheTest {
+
+    @Test
+    public void only_the_verified_password_for_the_stored_hash_is_accepted() {
+        final VerifiedCredentialsCache cache = new VerifiedCredentialsCache(10, 60);
+        cache.setVerified("user", "internal", "$SHA-256$salt$digest", "secret".toCharArray());
+
+        assertTrue(cache.isVerified("user", "internal", "$SHA-256$salt$digest", "secret".toCharArray()));
+        assertFalse(cache.isVerified("user", "internal", "$SHA-256$salt$digest", "other".toCharArray()));
+        assertFalse(cache.isVerified("other", "internal", "$SHA-256$salt$digest", "secret".toCharArray()));
+        // password changed in the meantime
+        assertFalse(cache.isVerified("user", "internal", "$SHA-256$salt$changed", "secret".toCharArray()));
+    }
+
+    @Test
+    public void cache_is_bounded() {
+        final VerifiedCredentialsCache cache = new VerifiedCredentialsCache(1, 60);
+        cache.setVerified("user1", "internal", "hash", "secret".toCharArray());
+        cache.setVerified("user2", "internal", "hash", "secret".toCharArray());
+
+        assertFalse(cache.isVerified("user1", "internal", "hash", "secret".toCharArray()));
+        assertTrue(cache.isVerified("user2", "internal", "hash", "secret".toCharArray()));
+    }
+}
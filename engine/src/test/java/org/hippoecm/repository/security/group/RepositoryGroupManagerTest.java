@@ -127,6 +127,41 @@ public class RepositoryGroupManagerTest extends RepositoryTestCase {
         Assert.assertTrue("testuser is member of group 2", membershipIds.contains("group2"));
     }
 
+    /**
+     * An indexed group manager must see saved membership changes.
+     */
+    @Test
+    public void testIndexedMemberships() throws Exception {
+        final Node groupProvider = session.getNode("/hippo:configuration/hippo:security/internal/hipposys:groupprovider");
+        groupProvider.setProperty("hipposys:dirlevels", 1L);
+        final Node groups = session.getNode("/hippo:configuration/hippo:groups");
+        createGroupFolder(groups, 1);
+        session.save();
+
+        managerContext = new ManagerContext(session, "hippo:configuration/hippo:security/internal", "hippo:configuration/hippo:groups", true, true);
+        RepositoryGroupManager repositoryGroupManager = new RepositoryGroupManager();
+        repositoryGroupManager.init(managerContext);
+        try {
+            Assert.assertTrue("testuser is member of group 1", repositoryGroupManager.getMembershipIds(TESTUSER).contains("group1"));
+            Assert.assertFalse(repositoryGroupManager.getMembershipIds(USER_NAME).contains("group1"));
+
+            createGroupFolder(groups, 2);
+            final Node group1 = groups.getNode(GROUPFOLDER_PREFIX + "1/" + GROUP_PREFIX + "1");
+            repositoryGroupManager.addMember(group1, USER_NAME);
+            session.save();
+
+            // the index listens synchronously, thus the changes are visible as soon as the save returns
+            Assert.assertTrue("testuser is member of group 2", repositoryGroupManager.getMembershipIds(TESTUSER).contains("group2"));
+            Assert.assertTrue("added member is member of group 1", repositoryGroupManager.getMembershipIds(USER_NAME).contains("group1"));
+
+            groups.getNode(GROUPFOLDER_PREFIX + "1").remove();
+            session.save();
+            Assert.assertFalse("removed group is no longer a membership", repositoryGroupManager.getMembershipIds(TESTUSER).contains("group1"));
+        } finally {
+            repositoryGroupManager.dispose();
+        }
+    }
+
     private void createGroupFolder(final Node parentNode, final int number) throws RepositoryException {
         final Node groupfolder = parentNode.addNode(GROUPFOLDER_PREFIX + number, HippoNodeType.NT_GROUPFOLDER);
         final Node group = groupfolder.addNode(GROUP_PREFIX + number, HippoNodeType.NT_GROUP);
@@ -18,27 +18,42 @@ package org.onehippo.cm.engine;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.jcr.NamespaceException;
 import javax.jcr.NamespaceRegistry;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.onehippo.cm.model.impl.ConfigurationModelImpl;
+import org.onehippo.cm.model.impl.GroupImpl;
 import org.onehippo.cm.model.impl.ModuleImpl;
+import org.onehippo.cm.model.impl.ProjectImpl;
 import org.onehippo.cm.model.parser.ActionListParser;
+import org.onehippo.cm.model.parser.ConfigSourceParser;
+import org.onehippo.cm.model.source.ResourceInputProvider;
+import org.onehippo.cm.model.source.Source;
 import org.onehippo.repository.bootstrap.util.BootstrapUtils;
+import org.onehippo.repository.util.JcrConstants;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.onehippo.cm.engine.Constants.HCM_BASELINE_PATH;
 import static org.onehippo.cm.engine.Constants.HCM_CONTENT_PATHS_APPLIED;
+import static org.onehippo.cm.engine.Constants.HCM_DIGEST;
 import static org.onehippo.cm.engine.Constants.HCM_LAST_EXECUTED_ACTION;
 import static org.onehippo.cm.engine.Constants.HCM_ROOT;
 import static org.onehippo.cm.engine.Constants.HCM_ROOT_PATH;
@@ -50,6 +65,7 @@ import static org.onehippo.cm.engine.Constants.NT_HCM_GROUP;
 import static org.onehippo.cm.engine.Constants.NT_HCM_MODULE;
 import static org.onehippo.cm.engine.Constants.NT_HCM_PROJECT;
 import static org.onehippo.cm.engine.Constants.NT_HCM_ROOT;
+import static org.onehippo.cm.model.Constants.HCM_CONFIG_FOLDER;
 import static org.onehippo.cm.model.Constants.HCM_MODULE_YAML;
 
 public class ConfigurationBaselineServiceTest extends BaseConfigurationConfigServiceTest {
@@ -220,4 +236,174 @@ public class ConfigurationBaselineServiceTest extends BaseConfigurationConfigSer
         assertEquals("1.1", module.getLastExecutedAction());
         assertTrue("1.1".equals(moduleBaseline.getProperty(HCM_LAST_EXECUTED_ACTION).getString()));
     }
+
+    @Test
+    public void expect_unchanged_module_not_to_be_stored_again() throws Exception {
+        session.getRootNode().addNode(HCM_ROOT, NT_HCM_ROOT);
+        session.save();
+        baselineService.storeBaseline(createModel(createModule("group", "module", "data")), session);
+
+        // change the stored source behind the back of the baseline service
+        final String sourcePath = getConfigPath("group", "module") + "/main.yaml";
+        session.getNode(sourcePath).setProperty(HCM_YAML, "changed");
+        session.save();
+
+        baselineService.storeBaseline(createModel(createModule("group", "module", "data")), session);
+
+        assertEquals("changed", session.getNode(sourcePath).getProperty(HCM_YAML).getString());
+    }
+
+    @Test
+    public void expect_removed_source_to_be_removed() throws Exception {
+        session.getRootNode().addNode(HCM_ROOT, NT_HCM_ROOT);
+        session.save();
+        final ModuleImpl module = createModule("group", "module", "data");
+        addConfigSource(module, "extra/extra.yaml", "definitions:\n"
+                + "  config:\n"
+                + "    /extra:\n"
+                + "      jcr:primaryType: nt:unstructured\n");
+        baselineService.storeBaseline(createModel(module), session);
+
+        final String configPath = getConfigPath("group", "module");
+        assertTrue(session.nodeExists(configPath + "/main.yaml"));
+        assertTrue(session.nodeExists(configPath + "/extra/extra.yaml"));
+
+        baselineService.storeBaseline(createModel(createModule("group", "module", "data")), session);
+
+        assertTrue(session.nodeExists(configPath + "/main.yaml"));
+        assertTrue(session.nodeExists(configPath + "/data.bin"));
+        assertFalse(session.nodeExists(configPath + "/extra"));
+    }
+
+    @Test
+    public void expect_removed_resource_to_be_removed() throws Exception {
+        session.getRootNode().addNode(HCM_ROOT, NT_HCM_ROOT);
+        session.save();
+        baselineService.storeBaseline(createModel(createModule("group", "module", "data")), session);
+
+        final String configPath = getConfigPath("group", "module");
+        assertTrue(session.nodeExists(configPath + "/data.bin"));
+
+        final ModuleImpl module = new ModuleImpl("module", new ProjectImpl("project", new GroupImpl("group")));
+        module.setConfigResourceInputProvider(new MapResourceInputProvider());
+        addConfigSource(module, "main.yaml", "definitions:\n"
+                + "  config:\n"
+                + "    /module:\n"
+                + "      jcr:primaryType: nt:unstructured\n");
+        baselineService.storeBaseline(createModel(module), session);
+
+        assertTrue(session.nodeExists(configPath + "/main.yaml"));
+        assertFalse(session.nodeExists(configPath + "/data.bin"));
+    }
+
+    @Test
+    public void expect_removed_module_to_be_removed() throws Exception {
+        session.getRootNode().addNode(HCM_ROOT, NT_HCM_ROOT);
+        session.save();
+        baselineService.storeBaseline(createModel(createModule("group", "module", "data"),
+                createModule("other-group", "other-module", "other data")), session);
+
+        assertTrue(session.nodeExists(getModulePath("group", "module")));
+        assertTrue(session.nodeExists(getModulePath("other-group", "other-module")));
+
+        baselineService.storeBaseline(createModel(createModule("group", "module", "data")), session);
+
+        assertTrue(session.nodeExists(getModulePath("group", "module")));
+        assertFalse(session.nodeExists(HCM_BASELINE_PATH + "/other-group"));
+    }
+
+    @Test
+    public void expect_changed_binary_to_be_rewritten() throws Exception {
+        session.getRootNode().addNode(HCM_ROOT, NT_HCM_ROOT);
+        session.save();
+        baselineService.storeBaseline(createModel(createModule("group", "module", "data")), session);
+
+        final Node binaryNode = session.getNode(getConfigPath("group", "module") + "/data.bin");
+        final String digest = binaryNode.getProperty(HCM_DIGEST).getString();
+        assertArrayEquals(getBytes("data"), getData(binaryNode));
+
+        baselineService.storeBaseline(createModel(createModule("group", "module", "changed data")), session);
+
+        assertArrayEquals(getBytes("changed data"), getData(binaryNode));
+        assertNotEquals(digest, binaryNode.getProperty(HCM_DIGEST).getString());
+    }
+
+    private static byte[] getBytes(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] getData(final Node binaryNode) throws Exception {
+        try (InputStream is = binaryNode.getProperty(JcrConstants.JCR_DATA).getBinary().getStream()) {
+            return IOUtils.toByteArray(is);
+        }
+    }
+
+    private static String getModulePath(final String groupName, final String moduleName) {
+        return HCM_BASELINE_PATH + "/" + groupName + "/project/" + moduleName;
+    }
+
+    private static String getConfigPath(final String groupName, final String moduleName) {
+        return getModulePath(groupName, moduleName) + "/" + HCM_CONFIG_FOLDER;
+    }
+
+    private static ConfigurationModelImpl createModel(final ModuleImpl... modules) {
+        final ConfigurationModelImpl model = new ConfigurationModelImpl();
+        for (ModuleImpl module : modules) {
+            model.addGroup(module.getProject().getGroup());
+        }
+        return model.build();
+    }
+
+    /**
+     * Creates a module with a config source main.yaml that defines the node /moduleName with a binary property
+     * stored in the resource data.bin
+     */
+    private static ModuleImpl createModule(final String groupName, final String moduleName, final String data) throws Exception {
+        final ModuleImpl module = new ModuleImpl(moduleName, new ProjectImpl("project", new GroupImpl(groupName)));
+        final MapResourceInputProvider resourceInputProvider = new MapResourceInputProvider();
+        resourceInputProvider.resources.put("/data.bin", getBytes(data));
+        module.setConfigResourceInputProvider(resourceInputProvider);
+        addConfigSource(module, "main.yaml", "definitions:\n"
+                + "  config:\n"
+                + "    /" + moduleName + ":\n"
+                + "      jcr:primaryType: nt:unstructured\n"
+                + "      data:\n"
+                + "        type: binary\n"
+                + "        resource: data.bin\n");
+        return module;
+    }
+
+    private static void addConfigSource(final ModuleImpl module, final String sourcePath, final String yaml) throws Exception {
+        final MapResourceInputProvider resourceInputProvider = (MapResourceInputProvider) module.getConfigResourceInputProvider();
+        resourceInputProvider.resources.put("/" + sourcePath, getBytes(yaml));
+        new ConfigSourceParser(resourceInputProvider).parse(new ByteArrayInputStream(getBytes(yaml)), sourcePath,
+                sourcePath, module);
+    }
+
+    /**
+     * Provides the resources of a module from memory, by their path relative to the config folder of the module
+     */
+    private static class MapResourceInputProvider implements ResourceInputProvider {
+
+        private final Map<String, byte[]> resources = new LinkedHashMap<>();
+
+        @Override
+        public boolean hasResource(final Source source, final String resourcePath) {
+            return resources.containsKey(resolve(source, resourcePath));
+        }
+
+        @Override
+        public InputStream getResourceInputStream(final Source source, final String resourcePath) {
+            final byte[] resource = resources.get(resolve(source, resourcePath));
+            return resource == null ? null : new ByteArrayInputStream(resource);
+        }
+
+        private static String resolve(final Source source, final String resourcePath) {
+            if (resourcePath.startsWith("/")) {
+                return resourcePath;
+            }
+            final String sourceFolder = StringUtils.substringBeforeLast(source.getPath(), "/");
+            return sourceFolder.equals(source.getPath()) ? "/" + resourcePath : "/" + sourceFolder + "/" + resourcePath;
+        }
+    }
 }
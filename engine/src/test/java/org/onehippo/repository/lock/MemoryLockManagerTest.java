@@ -15,7 +15,9 @@
  */
 package org.onehippo.repository.lock;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
@@ -27,6 +29,7 @@ import org.onehippo.testutils.log4j.Log4jInterceptor;
 
 import static java.util.concurrent.Executors.newSingleThreadExecutor;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -180,4 +183,43 @@ public class MemoryLockManagerTest {
         assertEquals(Thread.currentThread().getName(), memoryLockManager.getLocks().iterator().next().getLockThread());
     }
 
+    @Test
+    public void slow_lock_of_one_key_does_not_block_other_keys() throws Exception {
+        final CountDownLatch slowLockStarted = new CountDownLatch(1);
+        final CountDownLatch slowLockMayFinish = new CountDownLatch(1);
+        final MemoryLockManager slowLockManager = new MemoryLockManager() {
+            @Override
+            protected MutableLock createLock(final String key, final String threadName) throws LockException {
+                if ("slow".equals(key)) {
+                    slowLockStarted.countDown();
+                    try {
+                        slowLockMayFinish.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.createLock(key, threadName);
+            }
+        };
+        assertNotEquals(slowLockManager.getStripeIndex("slow"), slowLockManager.getStripeIndex("fast"));
+
+        final Future<?> slowLock = newSingleThreadExecutor().submit(() -> {
+            slowLockManager.lock("slow");
+            slowLockManager.unlock("slow");
+            return null;
+        });
+        try {
+            assertTrue(slowLockStarted.await(10, TimeUnit.SECONDS));
+
+            // while 'slow' is being locked, other keys can be locked, unlocked and checked
+            slowLockManager.lock("fast");
+            assertTrue(slowLockManager.isLocked("fast"));
+            slowLockManager.unlock("fast");
+            assertEquals(0, slowLockManager.getLocks().size());
+        } finally {
+            slowLockMayFinish.countDown();
+        }
+        slowLock.get(10, TimeUnit.SECONDS);
+        slowLockManager.destroy();
+    }
 }
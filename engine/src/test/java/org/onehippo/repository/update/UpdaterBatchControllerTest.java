@@ -0,0 +1,113 @@
+/*
+ *  Copyright 2017 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.onehippo.repository.update;
+
+import org.hippoecm.repository.jmx.RepositoryStatMXBean;
+import org.junit.Test;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class UpdaterBatchControllerTest {
+
+    @Test
+    public void testFixedWithoutTargetSaveLatency() {
+        final UpdaterBatchController controller = new UpdaterBatchController(10, 1000, 0, 2.0, null);
+        assertFalse(controller.isAdaptive());
+        assertNull(controller.saved(5000));
+        assertNull(controller.saved(0));
+        assertEquals(10, controller.getBatchSize());
+        assertEquals(1000, controller.getThrottle());
+    }
+
+    @Test
+    public void testSlowSaveShrinksBatchAndIncreasesThrottle() {
+        final UpdaterBatchController controller = new UpdaterBatchController(10, 1000, 500, 2.0, null);
+        assertNotNull(controller.saved(800));
+        assertEquals(5, controller.getBatchSize());
+        assertEquals(2000, controller.getThrottle());
+    }
+
+    @Test
+    public void testFastSaveGrowsBatchAndDecreasesThrottle() {
+        final UpdaterBatchController controller = new UpdaterBatchController(10, 150, 500, 2.0, null);
+        assertNotNull(controller.saved(100));
+        assertEquals(20, controller.getBatchSize());
+        assertEquals(0, controller.getThrottle());
+    }
+
+    @Test
+    public void testSaveNearTargetKeepsBatchAndThrottle() {
+        final UpdaterBatchController controller = new UpdaterBatchController(10, 1000, 500, 2.0, null);
+        assertNull(controller.saved(400));
+        assertEquals(10, controller.getBatchSize());
+        assertEquals(1000, controller.getThrottle());
+    }
+
+    @Test
+    public void testBatchSizeAndThrottleAreBounded() {
+        final UpdaterBatchController controller = new UpdaterBatchController(1, 0, 500, 2.0, null);
+        assertNotNull(controller.saved(1000));
+        assertEquals(1, controller.getBatchSize());
+        assertEquals(UpdaterBatchController.MIN_THROTTLE, controller.getThrottle());
+        for (int i = 0; i < 20; i++) {
+            controller.saved(1000);
+        }
+        assertEquals(UpdaterBatchController.MAX_THROTTLE, controller.getThrottle());
+        for (int i = 0; i < 20; i++) {
+            controller.saved(0);
+        }
+        assertEquals(UpdaterBatchController.MAX_BATCH_SIZE, controller.getBatchSize());
+        assertEquals(0, controller.getThrottle());
+    }
+
+    @Test
+    public void testHighRepositoryLoadBacksOffDespiteFastSave() {
+        final RepositoryStatMXBean repositoryStat = createNiceMock(RepositoryStatMXBean.class);
+        expect(repositoryStat.getRepositoryLoginsLastMinutePerSecond()).andReturn(1.0).anyTimes();
+        expect(repositoryStat.getRepositoryLoginsLastHourPerSecond()).andReturn(1.0).anyTimes();
+        expect(repositoryStat.getQueriesLastMinutePerSecond()).andReturn(30.0).anyTimes();
+        expect(repositoryStat.getQueriesLastHourPerSecond()).andReturn(10.0).anyTimes();
+        replay(repositoryStat);
+
+        final UpdaterBatchController controller = new UpdaterBatchController(10, 1000, 500, 2.0, repositoryStat);
+        assertEquals(3.0, controller.getLoad(), 0.001);
+        assertNotNull(controller.saved(10));
+        assertEquals(5, controller.getBatchSize());
+        assertEquals(2000, controller.getThrottle());
+    }
+
+    @Test
+    public void testUsualRepositoryLoadDoesNotBackOff() {
+        final RepositoryStatMXBean repositoryStat = createNiceMock(RepositoryStatMXBean.class);
+        expect(repositoryStat.getRepositoryLoginsLastMinutePerSecond()).andReturn(1.5).anyTimes();
+        expect(repositoryStat.getRepositoryLoginsLastHourPerSecond()).andReturn(1.0).anyTimes();
+        expect(repositoryStat.getQueriesLastMinutePerSecond()).andReturn(10.0).anyTimes();
+        expect(repositoryStat.getQueriesLastHourPerSecond()).andReturn(0.0).anyTimes();
+        replay(repositoryStat);
+
+        final UpdaterBatchController controller = new UpdaterBatchController(10, 1000, 500, 2.0, repositoryStat);
+        assertEquals(1.5, controller.getLoad(), 0.001);
+        assertNotNull(controller.saved(10));
+        assertEquals(20, controller.getBatchSize());
+        assertEquals(500, controller.getThrottle());
+    }
+}
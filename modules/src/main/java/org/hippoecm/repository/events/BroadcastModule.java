@@ -1,5 +1,5 @@
 /*
- * Copyright 2012-2014 Hippo B.V. (http://www.onehippo.com)
+ * Copyright 2012-2017 Hippo B.V. (http://www.onehippo.com)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -46,6 +46,7 @@ public class BroadcastModule implements ConfigurableDaemonModule, BroadcastServi
     public static final String QUERY_LIMIT = "queryLimit";
     public static final String POLLING_TIME = "pollingTime";
     public static final String MAX_EVENT_AGE = "maxEventAge";
+    public static final String USE_EVENT_JOURNAL = "useEventJournal";
 
     private static final long DEFAULT_POLLING_TIME = 5000L;
     private static final long DEFAULT_QUERY_LIMIT = 500L;
@@ -94,6 +95,7 @@ public class BroadcastModule implements ConfigurableDaemonModule, BroadcastServi
         final Node moduleConfigNode = session.getNodeByIdentifier(moduleConfigIdentifier);
         broadcaster.setQueryLimit(JcrUtils.getLongProperty(moduleConfigNode, QUERY_LIMIT, DEFAULT_QUERY_LIMIT));
         broadcaster.setMaxEventAge(JcrUtils.getLongProperty(moduleConfigNode, MAX_EVENT_AGE, DEFAULT_MAX_EVENT_AGE));
+        broadcaster.setUseEventJournal(JcrUtils.getBooleanProperty(moduleConfigNode, USE_EVENT_JOURNAL, false));
     }
 
     private synchronized long getLastProcessed(String channelName, boolean onlyNewEvents) throws RepositoryException {
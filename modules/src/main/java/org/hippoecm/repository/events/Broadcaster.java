@@ -1,5 +1,5 @@
 /*
- * Copyright 2012-2014 Hippo B.V. (http://www.onehippo.com)
+ * Copyright 2012-2017 Hippo B.V. (http://www.onehippo.com)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,20 +15,27 @@
  */
 package org.hippoecm.repository.events;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.Property;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.UnsupportedRepositoryOperationException;
+import javax.jcr.observation.Event;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryResult;
 
+import org.hippoecm.repository.api.RevisionEvent;
+import org.hippoecm.repository.api.RevisionEventJournal;
 import org.hippoecm.repository.util.JcrUtils;
 import org.hippoecm.repository.util.NodeIterable;
 import org.hippoecm.repository.util.PropertyValueGetterImpl;
@@ -46,6 +53,20 @@ class Broadcaster implements Runnable {
     private static final long DEFAULT_TIMESTAMP = -1L;
 
     private static final String HIPPOLOG_TIMESTAMP = "hippolog:timestamp";
+    private static final String HIPPOLOG_CATEGORY = "hippolog:category";
+    private static final String HIPPOLOG_ITEM = "hippolog:item";
+    private static final String LOG_PATH = "/hippo:log";
+
+    /**
+     * Margin for the difference between the timestamp of a log item and the time it was saved, possibly on another
+     * cluster node, when skipping to the log items after the last processed timestamp in the event journal
+     */
+    private static final long JOURNAL_SKIP_MARGIN = 60 * 1000L;
+
+    /**
+     * Time during which a log item added according to the event journal might not yet be visible on this cluster node
+     */
+    private static final long JOURNAL_SYNC_GRACE_PERIOD = 60 * 1000L;
 
     private class JobRunner {
 
@@ -62,10 +83,11 @@ class Broadcaster implements Runnable {
                 String eventCategory = job.getEventCategory();
                 log.debug("Getting latest log items in category {} starting from {}", eventCategory, lastProcessItem);
 
-                List<Node> logItems = getNextLogNodes(lastProcessItem, eventCategory);
+                List<Node> logItems = useEventJournal ? getNextLogNodesFromJournal(job)
+                        : getNextLogNodes(lastProcessItem, eventCategory);
                 long timeStamp = processEvents(job, logItems);
 
-                if (timeStamp > -1L) {
+                if (timeStamp > lastProcessItem) {
                     job.setLastProcessed(timeStamp);
                 }
                 processedEvents = (logItems.size() > 0);
@@ -85,7 +107,8 @@ class Broadcaster implements Runnable {
                     log.debug("Publishing event {} to channel {}", JcrUtils.getNodePathQuietly(logItem), job.getChannelName());
                     final HippoEvent event = createEvent(logItem);
                     job.publish(event);
-                    timeStamp = event.timestamp();
+                    // in the event journal the items of several cluster nodes are not ordered by timestamp
+                    timeStamp = Math.max(timeStamp, event.timestamp());
                 } catch (RepositoryException | RuntimeException re) {
                     log.warn("Unable to process logItem at {}", JcrUtils.getNodePathQuietly(logItem), re);
                 }
@@ -107,6 +130,11 @@ class Broadcaster implements Runnable {
     private long queryLimit;
     private long maxEventAge;
 
+    private boolean useEventJournal;
+    private RevisionEventJournal eventJournal;
+    // the revision up to which the event journal has been processed, by channel name
+    private final Map<String, Long> journalRevisions = new HashMap<>();
+
     public Broadcaster(final Session session, final BroadcastService broadcastService) {
         this.session = session;
         this.broadcastService = broadcastService;
@@ -121,6 +149,14 @@ class Broadcaster implements Runnable {
         this.maxEventAge = maxEventAge;
     }
 
+    /**
+     * When enabled, new log items are read from the event journal instead of being queried for. The event journal is
+     * only available in a cluster, when it is not available the log items are queried for.
+     */
+    public void setUseEventJournal(final boolean useEventJournal) {
+        this.useEventJournal = useEventJournal;
+    }
+
     public void run() {
         while (keepRunning) {
             log.debug("Polling");
@@ -159,16 +195,7 @@ class Broadcaster implements Runnable {
             QueryResult queryResult = query.execute();
             NodeIterator nodeIterator = queryResult.getNodes();
 
-            // if a maximum event age has been configured, check if last processed item
-            // is older than maximum age, and update lastItem if so
-            if (maxEventAge > -1) {
-                Calendar minTimestamp = new GregorianCalendar();
-                minTimestamp.add(Calendar.HOUR_OF_DAY, -((int) maxEventAge));
-                if (lastItem < minTimestamp.getTimeInMillis()) {
-                    log.debug("skip events older than {}", minTimestamp.getTime());
-                    lastItem = minTimestamp.getTimeInMillis();
-                }
-            }
+            lastItem = skipEventsOlderThanMaxEventAge(lastItem);
 
             // iterate through results (which are in reverse chronological order)
             // until timestamp is older than what we are interested in
@@ -199,6 +226,109 @@ class Broadcaster implements Runnable {
         }
     }
 
+    /**
+     * If a maximum event age has been configured, check if last processed item is older than maximum age, and return
+     * the maximum age if so
+     */
+    private long skipEventsOlderThanMaxEventAge(final long lastItem) {
+        if (maxEventAge > -1) {
+            Calendar minTimestamp = new GregorianCalendar();
+            minTimestamp.add(Calendar.HOUR_OF_DAY, -((int) maxEventAge));
+            if (lastItem < minTimestamp.getTimeInMillis()) {
+                log.debug("skip events older than {}", minTimestamp.getTime());
+                return minTimestamp.getTimeInMillis();
+            }
+        }
+        return lastItem;
+    }
+
+    /**
+     * Reads the log items added since the last processed revision of the job's channel from the event journal, or
+     * since its last processed timestamp if no revision is known yet for the channel. In the latter case items are only
+     * returned if they are newer than the last processed timestamp. The revision of the channel is only advanced over
+     * revisions of which all log items have been returned.
+     */
+    private List<Node> getNextLogNodesFromJournal(final BroadcastJob job) throws RepositoryException {
+        final RevisionEventJournal journal = getEventJournal();
+        if (journal == null) {
+            return getNextLogNodes(job.getLastProcessed(), job.getEventCategory());
+        }
+        final String channelName = job.getChannelName();
+        final String eventCategory = job.getEventCategory();
+        final long lastItem = skipEventsOlderThanMaxEventAge(job.getLastProcessed());
+
+        final Long revision = journalRevisions.get(channelName);
+        if (revision != null) {
+            journal.skipToRevision(revision);
+        } else {
+            journal.skipTo(lastItem - JOURNAL_SKIP_MARGIN);
+        }
+
+        final List<Node> nodes = new ArrayList<>();
+        long processedRevision = revision != null ? revision : -1L;
+        long currentRevision = processedRevision;
+        boolean complete = true;
+        try {
+            while (journal.hasNext()) {
+                final RevisionEvent event = journal.nextEvent();
+                if (event.getRevision() != currentRevision) {
+                    // all log items of the previous revision have been collected
+                    processedRevision = currentRevision;
+                    if (queryLimit > -1 && nodes.size() >= queryLimit) {
+                        complete = false;
+                        break;
+                    }
+                    currentRevision = event.getRevision();
+                }
+                final String path = event.getPath();
+                if (!session.nodeExists(path)) {
+                    if (event.getDate() > System.currentTimeMillis() - JOURNAL_SYNC_GRACE_PERIOD) {
+                        log.debug("Log item {} not yet available, retrying later", path);
+                        complete = false;
+                        break;
+                    }
+                    // removed in the meantime
+                    continue;
+                }
+                final Node logNode = session.getNode(path);
+                if (!logNode.isNodeType(HIPPOLOG_ITEM) || !logNode.hasProperty(HIPPOLOG_TIMESTAMP)) {
+                    continue;
+                }
+                if (eventCategory != null && !eventCategory.equals(JcrUtils.getStringProperty(logNode, HIPPOLOG_CATEGORY, null))) {
+                    continue;
+                }
+                if (revision != null || logNode.getProperty(HIPPOLOG_TIMESTAMP).getLong() > lastItem) {
+                    nodes.add(logNode);
+                }
+            }
+            if (complete) {
+                processedRevision = currentRevision;
+            }
+        } catch (RepositoryException | RuntimeException e) {
+            session.refresh(false);
+            throw e;
+        }
+        if (processedRevision > -1L) {
+            journalRevisions.put(channelName, processedRevision);
+        }
+        log.debug("Read {} log items for channel {} from the event journal up to revision {}", nodes.size(),
+                channelName, processedRevision);
+        return nodes;
+    }
+
+    protected RevisionEventJournal getEventJournal() throws RepositoryException {
+        if (eventJournal == null) {
+            try {
+                eventJournal = (RevisionEventJournal) session.getWorkspace().getObservationManager()
+                        .getEventJournal(Event.NODE_ADDED, LOG_PATH, true, null, null);
+            } catch (UnsupportedRepositoryOperationException e) {
+                log.warn("Event journal not available, querying for log items instead: {}", e.getMessage());
+                useEventJournal = false;
+            }
+        }
+        return eventJournal;
+    }
+
     /**
      * This method is responsible creating hippo event from log node. It will parse all the properties of log item and
      * populate in hippoevent
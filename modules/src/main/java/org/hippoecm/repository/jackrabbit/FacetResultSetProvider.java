@@ -239,9 +239,7 @@ public class FacetResultSetProvider extends HippoVirtualProvider
             if(upstream == null) {
                 continue;
             }
-            /* The next statements are painful performance wise.
-             * Only to obtain the child node name, we have to retrieve the parent state.
-             */
+            // the index may still hold hits for nodes that are deleted, or moved, by pending index updates
             NodeState upstreamState = getCanonicalNodeState(upstream);
             if(upstreamState == null) {
                 continue;
@@ -250,11 +248,20 @@ public class FacetResultSetProvider extends HippoVirtualProvider
             if(parentId == null) {
                 continue;
             }
+            Name name = facetedResult.getName(upstream);
+            if (name != null && parentId.equals(facetedResult.getParentId(upstream))) {
+                // the engine knows the name from its index, no need to load the parent state
+                state.addChildNodeEntry(name, subNodesProvider.newViewNodeId(state.getNodeId(), null, upstream, context, name, view, order , singledView));
+                continue;
+            }
+            /* The next statements are painful performance wise.
+             * Only to obtain the child node name, we have to retrieve the parent state.
+             */
             NodeState parentNodeState = getCanonicalNodeState(parentId);
             if(parentNodeState == null || !parentNodeState.hasChildNodeEntry(upstream)) {
                 continue;
             }
-            Name name = parentNodeState.getChildNodeEntry(upstream).getName();
+            name = parentNodeState.getChildNodeEntry(upstream).getName();
         
             state.addChildNodeEntry(name, subNodesProvider.newViewNodeId(state.getNodeId(), null, upstream, context, name, view, order , singledView));
         }
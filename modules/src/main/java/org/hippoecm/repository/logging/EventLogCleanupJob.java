@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2015 Hippo B.V. (http://www.onehippo.com)
+ * Copyright 2014-2017 Hippo B.V. (http://www.onehippo.com)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,7 +16,13 @@
 package org.hippoecm.repository.logging;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
+import java.util.regex.Pattern;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
@@ -27,16 +33,33 @@ import javax.jcr.query.QueryManager;
 
 import org.apache.commons.lang.StringUtils;
 import org.hippoecm.repository.api.HippoNodeIterator;
+import org.hippoecm.repository.util.NodeIterable;
 import org.onehippo.repository.scheduling.RepositoryJob;
 import org.onehippo.repository.scheduling.RepositoryJobExecutionContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Removes the oldest items from the event log. Hour folders of the time bucketed layout written by
+ * {@link RepositoryLogger} are removed by their hash folders when all their items must be removed; the items of the
+ * hour folder that is removed partially are removed one by one in the order of their names, which start with their
+ * timestamp. The items are counted by walking the hour folders, thus without querying the event log.
+ * <p>
+ * Only while the event log still holds items in the random folder layout of previous versions, those items are
+ * counted and removed in the order of their timestamp using a query over all items. They are older than the items in
+ * hour folders, thus they are removed first.
+ * </p>
+ * <p>
+ * Removals are saved in batches. The size of a batch adapts to the time it takes to save it: it grows while saves
+ * are fast and shrinks when they take longer than {@link #TARGET_SAVE_TIME} milliseconds.
+ * </p>
+ */
 public class EventLogCleanupJob implements RepositoryJob {
 
     private static final Logger log = LoggerFactory.getLogger(EventLogCleanupJob.class);
 
     private static final String ITEMS_QUERY = "SELECT * FROM hippolog:item ORDER BY hippolog:timestamp ASC";
+    private static final String LOG_PATH = "/hippo:log";
 
     private static final String CONFIG_MINUTESTOLIVE = "minutestolive";
     private static final String CONFIG_MAXITEMS = "maxitems";
@@ -44,15 +67,26 @@ public class EventLogCleanupJob implements RepositoryJob {
     private static final long DEFAULT_MAXITEMS = -1;
     private static final long DEFAULT_MINUTESTOLIVE = -1;
 
+    private static final Pattern YEAR_PATTERN = Pattern.compile("\\d{4}");
+    private static final Pattern TWO_DIGITS_PATTERN = Pattern.compile("\\d{2}");
+
+    private static final int MIN_BATCH_SIZE = 10;
+    private static final int INITIAL_BATCH_SIZE = 100;
+    private static final int MAX_BATCH_SIZE = 10000;
+    private static final long TARGET_SAVE_TIME = 1000L;
+    private static final long HOUR = 3600 * 1000L;
+
     @Override
     public void execute(final RepositoryJobExecutionContext context) throws RepositoryException {
         final Session session = context.createSystemSession();
         try {
             log.info("Running event log cleanup job");
+            final BatchRemover remover = new BatchRemover(session);
             final long maxItems = parseLongAttribute(CONFIG_MAXITEMS, DEFAULT_MAXITEMS, context);
-            removeTooManyItems(maxItems, session);
+            removeTooManyItems(maxItems, session, remover);
             final long minutesToLive = parseLongAttribute(CONFIG_MINUTESTOLIVE, DEFAULT_MINUTESTOLIVE, context);
-            removeTimedOutItems(minutesToLive, session);
+            removeTimedOutItems(minutesToLive, session, remover);
+            remover.logSummary();
         } finally {
             session.logout();
         }
@@ -71,83 +105,372 @@ public class EventLogCleanupJob implements RepositoryJob {
         return value;
     }
 
-    private void removeTooManyItems(long maxitems, Session session) throws RepositoryException {
+    private void removeTooManyItems(long maxitems, Session session, BatchRemover remover) throws RepositoryException {
         if (maxitems == -1) {
             log.info("No maxitems configured");
         } else {
             log.info("Truncating event log to {} most recent items", maxitems);
-            final QueryManager queryManager = session.getWorkspace().getQueryManager();
-            final Query query = queryManager.createQuery(ITEMS_QUERY, Query.SQL);
-            final NodeIterator nodes = query.execute().getNodes();
-            final long totalSize = ((HippoNodeIterator) nodes).getTotalSize();
-            final long cleanupSize = totalSize - maxitems;
-            for (int i = 0; i < cleanupSize; i++) {
-                try {
-                    Node node = nodes.nextNode();
-                    log.debug("Removing event log item at {}", node.getPath());
-                    remove(node);
-                    if (i % 10 == 0) {
-                        session.save();
-                        try { Thread.sleep(100); } catch (InterruptedException ignored) {}
+            final long removedBefore = remover.getRemovedItems();
+            final List<HourFolder> folders = getHourFolders(session);
+            long cleanupSize;
+            if (hasLegacyItems(session)) {
+                // the query counts the items of both layouts
+                cleanupSize = getItems(session).getTotalSize() - maxitems;
+                final NodeIterator nodes = getItems(session);
+                while (cleanupSize > 0 && nodes.hasNext()) {
+                    try {
+                        final Node node = nodes.nextNode();
+                        if (!isLegacyItem(node)) {
+                            break;
+                        }
+                        remover.remove(node, 1);
+                        cleanupSize--;
+                    } catch (RepositoryException e) {
+                        log.error("Error while cleaning up event log", e);
                     }
-                } catch (RepositoryException e) {
-                    log.error("Error while cleaning up event log", e);
+                }
+                remover.save();
+            } else {
+                cleanupSize = -maxitems;
+                for (HourFolder folder : folders) {
+                    cleanupSize += folder.getSize();
                 }
             }
-            if (session.hasPendingChanges()) {
-                session.save();
+            int next = 0;
+            while (next < folders.size() && folders.get(next).getSize() <= cleanupSize) {
+                final HourFolder folder = folders.get(next++);
+                remover.removeHourFolder(folder.node);
+                cleanupSize -= folder.getSize();
             }
-            if (cleanupSize > 0) {
-                log.info("Done cleaning {} items", cleanupSize);
+            remover.save();
+            if (cleanupSize > 0 && next < folders.size()) {
+                // the oldest items are in the next hour folders of the cluster nodes, which all end at the same time
+                final List<LogItem> items = new ArrayList<>();
+                for (int i = next; i < folders.size() && folders.get(i).end == folders.get(next).end; i++) {
+                    items.addAll(getItems(folders.get(i).node));
+                }
+                Collections.sort(items);
+                for (int i = 0; i < cleanupSize && i < items.size(); i++) {
+                    try {
+                        remover.remove(items.get(i).node, 1);
+                    } catch (RepositoryException e) {
+                        log.error("Error while cleaning up event log", e);
+                    }
+                }
+                remover.save();
+            }
+            final long removed = remover.getRemovedItems() - removedBefore;
+            if (removed > 0) {
+                log.info("Done cleaning {} items", removed);
             } else {
                 log.info("No excessive amount of items");
             }
         }
     }
 
-    private void removeTimedOutItems(long minutestolive, Session session) throws RepositoryException {
+    private void removeTimedOutItems(long minutestolive, Session session, BatchRemover remover) throws RepositoryException {
         if (minutestolive == -1) {
             log.info("No minutestolive configured");
         } else {
             final long timeoutTimestamp = System.currentTimeMillis() - minutestolive*1000*60;
             log.info("Removing items from event log from before {}", SimpleDateFormat.getDateTimeInstance().format(new Date(timeoutTimestamp)));
-            final QueryManager queryManager = session.getWorkspace().getQueryManager();
-            final Query query = queryManager.createQuery(ITEMS_QUERY, Query.SQL);
-            final NodeIterator nodes = query.execute().getNodes();
-            int count = 0;
-            while (nodes.hasNext()) {
-                try {
-                    final Node node = nodes.nextNode();
-                    if (node.getProperty("hippolog:timestamp").getLong() > timeoutTimestamp) {
-                        break;
-                    }
-                    log.debug("Removing event log item at {}", node.getPath());
-                    remove(node);
-                    if (count++ % 10 == 0) {
-                        session.save();
-                        try { Thread.sleep(100); } catch (InterruptedException ignored) {}
+            final long removedBefore = remover.getRemovedItems();
+            if (hasLegacyItems(session)) {
+                final NodeIterator nodes = getItems(session);
+                while (nodes.hasNext()) {
+                    try {
+                        final Node node = nodes.nextNode();
+                        if (!isLegacyItem(node) || node.getProperty("hippolog:timestamp").getLong() > timeoutTimestamp) {
+                            break;
+                        }
+                        remover.remove(node, 1);
+                    } catch (RepositoryException e) {
+                        log.error("Error while cleaning up event log", e);
                     }
-                } catch (RepositoryException e) {
-                    log.error("Error while cleaning up event log", e);
                 }
+                remover.save();
             }
-            if (session.hasPendingChanges()) {
-                session.save();
+            for (HourFolder folder : getHourFolders(session)) {
+                if (folder.end - HOUR > timeoutTimestamp) {
+                    break;
+                }
+                if (folder.end <= timeoutTimestamp + 1) {
+                    remover.removeHourFolder(folder.node);
+                    continue;
+                }
+                // the hour folder is partly timed out
+                for (LogItem item : getItems(folder.node)) {
+                    if (item.timestamp <= timeoutTimestamp) {
+                        try {
+                            remover.remove(item.node, 1);
+                        } catch (RepositoryException e) {
+                            log.error("Error while cleaning up event log", e);
+                        }
+                    }
+                }
             }
-            if (count > 0) {
-                log.info("Done cleaning {} items", count);
+            remover.save();
+            final long removed = remover.getRemovedItems() - removedBefore;
+            if (removed > 0) {
+                log.info("Done cleaning {} items", removed);
             } else {
                 log.info("No timed out items");
             }
         }
     }
 
-    private void remove(final Node node) throws RepositoryException {
+    /**
+     * @return whether the event log holds items in the random folder layout of previous versions, which are not in
+     * year folders
+     */
+    private boolean hasLegacyItems(final Session session) throws RepositoryException {
+        if (session.nodeExists(LOG_PATH)) {
+            for (Node clusterFolder : new NodeIterable(session.getNode(LOG_PATH).getNodes())) {
+                for (Node child : new NodeIterable(clusterFolder.getNodes())) {
+                    if (!child.isNodeType("hippolog:folder") || !YEAR_PATTERN.matcher(child.getName()).matches()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLegacyItem(final Node item) throws RepositoryException {
+        // the folder below the cluster node folder, at depth 3, is a year folder in the time bucketed layout
+        return item.getDepth() <= 3 || !YEAR_PATTERN.matcher(item.getAncestor(3).getName()).matches();
+    }
+
+    /**
+     * Queries all items of the event log, in the order of their timestamp. Only used for the items in the random
+     * folder layout of previous versions.
+     */
+    private HippoNodeIterator getItems(final Session session) throws RepositoryException {
+        final QueryManager queryManager = session.getWorkspace().getQueryManager();
+        final Query query = queryManager.createQuery(ITEMS_QUERY, Query.SQL);
+        return (HippoNodeIterator) query.execute().getNodes();
+    }
+
+    /**
+     * @return the year/month/day/hour folders of all cluster nodes, oldest first. The folder names are in UTC, see
+     * {@link RepositoryLogger#getFolderRelPath(long)}.
+     */
+    private List<HourFolder> getHourFolders(final Session session) throws RepositoryException {
+        final List<HourFolder> folders = new ArrayList<>();
+        if (session.nodeExists(LOG_PATH)) {
+            for (Node clusterFolder : new NodeIterable(session.getNode(LOG_PATH).getNodes())) {
+                for (Node year : getFolders(clusterFolder, YEAR_PATTERN)) {
+                    for (Node month : getFolders(year, TWO_DIGITS_PATTERN)) {
+                        for (Node day : getFolders(month, TWO_DIGITS_PATTERN)) {
+                            for (Node hour : getFolders(day, TWO_DIGITS_PATTERN)) {
+                                final Calendar start = Calendar.getInstance(RepositoryLogger.FOLDER_TIME_ZONE);
+                                start.clear();
+                                start.set(Integer.parseInt(year.getName()), Integer.parseInt(month.getName()) - 1,
+                                        Integer.parseInt(day.getName()), Integer.parseInt(hour.getName()), 0);
+                                start.add(Calendar.HOUR_OF_DAY, 1);
+                                folders.add(new HourFolder(hour, start.getTimeInMillis()));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        Collections.sort(folders, Comparator.comparingLong(folder -> folder.end));
+        return folders;
+    }
+
+    /**
+     * @return the number of items in an hour folder, which are spread over its hash folders
+     */
+    private static long countItems(final Node hourFolder) throws RepositoryException {
+        long items = 0;
+        for (Node child : new NodeIterable(hourFolder.getNodes())) {
+            items += child.isNodeType("hippolog:folder") ? child.getNodes().getSize() : 1;
+        }
+        return items;
+    }
+
+    /**
+     * @return the items in an hour folder, which are spread over its hash folders
+     */
+    private static List<LogItem> getItems(final Node hourFolder) throws RepositoryException {
+        final List<LogItem> items = new ArrayList<>();
+        for (Node child : new NodeIterable(hourFolder.getNodes())) {
+            if (child.isNodeType("hippolog:folder")) {
+                for (Node item : new NodeIterable(child.getNodes())) {
+                    items.add(new LogItem(item));
+                }
+            } else {
+                items.add(new LogItem(child));
+            }
+        }
+        return items;
+    }
+
+    private List<Node> getFolders(final Node parent, final Pattern namePattern) throws RepositoryException {
+        final List<Node> folders = new ArrayList<>();
+        for (Node child : new NodeIterable(parent.getNodes())) {
+            if (child.isNodeType("hippolog:folder") && namePattern.matcher(child.getName()).matches()) {
+                folders.add(child);
+            }
+        }
+        return folders;
+    }
+
+    private static void remove(final Node node) throws RepositoryException {
         final Node parent = node.getParent();
         node.remove();
-        if (parent != null && parent.getName().length() == 1 && parent.isNodeType("hippolog:folder") && parent.getNodes().getSize() == 0) {
+        // remove empty folders below the cluster node folder, which is at depth 2
+        if (parent != null && parent.getDepth() > 2 && parent.isNodeType("hippolog:folder") && parent.getNodes().getSize() == 0) {
             remove(parent);
         }
     }
 
+    private static final class HourFolder {
+
+        private final Node node;
+        // the end of the hour, exclusive
+        private final long end;
+        private long size = -1;
+
+        private HourFolder(final Node node, final long end) {
+            this.node = node;
+            this.end = end;
+        }
+
+        private long getSize() throws RepositoryException {
+            if (size < 0) {
+                size = countItems(node);
+            }
+            return size;
+        }
+    }
+
+    /**
+     * An item of an hour folder, ordered by the timestamp and sequence number in its name
+     * (see {@link RepositoryLogger}), or by its timestamp property if its name does not have that form.
+     */
+    private static final class LogItem implements Comparable<LogItem> {
+
+        private final Node node;
+        private final long timestamp;
+        private final long sequence;
+
+        private LogItem(final Node node) throws RepositoryException {
+            this.node = node;
+            final String name = node.getName();
+            final int separator = name.indexOf('-');
+            long timestamp;
+            long sequence;
+            try {
+                timestamp = Long.parseLong(name.substring(0, separator));
+                sequence = Long.parseLong(name.substring(separator + 1));
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                timestamp = node.hasProperty("hippolog:timestamp") ? node.getProperty("hippolog:timestamp").getLong() : 0L;
+                sequence = 0L;
+            }
+            this.timestamp = timestamp;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(final LogItem other) {
+            final int result = Long.compare(timestamp, other.timestamp);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Saves removals once their number of items reaches the batch size, and adapts the batch size to the time it
+     * took to save.
+     */
+    private static final class BatchRemover {
+
+        private final Session session;
+        private final long start = System.currentTimeMillis();
+        private int batchSize = INITIAL_BATCH_SIZE;
+        private long pendingItems;
+        private long removedItems;
+        private long saves;
+        private long saveTime;
+
+        private BatchRemover(final Session session) {
+            this.session = session;
+        }
+
+        /**
+         * Removes an hour folder by its hash folders, and the items of a hash folder one by one when it holds more
+         * items than the batch size, such that a single save never removes much more than a batch of items.
+         */
+        private void removeHourFolder(final Node hourFolder) throws RepositoryException {
+            for (Node child : getChildren(hourFolder)) {
+                if (!child.isNodeType("hippolog:folder")) {
+                    remove(child, 1);
+                    continue;
+                }
+                final long size = child.getNodes().getSize();
+                if (size <= batchSize) {
+                    remove(child, size);
+                } else {
+                    for (Node item : getChildren(child)) {
+                        remove(item, 1);
+                    }
+                }
+            }
+        }
+
+        private List<Node> getChildren(final Node node) throws RepositoryException {
+            final List<Node> children = new ArrayList<>();
+            for (Node child : new NodeIterable(node.getNodes())) {
+                children.add(child);
+            }
+            return children;
+        }
+
+        private void remove(final Node node, final long items) throws RepositoryException {
+            log.debug("Removing {} event log items at {}", items, node.getPath());
+            EventLogCleanupJob.remove(node);
+            pendingItems += items;
+            if (pendingItems >= batchSize) {
+                save();
+            }
+        }
+
+        private void save() throws RepositoryException {
+            if (!session.hasPendingChanges()) {
+                return;
+            }
+            final long saveStart = System.currentTimeMillis();
+            try {
+                session.save();
+                removedItems += pendingItems;
+            } catch (RepositoryException e) {
+                log.error("Error while cleaning up event log, discarding removal of {} items", pendingItems, e);
+                session.refresh(false);
+            } finally {
+                pendingItems = 0;
+            }
+            final long duration = System.currentTimeMillis() - saveStart;
+            saves++;
+            saveTime += duration;
+            if (duration > TARGET_SAVE_TIME) {
+                batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+            } else if (duration < TARGET_SAVE_TIME / 2) {
+                batchSize = Math.min(MAX_BATCH_SIZE, batchSize * 2);
+            }
+            log.debug("Removed {} event log items so far, last save took {} ms, batch size now {}",
+                    removedItems, duration, batchSize);
+        }
+
+        private long getRemovedItems() {
+            return removedItems;
+        }
+
+        private void logSummary() {
+            final long duration = Math.max(1L, System.currentTimeMillis() - start);
+            log.info("Removed {} event log items in {} ms ({} items/s) with {} saves taking {} ms in total",
+                    removedItems, duration, removedItems * 1000 / duration, saves, saveTime);
+        }
+    }
+
 }
@@ -15,10 +15,16 @@
  */
 package org.hippoecm.repository.logging;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.Node;
 import javax.jcr.PropertyType;
@@ -28,35 +34,81 @@ import javax.jcr.Value;
 import javax.jcr.ValueFactory;
 
 import org.hippoecm.repository.api.NodeNameCodec;
+import org.hippoecm.repository.util.JcrUtils;
 import org.onehippo.cms7.event.HippoEvent;
 import org.onehippo.cms7.services.HippoServiceRegistry;
 import org.onehippo.cms7.services.eventbus.HippoEventBus;
 import org.onehippo.cms7.services.eventbus.Subscribe;
-import org.onehippo.repository.modules.DaemonModule;
+import org.onehippo.repository.modules.ConfigurableDaemonModule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * {@link HippoEventBus} listener that logs events in a random hierarchy of folders.
- * Each cluster has its own dedicated folder to avoid collisions (would be very rare) and to allow listeners
- * for events on specific clusters only. The event log can contain 5 million log entries easily per cluster node.
- * This means that for very active CMSes in large organisations with 2000 actions per day per cluster node you
- * should start thinking about purging your logs after about 7 years. {@link EventLogCleanupModule} can do
- * that for you.
+ * {@link HippoEventBus} listener that logs events in a hierarchy of folders by year, month, day and hour of the
+ * event timestamp. Below the hour folder the events are spread over at most {@link #HASH_FOLDERS} folders by the hash
+ * of their name, so that a busy hour does not result in a folder with tens of thousands of siblings. Each cluster has
+ * its own dedicated folder to avoid collisions and to allow listeners for events on specific clusters only. Expired
+ * events can be removed by {@link EventLogCleanupJob}.
+ * <p>
+ * Events are not written on the thread that posts them: they are put on a bounded queue and written by a single
+ * writer thread, which saves them in batches of at most <code>batchSize</code> events, at least every
+ * <code>flushInterval</code> milliseconds. When the queue is full, a posting thread waits until space is available,
+ * so that no events are dropped. Dropping events is opt-in: with a <code>blockTimeout</code> of zero or more, a
+ * posting thread waits at most <code>blockTimeout</code> milliseconds for space to become available, after which the
+ * event is dropped.
+ * </p>
  */
-public class RepositoryLogger implements DaemonModule {
+public class RepositoryLogger implements ConfigurableDaemonModule {
 
     private static final Logger log = LoggerFactory.getLogger(RepositoryLogger.class);
 
-    private static final Random random = new Random();
+    public static final String QUEUE_SIZE = "queueSize";
+    public static final String BATCH_SIZE = "batchSize";
+    public static final String FLUSH_INTERVAL = "flushInterval";
+    public static final String BLOCK_TIMEOUT = "blockTimeout";
+
+    private static final long DEFAULT_QUEUE_SIZE = 10000L;
+    private static final long DEFAULT_BATCH_SIZE = 100L;
+    private static final long DEFAULT_FLUSH_INTERVAL = 1000L;
+    private static final long DEFAULT_BLOCK_TIMEOUT = -1L;
+
+    static final int HASH_FOLDERS = 256;
+
+    /**
+     * The time zone of the year, month, day and hour folders, which is the same on all cluster nodes and does not
+     * repeat or skip hours
+     */
+    static final TimeZone FOLDER_TIME_ZONE = TimeZone.getTimeZone("UTC");
 
-    private static final String ALPHABET = "0123456789abcdefghijklmnopqrstuvwxyz";
     private static final String DEFAULT_CLUSTER_NODE_ID = "default";
-    private static final int HIERARCHY_DEPTH = 4;
+    private static final long FLUSH_TIMEOUT = 10000L;
+
+    private int queueSize = (int) DEFAULT_QUEUE_SIZE;
+    private volatile int batchSize = (int) DEFAULT_BATCH_SIZE;
+    private volatile long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private volatile long blockTimeout = DEFAULT_BLOCK_TIMEOUT;
 
     private Session session;
     private Node logFolder;
 
+    private BlockingQueue<HippoEvent> queue;
+    private Thread writer;
+    private volatile boolean stopped;
+    // the session is only accessed while holding the write lock
+    private final Object writeLock = new Object();
+    // the number of events that have been queued but not yet written
+    private final AtomicLong pendingEvents = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Override
+    public void configure(final Node moduleConfig) throws RepositoryException {
+        queueSize = (int) Math.max(1L, JcrUtils.getLongProperty(moduleConfig, QUEUE_SIZE, DEFAULT_QUEUE_SIZE));
+        batchSize = (int) Math.max(1L, JcrUtils.getLongProperty(moduleConfig, BATCH_SIZE, DEFAULT_BATCH_SIZE));
+        flushInterval = Math.max(1L, JcrUtils.getLongProperty(moduleConfig, FLUSH_INTERVAL, DEFAULT_FLUSH_INTERVAL));
+        blockTimeout = JcrUtils.getLongProperty(moduleConfig, BLOCK_TIMEOUT, DEFAULT_BLOCK_TIMEOUT);
+    }
+
     @Override
     public void initialize(final Session session) throws RepositoryException {
         this.session = session;
@@ -79,37 +131,153 @@ public class RepositoryLogger implements DaemonModule {
             session.save();
         }
 
+        queue = new ArrayBlockingQueue<>(queueSize);
+        stopped = false;
+        writer = new Thread(this::writeEvents, "repository-logger");
+        writer.setDaemon(true);
+        writer.start();
+
         HippoServiceRegistry.registerService(this, HippoEventBus.class);
     }
 
     @Subscribe
     public void logHippoEvent(HippoEvent event) {
-        if (session == null) {
-            return;
-        }
-        if (logFolder == null) {
+        if (queue == null || stopped) {
             return;
         }
 
+        pendingEvents.incrementAndGet();
+        boolean queued = false;
         try {
-            final char[] randomChars = generateRandomCharArray(HIERARCHY_DEPTH);
-            final Node folder = getOrCreateFolder(charArrayToRelPath(randomChars, HIERARCHY_DEPTH - 1));
-            final Node logNode = folder.addNode(String.valueOf(randomChars[HIERARCHY_DEPTH - 1]), "hippolog:item");
-            for (Object o : event.getValues().entrySet()) {
-                Map.Entry<String, Object> entry = (Map.Entry<String, Object>) o;
-                setProperty(logNode, getPropertyName(entry.getKey()), entry.getValue());
+            if (blockTimeout < 0) {
+                // stop waiting on shutdown, when the queue is no longer drained
+                while (!stopped && !queued) {
+                    queued = queue.offer(event, flushInterval, TimeUnit.MILLISECONDS);
+                }
+            } else {
+                queued = queue.offer(event, blockTimeout, TimeUnit.MILLISECONDS);
             }
-            session.save();
-        } catch (RepositoryException e) {
-            log.warn("Logging of event {} failed", event, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!queued) {
+                pendingEvents.decrementAndGet();
+                droppedEvents.incrementAndGet();
+                log.debug("Event log queue is full, dropped event {}", event);
+            }
+        }
+    }
+
+    /**
+     * Writes all events that have been queued so far, waiting for the events that are being written by the writer
+     * thread.
+     */
+    void flush() {
+        synchronized (writeLock) {
+            final List<HippoEvent> events = new ArrayList<>();
+            queue.drainTo(events);
+            if (!events.isEmpty()) {
+                write(events);
+            }
+            final long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT;
+            try {
+                while (pendingEvents.get() > 0 && System.currentTimeMillis() < deadline) {
+                    writeLock.wait(100);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void writeEvents() {
+        final List<HippoEvent> batch = new ArrayList<>(batchSize);
+        while (!stopped) {
+            try {
+                final HippoEvent first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                final long deadline = System.currentTimeMillis() + flushInterval;
+                while (batch.size() < batchSize) {
+                    final HippoEvent next = queue.poll(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // the interrupt is cleared so that it does not reach the save of the batch
+                log.debug("Event log writer interrupted");
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    synchronized (writeLock) {
+                        write(batch);
+                    }
+                } catch (RuntimeException e) {
+                    // this is the only writer thread, it must not die
+                    log.error("Logging of {} events failed", batch.size(), e);
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes the events with a single save. If that fails, the events are written one by one so that a single event
+     * that cannot be logged does not cause the other events of the batch to be lost. Must be invoked while holding
+     * the write lock.
+     */
+    private void write(final List<HippoEvent> events) {
+        try {
             try {
-                session.refresh(false);
-            } catch (RepositoryException ex) {
-                log.error("Event logging failed in failure", ex);
+                for (HippoEvent event : events) {
+                    addLogNode(event);
+                }
+                session.save();
+            } catch (RepositoryException | RuntimeException e) {
+                log.warn("Logging of {} events failed, logging them one by one", events.size(), e);
+                refresh();
+                for (HippoEvent event : events) {
+                    try {
+                        addLogNode(event);
+                        session.save();
+                    } catch (RepositoryException | RuntimeException ex) {
+                        log.warn("Logging of event {} failed", event, ex);
+                        refresh();
+                    }
+                }
             }
+        } finally {
+            pendingEvents.addAndGet(-events.size());
+            writeLock.notifyAll();
+        }
+        final long dropped = droppedEvents.getAndSet(0);
+        if (dropped > 0) {
+            log.warn("Event log queue was full, dropped {} events", dropped);
         }
+    }
 
+    private void refresh() {
+        try {
+            session.refresh(false);
+        } catch (RepositoryException | RuntimeException ex) {
+            log.error("Event logging failed in failure", ex);
+        }
+    }
 
+    private void addLogNode(final HippoEvent event) throws RepositoryException {
+        final Object value = event.getValues().get("timestamp");
+        final long timestamp = value instanceof Long ? (Long) value : System.currentTimeMillis();
+        final String name = timestamp + "-" + sequence.incrementAndGet();
+        final Node folder = getOrCreateFolder(getFolderRelPath(timestamp) + "/" + getHashFolderName(name));
+        final Node logNode = folder.addNode(name, "hippolog:item");
+        for (Object o : event.getValues().entrySet()) {
+            Map.Entry<String, Object> entry = (Map.Entry<String, Object>) o;
+            setProperty(logNode, getPropertyName(entry.getKey()), entry.getValue());
+        }
     }
 
     private String getPropertyName(final String key) {
@@ -175,8 +343,9 @@ public class RepositoryLogger implements DaemonModule {
 
     private Node getOrCreateFolder(String itemRelPath) throws RepositoryException {
         if (!logFolder.hasNode(itemRelPath)) {
-            if (itemRelPath.length() > 1) {
-                getOrCreateFolder(itemRelPath.substring(0, itemRelPath.lastIndexOf('/')));
+            final int lastSlash = itemRelPath.lastIndexOf('/');
+            if (lastSlash > 0) {
+                getOrCreateFolder(itemRelPath.substring(0, lastSlash));
             }
             final Node descendantFolder = logFolder.addNode(itemRelPath, "hippolog:folder");
             if (log.isDebugEnabled()) {
@@ -196,25 +365,36 @@ public class RepositoryLogger implements DaemonModule {
         return clusterNodeId;
     }
 
-    private static String charArrayToRelPath(char[] chars, int len) {
-        StringBuilder sb = new StringBuilder((2*len)-1);
-        for (int i = 0; i < len - 1; i++) {
-            sb.append(chars[i]).append('/');
-        }
-        sb.append(chars[len-1]);
-        return sb.toString();
+    /**
+     * @return the relative path of the folder for events at <code>timestamp</code>: year/month/day/hour in UTC
+     */
+    static String getFolderRelPath(final long timestamp) {
+        final Calendar calendar = Calendar.getInstance(FOLDER_TIME_ZONE);
+        calendar.setTimeInMillis(timestamp);
+        return String.format("%04d/%02d/%02d/%02d", calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1,
+                calendar.get(Calendar.DAY_OF_MONTH), calendar.get(Calendar.HOUR_OF_DAY));
     }
 
-    private static char[] generateRandomCharArray(int len) {
-        char[] result = new char[len];
-        for (int i = 0; i < len; i++) {
-            result[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
-        }
-        return result;
+    /**
+     * @return the name of the folder below the hour folder for the event with name <code>name</code>
+     */
+    static String getHashFolderName(final String name) {
+        return String.format("%02x", (name.hashCode() & 0x7fffffff) % HASH_FOLDERS);
     }
 
     @Override
     public void shutdown() {
         HippoServiceRegistry.unregisterService(this, HippoEventBus.class);
+        if (writer != null) {
+            // the writer is not interrupted, as that could happen during a save and break the repository index:
+            // it stops at the latest after its current batch and poll
+            stopped = true;
+            try {
+                writer.join(flushInterval + FLUSH_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flush();
+        }
     }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2012-2013 Hippo B.V. (http://www.onehippo.com)
+ * Copyright 2012-2017 Hippo B.V. (http://www.onehippo.com)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,9 +15,17 @@
  */
 package org.hippoecm.repository.events;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
 
+import org.hippoecm.repository.api.RevisionEvent;
+import org.hippoecm.repository.api.RevisionEventJournal;
 import org.hippoecm.repository.logging.RepositoryLogger;
 import org.hippoecm.repository.util.NodeIterable;
 import org.junit.Test;
@@ -28,7 +36,9 @@ import org.onehippo.repository.events.PersistedHippoEventListener;
 import org.onehippo.repository.events.PersistedHippoEventsService;
 import org.onehippo.repository.testutils.RepositoryTestCase;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class BroadcastModuleTest extends RepositoryTestCase {
 
@@ -64,6 +74,220 @@ public class BroadcastModuleTest extends RepositoryTestCase {
         }
     }
 
+    private static class TestBroadcastJob implements BroadcastJob {
+
+        private final List<HippoEvent> published = new ArrayList<>();
+        private long lastProcessed;
+
+        private TestBroadcastJob(final long lastProcessed) {
+            this.lastProcessed = lastProcessed;
+        }
+
+        @Override
+        public String getEventCategory() {
+            return null;
+        }
+
+        @Override
+        public String getChannelName() {
+            return "journal";
+        }
+
+        @Override
+        public long getLastProcessed() {
+            return lastProcessed;
+        }
+
+        @Override
+        public void setLastProcessed(final long time) {
+            lastProcessed = time;
+        }
+
+        @Override
+        public void publish(final HippoEvent event) {
+            published.add(event);
+        }
+
+        private List<String> getPublishedActions() {
+            final List<String> actions = new ArrayList<>();
+            for (HippoEvent event : published) {
+                actions.add(event.action());
+            }
+            published.clear();
+            return actions;
+        }
+    }
+
+    private static class TestRevisionEvent implements RevisionEvent {
+
+        private final String path;
+        private final long revision;
+        private final long date;
+
+        private TestRevisionEvent(final String path, final long revision, final long date) {
+            this.path = path;
+            this.revision = revision;
+            this.date = date;
+        }
+
+        @Override
+        public long getRevision() {
+            return revision;
+        }
+
+        @Override
+        public int getType() {
+            return Event.NODE_ADDED;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public String getUserID() {
+            return null;
+        }
+
+        @Override
+        public String getIdentifier() {
+            return null;
+        }
+
+        @Override
+        public Map getInfo() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public String getUserData() {
+            return null;
+        }
+
+        @Override
+        public long getDate() {
+            return date;
+        }
+    }
+
+    /**
+     * Event journal over a list of events in journal order
+     */
+    private static class TestRevisionEventJournal implements RevisionEventJournal {
+
+        private final List<TestRevisionEvent> events = new ArrayList<>();
+        private int position;
+
+        private void add(final String path, final long revision, final long date) {
+            events.add(new TestRevisionEvent(path, revision, date));
+        }
+
+        @Override
+        public void skipToRevision(final long revision) {
+            position = 0;
+            while (position < events.size() && events.get(position).getRevision() <= revision) {
+                position++;
+            }
+        }
+
+        @Override
+        public void skipTo(final long date) {
+            position = 0;
+            while (position < events.size() && events.get(position).getDate() <= date) {
+                position++;
+            }
+        }
+
+        @Override
+        public RevisionEvent nextEvent() {
+            return events.get(position++);
+        }
+
+        @Override
+        public void skip(final long skipNum) {
+            position += skipNum;
+        }
+
+        @Override
+        public long getSize() {
+            return -1;
+        }
+
+        @Override
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < events.size();
+        }
+
+        @Override
+        public Object next() {
+            return nextEvent();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private class TestJournalBroadcaster extends Broadcaster {
+
+        private final TestRevisionEventJournal journal;
+        private final JobOffer jobOffer;
+
+        private TestJournalBroadcaster(final TestBroadcastJob job, final TestRevisionEventJournal journal) {
+            this(new JobOffer(job), journal);
+        }
+
+        private TestJournalBroadcaster(final JobOffer jobOffer, final TestRevisionEventJournal journal) {
+            super(session, jobOffer);
+            this.jobOffer = jobOffer;
+            this.journal = journal;
+            setUseEventJournal(true);
+            setQueryLimit(-1);
+            setMaxEventAge(-1);
+        }
+
+        @Override
+        protected RevisionEventJournal getEventJournal() {
+            return journal;
+        }
+
+        /**
+         * Runs the job once
+         */
+        private void runOnce() {
+            jobOffer.offered = false;
+            run();
+        }
+    }
+
+    private static class JobOffer implements BroadcastService {
+
+        private final BroadcastJob job;
+        private boolean offered;
+
+        private JobOffer(final BroadcastJob job) {
+            this.job = job;
+        }
+
+        @Override
+        public BroadcastJob getNextJob() {
+            if (offered) {
+                return null;
+            }
+            offered = true;
+            return job;
+        }
+    }
+
+    private static final String JOURNAL_LOG_FOLDER = "/hippo:log/broadcastmoduletest";
+
     @Override
     public void setUp() throws Exception {
         super.setUp();
@@ -81,6 +305,9 @@ public class BroadcastModuleTest extends RepositoryTestCase {
 
     @Override
     public void tearDown() throws Exception {
+        if (session.nodeExists(JOURNAL_LOG_FOLDER)) {
+            session.getNode(JOURNAL_LOG_FOLDER).remove();
+        }
         for (Node node : new NodeIterable(session.getNode("/hippo:configuration/hippo:modules/broadcast/hippo:moduleconfig").getNodes())) {
             node.remove();
         }
@@ -139,6 +366,111 @@ public class BroadcastModuleTest extends RepositoryTestCase {
 
     }
 
+    private String addLogItem(final String name, final long timestamp) throws RepositoryException {
+        final Node folder = session.nodeExists(JOURNAL_LOG_FOLDER) ? session.getNode(JOURNAL_LOG_FOLDER)
+                : session.getNode("/hippo:log").addNode("broadcastmoduletest", "hippolog:folder");
+        final Node item = folder.addNode(name, "hippolog:item");
+        item.setProperty("hippolog:action", name);
+        item.setProperty("hippolog:timestamp", timestamp);
+        session.save();
+        return item.getPath();
+    }
+
+    private static String getLogItemPath(final String name) {
+        return JOURNAL_LOG_FOLDER + "/" + name;
+    }
+
+    @Test
+    public void journal_items_are_published_once_and_the_maximum_timestamp_is_stored() throws Exception {
+        final long now = System.currentTimeMillis();
+        final TestRevisionEventJournal journal = new TestRevisionEventJournal();
+        // the item of the second cluster node is saved later, but has an earlier timestamp
+        journal.add(addLogItem("first", now - 2000), 1, now - 2000);
+        journal.add(addLogItem("second", now - 3000), 2, now - 1000);
+
+        final TestBroadcastJob job = new TestBroadcastJob(-1L);
+        final TestJournalBroadcaster broadcaster = new TestJournalBroadcaster(job, journal);
+        broadcaster.runOnce();
+        assertEquals(asList("first", "second"), job.getPublishedActions());
+        assertEquals(now - 2000, job.getLastProcessed());
+
+        broadcaster.runOnce();
+        assertTrue(job.getPublishedActions().isEmpty());
+        assertEquals(now - 2000, job.getLastProcessed());
+
+        // an item of a later revision is published, even if its timestamp is older than the last processed one
+        journal.add(addLogItem("third", now - 2500), 3, now - 500);
+        broadcaster.runOnce();
+        assertEquals(asList("third"), job.getPublishedActions());
+        assertEquals(now - 2000, job.getLastProcessed());
+    }
+
+    @Test
+    public void journal_revision_of_an_item_that_is_not_yet_available_is_read_again() throws Exception {
+        final long now = System.currentTimeMillis();
+        final TestRevisionEventJournal journal = new TestRevisionEventJournal();
+        journal.add(addLogItem("first", now - 2000), 1, now - 2000);
+        // saved on another cluster node and not yet synced to this one
+        journal.add(getLogItemPath("second"), 2, now);
+
+        final TestBroadcastJob job = new TestBroadcastJob(-1L);
+        final TestJournalBroadcaster broadcaster = new TestJournalBroadcaster(job, journal);
+        broadcaster.runOnce();
+        assertEquals(asList("first"), job.getPublishedActions());
+
+        addLogItem("second", now);
+        broadcaster.runOnce();
+        assertEquals(asList("second"), job.getPublishedActions());
+        assertEquals(now, job.getLastProcessed());
+    }
+
+    @Test
+    public void journal_items_removed_before_the_grace_period_are_skipped() throws Exception {
+        final long now = System.currentTimeMillis();
+        final TestRevisionEventJournal journal = new TestRevisionEventJournal();
+        journal.add(getLogItemPath("removed"), 1, now - 5 * 60 * 1000L);
+        journal.add(addLogItem("first", now - 1000), 2, now - 1000);
+
+        final TestBroadcastJob job = new TestBroadcastJob(-1L);
+        new TestJournalBroadcaster(job, journal).runOnce();
+        assertEquals(asList("first"), job.getPublishedActions());
+    }
+
+    @Test
+    public void journal_query_limit_only_ends_after_complete_revisions() throws Exception {
+        final long now = System.currentTimeMillis();
+        final TestRevisionEventJournal journal = new TestRevisionEventJournal();
+        journal.add(addLogItem("first", now - 3000), 1, now - 3000);
+        journal.add(addLogItem("second", now - 3000), 1, now - 3000);
+        journal.add(addLogItem("third", now - 2000), 2, now - 2000);
+
+        final TestBroadcastJob job = new TestBroadcastJob(-1L);
+        final TestJournalBroadcaster broadcaster = new TestJournalBroadcaster(job, journal);
+        broadcaster.setQueryLimit(1);
+        broadcaster.runOnce();
+        assertEquals(asList("first", "second"), job.getPublishedActions());
+
+        broadcaster.runOnce();
+        assertEquals(asList("third"), job.getPublishedActions());
+    }
+
+    @Test
+    public void journal_items_are_not_published_again_after_a_restart() throws Exception {
+        final long now = System.currentTimeMillis();
+        final TestRevisionEventJournal journal = new TestRevisionEventJournal();
+        journal.add(addLogItem("first", now - 2000), 1, now - 2000);
+        journal.add(addLogItem("second", now - 1000), 2, now - 1000);
+
+        final TestBroadcastJob job = new TestBroadcastJob(-1L);
+        new TestJournalBroadcaster(job, journal).runOnce();
+        assertEquals(asList("first", "second"), job.getPublishedActions());
+
+        journal.add(addLogItem("third", now), 3, now);
+        // a new broadcaster does not know the processed revision and starts from the last processed timestamp
+        new TestJournalBroadcaster(job, journal).runOnce();
+        assertEquals(asList("third"), job.getPublishedActions());
+    }
+
     private void waitForEvent(final TestEventListener listener) throws Exception {
         int n = 101;
         while (n-- > 0) {
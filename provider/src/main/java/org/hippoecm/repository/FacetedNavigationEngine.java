@@ -249,6 +249,25 @@ public interface FacetedNavigationEngine<Q extends FacetedNavigationEngine.Query
          * @return an iterator over java.lang.String.
          */
         public abstract Iterator<NodeId> iterator();
+
+        /**
+         * The id of the parent of a matched document as known by the engine, which allows callers to name the
+         * document without loading its state.
+         * @param nodeId a node id returned by {@link #iterator()}
+         * @return the parent id or <code>null</code> if the engine does not know it
+         */
+        public NodeId getParentId(NodeId nodeId) {
+            return null;
+        }
+
+        /**
+         * The name of a matched document as known by the engine.
+         * @param nodeId a node id returned by {@link #iterator()}
+         * @return the name or <code>null</code> if the engine does not know it
+         */
+        public Name getName(NodeId nodeId) {
+            return null;
+        }
     }
 
     /** An abstract class passed between invocations of the parse()
@@ -529,6 +529,35 @@ public class FacetedAuthorizationTest extends RepositoryTestCase {
         userTestData.getNode("doc/doc/link");
     }
 
+    @Test
+    public void testNewSessionCannotReadCompoundOfDepublishedDocument() throws RepositoryException {
+        Node testData = session.getRootNode().getNode(TEST_DATA_NODE);
+        final Node handle = testData.addNode("doc", "hippo:handle");
+        handle.addMixin("mix:referenceable");
+
+        Node doc = handle.addNode("doc", "hippo:authtestdocument");
+        doc.addMixin("hippo:container");
+        doc.setProperty("authtest", "canread");
+        final Node childNode = doc.addNode("link", "hippo:mirror");
+        childNode.setProperty("hippo:docbase", session.getRootNode().getIdentifier());
+        session.save();
+
+        // the compound is readable through its document, which is shared with other sessions of the same user
+        assertTrue(userSession.getRootNode().getNode(TEST_DATA_NODE).hasNode("doc/doc/link"));
+
+        doc.setProperty("authtest", "nothing");
+        session.save();
+
+        final Session otherSession = server.login(TEST_USER_ID, TEST_USER_PASS.toCharArray());
+        try {
+            Node userTestData = otherSession.getRootNode().getNode(TEST_DATA_NODE);
+            assertFalse("User can still read the compound of a depublished document", userTestData.hasNode("doc/doc/link"));
+            assertFalse(otherSession.nodeExists(childNode.getPath()));
+        } finally {
+            otherSession.logout();
+        }
+    }
+
     @Test
     public void testNodenameExpanders() throws RepositoryException {
 
@@ -324,6 +324,55 @@ public class ReferenceJcrPathAuthorizationTest extends RepositoryTestCase {
         }
     }
 
+    @Test
+    public void bob_can_read_test_folder_after_it_has_been_recreated() throws Exception {
+        Session bob = loginUser("bob");
+        try {
+            assertTrue(bob.nodeExists("/test/folder/testDocument"));
+        } finally {
+            bob.logout();
+        }
+
+        // the new folder has another identifier than the one the reference resolved to
+        session.getNode("/test/folder").remove();
+        final Node folder = session.getNode("/test").addNode("folder", "hippostd:folder");
+        folder.setProperty("hippostd:foldertype", new String[]{"foo", "bar"});
+        folder.addNode("testDocument", "hippo:testdocument").setProperty("testDocumentProp", "lux");
+        session.save();
+
+        bob = loginUser("bob");
+        try {
+            assertTrue(bob.nodeExists("/test/folder"));
+            assertTrue(bob.nodeExists("/test/folder/testDocument"));
+        } finally {
+            bob.logout();
+        }
+    }
+
+    @Test
+    public void downScopedBob_cannot_read_authDocument_after_it_has_been_created() throws Exception {
+        session.getNode("/test/folder/authDocument").remove();
+        session.save();
+
+        // the facet rule excluding the missing authDocument is skipped
+        Session downScopedBob = loginUser("downScopedBob");
+        try {
+            assertTrue(downScopedBob.nodeExists("/test/folder/testDocument"));
+        } finally {
+            downScopedBob.logout();
+        }
+
+        session.getNode("/test/folder").addNode("authDocument", "hippo:authtestdocument").setProperty("authDocumentProp", "foo");
+        session.save();
+
+        downScopedBob = loginUser("downScopedBob");
+        try {
+            assertTrue(downScopedBob.nodeExists("/test/folder/testDocument"));
+            assertFalse(downScopedBob.nodeExists("/test/folder/authDocument"));
+        } finally {
+            downScopedBob.logout();
+        }
+    }
 
     private void createAdminAuthRole(final Node pathFacetRuleDomain, final String user) throws RepositoryException {
         final Node bobIsAdmin = pathFacetRuleDomain.addNode(user, "hipposys:authrole");
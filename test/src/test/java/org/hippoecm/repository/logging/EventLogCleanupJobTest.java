@@ -1,5 +1,5 @@
 /*
- *  Copyright 2012-2013 Hippo B.V. (http://www.onehippo.com)
+ *  Copyright 2012-2017 Hippo B.V. (http://www.onehippo.com)
  *
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -15,6 +15,10 @@
  */
 package org.hippoecm.repository.logging;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
@@ -33,6 +37,7 @@ import org.onehippo.repository.scheduling.RepositoryJobExecutionContext;
 import org.onehippo.repository.testutils.RepositoryTestCase;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.fail;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.expect;
@@ -78,6 +83,7 @@ public class EventLogCleanupJobTest extends RepositoryTestCase {
         logEvent("userName", "className", "methodName");
         logEvent("userName", "className", "methodName");
         logEvent("userName", "className", "methodName");
+        eventLogger.flush();
 
         // run cleanup module with maximum items of 1 and no item timeout
         EventLogCleanupJob cleanupJob = new EventLogCleanupJob();
@@ -102,6 +108,7 @@ public class EventLogCleanupJobTest extends RepositoryTestCase {
         logEvent("userName", "className", "methodName");
         logEvent("userName", "className", "methodName");
         logEvent("userName", "className", "methodName");
+        eventLogger.flush();
 
         // run cleanup module with no maximum to the number of items and all items timed out
         EventLogCleanupJob cleanupJob = new EventLogCleanupJob();
@@ -121,6 +128,133 @@ public class EventLogCleanupJobTest extends RepositoryTestCase {
         assertNoEmptyFolders();
     }
 
+    @Test
+    public void testEventLogCleanupRemovesExpiredHourFolders() throws Exception {
+        final long now = System.currentTimeMillis();
+        final long threeHoursAgo = now - 3 * 3600 * 1000L;
+        for (int i = 0; i < 3; i++) {
+            eventLogger.logHippoEvent(new HippoEvent("repository").timestamp(threeHoursAgo));
+        }
+        eventLogger.logHippoEvent(new HippoEvent("repository").timestamp(now));
+        eventLogger.flush();
+
+        // run cleanup module with no maximum to the number of items and items timing out after an hour
+        EventLogCleanupJob cleanupJob = new EventLogCleanupJob();
+        final RepositoryJobExecutionContext executionContext = createMock(RepositoryJobExecutionContext.class);
+        expect(executionContext.createSystemSession()).andReturn(session.impersonate(new SimpleCredentials("admin", new char[] {})));
+        expect(executionContext.getAttribute("maxitems")).andReturn("-1");
+        expect(executionContext.getAttribute("minutestolive")).andReturn("60");
+        EasyMock.replay(executionContext);
+
+        cleanupJob.execute(executionContext);
+
+        final String clusterFolder = "/hippo:log/" + RepositoryLogger.getClusterNodeId(session);
+        session.refresh(false);
+        assertFalse(session.nodeExists(clusterFolder + "/" + RepositoryLogger.getFolderRelPath(threeHoursAgo)));
+        final Node hourFolder = session.getNode(clusterFolder + "/" + RepositoryLogger.getFolderRelPath(now));
+        // the remaining item is in one of the hash folders
+        assertEquals(1L, hourFolder.getNodes().getSize());
+        assertEquals(1L, hourFolder.getNodes().nextNode().getNodes().getSize());
+
+        assertNoEmptyFolders();
+    }
+
+    @Test
+    public void testEventLogCleanupRemovesLargeHourFolders() throws Exception {
+        final long now = System.currentTimeMillis();
+        final long threeHoursAgo = now - 3 * 3600 * 1000L;
+        // more items than fit in the initial batch
+        for (int i = 0; i < 1000; i++) {
+            eventLogger.logHippoEvent(new HippoEvent("repository").timestamp(threeHoursAgo));
+        }
+        eventLogger.logHippoEvent(new HippoEvent("repository").timestamp(now));
+        eventLogger.flush();
+
+        EventLogCleanupJob cleanupJob = new EventLogCleanupJob();
+        final RepositoryJobExecutionContext executionContext = createMock(RepositoryJobExecutionContext.class);
+        expect(executionContext.createSystemSession()).andReturn(session.impersonate(new SimpleCredentials("admin", new char[] {})));
+        expect(executionContext.getAttribute("maxitems")).andReturn("-1");
+        expect(executionContext.getAttribute("minutestolive")).andReturn("60");
+        EasyMock.replay(executionContext);
+
+        cleanupJob.execute(executionContext);
+
+        final String clusterFolder = "/hippo:log/" + RepositoryLogger.getClusterNodeId(session);
+        session.refresh(false);
+        assertFalse(session.nodeExists(clusterFolder + "/" + RepositoryLogger.getFolderRelPath(threeHoursAgo)));
+        QueryManager queryManager = session.getWorkspace().getQueryManager();
+        NodeIterator nodes = queryManager.createQuery("SELECT * FROM hippolog:item ORDER BY hippolog:timestamp ASC", Query.SQL).execute().getNodes();
+        assertEquals(1l, ((HippoNodeIterator)nodes).getTotalSize());
+
+        assertNoEmptyFolders();
+    }
+
+    @Test
+    public void testEventLogCleanupMaxItemsKeepsNewestItemsOfHour() throws Exception {
+        final long now = System.currentTimeMillis();
+        // the start of the current hour, such that all items are in the same hour folder
+        final long hourStart = now - now % (3600 * 1000L);
+        eventLogger.logHippoEvent(new HippoEvent("repository").timestamp(hourStart - 3600 * 1000L));
+        for (int i = 1; i <= 3; i++) {
+            eventLogger.logHippoEvent(new HippoEvent("repository").timestamp(hourStart + i));
+        }
+        eventLogger.flush();
+
+        EventLogCleanupJob cleanupJob = new EventLogCleanupJob();
+        final RepositoryJobExecutionContext executionContext = createMock(RepositoryJobExecutionContext.class);
+        expect(executionContext.createSystemSession()).andReturn(session.impersonate(new SimpleCredentials("admin", new char[] {})));
+        expect(executionContext.getAttribute("maxitems")).andReturn("2");
+        expect(executionContext.getAttribute("minutestolive")).andReturn("-1");
+        EasyMock.replay(executionContext);
+
+        cleanupJob.execute(executionContext);
+
+        final String clusterFolder = "/hippo:log/" + RepositoryLogger.getClusterNodeId(session);
+        session.refresh(false);
+        assertFalse(session.nodeExists(clusterFolder + "/" + RepositoryLogger.getFolderRelPath(hourStart - 3600 * 1000L)));
+        final Set<Long> timestamps = new HashSet<>();
+        final Node hourFolder = session.getNode(clusterFolder + "/" + RepositoryLogger.getFolderRelPath(hourStart));
+        for (Node hashFolder : new NodeIterable(hourFolder.getNodes())) {
+            for (Node item : new NodeIterable(hashFolder.getNodes())) {
+                timestamps.add(item.getProperty("hippolog:timestamp").getLong());
+            }
+        }
+        assertEquals(new HashSet<>(Arrays.asList(hourStart + 2, hourStart + 3)), timestamps);
+
+        assertNoEmptyFolders();
+    }
+
+    @Test
+    public void testEventLogCleanupRemovesLegacyItems() throws Exception {
+        final long now = System.currentTimeMillis();
+        eventLogger.logHippoEvent(new HippoEvent("repository").timestamp(now));
+        eventLogger.flush();
+        // an item in the random folder layout of previous versions
+        final String clusterFolder = "/hippo:log/" + RepositoryLogger.getClusterNodeId(session);
+        final Node legacyFolder = session.getNode(clusterFolder).addNode("a", "hippolog:folder");
+        final Node legacyItem = legacyFolder.addNode("b", "hippolog:folder").addNode("c", "hippolog:folder")
+                .addNode("d", "hippolog:item");
+        legacyItem.setProperty("hippolog:timestamp", now - 3 * 3600 * 1000L);
+        session.save();
+
+        EventLogCleanupJob cleanupJob = new EventLogCleanupJob();
+        final RepositoryJobExecutionContext executionContext = createMock(RepositoryJobExecutionContext.class);
+        expect(executionContext.createSystemSession()).andReturn(session.impersonate(new SimpleCredentials("admin", new char[] {})));
+        expect(executionContext.getAttribute("maxitems")).andReturn("-1");
+        expect(executionContext.getAttribute("minutestolive")).andReturn("60");
+        EasyMock.replay(executionContext);
+
+        cleanupJob.execute(executionContext);
+
+        session.refresh(false);
+        assertFalse(session.nodeExists(clusterFolder + "/a"));
+        QueryManager queryManager = session.getWorkspace().getQueryManager();
+        NodeIterator nodes = queryManager.createQuery("SELECT * FROM hippolog:item ORDER BY hippolog:timestamp ASC", Query.SQL).execute().getNodes();
+        assertEquals(1l, ((HippoNodeIterator)nodes).getTotalSize());
+
+        assertNoEmptyFolders();
+    }
+
     private void assertNoEmptyFolders() throws RepositoryException {
         final Node root = session.getNode("/hippo:log");
         assertNoEmptyFolders(root);
@@ -131,7 +265,7 @@ public class EventLogCleanupJobTest extends RepositoryTestCase {
             fail("Empty hippolog:folder: " + node.getPath());
         }
         for (Node child : new NodeIterable(node.getNodes())) {
-            if (child.isNodeType("hippolog:folder") && child.getName().length() == 1) {
+            if (child.isNodeType("hippolog:folder") && child.getDepth() > 2) {
                 assertNoEmptyFolders(child);
             }
         }
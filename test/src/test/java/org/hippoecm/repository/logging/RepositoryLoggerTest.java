@@ -17,7 +17,9 @@ package org.hippoecm.repository.logging;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
 
+import org.hippoecm.repository.util.NodeIterable;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -26,6 +28,7 @@ import org.onehippo.repository.testutils.RepositoryTestCase;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
 
 public class RepositoryLoggerTest extends RepositoryTestCase {
 
@@ -45,27 +48,37 @@ public class RepositoryLoggerTest extends RepositoryTestCase {
     public void testCreateRepositoryLogger() throws Exception {
         final RepositoryLogger repositoryLogger = new RepositoryLogger();
         repositoryLogger.initialize(session);
-        assertTrue(session.itemExists("/hippo:log/" + RepositoryLogger.getClusterNodeId(session)));
+        try {
+            assertTrue(session.itemExists("/hippo:log/" + RepositoryLogger.getClusterNodeId(session)));
+        } finally {
+            repositoryLogger.shutdown();
+        }
     }
 
     @Test
     public void testCreateLogNode() throws Exception {
         final RepositoryLogger repositoryLogger = new RepositoryLogger();
         repositoryLogger.initialize(session);
-
-        HippoEvent event = new HippoEvent("application");
-        event.user("user").category("category").result("result").action("action");
-        event.message("message").timestamp(System.currentTimeMillis()).set("residual", true);
-        repositoryLogger.logHippoEvent(event);
+        try {
+            HippoEvent event = new HippoEvent("application");
+            event.user("user").category("category").result("result").action("action");
+            event.message("message").timestamp(System.currentTimeMillis()).set("residual", true);
+            repositoryLogger.logHippoEvent(event);
+            repositoryLogger.flush();
+        } finally {
+            repositoryLogger.shutdown();
+        }
 
         Node logFolder = session.getNode("/hippo:log/" + RepositoryLogger.getClusterNodeId(session));
         Node currentNode = logFolder;
-        for (int i = 0; i < 4; i++) {
+        // year, month, day, hour and hash folder
+        for (int i = 0; i < 6; i++) {
             NodeIterator nodes = currentNode.getNodes();
             assertTrue("Node " + currentNode.getPath() + " should have child", nodes.hasNext());
             currentNode = nodes.nextNode();
         }
         Node logEvent = currentNode;
+        assertTrue(logEvent.isNodeType("hippolog:item"));
         assertEquals("user", logEvent.getProperty("hippolog:user").getString());
         assertEquals("category", logEvent.getProperty("hippolog:category").getString());
         assertEquals("application", logEvent.getProperty("hippolog:application").getString());
@@ -75,4 +88,104 @@ public class RepositoryLoggerTest extends RepositoryTestCase {
         assertEquals(true, logEvent.getProperty("hippolog:residual").getBoolean());
     }
 
+    @Test
+    public void testLogNodesAreBucketedByHour() throws Exception {
+        final long timestamp = System.currentTimeMillis();
+        final RepositoryLogger repositoryLogger = new RepositoryLogger();
+        repositoryLogger.initialize(session);
+        try {
+            for (int i = 0; i < 3; i++) {
+                repositoryLogger.logHippoEvent(new HippoEvent("application").timestamp(timestamp));
+            }
+            repositoryLogger.logHippoEvent(new HippoEvent("application").timestamp(timestamp - 3600 * 1000L));
+        } finally {
+            // shutting down writes the queued events
+            repositoryLogger.shutdown();
+        }
+
+        final String clusterFolder = "/hippo:log/" + RepositoryLogger.getClusterNodeId(session);
+        final Node hourFolder = session.getNode(clusterFolder + "/" + RepositoryLogger.getFolderRelPath(timestamp));
+        assertEquals(3, countItems(hourFolder));
+        final Node previousHourFolder = session.getNode(clusterFolder + "/"
+                + RepositoryLogger.getFolderRelPath(timestamp - 3600 * 1000L));
+        assertEquals(1, countItems(previousHourFolder));
+    }
+
+    @Test
+    public void testLogNodesAreSpreadOverHashFolders() throws Exception {
+        final long timestamp = System.currentTimeMillis();
+        final RepositoryLogger repositoryLogger = new RepositoryLogger();
+        repositoryLogger.initialize(session);
+        try {
+            for (int i = 0; i < 20; i++) {
+                repositoryLogger.logHippoEvent(new HippoEvent("application").timestamp(timestamp));
+            }
+        } finally {
+            repositoryLogger.shutdown();
+        }
+
+        final String clusterFolder = "/hippo:log/" + RepositoryLogger.getClusterNodeId(session);
+        final Node hourFolder = session.getNode(clusterFolder + "/" + RepositoryLogger.getFolderRelPath(timestamp));
+        assertEquals(20, countItems(hourFolder));
+        assertTrue(hourFolder.getNodes().getSize() > 1);
+        for (Node hashFolder : new NodeIterable(hourFolder.getNodes())) {
+            assertTrue(hashFolder.isNodeType("hippolog:folder"));
+            for (Node item : new NodeIterable(hashFolder.getNodes())) {
+                assertEquals(hashFolder.getName(), RepositoryLogger.getHashFolderName(item.getName()));
+            }
+        }
+    }
+
+    @Test
+    public void testWriterSurvivesEventThatCannotBeLogged() throws Exception {
+        final long timestamp = System.currentTimeMillis();
+        final RepositoryLogger repositoryLogger = new RepositoryLogger();
+        repositoryLogger.initialize(session);
+        final String clusterFolder = "/hippo:log/" + RepositoryLogger.getClusterNodeId(session);
+        final String hourFolderPath = clusterFolder + "/" + RepositoryLogger.getFolderRelPath(timestamp);
+        try {
+            repositoryLogger.logHippoEvent(new HippoEvent("application").timestamp(timestamp).set("residual", new Object() {
+                @Override
+                public String toString() {
+                    throw new IllegalStateException("Deliberate exception for testing");
+                }
+            }));
+            repositoryLogger.logHippoEvent(new HippoEvent("application").timestamp(timestamp));
+            waitForItems(hourFolderPath, 1);
+
+            // the writer thread still writes events
+            repositoryLogger.logHippoEvent(new HippoEvent("application").timestamp(timestamp));
+            waitForItems(hourFolderPath, 2);
+        } finally {
+            repositoryLogger.shutdown();
+        }
+        assertEquals(2, countItems(session.getNode(hourFolderPath)));
+    }
+
+    private void waitForItems(final String hourFolderPath, final int expected) throws Exception {
+        final long deadline = System.currentTimeMillis() + 10000L;
+        while (System.currentTimeMillis() < deadline) {
+            if (session.nodeExists(hourFolderPath) && countItems(session.getNode(hourFolderPath)) >= expected) {
+                return;
+            }
+            Thread.sleep(50);
+        }
+        fail("Expected " + expected + " items in " + hourFolderPath);
+    }
+
+    @Test
+    public void testFolderRelPathIsInUtc() {
+        // 2017-03-26 01:30 UTC, the hour at which daylight saving time starts in Europe
+        final long timestamp = 1490491800000L;
+        assertEquals("2017/03/26/01", RepositoryLogger.getFolderRelPath(timestamp));
+    }
+
+    private static long countItems(final Node hourFolder) throws RepositoryException {
+        long items = 0;
+        for (Node hashFolder : new NodeIterable(hourFolder.getNodes())) {
+            items += hashFolder.getNodes().getSize();
+        }
+        return items;
+    }
+
 }
@@ -67,6 +67,9 @@ public class LockManagerRefreshTest extends AbstractLockManagerTest {
         // assert the lastModified is also bumped:
         assertTrue(getLastModifiedTime(key) > lastModified);
 
+        assertTrue(dbLockManager.getStats().getRefreshedLockCount() > 0);
+        assertEquals(1, dbLockManager.getStats().getHeldLocks());
+
         runnable.keepAlive = false;
         // after the thread is finished, the lock manager should have no locks any more
         lockThread.join();
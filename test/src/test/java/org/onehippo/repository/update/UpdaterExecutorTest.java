@@ -1,5 +1,5 @@
 /*
- *  Copyright 2012-2013 Hippo B.V. (http://www.onehippo.com)
+ *  Copyright 2012-2017 Hippo B.V. (http://www.onehippo.com)
  *
  *  Licensed under the Apache License, Version 2.0 (the "License");
  *  you may not use this file except in compliance with the License.
@@ -15,15 +15,27 @@
  */
 package org.onehippo.repository.update;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
+import javax.jcr.Session;
 
+import org.apache.commons.io.IOUtils;
 import org.hippoecm.repository.util.JcrUtils;
 import org.junit.Test;
 import org.onehippo.repository.testutils.RepositoryTestCase;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 
 public class UpdaterExecutorTest extends RepositoryTestCase {
@@ -78,6 +90,195 @@ public class UpdaterExecutorTest extends RepositoryTestCase {
         testRunQueryVisitor(false, true);
     }
 
+    @Test
+    public void testRunPathVisitorInPartitions() throws Exception {
+        final String[] content = new String[] {
+                "/hippo:configuration/hippo:update/hippo:registry/partitiontest", "hipposys:updaterinfo",
+                "hipposys:class", "org.onehippo.repository.update.UpdaterExecutorTest$TestUpdater",
+                "hipposys:path", "/test"
+        };
+        build(content, session);
+        final Node updaterNode = session.getNode("/hippo:configuration/hippo:update/hippo:registry/partitiontest");
+        updaterNode.setProperty("hipposys:threads", 2L);
+        session.save();
+
+        final UpdaterExecutor updaterExecutor = new UpdaterExecutor(updaterNode, session);
+        updaterExecutor.execute();
+        updaterExecutor.destroy();
+
+        assertEquals(2, JcrUtils.getLongProperty(updaterNode, "hipposys:updatedcount", -1L).longValue());
+        assertEquals(1, JcrUtils.getLongProperty(updaterNode, "hipposys:failedcount", -1L).longValue());
+        assertEquals(2, JcrUtils.getLongProperty(updaterNode, "hipposys:skippedcount", -1L).longValue());
+        assertFalse(updaterNode.hasProperty("hipposys:checkpoints"));
+        assertEquals("updated", JcrUtils.getStringProperty(session.getNode("/test/bar"), "qux", null));
+        assertEquals("updated", JcrUtils.getStringProperty(session.getNode("/test/bar/foo"), "qux", null));
+    }
+
+    @Test
+    public void testRunPathVisitorResumesFromCheckpoint() throws Exception {
+        final Node updaterNode = createRecordingUpdater("resumetest", "hipposys:path", "/test");
+        // a previous execution visited the first two nodes in the order of their identifiers
+        final List<String> identifiers = getSortedIdentifiers("/test", "/test/foo", "/test/foo/bar", "/test/bar", "/test/bar/foo");
+        updaterNode.setProperty("hipposys:checkpoints", new String[] { "path:2:" + identifiers.get(1) });
+        session.save();
+
+        runUpdater(updaterNode);
+
+        assertEquals(getPaths(identifiers.subList(2, 5)), RecordingUpdater.visited);
+        assertFalse(updaterNode.hasProperty("hipposys:checkpoints"));
+    }
+
+    @Test
+    public void testRunQueryVisitorResumesWhenResultOrderChanged() throws Exception {
+        final Node updaterNode = createRecordingUpdater("ordertest", "hipposys:query", "/jcr:root/test//element(*, nt:unstructured)");
+        // a previous execution visited the first three nodes, but in the meantime the position of the checkpoint
+        // node in the query result changed
+        final List<String> identifiers = getSortedIdentifiers("/test/foo", "/test/foo/bar", "/test/bar", "/test/bar/foo");
+        updaterNode.setProperty("hipposys:checkpoints", new String[] { "query:1:" + identifiers.get(2) });
+        session.save();
+
+        runUpdater(updaterNode);
+
+        assertEquals(getPaths(identifiers.subList(3, 4)), RecordingUpdater.visited);
+    }
+
+    @Test
+    public void testRunQueryVisitorResumesAfterRemovedCheckpointNode() throws Exception {
+        final Node updaterNode = createRecordingUpdater("removedtest", "hipposys:query", "/jcr:root/test//element(*, nt:unstructured)");
+        final Node removed = session.getNode("/test").addNode("baz", "nt:unstructured");
+        session.save();
+        final String checkpointId = removed.getIdentifier();
+        removed.remove();
+        updaterNode.setProperty("hipposys:checkpoints", new String[] { "query:3:" + checkpointId });
+        session.save();
+
+        runUpdater(updaterNode);
+
+        // the nodes sorting after the removed checkpoint node have not been visited yet
+        final List<String> expected = new ArrayList<>();
+        for (String identifier : getSortedIdentifiers("/test/foo", "/test/foo/bar", "/test/bar", "/test/bar/foo")) {
+            if (identifier.compareTo(checkpointId) > 0) {
+                expected.add(session.getNodeByIdentifier(identifier).getPath());
+            }
+        }
+        assertEquals(expected, RecordingUpdater.visited);
+    }
+
+    @Test
+    public void testResumeInQueryPhaseSkipsPathPhase() throws Exception {
+        final Node updaterNode = createRecordingUpdater("phasetest", "hipposys:path", "/test");
+        updaterNode.setProperty("hipposys:query", "/jcr:root/test//element(*, nt:unstructured)");
+        // a previous execution completed the path phase and started the query phase
+        updaterNode.setProperty("hipposys:checkpoints", new String[] { "query:0:" });
+        session.save();
+
+        runUpdater(updaterNode);
+
+        final List<String> identifiers = getSortedIdentifiers("/test/foo", "/test/foo/bar", "/test/bar", "/test/bar/foo");
+        assertEquals(getPaths(identifiers), RecordingUpdater.visited);
+    }
+
+    @Test
+    public void testRunPathVisitorRestoresPathsSavedWithCheckpoint() throws Exception {
+        final String[] content = new String[] {
+                "/hippo:configuration/hippo:update/hippo:registry/restoretest", "hipposys:updaterinfo",
+                "hipposys:class", "org.onehippo.repository.update.UpdaterExecutorTest$TestUpdater",
+                "hipposys:path", "/test"
+        };
+        build(content, session);
+        final Node updaterNode = session.getNode("/hippo:configuration/hippo:update/hippo:registry/restoretest");
+        // a previous execution that crashed after visiting all nodes saved its paths along with the checkpoint,
+        // partly in delta properties
+        final List<String> identifiers = getSortedIdentifiers("/test", "/test/foo", "/test/foo/bar", "/test/bar", "/test/bar/foo");
+        updaterNode.setProperty("hipposys:checkpoints", new String[] { "path:5:" + identifiers.get(4) });
+        updaterNode.setProperty("hipposys:updatedcount", 2L);
+        updaterNode.setProperty("hipposys:skippedcount", 2L);
+        updaterNode.setProperty("hipposys:failedcount", 1L);
+        setBinaryProperty(updaterNode, "hipposys:skipped", "/test\n");
+        setBinaryProperty(updaterNode, "hipposys:skippeddelta", "/test/foo\n");
+        setBinaryProperty(updaterNode, "hipposys:faileddelta", "/test/foo/bar\n");
+        setBinaryProperty(updaterNode, "hipposys:updateddelta", "/test/bar\n/test/bar/foo\n");
+        session.save();
+
+        final UpdaterExecutor updaterExecutor = new UpdaterExecutor(updaterNode, session);
+        updaterExecutor.execute();
+        updaterExecutor.destroy();
+
+        assertEquals(Arrays.asList("/test", "/test/foo"), getPaths(updaterNode, "hipposys:skipped"));
+        assertEquals(Arrays.asList("/test/foo/bar"), getPaths(updaterNode, "hipposys:failed"));
+        assertEquals(Arrays.asList("/test/bar", "/test/bar/foo"), getPaths(updaterNode, "hipposys:updated"));
+        assertFalse(updaterNode.hasProperty("hipposys:updateddelta"));
+        assertFalse(updaterNode.hasProperty("hipposys:faileddelta"));
+        assertFalse(updaterNode.hasProperty("hipposys:skippeddelta"));
+    }
+
+    @Test
+    public void testPartitionsInitializeTheirOwnVisitors() throws Exception {
+        final String[] content = new String[] {
+                "/hippo:configuration/hippo:update/hippo:registry/initializetest", "hipposys:updaterinfo",
+                "hipposys:class", "org.onehippo.repository.update.UpdaterExecutorTest$CountingUpdater",
+                "hipposys:path", "/test"
+        };
+        build(content, session);
+        final Node updaterNode = session.getNode("/hippo:configuration/hippo:update/hippo:registry/initializetest");
+        updaterNode.setProperty("hipposys:threads", 2L);
+        session.save();
+
+        CountingUpdater.initialized.set(0);
+        CountingUpdater.destroyed.set(0);
+        final UpdaterExecutor updaterExecutor = new UpdaterExecutor(updaterNode, session);
+        updaterExecutor.execute();
+        updaterExecutor.destroy();
+
+        assertEquals(2, CountingUpdater.initialized.get());
+        assertEquals(2, CountingUpdater.destroyed.get());
+        assertEquals(2, JcrUtils.getLongProperty(updaterNode, "hipposys:updatedcount", -1L).longValue());
+    }
+
+    private Node createRecordingUpdater(final String name, final String propertyName, final String value) throws Exception {
+        final String[] content = new String[] {
+                "/hippo:configuration/hippo:update/hippo:registry/" + name, "hipposys:updaterinfo",
+                "hipposys:class", "org.onehippo.repository.update.UpdaterExecutorTest$RecordingUpdater",
+                propertyName, value
+        };
+        build(content, session);
+        RecordingUpdater.visited.clear();
+        return session.getNode("/hippo:configuration/hippo:update/hippo:registry/" + name);
+    }
+
+    private void runUpdater(final Node updaterNode) throws Exception {
+        final UpdaterExecutor updaterExecutor = new UpdaterExecutor(updaterNode, session);
+        updaterExecutor.execute();
+        updaterExecutor.destroy();
+    }
+
+    private List<String> getSortedIdentifiers(final String... paths) throws RepositoryException {
+        final List<String> identifiers = new ArrayList<>();
+        for (String path : paths) {
+            identifiers.add(session.getNode(path).getIdentifier());
+        }
+        Collections.sort(identifiers);
+        return identifiers;
+    }
+
+    private List<String> getPaths(final List<String> identifiers) throws RepositoryException {
+        final List<String> paths = new ArrayList<>();
+        for (String identifier : identifiers) {
+            paths.add(session.getNodeByIdentifier(identifier).getPath());
+        }
+        return paths;
+    }
+
+    private void setBinaryProperty(final Node node, final String propertyName, final String value) throws RepositoryException {
+        final InputStream stream = new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8));
+        node.setProperty(propertyName, session.getValueFactory().createBinary(stream));
+    }
+
+    private static List<String> getPaths(final Node node, final String propertyName) throws Exception {
+        try (InputStream stream = node.getProperty(propertyName).getBinary().getStream()) {
+            return IOUtils.readLines(stream, StandardCharsets.UTF_8);
+        }
+    }
 
     private void testRunPathVisitor(boolean revert, boolean dryRun) throws Exception {
         final String[] content = new String[] {
@@ -162,4 +363,35 @@ public class UpdaterExecutorTest extends RepositoryTestCase {
 
     }
 
+    @SuppressWarnings(value = "unused")
+    public static class RecordingUpdater extends TestUpdater {
+
+        private static final List<String> visited = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public boolean doUpdate(final Node node) throws RepositoryException {
+            visited.add(node.getPath());
+            return super.doUpdate(node);
+        }
+    }
+
+    @SuppressWarnings(value = "unused")
+    public static class CountingUpdater extends TestUpdater {
+
+        private static final AtomicInteger initialized = new AtomicInteger();
+        private static final AtomicInteger destroyed = new AtomicInteger();
+
+        @Override
+        public void initialize(final Session session) throws RepositoryException {
+            super.initialize(session);
+            initialized.incrementAndGet();
+        }
+
+        @Override
+        public void destroy() {
+            super.destroy();
+            destroyed.incrementAndGet();
+        }
+    }
+
 }